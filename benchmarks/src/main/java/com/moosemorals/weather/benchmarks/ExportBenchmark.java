@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.benchmarks;
+
+import com.moosemorals.weather.export.ColumnarExporter;
+import com.moosemorals.weather.export.CsvExporter;
+import com.moosemorals.weather.export.SeriesExporter;
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.series.HourlySeries;
+import com.moosemorals.weather.stub.ResponseGenerator;
+import com.moosemorals.weather.xml.WeatherParser;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLStreamException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Exporting a month of hourly history for a batch of locations, to a
+ * channel that throws the bytes away, so what's measured is the encoding
+ * rather than the disk.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ExportBenchmark {
+
+    @Param({"100"})
+    public int locations;
+
+    private HourlySeries series;
+    private String[] names;
+
+    @Setup
+    public void setUp() throws IOException, XMLStreamException {
+        byte[] body = new ResponseGenerator.Builder()
+                .setDays(30)
+                .setHoursPerDay(24)
+                .setSeed(30)
+                .build()
+                .toByteArray();
+        series = new HourlySeries((WeatherReport) new WeatherParser().parse(new ByteArrayInputStream(body)));
+        names = new String[locations];
+        for (int i = 0; i < locations; i += 1) {
+            names[i] = "Location " + i;
+        }
+    }
+
+    @Benchmark
+    public long csv() throws IOException {
+        Discard out = new Discard();
+        export(new CsvExporter.Builder().setChannel(out).build());
+        return out.written;
+    }
+
+    @Benchmark
+    public long columnar() throws IOException {
+        Discard out = new Discard();
+        export(new ColumnarExporter.Builder().setChannel(out).build());
+        return out.written;
+    }
+
+    private void export(SeriesExporter exporter) throws IOException {
+        try {
+            for (String name : names) {
+                exporter.write(name, series);
+            }
+        } finally {
+            exporter.close();
+        }
+    }
+
+    private static class Discard implements WritableByteChannel {
+
+        private long written = 0;
+        private boolean open = true;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            written += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.benchmarks;
+
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.series.HourlySeries;
+import com.moosemorals.weather.types.Astronomy;
+import com.moosemorals.weather.types.Current;
+import com.moosemorals.weather.types.DailyForecast;
+import com.moosemorals.weather.types.HourlyForecast;
+import com.moosemorals.weather.types.Location;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the model the way the parser does, without the XML, and turning
+ * the result into columns.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ModelBenchmark {
+
+    @Param({"3", "14"})
+    public int days;
+
+    @Param({"3", "1"})
+    public int timePeriod;
+
+    private DateTime start;
+    private WeatherReport report;
+
+    @Setup
+    public void setUp() {
+        start = new DateTime(2015, 7, 25, 0, 0, DateTimeZone.forID("Europe/London"));
+        report = buildReport();
+    }
+
+    @Benchmark
+    public Location location() {
+        return new Location.Builder()
+                .setName("Leamington Spa")
+                .setRegion("Warwickshire")
+                .setCountry("United Kingdom")
+                .setPopulation(49491)
+                .setTimezone(start.getZone())
+                .setLatitude(52.283f)
+                .setLongitude(-1.533f)
+                .build();
+    }
+
+    @Benchmark
+    public HourlyForecast hourly() {
+        return hourly(start);
+    }
+
+    @Benchmark
+    public WeatherReport report() {
+        return buildReport();
+    }
+
+    @Benchmark
+    public HourlySeries series() {
+        return new HourlySeries(report);
+    }
+
+    private WeatherReport buildReport() {
+        WeatherReport.Builder builder = new WeatherReport.Builder()
+                .setLocation(location())
+                .setWhen(start)
+                .setLanguage("en")
+                .setCurrent(new Current.Builder()
+                        .setObservationTime(new LocalTime(11, 50))
+                        .setTempC(18)
+                        .setTempF(64)
+                        .setWeatherCode(116)
+                        .setWeatherDesc("Partly Cloudy")
+                        .setWindspeedMiles(9)
+                        .setWindspeedKmph(15)
+                        .setWinddirDegree(240)
+                        .setWinddir16Point("WSW")
+                        .setPrecipMM(0.1f)
+                        .setHumidity(68)
+                        .setVisibility(10)
+                        .setPressure(1016)
+                        .setCloudcover(50)
+                        .setFeelsLikeC(18)
+                        .setFeelsLikeF(64)
+                        .build());
+
+        for (int d = 0; d < days; d += 1) {
+            DateTime date = start.plusDays(d);
+            builder.addDailyForecast(new DailyForecast.Builder()
+                    .setDate(date)
+                    .setMaxTempC(21)
+                    .setMaxTempF(70)
+                    .setMinTempC(11)
+                    .setMinTempF(52)
+                    .setUvIndex(5)
+                    .setAstronomy(new Astronomy.Builder()
+                            .setSunrise(date.withTime(5, 21, 0, 0))
+                            .setSunset(date.withTime(21, 2, 0, 0))
+                            .setMoonrise(date.withTime(14, 40, 0, 0))
+                            .setMoonset(date.withTime(0, 52, 0, 0))
+                            .build())
+                    .build());
+            for (int h = 0; h < 24; h += timePeriod) {
+                builder.addHourlyForecast(hourly(date.plusHours(h)));
+            }
+        }
+        return builder.build();
+    }
+
+    private static HourlyForecast hourly(DateTime time) {
+        return new HourlyForecast.Builder()
+                .setTime(time)
+                .setTempC(17)
+                .setTempF(63)
+                .setWindspeedMiles(8)
+                .setWindspeedKPH(13)
+                .setWinddirDegree(250)
+                .setWinddir16Point("WSW")
+                .setWeatherCode(176)
+                .setWeatherDesc("Patchy rain nearby")
+                .setWeatherIconUrl("http://cdn.worldweatheronline.net/images/wsymbols01_png_64/wsymbol_0009_light_rain_showers.png")
+                .setPrecipMM(0.4f)
+                .setHumidity(77)
+                .setVisibility(10)
+                .setPressureMb(1015)
+                .setCloudcover(62)
+                .setHeatIndexC(17)
+                .setHeatIndexF(63)
+                .setDewPointC(13)
+                .setDewPointF(55)
+                .setWindChillC(17)
+                .setWindChillF(63)
+                .setWindGustMiles(13)
+                .setWindGustKmph(21)
+                .setFeelsLikeC(17)
+                .setFeelsLikeF(63)
+                .setChanceOfRain(54)
+                .setChanceOfWindy(0)
+                .setChanceOfOvercast(72)
+                .setChanceOfSunny(12)
+                .setChanceOfFrost(0)
+                .setChanceOfFog(0)
+                .setChanceofSnow(0)
+                .setChanceOfThunder(0)
+                .setChanceOfRemdry(0)
+                .setChanceOfHightemp(0)
+                .build();
+    }
+}
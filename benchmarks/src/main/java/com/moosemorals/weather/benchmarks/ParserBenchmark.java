@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.benchmarks;
+
+import com.moosemorals.weather.reports.ErrorReport;
+import com.moosemorals.weather.reports.Report;
+import com.moosemorals.weather.xml.ErrorParser;
+import com.moosemorals.weather.xml.LocationParser;
+import com.moosemorals.weather.xml.WeatherParser;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLStreamException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing each fixture from memory, so the numbers don't include I/O.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ParserBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class WeatherFixture {
+
+        @Param({"sample.xml", "sample-utc.xml", "sample-lang-uk.xml", "sample-from-fetcher.xml", "sample-just-location.xml", "error-bad-location.xml", "error-no-key2.xml"})
+        public String fixture;
+
+        byte[] body;
+
+        @Setup
+        public void load() throws IOException {
+            body = Fixtures.load(fixture);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LocationFixture {
+
+        @Param({"search-result.xml", "search-error.xml"})
+        public String fixture;
+
+        byte[] body;
+
+        @Setup
+        public void load() throws IOException {
+            body = Fixtures.load(fixture);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ErrorFixture {
+
+        byte[] body;
+
+        @Setup
+        public void load() throws IOException {
+            body = Fixtures.load("error-no-key.xml");
+        }
+    }
+
+    @Benchmark
+    public Report weather(WeatherFixture state) throws IOException, XMLStreamException {
+        return new WeatherParser().parse(new ByteArrayInputStream(state.body));
+    }
+
+    @Benchmark
+    public Report location(LocationFixture state) throws IOException, XMLStreamException {
+        return new LocationParser().parse(new ByteArrayInputStream(state.body));
+    }
+
+    @Benchmark
+    public ErrorReport error(ErrorFixture state) throws IOException, XMLStreamException {
+        return new ErrorParser().parse(new ByteArrayInputStream(state.body));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.benchmarks;
+
+import com.moosemorals.weather.Util;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building request URLs, with the same parameters WeatherFetcher sends.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class UtilBenchmark {
+
+    private static final String ENDPOINT = "https://api.worldweatheronline.com/free/v2/weather.ashx";
+
+    private Map<String, String> param;
+    private String[] flat;
+
+    @Setup
+    public void setUp() {
+        param = new HashMap<>();
+        param.put("q", "Royal Leamington Spa, Warwickshire");
+        param.put("num_of_days", "3");
+        param.put("tp", "3");
+        param.put("format", "xml");
+        param.put("showlocaltime", "yes");
+        param.put("includeLocation", "yes");
+        param.put("lang", "uk");
+        param.put("key", "0123456789abcdef0123456789abc");
+        flat = Util.flattenMap(param);
+    }
+
+    @Benchmark
+    public String[] flattenMap() {
+        return Util.flattenMap(param);
+    }
+
+    @Benchmark
+    public String assembleURL() throws UnsupportedEncodingException {
+        return Util.assembleURL(ENDPOINT, flat);
+    }
+
+    @Benchmark
+    public String flattenAndAssemble() throws UnsupportedEncodingException {
+        return Util.assembleURL(ENDPOINT, Util.flattenMap(param));
+    }
+}
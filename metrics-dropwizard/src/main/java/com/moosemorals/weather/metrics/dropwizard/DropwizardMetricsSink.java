@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.metrics.dropwizard;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.moosemorals.weather.metrics.MetricsSink;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports fetcher telemetry to a Dropwizard Metrics registry. </p>
+ *
+ * Metric names start with a prefix (by default "weather") followed by the
+ * endpoint, parser or cache name, for example "weather.requests.search",
+ * "weather.status.200" or "weather.cache.response.hits".
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class DropwizardMetricsSink implements MetricsSink {
+
+    private final MetricRegistry registry;
+    private final String prefix;
+    private volatile int requestsPerSecondLeft = -1;
+    private volatile int requestsPerDayLeft = -1;
+
+    public DropwizardMetricsSink(MetricRegistry registry) {
+        this(registry, "weather");
+    }
+
+    public DropwizardMetricsSink(MetricRegistry registry, String prefix) {
+        if (registry == null) {
+            throw new NullPointerException("Registry not set");
+        }
+        this.registry = registry;
+        this.prefix = prefix;
+
+        registry.register(MetricRegistry.name(prefix, "quota", "perSecond"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return requestsPerSecondLeft;
+            }
+        });
+        registry.register(MetricRegistry.name(prefix, "quota", "perDay"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return requestsPerDayLeft;
+            }
+        });
+    }
+
+    @Override
+    public void requestSent(String endpoint, String target) {
+        registry.meter(MetricRegistry.name(prefix, "requests", endpoint)).mark();
+    }
+
+    @Override
+    public void responseReceived(String endpoint, int status, long bytes, long nanos) {
+        registry.meter(MetricRegistry.name(prefix, "status", Integer.toString(status))).mark();
+        registry.timer(MetricRegistry.name(prefix, "response", endpoint)).update(nanos, TimeUnit.NANOSECONDS);
+        registry.histogram(MetricRegistry.name(prefix, "bytes", endpoint)).update(bytes);
+    }
+
+    @Override
+    public void requestFailed(String endpoint, IOException cause) {
+        registry.meter(MetricRegistry.name(prefix, "failures", endpoint)).mark();
+    }
+
+    @Override
+    public void parsed(String parser, int elements, long nanos) {
+        registry.timer(MetricRegistry.name(prefix, "parse", parser)).update(nanos, TimeUnit.NANOSECONDS);
+        registry.histogram(MetricRegistry.name(prefix, "parse", parser, "elements")).update(elements);
+    }
+
+    @Override
+    public void errorReported(String type) {
+        registry.meter(MetricRegistry.name(prefix, "errors", type)).mark();
+    }
+
+    @Override
+    public void cacheHit(String cache) {
+        registry.meter(MetricRegistry.name(prefix, "cache", cache, "hits")).mark();
+    }
+
+    @Override
+    public void cacheMiss(String cache) {
+        registry.meter(MetricRegistry.name(prefix, "cache", cache, "misses")).mark();
+    }
+
+    @Override
+    public void quota(int requestsPerSecond, int requestsPerDay) {
+        if (requestsPerSecond >= 0) {
+            requestsPerSecondLeft = requestsPerSecond;
+        }
+        if (requestsPerDay >= 0) {
+            requestsPerDayLeft = requestsPerDay;
+        }
+    }
+}
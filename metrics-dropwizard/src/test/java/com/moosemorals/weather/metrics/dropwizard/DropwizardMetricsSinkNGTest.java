@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.metrics.dropwizard;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+/**
+ * Drives a DropwizardMetricsSink by hand and checks the registry.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class DropwizardMetricsSinkNGTest {
+
+    @Test
+    public void requestMetrics() {
+        MetricRegistry registry = new MetricRegistry();
+        DropwizardMetricsSink sink = new DropwizardMetricsSink(registry);
+
+        sink.requestSent("weather", "London");
+        sink.responseReceived("weather", 200, 1234, TimeUnit.MILLISECONDS.toNanos(50));
+        sink.requestSent("weather", "Paris");
+        sink.requestFailed("weather", new IOException("Connection refused"));
+
+        assertEquals(registry.meter("weather.requests.weather").getCount(), 2);
+        assertEquals(registry.meter("weather.status.200").getCount(), 1);
+        assertEquals(registry.meter("weather.failures.weather").getCount(), 1);
+        assertEquals(registry.timer("weather.response.weather").getCount(), 1);
+        assertEquals(registry.timer("weather.response.weather").getSnapshot().getMax(), TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(registry.histogram("weather.bytes.weather").getSnapshot().getMax(), 1234);
+    }
+
+    @Test
+    public void parseAndCacheMetrics() {
+        MetricRegistry registry = new MetricRegistry();
+        DropwizardMetricsSink sink = new DropwizardMetricsSink(registry);
+
+        sink.parsed("WeatherParser", 17, 1000);
+        sink.errorReported("QuotaError");
+        sink.cacheHit("response");
+        sink.cacheHit("response");
+        sink.cacheMiss("negative");
+
+        assertEquals(registry.timer("weather.parse.WeatherParser").getCount(), 1);
+        assertEquals(registry.histogram("weather.parse.WeatherParser.elements").getSnapshot().getMax(), 17);
+        assertEquals(registry.meter("weather.errors.QuotaError").getCount(), 1);
+        assertEquals(registry.meter("weather.cache.response.hits").getCount(), 2);
+        assertEquals(registry.meter("weather.cache.negative.misses").getCount(), 1);
+        assertFalse(registry.getMeters().containsKey("weather.cache.response.misses"));
+    }
+
+    @Test
+    public void quotaGauges() {
+        MetricRegistry registry = new MetricRegistry();
+        DropwizardMetricsSink sink = new DropwizardMetricsSink(registry);
+
+        Gauge<?> perSecond = registry.getGauges().get("weather.quota.perSecond");
+        Gauge<?> perDay = registry.getGauges().get("weather.quota.perDay");
+        assertNotNull(perSecond);
+        assertNotNull(perDay);
+        assertEquals(perSecond.getValue(), -1);
+        assertEquals(perDay.getValue(), -1);
+
+        sink.quota(4, 249);
+        assertEquals(perSecond.getValue(), 4);
+        assertEquals(perDay.getValue(), 249);
+
+        // Unknown values leave the last reading alone
+        sink.quota(-1, -1);
+        assertEquals(perSecond.getValue(), 4);
+        assertEquals(perDay.getValue(), 249);
+    }
+
+    @Test
+    public void customPrefix() {
+        MetricRegistry registry = new MetricRegistry();
+        DropwizardMetricsSink sink = new DropwizardMetricsSink(registry, "wwo");
+
+        sink.requestSent("search", "Lond");
+
+        assertEquals(registry.meter("wwo.requests.search").getCount(), 1);
+        assertTrue(registry.getGauges().containsKey("wwo.quota.perDay"));
+        assertFalse(registry.getMeters().containsKey("weather.requests.search"));
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void registryIsRequired() {
+        new DropwizardMetricsSink(null);
+    }
+}
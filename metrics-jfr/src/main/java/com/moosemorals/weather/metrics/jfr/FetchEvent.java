@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One request to the API, from sending it to the result being built.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+@Name("com.moosemorals.weather.Fetch")
+@Label("Weather Fetch")
+@Category({"World Weather Fetcher"})
+@Description("A request to the World Weather Online API")
+@StackTrace(false)
+class FetchEvent extends Event {
+
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("Target")
+    @Description("Location or search query asked for")
+    String target;
+
+    @Label("Status")
+    int status = -1;
+
+    @Label("Body Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Requests Left This Second")
+    int requestsPerSecond = -1;
+
+    @Label("Requests Left Today")
+    int requestsPerDay = -1;
+
+    @Label("Error")
+    @Description("Error type or network failure, if the fetch didn't work")
+    String error;
+}
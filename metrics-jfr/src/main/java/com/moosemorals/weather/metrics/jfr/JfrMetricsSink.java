@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.metrics.jfr;
+
+import com.moosemorals.weather.metrics.MetricsSink;
+import java.io.IOException;
+
+/**
+ * Reports fetcher telemetry as Flight Recorder events, so that fetches,
+ * parses and cache lookups show up in recordings next to GC and I/O. </p>
+ *
+ * Events are only built when a recording has them enabled, so the sink
+ * costs next to nothing when nobody is recording. A fetch event covers the
+ * time from the request being sent to the result being built, and is kept
+ * in a thread local between the two.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class JfrMetricsSink implements MetricsSink {
+
+    private final ThreadLocal<FetchEvent> current = new ThreadLocal<>();
+
+    @Override
+    public void requestSent(String endpoint, String target) {
+        FetchEvent event = new FetchEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.endpoint = endpoint;
+        event.target = target;
+        event.begin();
+        current.set(event);
+    }
+
+    @Override
+    public void responseReceived(String endpoint, int status, long bytes, long nanos) {
+        FetchEvent event = current.get();
+        if (event != null) {
+            event.status = status;
+            event.bytes = bytes;
+        }
+    }
+
+    @Override
+    public void requestFailed(String endpoint, IOException cause) {
+        FetchEvent event = current.get();
+        if (event != null) {
+            current.remove();
+            event.error = cause.toString();
+            event.commit();
+        }
+    }
+
+    @Override
+    public void parsed(String parser, int elements, long nanos) {
+        ParseEvent event = new ParseEvent();
+        if (event.shouldCommit()) {
+            event.parser = parser;
+            event.elements = elements;
+            event.parseTime = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void errorReported(String type) {
+        FetchEvent event = current.get();
+        if (event != null) {
+            event.error = type;
+        }
+    }
+
+    @Override
+    public void cacheHit(String cache) {
+        lookup(cache, true);
+    }
+
+    @Override
+    public void cacheMiss(String cache) {
+        lookup(cache, false);
+    }
+
+    @Override
+    public void quota(int requestsPerSecond, int requestsPerDay) {
+        FetchEvent event = current.get();
+        if (event != null) {
+            current.remove();
+            event.requestsPerSecond = requestsPerSecond;
+            event.requestsPerDay = requestsPerDay;
+            event.commit();
+        }
+    }
+
+    private static void lookup(String cache, boolean hit) {
+        CacheEvent event = new CacheEvent();
+        if (event.shouldCommit()) {
+            event.cache = cache;
+            event.hit = hit;
+            event.commit();
+        }
+    }
+}
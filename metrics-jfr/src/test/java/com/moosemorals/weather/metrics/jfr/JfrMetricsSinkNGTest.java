@@ -0,0 +1,200 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.metrics.jfr;
+
+import com.moosemorals.weather.WeatherFetcher;
+import com.moosemorals.weather.cache.MemoryCache;
+import com.moosemorals.weather.reports.FetchResult;
+import com.moosemorals.weather.stub.StubApiServer;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class JfrMetricsSinkNGTest {
+
+    private static final String FETCH = "com.moosemorals.weather.Fetch";
+    private static final String PARSE = "com.moosemorals.weather.Parse";
+    private static final String CACHE = "com.moosemorals.weather.Cache";
+
+    private StubApiServer server;
+    private Recording recording;
+
+    @BeforeMethod
+    public void setUp() {
+        recording = new Recording();
+        recording.enable(FETCH).withoutThreshold();
+        recording.enable(PARSE).withoutThreshold();
+        recording.enable(CACHE).withoutThreshold();
+        recording.start();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        recording.close();
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+    }
+
+    private List<RecordedEvent> stop(String type) throws IOException {
+        recording.stop();
+        Path file = Files.createTempFile("weather", ".jfr");
+        try {
+            recording.dump(file);
+            List<RecordedEvent> found = new ArrayList<>();
+            for (RecordedEvent e : RecordingFile.readAllEvents(file)) {
+                if (e.getEventType().getName().equals(type)) {
+                    found.add(e);
+                }
+            }
+            return found;
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void fetchEvents() throws Exception {
+        server = new StubApiServer.Builder()
+                .setWeather(StubApiServer.fixture("sample-from-fetcher.xml"))
+                .setQuota(5, 250)
+                .build();
+        server.start();
+
+        JfrMetricsSink sink = new JfrMetricsSink();
+        WeatherFetcher fetcher = new WeatherFetcher.Builder()
+                .setApiKey("stub")
+                .setLocation("London")
+                .setEndpoint(server.getWeatherEndpoint())
+                .setMetrics(sink)
+                .build();
+        assertTrue(fetcher.fetch().isSuccess());
+
+        // Nothing in progress, so this mustn't commit another event
+        sink.quota(1, 2);
+
+        List<RecordedEvent> events = stop(FETCH);
+        assertEquals(events.size(), 1);
+        RecordedEvent e = events.get(0);
+        assertEquals(e.getString("endpoint"), "weather");
+        assertEquals(e.getString("target"), "London");
+        assertEquals(e.getInt("status"), 200);
+        assertTrue(e.getLong("bytes") > 0);
+        assertEquals(e.getInt("requestsPerSecond"), 4);
+        assertEquals(e.getInt("requestsPerDay"), 249);
+        assertNull(e.getString("error"));
+    }
+
+    @Test
+    public void parseEvents() throws Exception {
+        server = new StubApiServer.Builder()
+                .setWeather(StubApiServer.fixture("sample-from-fetcher.xml"))
+                .build();
+        server.start();
+
+        WeatherFetcher fetcher = new WeatherFetcher.Builder()
+                .setApiKey("stub")
+                .setLocation("London")
+                .setEndpoint(server.getWeatherEndpoint())
+                .setMetrics(new JfrMetricsSink())
+                .build();
+        assertTrue(fetcher.fetch().isSuccess());
+
+        List<RecordedEvent> events = stop(PARSE);
+        assertEquals(events.size(), 1);
+        assertEquals(events.get(0).getString("parser"), "WeatherParser");
+        assertTrue(events.get(0).getInt("elements") > 0);
+        assertTrue(events.get(0).getLong("parseTime") > 0);
+    }
+
+    @Test
+    public void cacheEvents() throws Exception {
+        server = new StubApiServer.Builder()
+                .setWeather(StubApiServer.fixture("sample-from-fetcher.xml"))
+                .build();
+        server.start();
+
+        WeatherFetcher fetcher = new WeatherFetcher.Builder()
+                .setApiKey("stub")
+                .setLocation("London")
+                .setEndpoint(server.getWeatherEndpoint())
+                .setCache(new MemoryCache(10))
+                .setMetrics(new JfrMetricsSink())
+                .build();
+        fetcher.fetch();
+        fetcher.fetch();
+
+        List<RecordedEvent> events = stop(CACHE);
+        assertEquals(events.size(), 2);
+        assertEquals(events.get(0).getString("cache"), "response");
+        assertFalse(events.get(0).getBoolean("hit"));
+        assertEquals(events.get(1).getString("cache"), "response");
+        assertTrue(events.get(1).getBoolean("hit"));
+    }
+
+    @Test
+    public void failedRequestClosesEvent() throws Exception {
+        JfrMetricsSink sink = new JfrMetricsSink();
+        WeatherFetcher fetcher = new WeatherFetcher.Builder()
+                .setApiKey("stub")
+                .setLocation("London")
+                // Nothing listens on port 1
+                .setEndpoint("http://127.0.0.1:1/weather.ashx")
+                .setMetrics(sink)
+                .build();
+        try {
+            FetchResult result = fetcher.fetch();
+            fail("Fetch should have failed, got " + result);
+        } catch (IOException ex) {
+            // expected
+        }
+
+        // The failed fetch's event is finished, so these are ignored
+        sink.responseReceived("weather", 200, 10, 0);
+        sink.quota(1, 2);
+
+        List<RecordedEvent> events = stop(FETCH);
+        assertEquals(events.size(), 1);
+        assertEquals(events.get(0).getInt("status"), -1);
+        assertTrue(events.get(0).getString("error").contains("Exception"));
+    }
+}
@@ -0,0 +1,680 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.proxy;
+
+import com.moosemorals.weather.Util;
+import com.moosemorals.weather.WeatherFetcher;
+import com.moosemorals.weather.cache.CacheEntry;
+import com.moosemorals.weather.cache.CacheKey;
+import com.moosemorals.weather.cache.MemoryCache;
+import com.moosemorals.weather.cache.NegativeCache;
+import com.moosemorals.weather.cache.ResponseCache;
+import com.moosemorals.weather.metrics.MetricsSink;
+import com.moosemorals.weather.quota.ApiKeyPool;
+import com.moosemorals.weather.reports.ErrorReport;
+import com.moosemorals.weather.reports.FetchResult;
+import com.moosemorals.weather.reports.Report;
+import com.moosemorals.weather.xml.LocationParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.stream.XMLStreamException;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.format.DateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local stand in for the World Weather Online API that many clients can
+ * share. </p>
+ *
+ * Serves weather.ashx and search.ashx with the same parameters and
+ * responses as the real API, so clients only need to change their endpoint.
+ * All clients share one cache, one set of upstream keys and one rate limit.
+ * Concurrent requests for the same thing are coalesced into one upstream
+ * request, and cached responses are served as the bytes that came from
+ * upstream, without being parsed or rebuilt. Clients' own keys are
+ * ignored. </p>
+ *
+ * When the upstream keys are out of requests for this second, requests
+ * wait (up to a limit) for the next second rather than failing straight
+ * away.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ProxyServer {
+
+    private static final Logger log = LoggerFactory.getLogger(ProxyServer.class);
+
+    private static final String WEATHER_ENDPOINT = "https://api.worldweatheronline.com/free/v2/weather.ashx";
+    private static final String SEARCH_ENDPOINT = "https://api.worldweatheronline.com/free/v2/search.ashx";
+    private static final String QUOTA_ERROR = "QuotaError";
+    private static final long RETRY_DELAY = 100;
+
+    private final int port;
+    private final int threads;
+    private final ApiKeyPool keyPool;
+    private final ResponseCache cache;
+    private final NegativeCache negativeCache;
+    private final ResponseCache searchCache;
+    private final MetricsSink metrics;
+    private final String weatherEndpoint;
+    private final String searchEndpoint;
+    private final long maxWait;
+    private final long searchTtl;
+
+    private final Coalescer<CacheKey, FetchResult> weatherLoads = new Coalescer<>();
+    private final Coalescer<CacheKey, byte[]> searchLoads = new Coalescer<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong served = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private ProxyServer(Builder builder) {
+        this.port = builder.port;
+        this.threads = builder.threads;
+        this.keyPool = builder.keyPool;
+        this.cache = builder.cache;
+        this.negativeCache = builder.negativeCache;
+        this.searchCache = builder.searchCache;
+        this.metrics = builder.metrics;
+        this.weatherEndpoint = builder.weatherEndpoint;
+        this.searchEndpoint = builder.searchEndpoint;
+        this.maxWait = builder.maxWait;
+        this.searchTtl = builder.searchTtl;
+    }
+
+    /**
+     * Start listening.
+     *
+     * @throws IOException if the port can't be opened
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/weather.ashx", new WeatherHandler());
+        server.createContext("/search.ashx", new SearchHandler());
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.start();
+        log.info("Proxy listening on {}", server.getAddress());
+    }
+
+    /**
+     * Stop listening, giving requests in progress a moment to finish.
+     */
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        server = null;
+        executor = null;
+    }
+
+    /**
+     * Port the proxy is listening on. Useful if it was started on port 0.
+     *
+     * @return int port
+     */
+    public synchronized int getPort() {
+        if (server == null) {
+            throw new IllegalStateException("Server not started");
+        }
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Requests received from clients.
+     *
+     * @return long number of requests
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Client requests answered from the cache, without waiting for upstream.
+     *
+     * @return long number of requests
+     */
+    public long getServedFromCache() {
+        return served.get();
+    }
+
+    /**
+     * Requests sent upstream, after coalescing.
+     *
+     * @return long number of upstream loads
+     */
+    public long getUpstreamLoads() {
+        return weatherLoads.getLoads() + searchLoads.getLoads();
+    }
+
+    private FetchResult fetchWeather(final WeatherFetcher fetcher) throws IOException {
+        return weatherLoads.get(fetcher.getCacheKey(), new Callable<FetchResult>() {
+            @Override
+            public FetchResult call() throws Exception {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+                while (true) {
+                    FetchResult result = fetcher.fetch();
+                    if (!isQuotaError(result) || System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_DELAY) > deadline) {
+                        return result;
+                    }
+                    Thread.sleep(RETRY_DELAY);
+                }
+            }
+        });
+    }
+
+    private byte[] fetchSearch(final CacheKey key, final Map<String, String> params) throws IOException {
+        return searchLoads.get(key, new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+                String apiKey;
+                while ((apiKey = keyPool.acquire()) == null) {
+                    if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_DELAY) > deadline) {
+                        return null;
+                    }
+                    Thread.sleep(RETRY_DELAY);
+                }
+                return searchUpstream(key, params, apiKey);
+            }
+        });
+    }
+
+    private byte[] searchUpstream(CacheKey key, Map<String, String> params, String apiKey) throws IOException {
+        Map<String, String> param = new HashMap<>();
+        param.put("q", params.get("q"));
+        param.put("timezone", "yes");
+        param.put("format", "xml");
+        if (params.containsKey("num_of_results")) {
+            param.put("num_of_results", params.get("num_of_results"));
+        }
+        param.put("key", apiKey);
+
+        metrics.requestSent("search", params.get("q"));
+        long started = System.nanoTime();
+        HttpURLConnection conn = (HttpURLConnection) new URL(Util.assembleURL(searchEndpoint, Util.flattenMap(param))).openConnection();
+        int status;
+        byte[] body;
+        try {
+            status = conn.getResponseCode();
+            InputStream in = status == 200 ? conn.getInputStream() : conn.getErrorStream();
+            body = in != null ? Util.readFully(in) : new byte[0];
+        } catch (IOException ex) {
+            metrics.requestFailed("search", ex);
+            throw ex;
+        }
+        metrics.responseReceived("search", status, body.length, System.nanoTime() - started);
+
+        FetchResult.Builder result = new FetchResult.Builder()
+                .setRequestsPerSecond(Util.getIntFromHeader(conn, "x-apiaxleproxy-qps-left"))
+                .setRequestsPerDay(Util.getIntFromHeader(conn, "x-apiaxleproxy-qpd-left"));
+        if (status != 200) {
+            result.setError(new ErrorReport("Donwload Failure", conn.getResponseMessage()));
+            keyPool.record(apiKey, status, result.build());
+            throw new IOException("Upstream search failed: " + status + " " + conn.getResponseMessage());
+        }
+
+        try {
+            Report report = new LocationParser().parse(new ByteArrayInputStream(body));
+            if (report instanceof ErrorReport) {
+                result.setError((ErrorReport) report);
+            }
+        } catch (XMLStreamException ex) {
+            result.setError(new ErrorReport(ex));
+            keyPool.record(apiKey, status, result.build());
+            throw new IOException("Upstream search unreadable", ex);
+        }
+        FetchResult built = result.build();
+        keyPool.record(apiKey, status, built);
+
+        searchCache.put(key, new CacheEntry(built, body, DateTimeUtils.currentTimeMillis() + searchTtl));
+        return body;
+    }
+
+    private static boolean isQuotaError(FetchResult result) {
+        return !result.isSuccess() && QUOTA_ERROR.equals(result.getError().getType());
+    }
+
+    static Map<String, String> parseQuery(String raw) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        if (raw == null || raw.isEmpty()) {
+            return params;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) {
+                params.put(URLDecoder.decode(pair, "UTF-8"), "");
+            } else {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static byte[] error(String message) {
+        String escaped = message == null ? "" : message.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+        return ("<?xml version=\"1.0\" encoding=\"UTF-8\"?><data><error><msg>" + escaped + "</msg></error></data>")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "text/xml; charset=utf-8");
+        int left = keyPool.getTotalRemaining();
+        if (left >= 0) {
+            exchange.getResponseHeaders().add("x-apiaxleproxy-qpd-left", Integer.toString(left));
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private abstract class Handler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    send(exchange, 405, error("Only GET is supported"));
+                    return;
+                }
+                Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+                if (params.get("q") == null || params.get("q").trim().isEmpty()) {
+                    send(exchange, 400, error("Parameter q is missing from the request URL"));
+                    return;
+                }
+                handle(exchange, params);
+            } catch (IllegalArgumentException ex) {
+                send(exchange, 400, error(ex.getMessage()));
+            } catch (IOException ex) {
+                log.warn("Upstream failure: {}", ex.getMessage());
+                send(exchange, 502, error("Upstream failure"));
+            } finally {
+                exchange.close();
+            }
+        }
+
+        abstract void handle(HttpExchange exchange, Map<String, String> params) throws IOException;
+    }
+
+    private class WeatherHandler extends Handler {
+
+        @Override
+        void handle(HttpExchange exchange, Map<String, String> params) throws IOException {
+            WeatherFetcher fetcher = toFetcher(params);
+            CacheKey key = fetcher.getCacheKey();
+
+            CacheEntry entry = cache.get(key);
+            if (entry == null || entry.isExpired(DateTimeUtils.currentTimeMillis()) || entry.getBody() == null) {
+                FetchResult result = fetchWeather(fetcher);
+                if (!result.isSuccess()) {
+                    send(exchange, toStatus(result.getError()), error(result.getError().getMessage()));
+                    return;
+                }
+                entry = cache.get(key);
+                if (entry == null || entry.getBody() == null) {
+                    send(exchange, 502, error("Upstream response not cached"));
+                    return;
+                }
+            } else {
+                served.incrementAndGet();
+            }
+            send(exchange, 200, entry.getBody());
+        }
+
+        private WeatherFetcher toFetcher(Map<String, String> params) {
+            WeatherFetcher.Builder builder = new WeatherFetcher.Builder()
+                    .setLocation(params.get("q"))
+                    .setKeyPool(keyPool)
+                    .setCache(cache)
+                    .setNegativeCache(negativeCache)
+                    .setMetrics(metrics)
+                    .setEndpoint(weatherEndpoint);
+
+            if (params.containsKey("num_of_days")) {
+                builder.setNumOfDays(toInt(params, "num_of_days"));
+            }
+            if (params.containsKey("tp")) {
+                builder.setFrequency(toInt(params, "tp"));
+            }
+            if (params.containsKey("lang")) {
+                builder.setLanguage(params.get("lang"));
+            }
+            if (params.containsKey("date")) {
+                builder.setDate(DateTimeFormat.forPattern("yyyy-MM-dd").parseDateTime(params.get("date")));
+            }
+            builder.setForecast(!"no".equals(params.get("fx")));
+            builder.setCurrent(!"no".equals(params.get("cc")));
+            return builder.build();
+        }
+    }
+
+    private class SearchHandler extends Handler {
+
+        @Override
+        void handle(HttpExchange exchange, Map<String, String> params) throws IOException {
+            CacheKey key = new CacheKey.Builder()
+                    .setLocation(params.get("q"))
+                    .setNumOfDays(params.containsKey("num_of_results") ? toInt(params, "num_of_results") : 0)
+                    .setForecast(false)
+                    .setCurrent(false)
+                    .build();
+
+            CacheEntry entry = searchCache.get(key);
+            byte[] body;
+            if (entry != null && !entry.isExpired(DateTimeUtils.currentTimeMillis())) {
+                served.incrementAndGet();
+                body = entry.getBody();
+            } else {
+                body = fetchSearch(key, params);
+                if (body == null) {
+                    send(exchange, 429, error("No API key available"));
+                    return;
+                }
+            }
+            send(exchange, 200, body);
+        }
+    }
+
+    /**
+     * Errors from the API itself go back as the API sent them, running out
+     * of quota is a 429 and anything else is the upstream's fault.
+     */
+    private static int toStatus(ErrorReport error) {
+        switch (error.getType()) {
+            case "APIError":
+                return 200;
+            case QUOTA_ERROR:
+                return 429;
+            default:
+                return 502;
+        }
+    }
+
+    private static int toInt(Map<String, String> params, String name) {
+        try {
+            return Integer.parseInt(params.get(name), 10);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a number");
+        }
+    }
+
+    /**
+     * Build a ProxyServer.
+     */
+    public static class Builder {
+
+        private int port = 8080;
+        private int threads = 32;
+        private ApiKeyPool keyPool;
+        private ResponseCache cache;
+        private NegativeCache negativeCache;
+        private ResponseCache searchCache;
+        private MetricsSink metrics = MetricsSink.NONE;
+        private String weatherEndpoint = WEATHER_ENDPOINT;
+        private String searchEndpoint = SEARCH_ENDPOINT;
+        private long maxWait = 2000;
+        private long searchTtl = TimeUnit.HOURS.toMillis(24);
+
+        public Builder() {
+            super();
+        }
+
+        /**
+         * Port to listen on. Optional, default 8080. 0 picks a free port.
+         *
+         * @param port int port
+         * @return this Builder for chaining
+         */
+        public Builder setPort(int port) {
+            if (port < 0 || port > 65535) {
+                throw new IllegalArgumentException("Port must be between 0 and 65535");
+            }
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * Threads handling client requests. Optional, default 32.
+         *
+         * @param threads int number of threads
+         * @return this Builder for chaining
+         */
+        public Builder setThreads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("Need at least one thread");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Upstream keys, and the limits to keep to. Required.
+         *
+         * @param keyPool ApiKeyPool upstream keys
+         * @return this Builder for chaining
+         */
+        public Builder setKeyPool(ApiKeyPool keyPool) {
+            this.keyPool = keyPool;
+            return this;
+        }
+
+        /**
+         * Cache for weather responses. Optional, default a
+         * {@link MemoryCache} of 10,000 entries.
+         *
+         * @param cache ResponseCache to share between clients
+         * @return this Builder for chaining
+         */
+        public Builder setCache(ResponseCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * Cache for requests that will never work. Optional, default a
+         * {@link NegativeCache} with its default settings.
+         *
+         * @param negativeCache NegativeCache to share between clients
+         * @return this Builder for chaining
+         */
+        public Builder setNegativeCache(NegativeCache negativeCache) {
+            this.negativeCache = negativeCache;
+            return this;
+        }
+
+        /**
+         * Cache for search responses. Optional, default a
+         * {@link MemoryCache} of 10,000 entries.
+         *
+         * @param searchCache ResponseCache for searches
+         * @return this Builder for chaining
+         */
+        public Builder setSearchCache(ResponseCache searchCache) {
+            this.searchCache = searchCache;
+            return this;
+        }
+
+        /**
+         * How long search responses are kept. Optional, default 24 hours.
+         *
+         * @param searchTtl long milliseconds
+         * @return this Builder for chaining
+         */
+        public Builder setSearchTtl(long searchTtl) {
+            if (searchTtl < 0) {
+                throw new IllegalArgumentException("TTL must not be negative");
+            }
+            this.searchTtl = searchTtl;
+            return this;
+        }
+
+        /**
+         * Longest a request will wait for an upstream key to have requests
+         * left. Optional, default 2 seconds.
+         *
+         * @param maxWait long milliseconds
+         * @return this Builder for chaining
+         */
+        public Builder setMaxWait(long maxWait) {
+            if (maxWait < 0) {
+                throw new IllegalArgumentException("Wait must not be negative");
+            }
+            this.maxWait = maxWait;
+            return this;
+        }
+
+        /**
+         * Upstream API URLs. Optional, default the World Weather Online free
+         * API.
+         *
+         * @param weather String URL of weather.ashx
+         * @param search String URL of search.ashx
+         * @return this Builder for chaining
+         */
+        public Builder setUpstream(String weather, String search) {
+            if (weather == null || search == null) {
+                throw new IllegalArgumentException("Endpoints must not be null");
+            }
+            this.weatherEndpoint = weather;
+            this.searchEndpoint = search;
+            return this;
+        }
+
+        /**
+         * Report upstream requests and cache use. Optional, defaults to not
+         * reporting.
+         *
+         * @param metrics MetricsSink to report to, or null for none
+         * @return this Builder for chaining
+         */
+        public Builder setMetrics(MetricsSink metrics) {
+            this.metrics = metrics != null ? metrics : MetricsSink.NONE;
+            return this;
+        }
+
+        public ProxyServer build() {
+            if (keyPool == null) {
+                throw new NullPointerException("Key pool not set");
+            }
+            if (cache == null) {
+                cache = new MemoryCache(10000);
+            }
+            if (negativeCache == null) {
+                negativeCache = new NegativeCache.Builder().build();
+            }
+            if (searchCache == null) {
+                searchCache = new MemoryCache(10000);
+            }
+            return new ProxyServer(this);
+        }
+    }
+
+    /**
+     * Run a proxy from the command line. </p>
+     *
+     * Options are --port N, --key KEY (repeat for more keys), --per-second
+     * N, --per-day N and --upstream WEATHER_URL SEARCH_URL.
+     *
+     * @param args String[] command line
+     * @throws Exception if the proxy can't start
+     */
+    public static void main(String[] args) throws Exception {
+        Builder builder = new Builder();
+        ApiKeyPool.Builder keys = new ApiKeyPool.Builder();
+        List<String> given = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i += 1) {
+            switch (args[i]) {
+                case "--port":
+                    builder.setPort(Integer.parseInt(args[++i]));
+                    break;
+                case "--key":
+                    given.add(args[++i]);
+                    break;
+                case "--per-second":
+                    keys.setPerSecond(Integer.parseInt(args[++i]));
+                    break;
+                case "--per-day":
+                    keys.setPerDay(Integer.parseInt(args[++i]));
+                    break;
+                case "--upstream":
+                    builder.setUpstream(args[i + 1], args[i + 2]);
+                    i += 2;
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+        if (given.isEmpty()) {
+            System.err.println("Usage: ProxyServer --key KEY [--key KEY...] [--port N] [--per-second N] [--per-day N]");
+            System.exit(1);
+        }
+
+        final ProxyServer proxy = builder.setKeyPool(keys.addKeys(given).build()).build();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                proxy.stop();
+            }
+        });
+        proxy.start();
+    }
+}
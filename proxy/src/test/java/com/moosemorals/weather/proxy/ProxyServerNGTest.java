@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.proxy;
+
+import com.moosemorals.weather.LocationFetcher;
+import com.moosemorals.weather.WeatherFetcher;
+import com.moosemorals.weather.quota.ApiKeyPool;
+import com.moosemorals.weather.reports.FetchResult;
+import com.moosemorals.weather.stub.StubApiServer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ProxyServerNGTest {
+
+    private static final long NOW = new DateTime(2015, 7, 26, 7, 30, DateTimeZone.UTC).getMillis();
+
+    private StubApiServer upstream;
+    private ProxyServer proxy;
+
+    @BeforeMethod
+    public void setUp() {
+        DateTimeUtils.setCurrentMillisFixed(NOW);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        if (proxy != null) {
+            proxy.stop();
+            proxy = null;
+        }
+        if (upstream != null) {
+            upstream.stop();
+            upstream = null;
+        }
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    private void start(StubApiServer.Builder stub, int perSecond) throws Exception {
+        upstream = stub.build();
+        upstream.start();
+        proxy = new ProxyServer.Builder()
+                .setPort(0)
+                .setKeyPool(new ApiKeyPool.Builder()
+                        .addKey("upstream")
+                        .setPerSecond(perSecond)
+                        .build())
+                .setUpstream(upstream.getWeatherEndpoint(), upstream.getSearchEndpoint())
+                .setMaxWait(0)
+                .build();
+        proxy.start();
+    }
+
+    private WeatherFetcher client(String location) {
+        return new WeatherFetcher.Builder()
+                .setApiKey("client")
+                .setLocation(location)
+                .setEndpoint("http://127.0.0.1:" + proxy.getPort() + "/weather.ashx")
+                .build();
+    }
+
+    @Test
+    public void servesRepeatsFromCache() throws Exception {
+        start(new StubApiServer.Builder().setQuota(0, 0), 5);
+
+        for (int i = 0; i < 10; i += 1) {
+            FetchResult result = client("NE6").fetch();
+            assertTrue(result.isSuccess());
+            assertEquals(result.getWeather().getHourlyForecasts().size(), 24);
+        }
+
+        assertEquals(upstream.getRequestCount(), 1);
+        assertEquals(proxy.getServedFromCache(), 9);
+    }
+
+    @Test
+    public void coalescesConcurrentMisses() throws Exception {
+        start(new StubApiServer.Builder().setQuota(0, 0).setLatency(200, 200), 5);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<FetchResult>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i += 1) {
+                results.add(pool.submit(new Callable<FetchResult>() {
+                    @Override
+                    public FetchResult call() throws Exception {
+                        return client("NE6").fetch();
+                    }
+                }));
+            }
+            for (Future<FetchResult> f : results) {
+                assertTrue(f.get().isSuccess());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(upstream.getRequestCount(), 1);
+    }
+
+    @Test
+    public void cachesSearches() throws Exception {
+        start(new StubApiServer.Builder().setQuota(0, 0), 5);
+
+        for (int i = 0; i < 3; i += 1) {
+            FetchResult result = new LocationFetcher.Builder()
+                    .setApiKey("client")
+                    .setQuery("London")
+                    .setEndpoint("http://127.0.0.1:" + proxy.getPort() + "/search.ashx")
+                    .build()
+                    .fetch();
+            assertTrue(result.isSuccess());
+            assertFalse(result.getLocation().getLocations().isEmpty());
+        }
+
+        assertEquals(upstream.getRequestCount(), 1);
+    }
+
+    @Test
+    public void keepsToRateLimit() throws Exception {
+        start(new StubApiServer.Builder().setQuota(0, 0), 2);
+
+        assertTrue(client("one").fetch().isSuccess());
+        assertTrue(client("two").fetch().isSuccess());
+        assertFalse(client("three").fetch().isSuccess());
+        assertEquals(upstream.getRequestCount(), 2);
+
+        DateTimeUtils.setCurrentMillisFixed(NOW + 1000);
+        assertTrue(client("three").fetch().isSuccess());
+    }
+}
@@ -23,16 +23,23 @@
  */
 package com.moosemorals.weather;
 
+import com.moosemorals.weather.metrics.MetricsSink;
+import com.moosemorals.weather.quota.ApiKeyPool;
 import com.moosemorals.weather.reports.ErrorReport;
 import com.moosemorals.weather.reports.FetchResult;
 import com.moosemorals.weather.reports.LocationReport;
 import com.moosemorals.weather.reports.Report;
+import com.moosemorals.weather.search.LocationIndex;
+import com.moosemorals.weather.transport.HttpTransport;
+import com.moosemorals.weather.transport.Transport;
+import com.moosemorals.weather.transport.TransportResponse;
+import com.moosemorals.weather.types.Location;
 import com.moosemorals.weather.xml.ErrorParser;
 import com.moosemorals.weather.xml.LocationParser;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javax.xml.stream.XMLStreamException;
 import org.slf4j.Logger;
@@ -50,17 +57,46 @@ public class LocationFetcher {
     private final String apiKey;
     private final String query;
 
+    private static final int DEFAULT_INDEX_RESULTS = 10;
+
     private final int numResults;
+    private final LocationIndex index;
+    private final ApiKeyPool keyPool;
+    private final MetricsSink metrics;
+    private final String endpoint;
+    private final Transport transport;
 
     public LocationFetcher(String apiKey, String query, int numResults) {
-        this.apiKey = apiKey;
-        this.query = query;
-        this.numResults = numResults;
+        this(new Builder()
+                .setApiKey(apiKey)
+                .setQuery(query)
+                .setNumResults(numResults));
+    }
+
+    private LocationFetcher(Builder builder) {
+        this.apiKey = builder.apiKey;
+        this.query = builder.query;
+        this.numResults = builder.numResults;
+        this.index = builder.index;
+        this.keyPool = builder.keyPool;
+        this.metrics = builder.metrics != null ? builder.metrics : MetricsSink.NONE;
+        this.endpoint = builder.endpoint;
+        this.transport = builder.transport != null ? builder.transport : new HttpTransport();
     }
 
+    /**
+     * Search for locations. </p>
+     *
+     * If an index has been set, it's searched first and the API is only used
+     * when the index has no matches. Results from the API are added to the
+     * index.
+     *
+     * @return FetchResult containing locations, or an error
+     * @throws IOException if there are network problems
+     */
     public FetchResult fetch() throws IOException {
         // Check for required parameters
-        if (apiKey == null) {
+        if (apiKey == null && keyPool == null) {
             throw new NullPointerException("API key not set");
         }
 
@@ -68,6 +104,24 @@ public class LocationFetcher {
             throw new NullPointerException("Query not set");
         }
 
+        if (index != null) {
+            List<Location> found = index.search(query, numResults > 0 ? numResults : DEFAULT_INDEX_RESULTS);
+            if (!found.isEmpty()) {
+                log.debug("Index hit for {}", query);
+                metrics.cacheHit("index");
+                LocationReport.Builder reportBuilder = new LocationReport.Builder();
+                for (Location l : found) {
+                    reportBuilder.addLocation(l);
+                }
+                return new FetchResult.Builder()
+                        .setLocation(reportBuilder.build())
+                        .setRequestsPerSecond(-1)
+                        .setRequestsPerDay(-1)
+                        .build();
+            }
+            metrics.cacheMiss("index");
+        }
+
         Map<String, String> param = new HashMap<>();
 
         param.put("q", query);
@@ -77,37 +131,67 @@ public class LocationFetcher {
 
         // For logging, build the request with a hidden api key
         param.put("key", "HIDDEN");
-        String loggableTarget = Util.assembleURL(ENDPOINT, Util.flattenMap(param));
+        String loggableTarget = Util.assembleURL(endpoint, Util.flattenMap(param));
+
+        String key = apiKey;
+        if (keyPool != null) {
+            key = keyPool.acquire();
+            if (key == null) {
+                log.warn("No API key available for {}", loggableTarget);
+                return new FetchResult.Builder()
+                        .setError(new ErrorReport("QuotaError", "No API key available"))
+                        // Nothing was sent, so there are no quota figures to report
+                        .setRequestsPerSecond(-1)
+                        .setRequestsPerDay(-1)
+                        .build();
+            }
+        }
 
         // For live use, build the request with the real api.
-        param.put("key", apiKey);
-        URL target = new URL(Util.assembleURL(ENDPOINT, Util.flattenMap(param)));
+        param.put("key", key);
 
         FetchResult.Builder resultBuilder = new FetchResult.Builder();
 
         log.debug("Fetching URL {}", loggableTarget);
 
-        HttpURLConnection conn = (HttpURLConnection) target.openConnection();
-
+        metrics.requestSent("search", query);
+        long started = System.nanoTime();
+        TransportResponse response;
         try {
-            conn.connect();
-            int status = conn.getResponseCode();
-            log.debug("Response {}", status);
+            response = transport.get(endpoint, param);
+        } catch (IOException ex) {
+            metrics.requestFailed("search", ex);
+            throw ex;
+        }
+
+        int status = response.getStatus();
+        log.debug("Response {}", status);
 
-            resultBuilder.setRequestsPerSecond(Util.getIntFromHeader(conn, "x-apiaxleproxy-qps-left"));
-            resultBuilder.setRequestsPerDay(Util.getIntFromHeader(conn, "x-apiaxleproxy-qpd-left"));
+        resultBuilder.setRequestsPerSecond(response.getIntHeader("x-apiaxleproxy-qps-left"));
+        resultBuilder.setRequestsPerDay(response.getIntHeader("x-apiaxleproxy-qpd-left"));
 
+        try {
             if (status == 200) {
 
-                Report report = new LocationParser().parse(conn.getInputStream());
+                byte[] body = response.getBody();
+                metrics.responseReceived("search", status, body.length, System.nanoTime() - started);
+
+                long parseStarted = System.nanoTime();
+                LocationParser parser = new LocationParser();
+                Report report = parser.parse(new ByteArrayInputStream(body));
+                metrics.parsed("LocationParser", parser.getElementCount(), System.nanoTime() - parseStarted);
                 if (report instanceof LocationReport) {
                     resultBuilder.setLocation((LocationReport) report);
+                    if (index != null) {
+                        index.add((LocationReport) report);
+                    }
                 } else {
                     resultBuilder.setError((ErrorReport) report);
                 }
 
             } else {
-                ErrorReport error = new ErrorParser().parse(conn.getErrorStream());
+                metrics.responseReceived("search", status, 0, System.nanoTime() - started);
+                ErrorReport error = new ErrorParser().parse(new ByteArrayInputStream(response.getBody()));
                 resultBuilder.setError(error);
             }
 
@@ -115,7 +199,15 @@ public class LocationFetcher {
             resultBuilder.setError(new ErrorReport(ex));
         }
 
-        return resultBuilder.build();
+        FetchResult result = resultBuilder.build();
+        if (!result.isSuccess()) {
+            metrics.errorReported(result.getError().getType());
+        }
+        metrics.quota(result.getRequestsPerSecond(), result.getRequestsPerDay());
+        if (keyPool != null) {
+            keyPool.record(key, status, result);
+        }
+        return result;
     }
 
     public static class Builder {
@@ -123,6 +215,11 @@ public class LocationFetcher {
         private String apiKey;
         private String query;
         private int numResults;
+        private LocationIndex index;
+        private ApiKeyPool keyPool;
+        private MetricsSink metrics;
+        private String endpoint = ENDPOINT;
+        private Transport transport;
 
         public Builder() {
             super();
@@ -143,8 +240,74 @@ public class LocationFetcher {
             return this;
         }
 
+        /**
+         * Local index to search before going to the API, and to add results
+         * to. Optional, default no index.
+         *
+         * @param index LocationIndex index to use, or null for none
+         * @return this Builder for chaining
+         */
+        public Builder setIndex(LocationIndex index) {
+            this.index = index;
+            return this;
+        }
+
+        /**
+         * Take API keys from a pool instead of using a single key. If a pool
+         * is set, any key set with {@link #setApiKey(java.lang.String)} is
+         * ignored.
+         *
+         * @param keyPool ApiKeyPool to take keys from, or null to use the
+         * single key
+         * @return this Builder for chaining
+         */
+        public Builder setKeyPool(ApiKeyPool keyPool) {
+            this.keyPool = keyPool;
+            return this;
+        }
+
+        /**
+         * Report requests, parse times, index lookups and quota to a sink.
+         * Optional, defaults to not reporting.
+         *
+         * @param metrics MetricsSink to report to, or null for none
+         * @return this Builder for chaining
+         */
+        public Builder setMetrics(MetricsSink metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * URL of the search API. Optional, defaults to the World Weather
+         * Online free API. Mostly useful for pointing at a proxy or a stub
+         * server for testing.
+         *
+         * @param endpoint String URL of search.ashx
+         * @return this Builder for chaining
+         * @throws IllegalArgumentException for a null endpoint
+         */
+        public Builder setEndpoint(String endpoint) {
+            if (endpoint == null) {
+                throw new IllegalArgumentException("Endpoint must not be null");
+            }
+            this.endpoint = endpoint;
+            return this;
+        }
+
+        /**
+         * How requests get to the API. Optional, defaults to plain HTTP.
+         *
+         * @param transport Transport to use, or null for HTTP
+         * @return this Builder for chaining
+         */
+        public Builder setTransport(Transport transport) {
+            this.transport = transport;
+            return this;
+        }
+
         public LocationFetcher build() {
-            return new LocationFetcher(apiKey, query, numResults);
+            return new LocationFetcher(this);
         }
     }
 
@@ -25,6 +25,7 @@ package com.moosemorals.weather;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -95,6 +96,23 @@ public class Util {
         return connection.getHeaderFieldInt(headerName, -1);
     }
 
+    /**
+     * Read everything from an InputStream. Doesn't close the stream.
+     *
+     * @param in InputStream to read
+     * @return byte[] everything that was read
+     * @throws IOException if there was a problem reading
+     */
+    public static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
     public static InputStream dumpInputStream(InputStream in) throws IOException {
         if (!log.isDebugEnabled()) {
             return in;
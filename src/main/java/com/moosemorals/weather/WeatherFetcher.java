@@ -23,19 +23,33 @@
  */
 package com.moosemorals.weather;
 
+import com.moosemorals.weather.alert.AlertEngine;
+import com.moosemorals.weather.cache.CacheEntry;
+import com.moosemorals.weather.cache.CacheKey;
+import com.moosemorals.weather.cache.ExpiryPolicy;
+import com.moosemorals.weather.cache.NegativeCache;
+import com.moosemorals.weather.cache.ReportExpiryPolicy;
+import com.moosemorals.weather.cache.ResponseCache;
+import com.moosemorals.weather.cache.Revalidator;
+import com.moosemorals.weather.history.HistoryStore;
+import com.moosemorals.weather.metrics.MetricsSink;
+import com.moosemorals.weather.quota.ApiKeyPool;
 import com.moosemorals.weather.reports.ErrorReport;
 import com.moosemorals.weather.reports.FetchResult;
 import com.moosemorals.weather.reports.Report;
 import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.transport.HttpTransport;
+import com.moosemorals.weather.transport.Transport;
+import com.moosemorals.weather.transport.TransportResponse;
 import com.moosemorals.weather.xml.ErrorParser;
 import com.moosemorals.weather.xml.WeatherParser;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 import javax.xml.stream.XMLStreamException;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
 import org.joda.time.format.DateTimeFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,31 +82,142 @@ public class WeatherFetcher {
     private final boolean forecast;
     private final boolean current;
     private final int timePeriod;
+    private final ResponseCache cache;
+    private final ExpiryPolicy expiryPolicy;
+    private final Revalidator revalidator;
+    private final NegativeCache negativeCache;
+    private final ApiKeyPool keyPool;
+    private final HistoryStore history;
+    private final AlertEngine alerts;
+    private final MetricsSink metrics;
+    private final String endpoint;
+    private final Transport transport;
+
+    private WeatherFetcher(Builder builder) {
+        this.apiKey = builder.apiKey;
+        this.location = builder.location;
+        this.language = builder.language;
+
+        this.num_of_days = builder.num_of_days;
+        this.date = builder.date;
+        this.forecast = builder.forecast;
+        this.current = builder.current;
+        this.timePeriod = builder.timePeriod;
+        this.cache = builder.cache;
+        this.expiryPolicy = builder.expiryPolicy;
+        this.revalidator = builder.revalidator;
+        this.negativeCache = builder.negativeCache;
+        this.keyPool = builder.keyPool;
+        this.history = builder.history;
+        this.alerts = builder.alerts;
+        this.metrics = builder.metrics;
+        this.endpoint = builder.endpoint;
+        this.transport = builder.transport != null ? builder.transport : new HttpTransport();
+    }
 
-    private WeatherFetcher(String apiKey, String location, String language, int num_of_days, DateTime date, boolean forecast, boolean current, int timePeriod) {
-        this.apiKey = apiKey;
-        this.location = location;
-        this.language = language;
-
-        this.num_of_days = num_of_days;
-        this.date = date;
-        this.forecast = forecast;
-        this.current = current;
-        this.timePeriod = timePeriod;
+    /**
+     * Normalized form of the parameters of this fetcher, as used to look up
+     * cached responses.
+     *
+     * @return CacheKey key for this request
+     * @throws NullPointerException if the location isn't set
+     */
+    public CacheKey getCacheKey() {
+        return new CacheKey.Builder()
+                .setLocation(location)
+                .setNumOfDays(num_of_days)
+                .setTimePeriod(timePeriod)
+                .setLanguage(language)
+                .setDate(date)
+                .setForecast(forecast)
+                .setCurrent(current)
+                .build();
     }
 
     /**
      * Fetch weather report using parameters set in the builder. </p>
      *
      * Returns a {@link FetchResult} that either contains a
-     * {@link WeatherReport} or an {@link ErrorReport}.
+     * {@link WeatherReport} or an {@link ErrorReport}. If a cache has been set
+     * and holds a current response for the same parameters, that's returned
+     * without going to the network. </p>
+     *
+     * If a {@link Revalidator} has been set, an expired response that's still
+     * within the grace period is returned (marked
+     * {@link FetchResult#isStale() stale}) and a fresh copy is fetched in the
+     * background. </p>
+     *
+     * If a {@link NegativeCache} has been set and the same query has recently
+     * failed with a deterministic error, that error is returned without going
+     * to the network.
      *
      * @return FetchResult containing weather data, or an error
      * @throws IOException if there are network problems
      */
     public FetchResult fetch() throws IOException {
         // Check for required parameters
-        if (apiKey == null) {
+        if (apiKey == null && keyPool == null) {
+            throw new NullPointerException("API key not set");
+        }
+
+        if (location == null) {
+            throw new NullPointerException("Location not set");
+        }
+
+        final CacheKey key = getCacheKey();
+        if (negativeCache != null) {
+            FetchResult known = negativeCache.get(key);
+            if (known != null) {
+                log.debug("Negative cache hit for {}", key);
+                metrics.cacheHit("negative");
+                return known;
+            }
+            metrics.cacheMiss("negative");
+        }
+
+        if (cache == null) {
+            return fetchUncached(key);
+        }
+
+        CacheEntry cached = cache.get(key);
+        if (cached != null) {
+            long now = DateTimeUtils.currentTimeMillis();
+            if (!cached.isExpired(now)) {
+                log.debug("Cache hit for {}", key);
+                metrics.cacheHit("response");
+                return cached.getResult();
+            }
+            if (revalidator != null && !cached.isDead(now)) {
+                log.debug("Serving stale entry for {}", key);
+                metrics.cacheHit("response");
+                revalidator.servedStale(key, new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            fetchAndStore(key);
+                        } catch (IOException ex) {
+                            log.warn("Background refresh for {} failed", key, ex);
+                        }
+                    }
+                });
+                return new FetchResult.Builder(cached.getResult()).setStale(true).build();
+            }
+        }
+
+        metrics.cacheMiss("response");
+        return fetchAndStore(key);
+    }
+
+    /**
+     * Fetch from the network even if there's a current cached response, and
+     * store the result in the cache (if there is one). Used to refresh the
+     * cache ahead of expiry.
+     *
+     * @return FetchResult containing weather data, or an error
+     * @throws IOException if there are network problems
+     */
+    public FetchResult refresh() throws IOException {
+        if (apiKey == null && keyPool == null) {
             throw new NullPointerException("API key not set");
         }
 
@@ -100,6 +225,47 @@ public class WeatherFetcher {
             throw new NullPointerException("Location not set");
         }
 
+        CacheKey key = getCacheKey();
+        if (cache == null) {
+            return fetchUncached(key);
+        }
+        return fetchAndStore(key);
+    }
+
+    /**
+     * The cache this fetcher uses.
+     *
+     * @return ResponseCache cache, or null if there isn't one
+     */
+    public ResponseCache getCache() {
+        return cache;
+    }
+
+    private FetchResult fetchAndStore(CacheKey key) throws IOException {
+        Response response = fetchFromNetwork();
+        FetchResult result = response.result;
+
+        if (result.isSuccess()) {
+            long now = DateTimeUtils.currentTimeMillis();
+            long expires = expiryPolicy.getExpiry(key, result.getWeather(), now);
+            long grace = revalidator != null ? revalidator.getGrace() : 0;
+            cache.put(key, new CacheEntry(result, response.body, expires, expires + grace));
+        } else if (negativeCache != null) {
+            negativeCache.put(key, result);
+        }
+
+        return result;
+    }
+
+    private FetchResult fetchUncached(CacheKey key) throws IOException {
+        FetchResult result = fetchFromNetwork().result;
+        if (!result.isSuccess() && negativeCache != null) {
+            negativeCache.put(key, result);
+        }
+        return result;
+    }
+
+    private Response fetchFromNetwork() throws IOException {
         Map<String, String> param = new HashMap<>();
 
         param.put("q", location);
@@ -128,44 +294,108 @@ public class WeatherFetcher {
 
         // For logging, build the request with a hidden api key
         param.put("key", "HIDDEN");
-        String loggableTarget = Util.assembleURL(WeatherFetcher.ENDPOINT, Util.flattenMap(param));
+        String loggableTarget = Util.assembleURL(endpoint, Util.flattenMap(param));
+
+        String key = apiKey;
+        if (keyPool != null) {
+            key = keyPool.acquire();
+            if (key == null) {
+                log.warn("No API key available for {}", loggableTarget);
+                return new Response(new FetchResult.Builder()
+                        .setError(new ErrorReport("QuotaError", "No API key available"))
+                        // Nothing was sent, so there are no quota figures to report
+                        .setRequestsPerSecond(-1)
+                        .setRequestsPerDay(-1)
+                        .build(), null);
+            }
+        }
 
         // For live use, build the request with the real api.
-        param.put("key", apiKey);
-        URL target = new URL(Util.assembleURL(WeatherFetcher.ENDPOINT, Util.flattenMap(param)));
+        param.put("key", key);
 
         FetchResult.Builder resultBuilder = new FetchResult.Builder();
 
         log.debug("Fetching URL {}", loggableTarget);
-        HttpURLConnection conn = (HttpURLConnection) target.openConnection();
+        byte[] body = null;
 
+        metrics.requestSent("weather", location);
+        long started = System.nanoTime();
+        TransportResponse response;
         try {
-            conn.connect();
-            int status = conn.getResponseCode();
-            log.debug("Response {}", status);
+            response = transport.get(endpoint, param);
+        } catch (IOException ex) {
+            metrics.requestFailed("weather", ex);
+            throw ex;
+        }
+
+        int status = response.getStatus();
+        log.debug("Response {}", status);
+
+        resultBuilder.setRequestsPerSecond(response.getIntHeader("x-apiaxleproxy-qps-left"));
+        resultBuilder.setRequestsPerDay(response.getIntHeader("x-apiaxleproxy-qpd-left"));
 
-            resultBuilder.setRequestsPerSecond(Util.getIntFromHeader(conn, "x-apiaxleproxy-qps-left"));
-            resultBuilder.setRequestsPerDay(Util.getIntFromHeader(conn, "x-apiaxleproxy-qpd-left"));
+        if (status == 200) {
 
-            if (status == 200) {
+            body = response.getBody();
+            metrics.responseReceived("weather", status, body.length, System.nanoTime() - started);
 
-                Report report = new WeatherParser().parse(conn.getInputStream());
+            try {
+                long parseStarted = System.nanoTime();
+                WeatherParser parser = new WeatherParser();
+                Report report = parser.parse(new ByteArrayInputStream(body));
+                metrics.parsed("WeatherParser", parser.getElementCount(), System.nanoTime() - parseStarted);
                 if (report instanceof WeatherReport) {
                     resultBuilder.setWeather((WeatherReport) report);
                 } else {
                     resultBuilder.setError((ErrorReport) report);
                 }
-
-            } else {                
-                ErrorReport error  = new ErrorReport("Donwload Failure", conn.getResponseMessage());
-                resultBuilder.setError(error);
+            } catch (XMLStreamException ex) {
+                resultBuilder.setError(new ErrorReport(ex));
             }
 
-        } catch (XMLStreamException ex) {
-            resultBuilder.setError(new ErrorReport(ex));
+        } else {
+            metrics.responseReceived("weather", status, 0, System.nanoTime() - started);
+            ErrorReport error = new ErrorReport("Donwload Failure", response.getMessage());
+            resultBuilder.setError(error);
         }
 
-        return resultBuilder.build();
+        FetchResult result = resultBuilder.build();
+        if (!result.isSuccess()) {
+            metrics.errorReported(result.getError().getType());
+        }
+        metrics.quota(result.getRequestsPerSecond(), result.getRequestsPerDay());
+        if (keyPool != null) {
+            keyPool.record(key, status, result);
+        }
+        if (history != null && result.isSuccess()) {
+            try {
+                history.append(location, DateTimeUtils.currentTimeMillis(), body);
+            } catch (IOException ex) {
+                log.warn("Can't record history for {}", location, ex);
+            }
+        }
+        if (alerts != null && result.isSuccess()) {
+            try {
+                alerts.check(location, result.getWeather());
+            } catch (RuntimeException ex) {
+                log.warn("Can't check alerts for {}", location, ex);
+            }
+        }
+        return new Response(result, body);
+    }
+
+    /**
+     * Parsed result of a network fetch, along with the raw body it came from.
+     */
+    private static class Response {
+
+        private final FetchResult result;
+        private final byte[] body;
+
+        private Response(FetchResult result, byte[] body) {
+            this.result = result;
+            this.body = body;
+        }
     }
 
     /**
@@ -181,14 +411,24 @@ public class WeatherFetcher {
         private boolean forecast = true;
         private boolean current = true;
         private int timePeriod = 3;
+        private ResponseCache cache = null;
+        private ExpiryPolicy expiryPolicy = new ReportExpiryPolicy();
+        private Revalidator revalidator = null;
+        private NegativeCache negativeCache = null;
+        private ApiKeyPool keyPool = null;
+        private HistoryStore history = null;
+        private AlertEngine alerts = null;
+        private MetricsSink metrics = MetricsSink.NONE;
+        private String endpoint = ENDPOINT;
+        private Transport transport = null;
 
         public Builder() {
             super();
         }
 
         /**
-         * Api key from worldweatheronline.com for their V2 API. Required, no
-         * default. </p>
+         * Api key from worldweatheronline.com for their V2 API. Required
+         * unless a key pool has been set, no default. </p>
          *
          * You can register for a key at
          * <a href="https://developer.worldweatheronline.com/auth/register">https://developer.worldweatheronline.com/auth/register</a>
@@ -304,8 +544,177 @@ public class WeatherFetcher {
             return this;
         }
 
+        /**
+         * Cache to check before going to the network. Optional, default no
+         * cache. </p>
+         *
+         * The same cache can (and should) be shared between fetchers.
+         *
+         * @param cache ResponseCache cache to use, or null for no cache
+         * @return this Builder for chaining
+         */
+        public Builder setCache(ResponseCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * How to decide when cached reports expire. Optional, default
+         * {@link ReportExpiryPolicy}. Ignored if there is no cache.
+         *
+         * @param expiryPolicy ExpiryPolicy policy to use
+         * @return this Builder for chaining
+         * @throws IllegalArgumentException for a null expiryPolicy
+         */
+        public Builder setExpiryPolicy(ExpiryPolicy expiryPolicy) {
+            if (expiryPolicy == null) {
+                throw new IllegalArgumentException("Expiry policy must not be null");
+            }
+            this.expiryPolicy = expiryPolicy;
+            return this;
+        }
+
+        /**
+         * Serve expired cache entries while refreshing them in the
+         * background. Optional, default off (callers wait for the network
+         * when an entry expires). Ignored if there is no cache.
+         *
+         * @param revalidator Revalidator to run background refreshes, or
+         * null to turn off serving stale entries
+         * @return this Builder for chaining
+         */
+        public Builder setRevalidator(Revalidator revalidator) {
+            this.revalidator = revalidator;
+            return this;
+        }
+
+        /**
+         * Remember queries that fail with deterministic errors (like an
+         * unknown location) so they aren't sent again. Optional, defaults to
+         * not remembering errors.
+         *
+         * @param negativeCache NegativeCache to use, or null for none
+         * @return this Builder for chaining
+         */
+        public Builder setNegativeCache(NegativeCache negativeCache) {
+            this.negativeCache = negativeCache;
+            return this;
+        }
+
+        /**
+         * Take API keys from a pool instead of using a single key. If a pool
+         * is set, any key set with {@link #setApiKey(java.lang.String)} is
+         * ignored.
+         *
+         * @param keyPool ApiKeyPool to take keys from, or null to use the
+         * single key
+         * @return this Builder for chaining
+         */
+        public Builder setKeyPool(ApiKeyPool keyPool) {
+            this.keyPool = keyPool;
+            return this;
+        }
+
+        /**
+         * Keep every report fetched from the network. Optional, defaults to
+         * not keeping reports.
+         *
+         * @param history HistoryStore to add reports to, or null for none
+         * @return this Builder for chaining
+         */
+        public Builder setHistory(HistoryStore history) {
+            this.history = history;
+            return this;
+        }
+
+        /**
+         * Check every report fetched from the network against a set of alert
+         * rules. Reports served from the cache aren't checked again. Optional,
+         * defaults to not checking.
+         *
+         * @param alerts AlertEngine to check reports with, or null for none
+         * @return this Builder for chaining
+         */
+        public Builder setAlertEngine(AlertEngine alerts) {
+            this.alerts = alerts;
+            return this;
+        }
+
+        /**
+         * Report requests, parse times, cache lookups and quota to a sink.
+         * Optional, defaults to not reporting.
+         *
+         * @param metrics MetricsSink to report to, or null for none
+         * @return this Builder for chaining
+         */
+        public Builder setMetrics(MetricsSink metrics) {
+            this.metrics = metrics != null ? metrics : MetricsSink.NONE;
+            return this;
+        }
+
+        /**
+         * URL of the weather API. Optional, defaults to the World Weather
+         * Online free API. Mostly useful for pointing at a proxy or a stub
+         * server for testing.
+         *
+         * @param endpoint String URL of weather.ashx
+         * @return this Builder for chaining
+         * @throws IllegalArgumentException for a null endpoint
+         */
+        public Builder setEndpoint(String endpoint) {
+            if (endpoint == null) {
+                throw new IllegalArgumentException("Endpoint must not be null");
+            }
+            this.endpoint = endpoint;
+            return this;
+        }
+
+        /**
+         * How requests get to the API. Optional, defaults to plain HTTP.
+         * Set a {@link com.moosemorals.weather.transport.RecordingTransport}
+         * to save responses, or a
+         * {@link com.moosemorals.weather.transport.ReplayTransport} to serve
+         * saved ones without the network.
+         *
+         * @param transport Transport to use, or null for HTTP
+         * @return this Builder for chaining
+         */
+        public Builder setTransport(Transport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * A new builder with the same options as this one, so that a shared
+         * template can be filled in without changing it.
+         *
+         * @return Builder copy of this builder
+         */
+        public Builder copy() {
+            Builder copy = new Builder();
+            copy.apiKey = apiKey;
+            copy.location = location;
+            copy.language = language;
+            copy.num_of_days = num_of_days;
+            copy.date = date;
+            copy.forecast = forecast;
+            copy.current = current;
+            copy.timePeriod = timePeriod;
+            copy.cache = cache;
+            copy.expiryPolicy = expiryPolicy;
+            copy.revalidator = revalidator;
+            copy.negativeCache = negativeCache;
+            copy.keyPool = keyPool;
+            copy.history = history;
+            copy.alerts = alerts;
+            copy.metrics = metrics;
+            copy.endpoint = endpoint;
+            copy.transport = transport;
+            return copy;
+        }
+
         public WeatherFetcher build() {
-            return new WeatherFetcher(apiKey, location, language, num_of_days, date, forecast, current, timePeriod);
+            return new WeatherFetcher(this);
         }
     }
 
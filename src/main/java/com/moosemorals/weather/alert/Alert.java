@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.alert;
+
+/**
+ * An alert raised by an {@link AlertEngine}.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class Alert {
+
+    private final AlertRule rule;
+    private final String location;
+    private final long time;
+    private final double value;
+    private final long raised;
+
+    Alert(AlertRule rule, String location, long time, double value, long raised) {
+        this.rule = rule;
+        this.location = location;
+        this.time = time;
+        this.value = value;
+        this.raised = raised;
+    }
+
+    /**
+     * Rule that raised the alert.
+     *
+     * @return AlertRule rule
+     */
+    public AlertRule getRule() {
+        return rule;
+    }
+
+    /**
+     * Location the alert is for, normalized.
+     *
+     * @return String location
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * First forecast hour that met the condition.
+     *
+     * @return long time, milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Value of the field at that hour.
+     *
+     * @return double value
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * When the alert was raised.
+     *
+     * @return long time, milliseconds since the epoch
+     */
+    public long getRaised() {
+        return raised;
+    }
+
+    @Override
+    public String toString() {
+        return rule.getName() + " for " + location + " at " + time + " (" + value + ")";
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.alert;
+
+import com.moosemorals.weather.cache.CacheKey;
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.series.Field;
+import com.moosemorals.weather.series.HourlySeries;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.joda.time.DateTimeUtils;
+
+/**
+ * Checks reports against a fixed set of {@link AlertRule}s. </p>
+ *
+ * Rules are grouped when the engine is built: rules for every location by
+ * field, and rules for particular locations by location and then field. A
+ * report only runs the rules that could apply to its location, and each rule
+ * is a loop over one column of the report's {@link HourlySeries}. </p>
+ *
+ * Alerts are deduplicated and debounced per rule and location. While a
+ * condition holds for the same hour it's only reported once, and a rule
+ * won't alert again for a location within its debounce time, even if the
+ * condition clears and comes back. </p>
+ *
+ * Safe to use from several threads.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class AlertEngine {
+
+    private final RuleIndex global;
+    private final Map<String, RuleIndex> byLocation;
+    private final AlertListener listener;
+    private final ConcurrentMap<String, State> states = new ConcurrentHashMap<>();
+
+    /**
+     * Build an engine.
+     *
+     * @param rules Collection&lt;AlertRule&gt; rules to check
+     * @param listener AlertListener to tell about alerts
+     */
+    public AlertEngine(Collection<AlertRule> rules, AlertListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener is required");
+        }
+        this.listener = listener;
+
+        Set<String> names = new HashSet<>();
+        List<AlertRule> everywhere = new ArrayList<>();
+        Map<String, List<AlertRule>> local = new HashMap<>();
+        for (AlertRule rule : rules) {
+            if (!names.add(rule.getName())) {
+                throw new IllegalArgumentException("Duplicate rule name " + rule.getName());
+            }
+            if (rule.getLocations().isEmpty()) {
+                everywhere.add(rule);
+            } else {
+                for (String l : rule.getLocations()) {
+                    List<AlertRule> list = local.get(l);
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        local.put(l, list);
+                    }
+                    list.add(rule);
+                }
+            }
+        }
+
+        global = new RuleIndex(everywhere);
+        byLocation = new HashMap<>();
+        for (Map.Entry<String, List<AlertRule>> e : local.entrySet()) {
+            byLocation.put(e.getKey(), new RuleIndex(e.getValue()));
+        }
+    }
+
+    /**
+     * Check a report, as of now.
+     *
+     * @param location String location the report is for
+     * @param report WeatherReport report to check
+     * @return int number of alerts raised
+     */
+    public int check(String location, WeatherReport report) {
+        return check(location, new HourlySeries(report), DateTimeUtils.currentTimeMillis());
+    }
+
+    /**
+     * Check a series.
+     *
+     * @param location String location the series is for
+     * @param series HourlySeries series to check
+     * @param now long current time, milliseconds since the epoch. Hours
+     * before the one in progress are ignored
+     * @return int number of alerts raised
+     */
+    public int check(String location, HourlySeries series, long now) {
+        String name = CacheKey.normalize(location);
+        int start = series.indexOf(now);
+        if (start > 0 && (start == series.size() || series.getTime(start) > now)) {
+            // Include the period in progress
+            start -= 1;
+        }
+
+        int raised = run(global, name, series, start, now);
+        RuleIndex local = byLocation.get(name);
+        if (local != null) {
+            raised += run(local, name, series, start, now);
+        }
+        return raised;
+    }
+
+    /**
+     * Forget which alerts have been raised, so they can be raised again.
+     */
+    public void reset() {
+        states.clear();
+    }
+
+    private int run(RuleIndex index, String location, HourlySeries series, int start, long now) {
+        int raised = 0;
+        for (int f = 0; f < index.fields.length; f += 1) {
+            Field field = index.fields[f];
+            for (AlertRule rule : index.rules[f]) {
+                int end = rule.getWindow() == 0 ? series.size() : series.indexOf(now + rule.getWindow());
+                int hit = -1;
+                for (int row = start; row < end; row += 1) {
+                    if (rule.matches(series.get(field, row))) {
+                        hit = row;
+                        break;
+                    }
+                }
+                if (hit >= 0) {
+                    if (raise(rule, location, series.getTime(hit), series.get(field, hit), now)) {
+                        raised += 1;
+                    }
+                } else {
+                    clear(rule, location);
+                }
+            }
+        }
+        return raised;
+    }
+
+    private boolean raise(AlertRule rule, String location, long time, double value, long now) {
+        String key = rule.getName() + '\n' + location;
+        State state = states.get(key);
+        if (state == null) {
+            State created = new State();
+            state = states.putIfAbsent(key, created);
+            if (state == null) {
+                state = created;
+            }
+        }
+
+        synchronized (state) {
+            if (state.active && state.time == time) {
+                // Same event, already reported
+                return false;
+            }
+            if (state.raised != Long.MIN_VALUE && now - state.raised < rule.getDebounce()) {
+                return false;
+            }
+            state.active = true;
+            state.time = time;
+            state.raised = now;
+        }
+
+        listener.alert(new Alert(rule, location, time, value, now));
+        return true;
+    }
+
+    private void clear(AlertRule rule, String location) {
+        State state = states.get(rule.getName() + '\n' + location);
+        if (state != null) {
+            synchronized (state) {
+                state.active = false;
+            }
+        }
+    }
+
+    /**
+     * Rules grouped by field, as parallel arrays.
+     */
+    private static class RuleIndex {
+
+        private final Field[] fields;
+        private final AlertRule[][] rules;
+
+        private RuleIndex(List<AlertRule> list) {
+            Map<Field, List<AlertRule>> grouped = new EnumMap<>(Field.class);
+            for (AlertRule rule : list) {
+                List<AlertRule> group = grouped.get(rule.getField());
+                if (group == null) {
+                    group = new ArrayList<>();
+                    grouped.put(rule.getField(), group);
+                }
+                group.add(rule);
+            }
+
+            fields = new Field[grouped.size()];
+            rules = new AlertRule[grouped.size()][];
+            int i = 0;
+            for (Map.Entry<Field, List<AlertRule>> e : grouped.entrySet()) {
+                fields[i] = e.getKey();
+                rules[i] = e.getValue().toArray(new AlertRule[e.getValue().size()]);
+                i += 1;
+            }
+        }
+    }
+
+    /**
+     * What's been raised for one rule and location.
+     */
+    private static class State {
+
+        private boolean active = false;
+        private long time;
+        private long raised = Long.MIN_VALUE;
+    }
+}
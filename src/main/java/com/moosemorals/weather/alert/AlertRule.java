@@ -0,0 +1,231 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.alert;
+
+import com.moosemorals.weather.cache.CacheKey;
+import com.moosemorals.weather.series.Field;
+import com.moosemorals.weather.series.ForecastQuery.Op;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A threshold to alert on, for example "gusts over 80 kmph in the next 12
+ * hours". </p>
+ *
+ * Immutable once built.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class AlertRule {
+
+    private final String name;
+    private final Field field;
+    private final Op op;
+    private final double threshold;
+    private final long window;
+    private final Set<String> locations;
+    private final long debounce;
+
+    private AlertRule(Builder builder) {
+        this.name = builder.name;
+        this.field = builder.field;
+        this.op = builder.op;
+        this.threshold = builder.threshold;
+        this.window = builder.window;
+        this.locations = Collections.unmodifiableSet(new HashSet<>(builder.locations));
+        this.debounce = builder.debounce;
+    }
+
+    /**
+     * Name of the rule, unique within an engine.
+     *
+     * @return String name
+     */
+    public String getName() {
+        return name;
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public Op getOp() {
+        return op;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * How far ahead to look, in milliseconds from when the report is
+     * checked. Zero means every hour in the report.
+     *
+     * @return long window, milliseconds
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * Locations the rule applies to, normalized. Empty means every location.
+     *
+     * @return Set&lt;String&gt; locations
+     */
+    public Set<String> getLocations() {
+        return locations;
+    }
+
+    /**
+     * Shortest time between alerts from this rule for the same location.
+     *
+     * @return long debounce, milliseconds
+     */
+    public long getDebounce() {
+        return debounce;
+    }
+
+    boolean matches(double value) {
+        switch (op) {
+            case GT:
+                return value > threshold;
+            case GE:
+                return value >= threshold;
+            case LT:
+                return value < threshold;
+            case LE:
+                return value <= threshold;
+            case EQ:
+                return value == threshold;
+            case NE:
+                return value != threshold;
+            default:
+                throw new IllegalStateException("Unknown op " + op);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + field + " " + op + " " + threshold;
+    }
+
+    public static class Builder {
+
+        private String name;
+        private Field field;
+        private Op op;
+        private double threshold;
+        private long window = 0;
+        private final Set<String> locations = new HashSet<>();
+        private long debounce = 6 * 60 * 60 * 1000;
+
+        /**
+         * Name of the rule. Required.
+         *
+         * @param name String name
+         * @return this Builder for chaining
+         */
+        public Builder setName(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * Condition to alert on. Required.
+         *
+         * @param field Field to check
+         * @param op Op comparison
+         * @param threshold double value to compare to
+         * @return this Builder for chaining
+         */
+        public Builder setCondition(Field field, Op op, double threshold) {
+            if (field == null || op == null) {
+                throw new IllegalArgumentException("Field and op are required");
+            }
+            this.field = field;
+            this.op = op;
+            this.threshold = threshold;
+            return this;
+        }
+
+        /**
+         * Only look this far ahead. Optional, defaults to every hour in the
+         * report.
+         *
+         * @param window long window, milliseconds
+         * @return this Builder for chaining
+         */
+        public Builder setWindow(long window) {
+            if (window < 0) {
+                throw new IllegalArgumentException("Window can't be negative");
+            }
+            this.window = window;
+            return this;
+        }
+
+        /**
+         * Only apply the rule to a location. Can be called more than once.
+         * Optional, defaults to every location.
+         *
+         * @param location String location
+         * @return this Builder for chaining
+         */
+        public Builder addLocation(String location) {
+            locations.add(CacheKey.normalize(location));
+            return this;
+        }
+
+        /**
+         * Shortest time between alerts for the same location. Optional,
+         * defaults to six hours.
+         *
+         * @param debounce long debounce, milliseconds
+         * @return this Builder for chaining
+         */
+        public Builder setDebounce(long debounce) {
+            if (debounce < 0) {
+                throw new IllegalArgumentException("Debounce can't be negative");
+            }
+            this.debounce = debounce;
+            return this;
+        }
+
+        /**
+         * Build the rule.
+         *
+         * @return AlertRule rule
+         * @throws NullPointerException if the name or condition isn't set
+         */
+        public AlertRule build() {
+            if (name == null) {
+                throw new NullPointerException("Name not set");
+            }
+            if (field == null) {
+                throw new NullPointerException("Condition not set");
+            }
+            return new AlertRule(this);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.cache;
+
+import com.moosemorals.weather.reports.FetchResult;
+
+/**
+ * A cached response, and when it stops being valid. </p>
+ *
+ * An entry expires at {@link #getExpires()}, but may still be served (marked
+ * as stale) until {@link #getStaleUntil()} while a fresh copy is fetched in
+ * the background. Caches can drop entries once they are past both.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class CacheEntry {
+
+    private final FetchResult result;
+    private final byte[] body;
+    private final long expires;
+    private final long staleUntil;
+
+    public CacheEntry(FetchResult result, long expires) {
+        this(result, null, expires, expires);
+    }
+
+    public CacheEntry(FetchResult result, byte[] body, long expires) {
+        this(result, body, expires, expires);
+    }
+
+    public CacheEntry(FetchResult result, byte[] body, long expires, long staleUntil) {
+        this.result = result;
+        this.body = body;
+        this.expires = expires;
+        this.staleUntil = Math.max(expires, staleUntil);
+    }
+
+    /**
+     * The cached result.
+     *
+     * @return FetchResult cached result
+     */
+    public FetchResult getResult() {
+        return result;
+    }
+
+    /**
+     * Raw response body, as sent by the API. May be null if the entry wasn't
+     * built from a network response, in which case it can't be stored by
+     * caches that persist responses.
+     *
+     * @return byte[] raw response, or null
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * When this entry expires, in milliseconds since the epoch.
+     *
+     * @return long expiry time
+     */
+    public long getExpires() {
+        return expires;
+    }
+
+    /**
+     * When this entry can no longer be served even as stale, in milliseconds
+     * since the epoch. Never before {@link #getExpires()}.
+     *
+     * @return long end of the stale period
+     */
+    public long getStaleUntil() {
+        return staleUntil;
+    }
+
+    /**
+     * Has this entry expired.
+     *
+     * @param now long current time, milliseconds since the epoch
+     * @return boolean true if the entry has expired
+     */
+    public boolean isExpired(long now) {
+        return now >= expires;
+    }
+
+    /**
+     * Is this entry past its stale period, and so no use to anyone.
+     *
+     * @param now long current time, milliseconds since the epoch
+     * @return boolean true if the entry can be dropped
+     */
+    public boolean isDead(long now) {
+        return now >= staleUntil;
+    }
+}
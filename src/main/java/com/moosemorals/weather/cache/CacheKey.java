@@ -0,0 +1,248 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.cache;
+
+import java.util.Locale;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+
+/**
+ * Normalized request parameters, used to look up cached responses. </p>
+ *
+ * Two requests that would produce the same response from the API should
+ * produce equal keys, so location strings are trimmed, lower-cased and have
+ * their whitespace collapsed, and a missing language is treated as English.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public final class CacheKey {
+
+    private final String location;
+    private final int numOfDays;
+    private final int timePeriod;
+    private final String language;
+    private final String date;
+    private final boolean forecast;
+    private final boolean current;
+    private final String canonical;
+
+    private CacheKey(String location, int numOfDays, int timePeriod, String language, String date, boolean forecast, boolean current) {
+        this.location = location;
+        this.numOfDays = numOfDays;
+        this.timePeriod = timePeriod;
+        this.language = language;
+        this.date = date;
+        this.forecast = forecast;
+        this.current = current;
+
+        this.canonical = new StringBuilder()
+                .append("q=").append(location)
+                .append("&num_of_days=").append(numOfDays)
+                .append("&tp=").append(timePeriod)
+                .append("&lang=").append(language)
+                .append("&date=").append(date == null ? "" : date)
+                .append("&fx=").append(forecast ? "yes" : "no")
+                .append("&cc=").append(current ? "yes" : "no")
+                .toString();
+    }
+
+    /**
+     * Normalized location string.
+     *
+     * @return String location
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * Number of days requested.
+     *
+     * @return int number of days
+     */
+    public int getNumOfDays() {
+        return numOfDays;
+    }
+
+    /**
+     * Hours between forecasts.
+     *
+     * @return int hours between forecasts
+     */
+    public int getTimePeriod() {
+        return timePeriod;
+    }
+
+    /**
+     * Language requested. Never null.
+     *
+     * @return String ISO language code
+     */
+    public String getLanguage() {
+        return language;
+    }
+
+    /**
+     * Date requested as yyyy-MM-dd, or null for today.
+     *
+     * @return String date, or null
+     */
+    public String getDate() {
+        return date;
+    }
+
+    /**
+     * Was forecast data requested.
+     *
+     * @return boolean true if forecast data was requested
+     */
+    public boolean isForecast() {
+        return forecast;
+    }
+
+    /**
+     * Were current conditions requested.
+     *
+     * @return boolean true if current conditions were requested
+     */
+    public boolean isCurrent() {
+        return current;
+    }
+
+    /**
+     * Build a key with the same parameters as this one, but a different
+     * location.
+     *
+     * @param location String new location (will be normalized)
+     * @return CacheKey new key
+     */
+    public CacheKey withLocation(String location) {
+        return new CacheKey(normalize(location), numOfDays, timePeriod, language, date, forecast, current);
+    }
+
+    @Override
+    public int hashCode() {
+        return canonical.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        return canonical.equals(((CacheKey) obj).canonical);
+    }
+
+    /**
+     * Stable string form of the key, suitable for logging or for use as a key
+     * in external storage.
+     *
+     * @return String canonical form of the key
+     */
+    @Override
+    public String toString() {
+        return canonical;
+    }
+
+    /**
+     * Normalize a location the way keys do: trimmed, runs of whitespace
+     * squashed to a single space, and lower case.
+     *
+     * @param location String location as typed
+     * @return String normalized location
+     */
+    public static String normalize(String location) {
+        return location.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Build a CacheKey.
+     */
+    public static class Builder {
+
+        private String location;
+        private int numOfDays = 3;
+        private int timePeriod = 3;
+        private String language;
+        private DateTime date;
+        private boolean forecast = true;
+        private boolean current = true;
+
+        public Builder() {
+            super();
+        }
+
+        public Builder setLocation(String location) {
+            this.location = location;
+            return this;
+        }
+
+        public Builder setNumOfDays(int numOfDays) {
+            this.numOfDays = numOfDays;
+            return this;
+        }
+
+        public Builder setTimePeriod(int timePeriod) {
+            this.timePeriod = timePeriod;
+            return this;
+        }
+
+        public Builder setLanguage(String language) {
+            this.language = language;
+            return this;
+        }
+
+        public Builder setDate(DateTime date) {
+            this.date = date;
+            return this;
+        }
+
+        public Builder setForecast(boolean forecast) {
+            this.forecast = forecast;
+            return this;
+        }
+
+        public Builder setCurrent(boolean current) {
+            this.current = current;
+            return this;
+        }
+
+        public CacheKey build() {
+            if (location == null) {
+                throw new NullPointerException("Location not set");
+            }
+            return new CacheKey(
+                    normalize(location),
+                    numOfDays,
+                    timePeriod,
+                    language == null ? "en" : language.trim().toLowerCase(Locale.ROOT),
+                    date == null ? null : DateTimeFormat.forPattern("yyyy-MM-dd").print(date),
+                    forecast,
+                    current);
+        }
+    }
+}
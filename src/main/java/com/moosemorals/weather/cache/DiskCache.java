@@ -0,0 +1,519 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.cache;
+
+import com.moosemorals.weather.reports.ErrorReport;
+import com.moosemorals.weather.reports.FetchResult;
+import com.moosemorals.weather.reports.Report;
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.xml.WeatherParser;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import javax.xml.stream.XMLStreamException;
+import org.joda.time.DateTimeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache that keeps raw responses on disk, so they survive a restart. </p>
+ *
+ * Responses are appended to segment files in a directory. Each record holds
+ * the key, the expiry times, the raw response and a checksum, so a record that
+ * was half written when the process died is spotted and dropped on the next
+ * start. Full segments are memory mapped for reading. </p>
+ *
+ * The index of where each key lives is kept in memory and rebuilt on startup
+ * by walking the record headers and keys, so startup doesn't read the
+ * response bodies. Only the last record in each segment, where a torn write
+ * would be, is checksummed on startup. Other records are checked the first
+ * time they are read (or copied by a compaction), and dropped if they don't
+ * match. Replaced and dead records stay on disk until {@link #compact()}
+ * copies the live records out of mostly dead segments and deletes them. </p>
+ *
+ * Lookups parse the stored XML, so this is best used behind a
+ * {@link MemoryCache} using a {@link TieredCache}.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class DiskCache implements ResponseCache, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(DiskCache.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x57574632;
+    // magic, key length, body length, expires, stale until, crc
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8 + 4;
+    private static final String SUFFIX = ".seg";
+
+    /**
+     * Default largest size for a segment file, 16Mb.
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private final File directory;
+    private final long maxSegmentSize;
+    private final boolean sync;
+    private final Map<String, Slot> index = new HashMap<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment active;
+
+    /**
+     * Open (or create) a cache in a directory, with default segment size and
+     * without forcing writes to disk.
+     *
+     * @param directory File directory to keep segment files in
+     * @throws IOException if the directory can't be created or read
+     */
+    public DiskCache(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, false);
+    }
+
+    /**
+     * Open (or create) a cache in a directory.
+     *
+     * @param directory File directory to keep segment files in
+     * @param maxSegmentSize long size at which to start a new segment
+     * @param sync boolean true to force each write to disk before returning
+     * @throws IOException if the directory can't be created or read
+     */
+    public DiskCache(File directory, long maxSegmentSize, boolean sync) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create cache directory " + directory);
+        }
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+        this.sync = sync;
+        load();
+    }
+
+    @Override
+    public synchronized CacheEntry get(CacheKey key) {
+        String name = key.toString();
+        Slot slot = index.get(name);
+        if (slot == null) {
+            return null;
+        }
+        if (slot.staleUntil <= DateTimeUtils.currentTimeMillis()) {
+            drop(name, slot);
+            return null;
+        }
+
+        try {
+            byte[] body = slot.segment.read(slot.bodyOffset, slot.bodyLength);
+            if (!verify(name, slot, body)) {
+                drop(name, slot);
+                return null;
+            }
+            Report report = new WeatherParser().parse(new ByteArrayInputStream(body));
+            if (report instanceof ErrorReport) {
+                drop(name, slot);
+                return null;
+            }
+            FetchResult result = new FetchResult.Builder()
+                    .setWeather((WeatherReport) report)
+                    .setRequestsPerSecond(-1)
+                    .setRequestsPerDay(-1)
+                    .build();
+            return new CacheEntry(result, body, slot.expires, slot.staleUntil);
+        } catch (IOException | XMLStreamException ex) {
+            log.warn("Dropping unreadable cache entry for {}", name, ex);
+            drop(name, slot);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized long getExpires(CacheKey key) {
+        Slot slot = index.get(key.toString());
+        if (slot == null || slot.staleUntil <= DateTimeUtils.currentTimeMillis()) {
+            return -1;
+        }
+        return slot.expires;
+    }
+
+    @Override
+    public synchronized void put(CacheKey key, CacheEntry entry) {
+        if (entry.getBody() == null) {
+            return;
+        }
+        String name = key.toString();
+        try {
+            Slot slot = append(name, entry.getBody(), entry.getExpires(), entry.getStaleUntil());
+            Slot old = index.put(name, slot);
+            if (old != null) {
+                old.segment.dead += old.recordLength();
+            }
+        } catch (IOException ex) {
+            log.warn("Can't write cache entry for {}", name, ex);
+        }
+    }
+
+    @Override
+    public synchronized void remove(CacheKey key) {
+        String name = key.toString();
+        Slot slot = index.get(name);
+        if (slot != null) {
+            drop(name, slot);
+        }
+    }
+
+    /**
+     * Number of live entries in the index.
+     *
+     * @return int number of entries
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Drop dead entries, and rewrite segments that are mostly dead. The
+     * active segment is never compacted. Safe to call from a background
+     * thread, but blocks other users of the cache while it runs.
+     *
+     * @throws IOException if there's a problem reading or writing segments
+     */
+    public synchronized void compact() throws IOException {
+        long now = DateTimeUtils.currentTimeMillis();
+
+        Iterator<Map.Entry<String, Slot>> it = index.entrySet().iterator();
+        while (it.hasNext()) {
+            Slot slot = it.next().getValue();
+            if (slot.staleUntil <= now) {
+                slot.segment.dead += slot.recordLength();
+                it.remove();
+            }
+        }
+
+        List<Segment> victims = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment != active && segment.dead * 2 >= segment.size) {
+                victims.add(segment);
+            }
+        }
+        if (victims.isEmpty()) {
+            return;
+        }
+
+        for (Map.Entry<String, Slot> entry : new ArrayList<>(index.entrySet())) {
+            Slot slot = entry.getValue();
+            if (victims.contains(slot.segment)) {
+                byte[] body = slot.segment.read(slot.bodyOffset, slot.bodyLength);
+                if (verify(entry.getKey(), slot, body)) {
+                    index.put(entry.getKey(), append(entry.getKey(), body, slot.expires, slot.staleUntil));
+                } else {
+                    index.remove(entry.getKey());
+                }
+            }
+        }
+
+        for (Segment segment : victims) {
+            segments.remove(segment);
+            segment.close();
+            if (!segment.file.delete()) {
+                log.warn("Can't delete compacted segment {}", segment.file);
+            }
+        }
+        log.debug("Compacted {} segments", victims.size());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+        index.clear();
+        active = null;
+    }
+
+    /**
+     * Check a record against its checksum, if that hasn't been done yet.
+     */
+    private static boolean verify(String name, Slot slot, byte[] body) {
+        if (slot.verified) {
+            return true;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(name.getBytes(UTF8));
+        crc.update(body);
+        if ((int) crc.getValue() != slot.crc) {
+            log.warn("Dropping cache entry for {} from {}, checksum doesn't match", name, slot.segment.file);
+            return false;
+        }
+        slot.verified = true;
+        return true;
+    }
+
+    private void drop(String name, Slot slot) {
+        index.remove(name);
+        slot.segment.dead += slot.recordLength();
+    }
+
+    private Slot append(String name, byte[] body, long expires, long staleUntil) throws IOException {
+        byte[] key = name.getBytes(UTF8);
+        int length = HEADER_SIZE + key.length + body.length;
+
+        if (active == null || (active.size > 0 && active.size + length > maxSegmentSize)) {
+            roll();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        crc.update(body);
+
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(MAGIC)
+                .putInt(key.length)
+                .putInt(body.length)
+                .putLong(expires)
+                .putLong(staleUntil)
+                .putInt((int) crc.getValue())
+                .put(key)
+                .put(body)
+                .flip();
+
+        long offset = active.size;
+        while (record.hasRemaining()) {
+            active.channel.write(record, offset + record.position());
+        }
+        if (sync) {
+            active.channel.force(false);
+        }
+        active.size += length;
+
+        Slot slot = new Slot(active, offset + HEADER_SIZE + key.length, body.length, key.length, expires, staleUntil, (int) crc.getValue());
+        slot.verified = true;
+        return slot;
+    }
+
+    /**
+     * Seal the active segment (if any) and start a new one.
+     */
+    private void roll() throws IOException {
+        long id = 0;
+        if (active != null) {
+            active.seal();
+            id = active.id + 1;
+        } else if (!segments.isEmpty()) {
+            id = segments.get(segments.size() - 1).id + 1;
+        }
+        active = new Segment(id, new File(directory, String.format("%016x%s", id, SUFFIX)));
+        segments.add(active);
+    }
+
+    private void load() throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Can't list cache directory " + directory);
+        }
+        Arrays.sort(files);
+
+        long now = DateTimeUtils.currentTimeMillis();
+        for (File file : files) {
+            long id;
+            try {
+                id = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()), 16);
+            } catch (NumberFormatException ex) {
+                log.warn("Ignoring unexpected file {} in cache directory", file);
+                continue;
+            }
+            Segment segment = new Segment(id, file);
+            segments.add(segment);
+            scan(segment, now);
+            segment.seal();
+        }
+
+        if (!segments.isEmpty()) {
+            // Carry on appending to the newest segment
+            active = segments.get(segments.size() - 1);
+            active.unseal();
+        }
+        log.debug("Loaded {} cache entries from {} segments", index.size(), segments.size());
+    }
+
+    /**
+     * Walk the records in a segment, adding them to the index. Only the
+     * headers and keys are read, apart from the last record which is
+     * checksummed in full. Anything after the first broken record is assumed
+     * to be a torn write and is cut off.
+     */
+    private void scan(Segment segment, long now) throws IOException {
+        MappedByteBuffer map = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+        int position = 0;
+
+        while (position + HEADER_SIZE <= segment.size) {
+            map.position(position);
+            int magic = map.getInt();
+            int keyLength = map.getInt();
+            int bodyLength = map.getInt();
+            long expires = map.getLong();
+            long staleUntil = map.getLong();
+            int check = map.getInt();
+
+            if (magic != MAGIC || keyLength < 0 || bodyLength < 0
+                    || (long) position + HEADER_SIZE + keyLength + bodyLength > segment.size) {
+                break;
+            }
+
+            byte[] key = new byte[keyLength];
+            map.get(key);
+            Slot slot = new Slot(segment, position + HEADER_SIZE + keyLength, bodyLength, keyLength, expires, staleUntil, check);
+            if (position + slot.recordLength() == segment.size) {
+                // Last record, the only one a crash could have left half written
+                CRC32 crc = new CRC32();
+                crc.update(key);
+                ByteBuffer body = map.slice();
+                body.limit(bodyLength);
+                byte[] chunk = new byte[Math.min(bodyLength, 8192)];
+                while (body.hasRemaining()) {
+                    int n = Math.min(chunk.length, body.remaining());
+                    body.get(chunk, 0, n);
+                    crc.update(chunk, 0, n);
+                }
+                if ((int) crc.getValue() != check) {
+                    break;
+                }
+                slot.verified = true;
+            }
+
+            String name = new String(key, UTF8);
+            Slot old = index.put(name, slot);
+            if (old != null) {
+                old.segment.dead += old.recordLength();
+            }
+            if (staleUntil <= now) {
+                drop(name, slot);
+            }
+            position += slot.recordLength();
+        }
+
+        if (position < segment.size) {
+            log.warn("Truncating {} at {} (was {} bytes), last record incomplete", segment.file, position, segment.size);
+            segment.channel.truncate(position);
+            segment.size = position;
+        }
+    }
+
+    /**
+     * Where to find the body of a record.
+     */
+    private static class Slot {
+
+        private final Segment segment;
+        private final long bodyOffset;
+        private final int bodyLength;
+        private final int keyLength;
+        private final long expires;
+        private final long staleUntil;
+        private final int crc;
+        private boolean verified = false;
+
+        private Slot(Segment segment, long bodyOffset, int bodyLength, int keyLength, long expires, long staleUntil, int crc) {
+            this.segment = segment;
+            this.bodyOffset = bodyOffset;
+            this.bodyLength = bodyLength;
+            this.keyLength = keyLength;
+            this.expires = expires;
+            this.staleUntil = staleUntil;
+            this.crc = crc;
+        }
+
+        private int recordLength() {
+            return HEADER_SIZE + keyLength + bodyLength;
+        }
+    }
+
+    /**
+     * One segment file. Sealed segments are read through a memory map, the
+     * active segment through its channel.
+     */
+    private static class Segment {
+
+        private final long id;
+        private final File file;
+        private final FileChannel channel;
+        private MappedByteBuffer map;
+        private long size;
+        private long dead;
+
+        private Segment(long id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+            this.size = channel.size();
+        }
+
+        private void seal() throws IOException {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        private void unseal() {
+            map = null;
+        }
+
+        private byte[] read(long offset, int length) throws IOException {
+            byte[] result = new byte[length];
+            if (map != null) {
+                ByteBuffer view = map.duplicate();
+                view.position((int) offset);
+                view.get(result);
+            } else {
+                ByteBuffer buffer = ByteBuffer.wrap(result);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) < 0) {
+                        throw new IOException("Unexpected end of segment " + file);
+                    }
+                }
+            }
+            return result;
+        }
+
+        private void close() throws IOException {
+            // Mapped buffers are released when they are garbage collected
+            map = null;
+            channel.close();
+        }
+    }
+}
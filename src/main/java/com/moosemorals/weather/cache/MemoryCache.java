@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.joda.time.DateTimeUtils;
+
+/**
+ * Bounded in-memory cache. Least recently used entries are dropped when the
+ * cache is full, and dead entries are dropped when they are next looked at.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class MemoryCache implements ResponseCache {
+
+    private final Object lock = new Object();
+    private final Map<CacheKey, CacheEntry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Build a cache that holds up to maxEntries entries.
+     *
+     * @param maxEntries int maximum number of entries to hold
+     */
+    public MemoryCache(final int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Cache must hold at least one entry");
+        }
+        this.entries = new LinkedHashMap<CacheKey, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, CacheEntry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public CacheEntry get(CacheKey key) {
+        long now = DateTimeUtils.currentTimeMillis();
+        synchronized (lock) {
+            CacheEntry entry = entries.get(key);
+            if (entry != null && entry.isDead(now)) {
+                entries.remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+            return entry;
+        }
+    }
+
+    @Override
+    public long getExpires(CacheKey key) {
+        long now = DateTimeUtils.currentTimeMillis();
+        synchronized (lock) {
+            CacheEntry entry = entries.get(key);
+            return entry == null || entry.isDead(now) ? -1 : entry.getExpires();
+        }
+    }
+
+    @Override
+    public void put(CacheKey key, CacheEntry entry) {
+        synchronized (lock) {
+            entries.put(key, entry);
+        }
+    }
+
+    @Override
+    public void remove(CacheKey key) {
+        synchronized (lock) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Number of entries currently held (including any that are dead but not
+     * yet removed).
+     *
+     * @return int number of entries
+     */
+    public int size() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Number of lookups that found a usable entry.
+     *
+     * @return long number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of lookups that didn't find a usable entry.
+     *
+     * @return long number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+}
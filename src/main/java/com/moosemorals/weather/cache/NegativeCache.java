@@ -0,0 +1,327 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.cache;
+
+import com.moosemorals.weather.reports.ErrorReport;
+import com.moosemorals.weather.reports.FetchResult;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.joda.time.DateTimeUtils;
+
+/**
+ * Remembers queries that the API has rejected, so that retrying the same bad
+ * input doesn't spend quota again. </p>
+ *
+ * Only deterministic errors are remembered: an API error whose message
+ * matches one of the known patterns. Network failures, HTTP errors and parse
+ * failures are never cached, since the next attempt may well succeed. "Unable
+ * to find any matching weather location" is remembered for the location TTL,
+ * anything else that matches for the (usually shorter) error TTL. </p>
+ *
+ * Most lookups are for good queries, so a Bloom filter is checked first and
+ * the entries themselves are only looked at if the filter says the key might
+ * be there. </p>
+ *
+ * At most {@link Builder#setMaxEntries(int) maxEntries} errors are held, least
+ * recently used going first, and that defaults to the expected number of
+ * keys. The filter has room for twice that, so that keys which have been
+ * evicted or have expired can pile up for a while. Once it's full it's rebuilt
+ * from the entries still held, dropping the stale keys and any expired
+ * entries.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class NegativeCache {
+
+    /**
+     * Message the API returns for a location it can't find.
+     */
+    public static final String UNKNOWN_LOCATION = "Unable to find any matching weather location";
+
+    private final Map<CacheKey, CacheEntry> entries;
+    private final long locationTtl;
+    private final long errorTtl;
+    private final List<String> patterns;
+    private final int filterSize;
+    private final double falsePositiveRate;
+    private final Object lock = new Object();
+    private volatile BloomFilter filter;
+    private int added = 0;
+
+    private NegativeCache(Builder builder) {
+        final int maxEntries = builder.maxEntries > 0 ? builder.maxEntries : builder.expectedKeys;
+        this.entries = new LinkedHashMap<CacheKey, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, CacheEntry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.locationTtl = builder.locationTtl;
+        this.errorTtl = builder.errorTtl;
+        this.patterns = new ArrayList<>(builder.patterns);
+        this.filterSize = 2 * Math.max(maxEntries, builder.expectedKeys);
+        this.falsePositiveRate = builder.falsePositiveRate;
+        this.filter = new BloomFilter(filterSize, falsePositiveRate);
+    }
+
+    /**
+     * Look up a remembered error.
+     *
+     * @param key CacheKey query to look for
+     * @return FetchResult holding the error, or null if the query isn't known
+     * to be bad
+     */
+    public FetchResult get(CacheKey key) {
+        if (!filter.mightContain(key.toString())) {
+            return null;
+        }
+        synchronized (lock) {
+            CacheEntry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.isExpired(DateTimeUtils.currentTimeMillis())) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.getResult();
+        }
+    }
+
+    /**
+     * Remember a result if it's a deterministic error. Successes and transient
+     * errors are ignored.
+     *
+     * @param key CacheKey query that produced the result
+     * @param result FetchResult from the network
+     * @return true if the result was remembered
+     */
+    public boolean put(CacheKey key, FetchResult result) {
+        if (result.isSuccess()) {
+            return false;
+        }
+        long ttl = getTtl(result.getError());
+        if (ttl <= 0) {
+            return false;
+        }
+
+        FetchResult stored = new FetchResult.Builder(result)
+                .setRequestsPerSecond(-1)
+                .setRequestsPerDay(-1)
+                .build();
+        long expires = DateTimeUtils.currentTimeMillis() + ttl;
+
+        synchronized (lock) {
+            entries.put(key, new CacheEntry(stored, expires));
+            if (added >= filterSize) {
+                rebuild();
+            } else {
+                filter.add(key.toString());
+                added += 1;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replace the filter with one holding just the live entries. Called with
+     * the lock held.
+     */
+    private void rebuild() {
+        long now = DateTimeUtils.currentTimeMillis();
+        BloomFilter fresh = new BloomFilter(filterSize, falsePositiveRate);
+        Iterator<Map.Entry<CacheKey, CacheEntry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<CacheKey, CacheEntry> e = it.next();
+            if (e.getValue().isExpired(now)) {
+                it.remove();
+            } else {
+                fresh.add(e.getKey().toString());
+            }
+        }
+        added = entries.size();
+        filter = fresh;
+    }
+
+    /**
+     * Forget a remembered error.
+     *
+     * @param key CacheKey query to forget
+     */
+    public void remove(CacheKey key) {
+        synchronized (lock) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * How long to remember an error.
+     *
+     * @param error ErrorReport to check
+     * @return long time to live in milliseconds, or 0 if the error is
+     * transient and shouldn't be remembered
+     */
+    public long getTtl(ErrorReport error) {
+        // Only errors reported by the API itself are deterministic
+        if (error == null || error.getCause() != null || !"APIError".equals(error.getType())) {
+            return 0;
+        }
+        String message = error.getMessage();
+        if (message == null) {
+            return 0;
+        }
+        if (message.contains(UNKNOWN_LOCATION)) {
+            return locationTtl;
+        }
+        for (String p : patterns) {
+            if (message.contains(p)) {
+                return errorTtl;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Number of errors currently held.
+     *
+     * @return int number of entries
+     */
+    public int size() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    public static class Builder {
+
+        private int maxEntries = 0;
+        private int expectedKeys = 100000;
+        private double falsePositiveRate = 0.01;
+        private long locationTtl = 24 * 60 * 60 * 1000;
+        private long errorTtl = 60 * 60 * 1000;
+        private final List<String> patterns = new ArrayList<>();
+
+        public Builder() {
+            patterns.add("There is no weather data available for the date provided");
+        }
+
+        /**
+         * Most errors to hold. Optional, defaults to the expected number of
+         * keys.
+         *
+         * @param maxEntries int maximum number of entries
+         * @return this Builder for chaining
+         */
+        public Builder setMaxEntries(int maxEntries) {
+            if (maxEntries < 1) {
+                throw new IllegalArgumentException("Must hold at least one entry");
+            }
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * Number of bad keys to expect. Sizes the filter, and the entries
+         * unless {@link #setMaxEntries(int)} is called. Optional, defaults to
+         * 100,000.
+         *
+         * @param expectedKeys int expected number of bad keys
+         * @return this Builder for chaining
+         */
+        public Builder setExpectedKeys(int expectedKeys) {
+            if (expectedKeys < 1) {
+                throw new IllegalArgumentException("Expected keys must be positive");
+            }
+            this.expectedKeys = expectedKeys;
+            return this;
+        }
+
+        /**
+         * False positive rate of the filter. A false positive only costs a
+         * lookup in the entries. Optional, defaults to 1%.
+         *
+         * @param falsePositiveRate double rate, between 0 and 1
+         * @return this Builder for chaining
+         */
+        public Builder setFalsePositiveRate(double falsePositiveRate) {
+            if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+                throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+            }
+            this.falsePositiveRate = falsePositiveRate;
+            return this;
+        }
+
+        /**
+         * How long to remember unknown locations. Optional, defaults to a
+         * day.
+         *
+         * @param locationTtl long time to live, milliseconds
+         * @return this Builder for chaining
+         */
+        public Builder setLocationTtl(long locationTtl) {
+            if (locationTtl < 0) {
+                throw new IllegalArgumentException("TTL can't be negative");
+            }
+            this.locationTtl = locationTtl;
+            return this;
+        }
+
+        /**
+         * How long to remember other deterministic errors. Optional, defaults
+         * to an hour.
+         *
+         * @param errorTtl long time to live, milliseconds
+         * @return this Builder for chaining
+         */
+        public Builder setErrorTtl(long errorTtl) {
+            if (errorTtl < 0) {
+                throw new IllegalArgumentException("TTL can't be negative");
+            }
+            this.errorTtl = errorTtl;
+            return this;
+        }
+
+        /**
+         * Add a message fragment that marks an API error as deterministic.
+         * Matching errors are remembered for the error TTL.
+         *
+         * @param fragment String part of the error message
+         * @return this Builder for chaining
+         */
+        public Builder addPattern(String fragment) {
+            if (fragment == null || fragment.isEmpty()) {
+                throw new IllegalArgumentException("Pattern can't be empty");
+            }
+            patterns.add(fragment);
+            return this;
+        }
+
+        public NegativeCache build() {
+            return new NegativeCache(this);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.cache;
+
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.types.Current;
+import com.moosemorals.weather.types.HourlyForecast;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalTime;
+
+/**
+ * Work out expiry from the contents of the report. </p>
+ *
+ * Current conditions are good until the next observation is due (one
+ * observation interval after {@link Current#getObservationTime()}). Forecasts
+ * are good until the start of the next forecast period, since the forecast
+ * for the period we're in won't be replaced until then. When both are present
+ * the earlier of the two wins. </p>
+ *
+ * The result is always clamped between a minimum and maximum lifetime, so a
+ * stale observation doesn't cause a fetch on every call, and a forecast for
+ * next week doesn't stay cached forever.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ReportExpiryPolicy implements ExpiryPolicy {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+
+    private final long observationInterval;
+    private final long minimumLifetime;
+    private final long maximumLifetime;
+
+    /**
+     * Build a policy with default values: observations every hour, lifetimes
+     * between five minutes and six hours.
+     */
+    public ReportExpiryPolicy() {
+        this(HOUR, 5 * MINUTE, 6 * HOUR);
+    }
+
+    /**
+     * Build a policy.
+     *
+     * @param observationInterval long time between observations, milliseconds
+     * @param minimumLifetime long shortest time to keep a report, milliseconds
+     * @param maximumLifetime long longest time to keep a report, milliseconds
+     */
+    public ReportExpiryPolicy(long observationInterval, long minimumLifetime, long maximumLifetime) {
+        if (minimumLifetime < 0 || maximumLifetime < minimumLifetime) {
+            throw new IllegalArgumentException("Lifetimes must be positive, and minimum must not be more than maximum");
+        }
+        this.observationInterval = observationInterval;
+        this.minimumLifetime = minimumLifetime;
+        this.maximumLifetime = maximumLifetime;
+    }
+
+    @Override
+    public long getExpiry(CacheKey key, WeatherReport report, long now) {
+        long expiry = now + maximumLifetime;
+
+        Current current = report.getCurrent();
+        if (current != null && current.getObservationTime() != null) {
+            expiry = Math.min(expiry, observedAt(current.getObservationTime(), now) + observationInterval);
+        }
+
+        if (!report.getHourlyForecasts().isEmpty()) {
+            expiry = Math.min(expiry, nextPeriod(report, key.getTimePeriod(), now));
+        }
+
+        return Math.max(expiry, now + minimumLifetime);
+    }
+
+    /**
+     * Observation time is a time of day (UTC) without a date, so assume it's
+     * the most recent time that matches.
+     */
+    private static long observedAt(LocalTime observationTime, long now) {
+        DateTime today = new DateTime(now, DateTimeZone.UTC);
+        DateTime observed = today.withTime(observationTime.getHourOfDay(), observationTime.getMinuteOfHour(), 0, 0);
+        if (observed.getMillis() > now) {
+            observed = observed.minusDays(1);
+        }
+        return observed.getMillis();
+    }
+
+    /**
+     * Start of the first forecast period after now. If we've run off the end
+     * of the forecast, assume the periods carry on.
+     */
+    private static long nextPeriod(WeatherReport report, int timePeriod, long now) {
+        long last = Long.MIN_VALUE;
+        for (HourlyForecast hour : report.getHourlyForecasts()) {
+            if (hour.getTime() == null) {
+                continue;
+            }
+            long start = hour.getTime().getMillis();
+            if (start > now) {
+                return start;
+            }
+            last = start;
+        }
+        long period = Math.max(1, timePeriod) * HOUR;
+        if (last == Long.MIN_VALUE) {
+            return now + period;
+        }
+        return last + ((now - last) / period + 1) * period;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.cache;
+
+/**
+ * Somewhere to keep responses between fetches. </p>
+ *
+ * Implementations must be safe to use from multiple threads, and must not
+ * return entries that are {@link CacheEntry#isDead(long) dead}. They may
+ * return entries that have expired but are still within their stale period,
+ * it's up to the caller to check.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public interface ResponseCache {
+
+    /**
+     * Look up a cached response.
+     *
+     * @param key CacheKey request parameters
+     * @return CacheEntry cached response, or null if there isn't a usable one
+     */
+    CacheEntry get(CacheKey key);
+
+    /**
+     * When the cached response for a key expires, without loading it. Unlike
+     * {@link #get(com.moosemorals.weather.cache.CacheKey)} this doesn't count
+     * as a hit or miss, and doesn't parse anything, so it's cheap enough for
+     * schedulers to call on every entry they look after.
+     *
+     * @param key CacheKey request parameters
+     * @return long expiry time, milliseconds since the epoch, or -1 if there
+     * isn't a usable entry
+     */
+    long getExpires(CacheKey key);
+
+    /**
+     * Store a response, replacing any previous entry for the key.
+     *
+     * @param key CacheKey request parameters
+     * @param entry CacheEntry response to store
+     */
+    void put(CacheKey key, CacheEntry entry);
+
+    /**
+     * Remove any entry for the key.
+     *
+     * @param key CacheKey request parameters
+     */
+    void remove(CacheKey key);
+}
@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Refreshes expired cache entries in the background, so callers can be given
+ * the stale entry straight away instead of waiting for the network. </p>
+ *
+ * Only one refresh per key runs at a time, and no more than a fixed number of
+ * refreshes run at once. Requests for a refresh beyond that are dropped; the
+ * next caller to find the stale entry will ask again. </p>
+ *
+ * Share one Revalidator between fetchers that share a cache.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class Revalidator {
+
+    private static final Logger log = LoggerFactory.getLogger(Revalidator.class);
+
+    private final Executor executor;
+    private final long grace;
+    private final Semaphore permits;
+    private final ConcurrentMap<CacheKey, Boolean> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong staleServed = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Build a Revalidator.
+     *
+     * @param executor Executor to run refreshes on
+     * @param grace long how long after expiry an entry can still be served,
+     * milliseconds
+     * @param maxConcurrent int most refreshes to run at once
+     */
+    public Revalidator(Executor executor, long grace, int maxConcurrent) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be null");
+        }
+        if (grace < 0) {
+            throw new IllegalArgumentException("Grace period must not be negative");
+        }
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("Must allow at least one concurrent refresh");
+        }
+        this.executor = executor;
+        this.grace = grace;
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * How long after expiry an entry can still be served.
+     *
+     * @return long grace period, milliseconds
+     */
+    public long getGrace() {
+        return grace;
+    }
+
+    /**
+     * Note that a stale entry was served, and start a refresh for its key if
+     * there isn't one running already.
+     *
+     * @param key CacheKey key that was served stale
+     * @param refresh Runnable fetch that will update the cache
+     * @return boolean true if a refresh was started
+     */
+    public boolean servedStale(final CacheKey key, final Runnable refresh) {
+        staleServed.incrementAndGet();
+
+        if (inFlight.putIfAbsent(key, Boolean.TRUE) != null) {
+            return false;
+        }
+        if (!permits.tryAcquire()) {
+            inFlight.remove(key);
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refresh.run();
+                    } catch (RuntimeException ex) {
+                        log.warn("Background refresh for {} failed", key, ex);
+                    } finally {
+                        inFlight.remove(key);
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            inFlight.remove(key);
+            permits.release();
+            rejected.incrementAndGet();
+            return false;
+        }
+        started.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Number of times a stale entry has been served.
+     *
+     * @return long stale entries served
+     */
+    public long getStaleServed() {
+        return staleServed.get();
+    }
+
+    /**
+     * Number of background refreshes started.
+     *
+     * @return long refreshes started
+     */
+    public long getRefreshesStarted() {
+        return started.get();
+    }
+
+    /**
+     * Number of refreshes that weren't started because too many were already
+     * running (or the executor refused them).
+     *
+     * @return long refreshes rejected
+     */
+    public long getRefreshesRejected() {
+        return rejected.get();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.cache;
+
+import com.moosemorals.weather.geo.Geohash;
+import com.moosemorals.weather.geo.LatLong;
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.types.Location;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Cache wrapper that treats nearby latitude/longitude locations as the same
+ * place. </p>
+ *
+ * Location strings that parse as a "latitude,longitude" pair are snapped to a
+ * cell (either a geohash or a fixed size grid) before being passed to the
+ * wrapped cache, so requests from anywhere in the cell share one entry. Other
+ * locations are passed through unchanged. </p>
+ *
+ * The resolved location (the <code>nearest_area</code> from the API) of the
+ * most recent report stored for each cell is kept, and can be looked up with
+ * {@link #getResolvedLocation(java.lang.String)}. Only the most recently used
+ * {@link #MAX_RESOLVED} cells are remembered.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class SnappingCache implements ResponseCache {
+
+    /**
+     * Most cells to remember the resolved location for.
+     */
+    public static final int MAX_RESOLVED = 10000;
+
+    private final ResponseCache delegate;
+    private final int precision;
+    private final double cellSize;
+    private final Map<String, Location> resolved = new LinkedHashMap<String, Location>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Location> eldest) {
+            return size() > MAX_RESOLVED;
+        }
+    };
+
+    private SnappingCache(ResponseCache delegate, int precision, double cellSize) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate cache must not be null");
+        }
+        this.delegate = delegate;
+        this.precision = precision;
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Snap to geohash cells.
+     *
+     * @param delegate ResponseCache cache to store entries in
+     * @param precision int geohash length, between 1 and
+     * {@link Geohash#MAX_PRECISION}
+     * @return SnappingCache new cache
+     */
+    public static SnappingCache byGeohash(ResponseCache delegate, int precision) {
+        if (precision < 1 || precision > Geohash.MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision must be between 1 and " + Geohash.MAX_PRECISION);
+        }
+        return new SnappingCache(delegate, precision, 0);
+    }
+
+    /**
+     * Snap to a grid of fixed size cells.
+     *
+     * @param delegate ResponseCache cache to store entries in
+     * @param cellSize double size of grid cells, decimal degrees
+     * @return SnappingCache new cache
+     */
+    public static SnappingCache byGrid(ResponseCache delegate, double cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("Cell size must be positive");
+        }
+        return new SnappingCache(delegate, 0, cellSize);
+    }
+
+    /**
+     * Name of the cell a location falls into.
+     *
+     * @param location String location, as passed to the fetcher
+     * @return String cell name, or null if the location isn't a
+     * latitude/longitude pair
+     */
+    public String getCell(String location) {
+        LatLong position = LatLong.parse(location);
+        if (position == null) {
+            return null;
+        }
+        if (cellSize > 0) {
+            long row = (long) Math.floor(position.getLatitude() / cellSize);
+            long col = (long) Math.floor(position.getLongitude() / cellSize);
+            return String.format(Locale.ROOT, "grid:%s:%d:%d", cellSize, row, col);
+        } else {
+            return "geohash:" + Geohash.encode(position, precision);
+        }
+    }
+
+    /**
+     * Location the API resolved the cell containing this location to.
+     *
+     * @param location String location, as passed to the fetcher
+     * @return Location nearest area for the cell, or null if nothing has been
+     * stored for the cell yet (or the location isn't a latitude/longitude pair)
+     */
+    public Location getResolvedLocation(String location) {
+        String cell = getCell(location);
+        if (cell == null) {
+            return null;
+        }
+        synchronized (resolved) {
+            return resolved.get(cell);
+        }
+    }
+
+    @Override
+    public CacheEntry get(CacheKey key) {
+        return delegate.get(snap(key));
+    }
+
+    @Override
+    public long getExpires(CacheKey key) {
+        return delegate.getExpires(snap(key));
+    }
+
+    @Override
+    public void put(CacheKey key, CacheEntry entry) {
+        String cell = getCell(key.getLocation());
+        if (cell != null) {
+            WeatherReport report = entry.getResult() == null ? null : entry.getResult().getWeather();
+            if (report != null && report.getLocation() != null) {
+                synchronized (resolved) {
+                    resolved.put(cell, report.getLocation());
+                }
+            }
+            key = key.withLocation(cell);
+        }
+        delegate.put(key, entry);
+    }
+
+    @Override
+    public void remove(CacheKey key) {
+        delegate.remove(snap(key));
+    }
+
+    private CacheKey snap(CacheKey key) {
+        String cell = getCell(key.getLocation());
+        return cell == null ? key : key.withLocation(cell);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stack of caches, fastest first. Lookups try each cache in turn, and copy
+ * hits into the faster caches. New entries go into every cache.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class TieredCache implements ResponseCache {
+
+    private final List<ResponseCache> tiers;
+
+    /**
+     * Build a tiered cache.
+     *
+     * @param tiers ResponseCache... caches, fastest first
+     */
+    public TieredCache(ResponseCache... tiers) {
+        if (tiers.length == 0) {
+            throw new IllegalArgumentException("Need at least one tier");
+        }
+        this.tiers = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(tiers)));
+    }
+
+    @Override
+    public CacheEntry get(CacheKey key) {
+        for (int i = 0; i < tiers.size(); i += 1) {
+            CacheEntry entry = tiers.get(i).get(key);
+            if (entry != null) {
+                for (int j = 0; j < i; j += 1) {
+                    tiers.get(j).put(key, entry);
+                }
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public long getExpires(CacheKey key) {
+        for (ResponseCache tier : tiers) {
+            long expires = tier.getExpires(key);
+            if (expires >= 0) {
+                return expires;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void put(CacheKey key, CacheEntry entry) {
+        for (ResponseCache tier : tiers) {
+            tier.put(key, entry);
+        }
+    }
+
+    @Override
+    public void remove(CacheKey key) {
+        for (ResponseCache tier : tiers) {
+            tier.remove(key);
+        }
+    }
+}
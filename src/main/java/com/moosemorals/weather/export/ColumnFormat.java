@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.export;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Constants and encoding helpers shared by {@link ColumnarExporter} and
+ * {@link ColumnarReader}. </p>
+ *
+ * A file is a run of blocks, each holding up to a row group of rows. A block
+ * is a header (magic, row count, raw length, compressed length, CRC32 of the
+ * compressed bytes) followed by the deflated payload. The payload holds:
+ * </p>
+ *
+ * <ul>
+ * <li>the location dictionary: a count, then each name as a length and UTF-8
+ * bytes</li>
+ * <li>the location column: a count of runs, then each run as a dictionary
+ * index and a length</li>
+ * <li>the time column: delta of delta, zigzag varints</li>
+ * <li>a count of value columns, then each as a field ordinal, an encoding
+ * byte, and the values</li>
+ * </ul>
+ *
+ * Value columns are either {@link #SCALED}, where every value is a whole
+ * number once multiplied by a power of ten (the scale byte follows the
+ * encoding) and is stored as zigzag varint deltas, or {@link #RAW} eight
+ * byte doubles for anything else.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+final class ColumnFormat {
+
+    static final int MAGIC = 0x57584331;
+    static final int HEADER_SIZE = 20;
+
+    static final byte RAW = 0;
+    static final byte SCALED = 1;
+
+    // Largest whole number a double holds exactly
+    private static final double LIMIT = 9007199254740992.0;
+    private static final double[] POWERS = {1, 10, 100, 1000, 10000};
+
+    private ColumnFormat() {
+        super();
+    }
+
+    static double power(int scale) {
+        return POWERS[scale];
+    }
+
+    /**
+     * Find the smallest scale that stores every value exactly, or -1 if
+     * there isn't one. Values that were widened from a float count as exact
+     * if they come back as the same float, so a precipitation of 0.1 is
+     * stored as 1 at scale 1.
+     *
+     * @param values double[] values
+     * @param count int number of values to check
+     * @return int scale, or -1 for raw
+     */
+    static int chooseScale(double[] values, int count) {
+        for (int scale = 0; scale < POWERS.length; scale += 1) {
+            double p = POWERS[scale];
+            boolean ok = true;
+            for (int i = 0; i < count && ok; i += 1) {
+                double v = values[i];
+                if (Double.isNaN(v) || Double.isInfinite(v)) {
+                    return -1;
+                }
+                double s = Math.rint(v * p);
+                if (Math.abs(s) >= LIMIT) {
+                    return -1;
+                }
+                double back = s / p;
+                ok = back == v || ((double) (float) v == v && (float) back == (float) v);
+            }
+            if (ok) {
+                return scale;
+            }
+        }
+        return -1;
+    }
+
+    static void putVarInt(ByteBuffer out, int value) {
+        putVarUnsigned(out, value & 0xffffffffL);
+    }
+
+    static void putVarLong(ByteBuffer out, long value) {
+        // Zigzag, so small negative numbers stay short
+        putVarUnsigned(out, (value << 1) ^ (value >> 63));
+    }
+
+    private static void putVarUnsigned(ByteBuffer out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int getVarInt(ByteBuffer in) {
+        return (int) getVarUnsigned(in);
+    }
+
+    static long getVarLong(ByteBuffer in) {
+        long raw = getVarUnsigned(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    private static long getVarUnsigned(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
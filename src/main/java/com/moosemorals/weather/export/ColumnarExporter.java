@@ -0,0 +1,384 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.export;
+
+import com.moosemorals.weather.series.Field;
+import com.moosemorals.weather.series.HourlySeries;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes hourly series to a compact column oriented file. </p>
+ *
+ * Rows are collected into primitive arrays until there's a row group's
+ * worth, then each column is encoded on its own (see {@link ColumnFormat}):
+ * times as delta of delta, locations as a dictionary with run lengths, and
+ * values as scaled integer deltas where they're whole numbers at some
+ * decimal scale, which is nearly all of them. The block is then deflated
+ * and written to the channel in one go. </p>
+ *
+ * The arrays, encode buffer and deflater are reused from block to block, so
+ * once the first block is written the only allocation is the dictionary.
+ * Read the file back with {@link ColumnarReader}.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ColumnarExporter implements SeriesExporter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final WritableByteChannel channel;
+    private final Field[] fields;
+    private final int rowGroupSize;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer header = ByteBuffer.allocate(ColumnFormat.HEADER_SIZE);
+
+    private final long[] times;
+    private final int[] locations;
+    private final double[][] columns;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private byte[][] names = new byte[16][];
+    private int rows = 0;
+
+    private ByteBuffer raw = ByteBuffer.allocate(0);
+    private byte[] compressed = new byte[0];
+    private ByteBuffer compressedView = ByteBuffer.wrap(compressed);
+    private boolean closed = false;
+
+    private ColumnarExporter(Builder builder, WritableByteChannel channel) {
+        this.channel = channel;
+        this.fields = builder.fields.clone();
+        this.rowGroupSize = builder.rowGroupSize;
+        this.deflater = new Deflater(builder.level);
+
+        times = new long[rowGroupSize];
+        locations = new int[rowGroupSize];
+        columns = new double[fields.length][rowGroupSize];
+    }
+
+    @Override
+    public void write(String location, HourlySeries series) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Exporter is closed");
+        }
+        int row = 0;
+        while (row < series.size()) {
+            if (rows == rowGroupSize) {
+                writeBlock();
+            }
+            int id = lookup(location);
+            int n = Math.min(series.size() - row, rowGroupSize - rows);
+            for (int i = 0; i < n; i += 1) {
+                times[rows + i] = series.getTime(row + i);
+                locations[rows + i] = id;
+            }
+            for (int f = 0; f < fields.length; f += 1) {
+                double[] column = columns[f];
+                Field field = fields[f];
+                for (int i = 0; i < n; i += 1) {
+                    column[rows + i] = series.get(field, row + i);
+                }
+            }
+            rows += n;
+            row += n;
+        }
+    }
+
+    /**
+     * Write buffered rows as a (short) block. Flushing often makes for a
+     * bigger file, since each block carries its own dictionary and deflate
+     * state.
+     *
+     * @throws IOException if the block can't be written
+     */
+    @Override
+    public void flush() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Exporter is closed");
+        }
+        writeBlock();
+    }
+
+    /**
+     * Write any buffered rows and close the channel.
+     *
+     * @throws IOException if the last block can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            writeBlock();
+        } finally {
+            closed = true;
+            deflater.end();
+            channel.close();
+        }
+    }
+
+    private int lookup(String location) {
+        Integer id = dictionary.get(location);
+        if (id == null) {
+            id = dictionary.size();
+            if (id == names.length) {
+                byte[][] grown = new byte[names.length * 2][];
+                System.arraycopy(names, 0, grown, 0, names.length);
+                names = grown;
+            }
+            names[id] = location.getBytes(UTF8);
+            dictionary.put(location, id);
+        }
+        return id;
+    }
+
+    private void writeBlock() throws IOException {
+        if (rows == 0) {
+            return;
+        }
+
+        // Varints are at most 10 bytes, raw doubles 8
+        long bound = 10L * 2 + 10L * rows * 3 + (3 + 10L * rows) * fields.length;
+        for (int i = 0; i < dictionary.size(); i += 1) {
+            bound += 5 + names[i].length;
+        }
+        if (bound > Integer.MAX_VALUE) {
+            throw new IOException("Row group too big to encode");
+        }
+        if (raw.capacity() < bound) {
+            raw = ByteBuffer.allocate((int) bound);
+        }
+
+        raw.clear();
+        encodeLocations();
+        encodeTimes();
+        ColumnFormat.putVarInt(raw, fields.length);
+        for (int f = 0; f < fields.length; f += 1) {
+            encodeValues(fields[f], columns[f]);
+        }
+        int rawLength = raw.position();
+
+        deflater.reset();
+        deflater.setInput(raw.array(), 0, rawLength);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                byte[] grown = new byte[Math.max(4096, compressed.length * 2)];
+                System.arraycopy(compressed, 0, grown, 0, length);
+                compressed = grown;
+                compressedView = ByteBuffer.wrap(compressed);
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+
+        crc.reset();
+        crc.update(compressed, 0, length);
+
+        header.clear();
+        header.putInt(ColumnFormat.MAGIC)
+                .putInt(rows)
+                .putInt(rawLength)
+                .putInt(length)
+                .putInt((int) crc.getValue());
+        header.flip();
+        compressedView.clear();
+        compressedView.limit(length);
+
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        while (compressedView.hasRemaining()) {
+            channel.write(compressedView);
+        }
+
+        rows = 0;
+        dictionary.clear();
+    }
+
+    private void encodeLocations() {
+        ColumnFormat.putVarInt(raw, dictionary.size());
+        for (int i = 0; i < dictionary.size(); i += 1) {
+            ColumnFormat.putVarInt(raw, names[i].length);
+            raw.put(names[i]);
+        }
+
+        int runs = 0;
+        for (int i = 0; i < rows; i += 1) {
+            if (i == 0 || locations[i] != locations[i - 1]) {
+                runs += 1;
+            }
+        }
+        ColumnFormat.putVarInt(raw, runs);
+        int start = 0;
+        for (int i = 1; i <= rows; i += 1) {
+            if (i == rows || locations[i] != locations[start]) {
+                ColumnFormat.putVarInt(raw, locations[start]);
+                ColumnFormat.putVarInt(raw, i - start);
+                start = i;
+            }
+        }
+    }
+
+    private void encodeTimes() {
+        long last = 0;
+        long lastDelta = 0;
+        for (int i = 0; i < rows; i += 1) {
+            long delta = times[i] - last;
+            ColumnFormat.putVarLong(raw, delta - lastDelta);
+            last = times[i];
+            lastDelta = delta;
+        }
+    }
+
+    private void encodeValues(Field field, double[] values) {
+        raw.put((byte) field.ordinal());
+        int scale = ColumnFormat.chooseScale(values, rows);
+        if (scale < 0) {
+            raw.put(ColumnFormat.RAW);
+            for (int i = 0; i < rows; i += 1) {
+                raw.putDouble(values[i]);
+            }
+            return;
+        }
+
+        raw.put(ColumnFormat.SCALED);
+        raw.put((byte) scale);
+        double p = ColumnFormat.power(scale);
+        long last = 0;
+        for (int i = 0; i < rows; i += 1) {
+            long v = (long) Math.rint(values[i] * p);
+            ColumnFormat.putVarLong(raw, v - last);
+            last = v;
+        }
+    }
+
+    public static class Builder {
+
+        private File file;
+        private WritableByteChannel channel;
+        private Field[] fields = Field.values();
+        private int rowGroupSize = 64 * 1024;
+        private int level = Deflater.DEFAULT_COMPRESSION;
+
+        public Builder() {
+            super();
+        }
+
+        /**
+         * File to write to. It's truncated if it exists. One of file or
+         * channel is required.
+         *
+         * @param file File to write
+         * @return this Builder for chaining
+         */
+        public Builder setFile(File file) {
+            this.file = file;
+            return this;
+        }
+
+        /**
+         * Channel to write to, instead of a file. The exporter closes it
+         * when it's closed.
+         *
+         * @param channel WritableByteChannel to write to
+         * @return this Builder for chaining
+         */
+        public Builder setChannel(WritableByteChannel channel) {
+            this.channel = channel;
+            return this;
+        }
+
+        /**
+         * Fields to export, in order. Optional, defaults to every field.
+         *
+         * @param fields Field... fields to export
+         * @return this Builder for chaining
+         */
+        public Builder setFields(Field... fields) {
+            if (fields.length == 0) {
+                throw new IllegalArgumentException("Need at least one field");
+            }
+            this.fields = fields.clone();
+            return this;
+        }
+
+        /**
+         * Rows per block. Bigger groups compress better but need more
+         * memory while writing and reading. Optional, defaults to 65536.
+         *
+         * @param rowGroupSize int rows per block
+         * @return this Builder for chaining
+         */
+        public Builder setRowGroupSize(int rowGroupSize) {
+            if (rowGroupSize < 1) {
+                throw new IllegalArgumentException("Row group size must be positive");
+            }
+            this.rowGroupSize = rowGroupSize;
+            return this;
+        }
+
+        /**
+         * Deflate level, 0 to 9. Optional, defaults to the deflater's
+         * default.
+         *
+         * @param level int compression level
+         * @return this Builder for chaining
+         */
+        public Builder setLevel(int level) {
+            if (level < 0 || level > 9) {
+                throw new IllegalArgumentException("Level must be between 0 and 9");
+            }
+            this.level = level;
+            return this;
+        }
+
+        /**
+         * Build the exporter, opening the file if one was set.
+         *
+         * @return ColumnarExporter exporter
+         * @throws IOException if the file can't be opened
+         * @throws NullPointerException if neither file nor channel is set
+         */
+        public ColumnarExporter build() throws IOException {
+            if (channel != null) {
+                return new ColumnarExporter(this, channel);
+            }
+            if (file == null) {
+                throw new NullPointerException("File not set");
+            }
+            return new ColumnarExporter(this, new FileOutputStream(file).getChannel());
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.export;
+
+import com.moosemorals.weather.series.Field;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads back files written by {@link ColumnarExporter}, a row at a time.
+ * </p>
+ *
+ * Blocks are read and decoded whole, into arrays that are reused from block
+ * to block. Call {@link #next()} to move to each row, then read it with the
+ * getters:
+ *
+ * <pre>
+ * while (reader.next()) {
+ *     total += reader.get(Field.PRECIP_MM);
+ * }
+ * </pre>
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ColumnarReader implements Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(ColumnFormat.HEADER_SIZE);
+    private final Inflater inflater = new Inflater();
+    private final CRC32 crc = new CRC32();
+
+    private byte[] compressed = new byte[0];
+    private byte[] raw = new byte[0];
+    private long[] times = new long[0];
+    private int[] locations = new int[0];
+    private String[] names = new String[0];
+    private final double[][] columns = new double[Field.values().length][];
+    private final boolean[] present = new boolean[Field.values().length];
+    private int rows = 0;
+    private int row = -1;
+    private long blockStart = 0;
+    private long position = 0;
+
+    /**
+     * Read from a file.
+     *
+     * @param file File to read
+     * @throws IOException if the file can't be opened
+     */
+    public ColumnarReader(File file) throws IOException {
+        this(new FileInputStream(file).getChannel());
+    }
+
+    /**
+     * Read from a channel. The reader closes it when it's closed.
+     *
+     * @param channel ReadableByteChannel to read
+     */
+    public ColumnarReader(ReadableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Move to the next row.
+     *
+     * @return boolean true if there is a row, false at the end of the file
+     * @throws IOException if the file can't be read or is corrupt
+     */
+    public boolean next() throws IOException {
+        row += 1;
+        while (row >= rows) {
+            if (!readBlock()) {
+                return false;
+            }
+            row = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Location of the current row.
+     *
+     * @return String location
+     */
+    public String getLocation() {
+        return names[locations[row]];
+    }
+
+    /**
+     * Time of the current row.
+     *
+     * @return long time, milliseconds since the epoch
+     */
+    public long getTime() {
+        return times[row];
+    }
+
+    /**
+     * Was a field exported.
+     *
+     * @param field Field to check
+     * @return boolean true if the current block has the field
+     */
+    public boolean has(Field field) {
+        return present[field.ordinal()];
+    }
+
+    /**
+     * Value of a field in the current row.
+     *
+     * @param field Field to read
+     * @return double value
+     * @throws IllegalArgumentException if the field wasn't exported
+     */
+    public double get(Field field) {
+        if (!present[field.ordinal()]) {
+            throw new IllegalArgumentException(field + " wasn't exported");
+        }
+        return columns[field.ordinal()][row];
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+
+    private boolean readBlock() throws IOException {
+        blockStart = position;
+        header.clear();
+        if (!readFully(header, true)) {
+            return false;
+        }
+        header.flip();
+        int magic = header.getInt();
+        int count = header.getInt();
+        int rawLength = header.getInt();
+        int length = header.getInt();
+        int check = header.getInt();
+        if (magic != ColumnFormat.MAGIC || count < 0 || rawLength < 0 || length < 0) {
+            throw new IOException("Bad block header at " + blockStart);
+        }
+
+        if (compressed.length < length) {
+            compressed = new byte[length];
+        }
+        readFully(ByteBuffer.wrap(compressed, 0, length), false);
+        crc.reset();
+        crc.update(compressed, 0, length);
+        if ((int) crc.getValue() != check) {
+            throw new IOException("Checksum mismatch in block at " + blockStart);
+        }
+
+        if (raw.length < rawLength) {
+            raw = new byte[rawLength];
+        }
+        inflater.reset();
+        inflater.setInput(compressed, 0, length);
+        try {
+            int n = 0;
+            while (n < rawLength && !inflater.finished()) {
+                int got = inflater.inflate(raw, n, rawLength - n);
+                if (got == 0 && inflater.needsInput()) {
+                    break;
+                }
+                n += got;
+            }
+            if (n != rawLength) {
+                throw new IOException("Short block at " + blockStart);
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupt block at " + blockStart, ex);
+        }
+
+        try {
+            decode(ByteBuffer.wrap(raw, 0, rawLength), count);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException ex) {
+            throw new IOException("Corrupt block at " + blockStart, ex);
+        }
+        return true;
+    }
+
+    private void decode(ByteBuffer in, int count) throws IOException {
+        rows = 0;
+        if (times.length < count) {
+            times = new long[count];
+            locations = new int[count];
+        }
+
+        int dictionary = ColumnFormat.getVarInt(in);
+        if (names.length < dictionary) {
+            names = new String[dictionary];
+        }
+        for (int i = 0; i < dictionary; i += 1) {
+            int n = ColumnFormat.getVarInt(in);
+            names[i] = new String(in.array(), in.position(), n, UTF8);
+            in.position(in.position() + n);
+        }
+
+        int runs = ColumnFormat.getVarInt(in);
+        int r = 0;
+        for (int i = 0; i < runs; i += 1) {
+            int id = ColumnFormat.getVarInt(in);
+            int n = ColumnFormat.getVarInt(in);
+            if (id < 0 || id >= dictionary || n < 0 || r + n > count) {
+                throw new IOException("Bad location run in block at " + blockStart);
+            }
+            for (int j = 0; j < n; j += 1) {
+                locations[r + j] = id;
+            }
+            r += n;
+        }
+        if (r != count) {
+            throw new IOException("Location runs don't cover block at " + blockStart);
+        }
+
+        long last = 0;
+        long lastDelta = 0;
+        for (int i = 0; i < count; i += 1) {
+            long delta = lastDelta + ColumnFormat.getVarLong(in);
+            last += delta;
+            times[i] = last;
+            lastDelta = delta;
+        }
+
+        Field[] all = Field.values();
+        for (int f = 0; f < present.length; f += 1) {
+            present[f] = false;
+        }
+        int fieldCount = ColumnFormat.getVarInt(in);
+        for (int f = 0; f < fieldCount; f += 1) {
+            int ordinal = in.get();
+            if (ordinal < 0 || ordinal >= all.length) {
+                throw new IOException("Unknown field in block at " + blockStart);
+            }
+            if (columns[ordinal] == null || columns[ordinal].length < count) {
+                columns[ordinal] = new double[count];
+            }
+            decodeValues(in, columns[ordinal], count);
+            present[ordinal] = true;
+        }
+        rows = count;
+    }
+
+    private void decodeValues(ByteBuffer in, double[] values, int count) throws IOException {
+        byte encoding = in.get();
+        if (encoding == ColumnFormat.RAW) {
+            for (int i = 0; i < count; i += 1) {
+                values[i] = in.getDouble();
+            }
+        } else if (encoding == ColumnFormat.SCALED) {
+            double p = ColumnFormat.power(in.get());
+            long last = 0;
+            for (int i = 0; i < count; i += 1) {
+                last += ColumnFormat.getVarLong(in);
+                values[i] = last / p;
+            }
+        } else {
+            throw new IOException("Unknown encoding " + encoding + " in block at " + blockStart);
+        }
+    }
+
+    /**
+     * Fill a buffer from the channel.
+     *
+     * @param endOk boolean true if the channel may already be at its end
+     * @return boolean false if the channel was already at its end
+     */
+    private boolean readFully(ByteBuffer buffer, boolean endOk) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer);
+            if (n < 0) {
+                if (endOk && buffer.position() == start) {
+                    return false;
+                }
+                throw new IOException("Unexpected end of file at " + position);
+            }
+            position += n;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.export;
+
+import com.moosemorals.weather.series.Field;
+import com.moosemorals.weather.series.HourlySeries;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Writes hourly series as CSV. </p>
+ *
+ * The first row is a header: <code>location,time</code> followed by the
+ * lower case names of the exported fields. Each following row is one hour
+ * for one location, with the time in ISO 8601 UTC. Whole numbers are
+ * written without a decimal point, and values that came from floats are
+ * written as the float, so a precipitation of 0.1 doesn't turn into
+ * 0.10000000149011612. </p>
+ *
+ * Numbers and times are encoded straight into a reused byte buffer rather
+ * than going through strings, and the buffer is only handed to the channel
+ * when it fills up.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class CsvExporter implements SeriesExporter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long DAY = 24 * 60 * 60 * 1000;
+    // Longest time, and longest number with its separator
+    private static final int TIME_WIDTH = 24;
+    private static final int VALUE_WIDTH = 32;
+
+    private final WritableByteChannel channel;
+    private final Field[] fields;
+    private final StringBuilder scratch = new StringBuilder(VALUE_WIDTH);
+    private ByteBuffer buffer;
+    private boolean headerWritten = false;
+    private boolean closed = false;
+
+    private CsvExporter(Builder builder, WritableByteChannel channel) {
+        this.channel = channel;
+        this.fields = builder.fields.clone();
+        this.buffer = ByteBuffer.allocate(builder.bufferSize);
+    }
+
+    @Override
+    public void write(String location, HourlySeries series) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Exporter is closed");
+        }
+        if (!headerWritten) {
+            writeHeader();
+        }
+
+        byte[] name = quote(location).getBytes(UTF8);
+        int width = name.length + TIME_WIDTH + VALUE_WIDTH * fields.length;
+        for (int row = 0; row < series.size(); row += 1) {
+            ensure(width);
+            buffer.put(name);
+            buffer.put((byte) ',');
+            putTime(series.getTime(row));
+            for (Field f : fields) {
+                buffer.put((byte) ',');
+                putValue(series.get(f, row));
+            }
+            buffer.put((byte) '\n');
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Exporter is closed");
+        }
+        drain();
+    }
+
+    /**
+     * Write any buffered rows and close the channel. A file with no rows
+     * still gets a header.
+     *
+     * @throws IOException if the last rows can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (!headerWritten) {
+                writeHeader();
+            }
+            drain();
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        StringBuilder line = new StringBuilder("location,time");
+        for (Field f : fields) {
+            line.append(',').append(f.name().toLowerCase(Locale.ROOT));
+        }
+        line.append('\n');
+        byte[] bytes = line.toString().getBytes(UTF8);
+        ensure(bytes.length);
+        buffer.put(bytes);
+        headerWritten = true;
+    }
+
+    private void ensure(int needed) throws IOException {
+        if (buffer.remaining() < needed) {
+            drain();
+            if (buffer.capacity() < needed) {
+                buffer = ByteBuffer.allocate(needed);
+            }
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void putValue(double v) {
+        if (Double.isNaN(v)) {
+            // Empty cell
+            return;
+        }
+        if (v == Math.rint(v) && Math.abs(v) < 1e15) {
+            putLong((long) v);
+            return;
+        }
+        scratch.setLength(0);
+        if ((double) (float) v == v) {
+            scratch.append((float) v);
+        } else {
+            scratch.append(v);
+        }
+        for (int i = 0; i < scratch.length(); i += 1) {
+            buffer.put((byte) scratch.charAt(i));
+        }
+    }
+
+    private void putLong(long v) {
+        if (v < 0) {
+            buffer.put((byte) '-');
+            v = -v;
+        }
+        int start = buffer.position();
+        do {
+            buffer.put((byte) ('0' + v % 10));
+            v /= 10;
+        } while (v > 0);
+
+        // Digits went in backwards
+        byte[] array = buffer.array();
+        int lo = buffer.arrayOffset() + start;
+        int hi = buffer.arrayOffset() + buffer.position() - 1;
+        while (lo < hi) {
+            byte t = array[lo];
+            array[lo] = array[hi];
+            array[hi] = t;
+            lo += 1;
+            hi -= 1;
+        }
+    }
+
+    private void putDigits(long v, int width) {
+        for (int i = width - 1; i >= 0; i -= 1) {
+            buffer.put(buffer.position() + i, (byte) ('0' + v % 10));
+            v /= 10;
+        }
+        buffer.position(buffer.position() + width);
+    }
+
+    /**
+     * Write a time as yyyy-MM-ddTHH:mm:ssZ without going through a
+     * formatter. The date is worked out from the day number with the usual
+     * civil calendar arithmetic.
+     */
+    private void putTime(long millis) {
+        long days = millis / DAY;
+        long ms = millis % DAY;
+        if (ms < 0) {
+            days -= 1;
+            ms += DAY;
+        }
+
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long day = doy - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year < 0 || year > 9999) {
+            putLong(millis);
+            return;
+        }
+        putDigits(year, 4);
+        buffer.put((byte) '-');
+        putDigits(month, 2);
+        buffer.put((byte) '-');
+        putDigits(day, 2);
+        buffer.put((byte) 'T');
+        putDigits(ms / 3600000, 2);
+        buffer.put((byte) ':');
+        putDigits(ms / 60000 % 60, 2);
+        buffer.put((byte) ':');
+        putDigits(ms / 1000 % 60, 2);
+        buffer.put((byte) 'Z');
+    }
+
+    private static String quote(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    public static class Builder {
+
+        private File file;
+        private WritableByteChannel channel;
+        private Field[] fields = Field.values();
+        private int bufferSize = 64 * 1024;
+
+        public Builder() {
+            super();
+        }
+
+        /**
+         * File to write to. It's truncated if it exists. One of file or
+         * channel is required.
+         *
+         * @param file File to write
+         * @return this Builder for chaining
+         */
+        public Builder setFile(File file) {
+            this.file = file;
+            return this;
+        }
+
+        /**
+         * Channel to write to, instead of a file. The exporter closes it
+         * when it's closed.
+         *
+         * @param channel WritableByteChannel to write to
+         * @return this Builder for chaining
+         */
+        public Builder setChannel(WritableByteChannel channel) {
+            this.channel = channel;
+            return this;
+        }
+
+        /**
+         * Fields to export, in column order. Optional, defaults to every
+         * field.
+         *
+         * @param fields Field... fields to export
+         * @return this Builder for chaining
+         */
+        public Builder setFields(Field... fields) {
+            if (fields.length == 0) {
+                throw new IllegalArgumentException("Need at least one field");
+            }
+            this.fields = fields.clone();
+            return this;
+        }
+
+        /**
+         * Size of the write buffer. Optional, defaults to 64k.
+         *
+         * @param bufferSize int buffer size, bytes
+         * @return this Builder for chaining
+         */
+        public Builder setBufferSize(int bufferSize) {
+            if (bufferSize < 1024) {
+                throw new IllegalArgumentException("Buffer size must be at least 1k");
+            }
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * Build the exporter, opening the file if one was set.
+         *
+         * @return CsvExporter exporter
+         * @throws IOException if the file can't be opened
+         * @throws NullPointerException if neither file nor channel is set
+         */
+        public CsvExporter build() throws IOException {
+            if (channel != null) {
+                return new CsvExporter(this, channel);
+            }
+            if (file == null) {
+                throw new NullPointerException("File not set");
+            }
+            return new CsvExporter(this, new FileOutputStream(file).getChannel());
+        }
+    }
+}
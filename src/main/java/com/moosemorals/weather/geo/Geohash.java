@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.geo;
+
+/**
+ * Encode positions as <a href="https://en.wikipedia.org/wiki/Geohash">geohashes</a>.
+ * </p>
+ *
+ * Each extra character makes the cell smaller. Six characters is a cell
+ * about 1.2km by 0.6km, five is about 4.9km by 4.9km.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public final class Geohash {
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    /**
+     * Longest supported geohash.
+     */
+    public static final int MAX_PRECISION = 12;
+
+    private Geohash() {
+    }
+
+    /**
+     * Geohash of a position.
+     *
+     * @param latitude double latitude in decimal degrees
+     * @param longitude double longitude in decimal degrees
+     * @param precision int number of characters, 1 to {@link #MAX_PRECISION}
+     * @return String geohash
+     */
+    public static String encode(double latitude, double longitude, int precision) {
+        if (precision < 1 || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision must be between 1 and " + MAX_PRECISION);
+        }
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+
+        char[] result = new char[precision];
+        boolean even = true;
+        int bit = 0;
+        int ch = 0;
+        int i = 0;
+        while (i < precision) {
+            if (even) {
+                double mid = (minLon + maxLon) / 2;
+                if (longitude >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLon = mid;
+                } else {
+                    ch = ch << 1;
+                    maxLon = mid;
+                }
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (latitude >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLat = mid;
+                } else {
+                    ch = ch << 1;
+                    maxLat = mid;
+                }
+            }
+            even = !even;
+            bit += 1;
+            if (bit == 5) {
+                result[i] = BASE32[ch];
+                i += 1;
+                bit = 0;
+                ch = 0;
+            }
+        }
+        return new String(result);
+    }
+
+    /**
+     * Geohash of a position.
+     *
+     * @param position LatLong position to encode
+     * @param precision int number of characters, 1 to {@link #MAX_PRECISION}
+     * @return String geohash
+     */
+    public static String encode(LatLong position, int precision) {
+        return encode(position.getLatitude(), position.getLongitude(), precision);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.geo;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A position on the Earth, in decimal degrees. North and East are positive.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public final class LatLong {
+
+    /**
+     * Mean radius of the Earth, in kilometres.
+     */
+    public static final double EARTH_RADIUS_KM = 6371.0088;
+
+    private static final Pattern PAIR = Pattern.compile("^\\s*([-+]?\\d{1,3}(?:\\.\\d+)?)\\s*,\\s*([-+]?\\d{1,3}(?:\\.\\d+)?)\\s*$");
+
+    private final double latitude;
+    private final double longitude;
+
+    public LatLong(double latitude, double longitude) {
+        if (latitude < -90 || latitude > 90) {
+            throw new IllegalArgumentException("Latitude must be between -90 and 90");
+        }
+        if (longitude < -180 || longitude > 180) {
+            throw new IllegalArgumentException("Longitude must be between -180 and 180");
+        }
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /**
+     * Parse a "latitude,longitude" location string, as passed to
+     * {@link com.moosemorals.weather.WeatherFetcher.Builder#setLocation(java.lang.String)}.
+     *
+     * @param location String location to parse
+     * @return LatLong position, or null if the string isn't a valid decimal
+     * latitude/longitude pair
+     */
+    public static LatLong parse(String location) {
+        if (location == null) {
+            return null;
+        }
+        Matcher m = PAIR.matcher(location);
+        if (!m.matches()) {
+            return null;
+        }
+        double lat = Double.parseDouble(m.group(1));
+        double lon = Double.parseDouble(m.group(2));
+        if (lat < -90 || lat > 90 || lon < -180 || lon > 180) {
+            return null;
+        }
+        return new LatLong(lat, lon);
+    }
+
+    /**
+     * Latitude in decimal degrees, North is positive.
+     *
+     * @return double latitude
+     */
+    public double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * Longitude in decimal degrees, East is positive.
+     *
+     * @return double longitude
+     */
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * Great circle distance to another position (haversine formula).
+     *
+     * @param other LatLong other position
+     * @return double distance in kilometres
+     */
+    public double distanceTo(LatLong other) {
+        return distance(latitude, longitude, other.latitude, other.longitude);
+    }
+
+    /**
+     * Great circle distance between two positions (haversine formula).
+     *
+     * @param lat1 double latitude of first position
+     * @param lon1 double longitude of first position
+     * @param lat2 double latitude of second position
+     * @param lon2 double longitude of second position
+     * @return double distance in kilometres
+     */
+    public static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(latitude) * 31 + Double.doubleToLongBits(longitude);
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof LatLong)) {
+            return false;
+        }
+        LatLong other = (LatLong) obj;
+        return Double.compare(latitude, other.latitude) == 0 && Double.compare(longitude, other.longitude) == 0;
+    }
+
+    /**
+     * Position in the same "latitude,longitude" format the API takes.
+     *
+     * @return String position
+     */
+    @Override
+    public String toString() {
+        return latitude + "," + longitude;
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.geo;
+
+import com.moosemorals.weather.reports.LocationReport;
+import com.moosemorals.weather.types.Location;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Index of known locations by position, for finding the nearest ones to a
+ * point without asking the API. </p>
+ *
+ * The globe is split into a grid of cells a fixed number of degrees on a
+ * side, and each location is kept in the cell it falls in. Nearest neighbour
+ * searches look at the point's own cell and then rings of cells further out,
+ * stopping once no cell further out could hold anything closer. Radius
+ * searches only look at the cells the circle overlaps. </p>
+ *
+ * Adds and searches can run on any number of threads at once. Each cell is
+ * copy on write, so searches never block.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class SpatialIndex {
+
+    private static final double KM_PER_DEGREE = LatLong.EARTH_RADIUS_KM * Math.PI / 180;
+
+    private final double cellDegrees;
+    private final int rows;
+    private final int cols;
+    private final ConcurrentMap<Long, Cell> cells = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Build an index with half degree cells.
+     */
+    public SpatialIndex() {
+        this(0.5);
+    }
+
+    /**
+     * Build an index with a given cell size. Cells should be about the size
+     * of the typical distance between locations.
+     *
+     * @param cellDegrees double size of a cell, degrees
+     */
+    public SpatialIndex(double cellDegrees) {
+        if (!(cellDegrees > 0 && cellDegrees <= 90)) {
+            throw new IllegalArgumentException("Cell size must be between 0 and 90 degrees");
+        }
+        this.cellDegrees = cellDegrees;
+        this.rows = (int) Math.ceil(180 / cellDegrees);
+        this.cols = (int) Math.ceil(360 / cellDegrees);
+    }
+
+    /**
+     * Add a location. A location with the same name, region, country and
+     * position as one already in the index replaces it.
+     *
+     * @param location Location to add
+     */
+    public void add(Location location) {
+        int row = row(location.getLatitude());
+        int col = col(location.getLongitude());
+        Long id = id(row, col);
+
+        Cell cell = cells.get(id);
+        if (cell == null) {
+            Cell created = new Cell();
+            cell = cells.putIfAbsent(id, created);
+            if (cell == null) {
+                cell = created;
+            }
+        }
+        if (cell.add(location)) {
+            size.incrementAndGet();
+        }
+    }
+
+    /**
+     * Add every location in a report.
+     *
+     * @param report LocationReport to add
+     */
+    public void add(LocationReport report) {
+        for (Location l : report.getLocations()) {
+            add(l);
+        }
+    }
+
+    /**
+     * Number of locations in the index.
+     *
+     * @return int number of locations
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Find the closest locations to a point.
+     *
+     * @param latitude double latitude of the point
+     * @param longitude double longitude of the point
+     * @param k int most locations to return
+     * @return List&lt;Location&gt; up to k locations, closest first
+     */
+    public List<Location> nearest(double latitude, double longitude, int k) {
+        if (k < 1) {
+            return Collections.emptyList();
+        }
+        // Furthest of the best k at the head, so it can be replaced
+        PriorityQueue<Hit> best = new PriorityQueue<>(k, Hit.FURTHEST_FIRST);
+        int row = row(latitude);
+        int col = col(longitude);
+        int maxRing = Math.max(rows, cols / 2 + 1);
+
+        for (int ring = 0; ring <= maxRing; ring += 1) {
+            if (best.size() == k && lowerBound(latitude, ring) > best.peek().distance) {
+                break;
+            }
+            for (int r = Math.max(0, row - ring); r <= Math.min(rows - 1, row + ring); r += 1) {
+                if (r == row - ring || r == row + ring) {
+                    // Top and bottom of the ring, every column it spans
+                    if (2 * ring + 1 >= cols) {
+                        for (int c = 0; c < cols; c += 1) {
+                            collect(r, c, latitude, longitude, k, best);
+                        }
+                    } else {
+                        for (int c = col - ring; c <= col + ring; c += 1) {
+                            collect(r, wrap(c), latitude, longitude, k, best);
+                        }
+                    }
+                } else if (2 * ring + 1 <= cols) {
+                    // Sides of the ring
+                    collect(r, wrap(col - ring), latitude, longitude, k, best);
+                    collect(r, wrap(col + ring), latitude, longitude, k, best);
+                } else if (2 * ring == cols) {
+                    // Ring has met itself round the back
+                    collect(r, wrap(col + ring), latitude, longitude, k, best);
+                }
+            }
+        }
+
+        return sorted(best);
+    }
+
+    private void collect(int row, int col, double latitude, double longitude, int k, PriorityQueue<Hit> best) {
+        Cell cell = cells.get(id(row, col));
+        if (cell != null) {
+            cell.collect(latitude, longitude, k, best);
+        }
+    }
+
+    /**
+     * Find every location within a distance of a point.
+     *
+     * @param latitude double latitude of the point
+     * @param longitude double longitude of the point
+     * @param radiusKm double distance, kilometres
+     * @return List&lt;Location&gt; matching locations, closest first
+     */
+    public List<Location> within(double latitude, double longitude, double radiusKm) {
+        double dLat = radiusKm / KM_PER_DEGREE;
+        int rowFrom = row(Math.max(-90, latitude - dLat));
+        int rowTo = row(Math.min(90, latitude + dLat));
+
+        double cos = Math.cos(Math.toRadians(Math.min(90, Math.abs(latitude) + dLat)));
+        int colSpan;
+        if (cos < 1e-9 || radiusKm / (KM_PER_DEGREE * cos) >= 180) {
+            colSpan = cols;
+        } else {
+            colSpan = (int) Math.ceil(radiusKm / (KM_PER_DEGREE * cos) / cellDegrees) + 1;
+        }
+        int col = col(longitude);
+        int colFrom = colSpan * 2 + 1 >= cols ? 0 : col - colSpan;
+        int colTo = colSpan * 2 + 1 >= cols ? cols - 1 : col + colSpan;
+
+        List<Hit> hits = new ArrayList<>();
+        for (int r = rowFrom; r <= rowTo; r += 1) {
+            for (int c = colFrom; c <= colTo; c += 1) {
+                Cell cell = cells.get(id(r, wrap(c)));
+                if (cell != null) {
+                    cell.within(latitude, longitude, radiusKm, hits);
+                }
+            }
+        }
+
+        Collections.sort(hits, Hit.CLOSEST_FIRST);
+        List<Location> result = new ArrayList<>(hits.size());
+        for (Hit h : hits) {
+            result.add(h.location);
+        }
+        return result;
+    }
+
+    /**
+     * Smallest distance from a point to anything in a ring of cells.
+     */
+    private double lowerBound(double latitude, int ring) {
+        if (ring <= 1) {
+            return 0;
+        }
+        double degrees = (ring - 1) * cellDegrees;
+        double cos = Math.cos(Math.toRadians(Math.min(90, Math.abs(latitude) + ring * cellDegrees)));
+        return degrees * KM_PER_DEGREE * Math.max(cos, 0);
+    }
+
+    private int row(double latitude) {
+        return Math.min(rows - 1, Math.max(0, (int) Math.floor((latitude + 90) / cellDegrees)));
+    }
+
+    private int col(double longitude) {
+        return wrap((int) Math.floor((longitude + 180) / cellDegrees));
+    }
+
+    private int wrap(int col) {
+        int c = col % cols;
+        return c < 0 ? c + cols : c;
+    }
+
+    private Long id(int row, int col) {
+        return (long) row * cols + col;
+    }
+
+    private static List<Location> sorted(PriorityQueue<Hit> queue) {
+        Hit[] hits = queue.toArray(new Hit[queue.size()]);
+        Arrays.sort(hits, Hit.CLOSEST_FIRST);
+        List<Location> result = new ArrayList<>(hits.length);
+        for (Hit h : hits) {
+            result.add(h.location);
+        }
+        return result;
+    }
+
+    private static boolean same(Location a, Location b) {
+        return a.getLatitude() == b.getLatitude()
+                && a.getLongitude() == b.getLongitude()
+                && equal(a.getName(), b.getName())
+                && equal(a.getRegion(), b.getRegion())
+                && equal(a.getCountry(), b.getCountry());
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Locations in one cell. Copy on write: adds replace the array, searches
+     * read whatever array is current.
+     */
+    private static class Cell {
+
+        private volatile Location[] locations = new Location[0];
+
+        private synchronized boolean add(Location location) {
+            Location[] current = locations;
+            for (int i = 0; i < current.length; i += 1) {
+                if (same(current[i], location)) {
+                    Location[] replaced = current.clone();
+                    replaced[i] = location;
+                    locations = replaced;
+                    return false;
+                }
+            }
+            Location[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = location;
+            locations = grown;
+            return true;
+        }
+
+        private void collect(double latitude, double longitude, int k, PriorityQueue<Hit> best) {
+            for (Location l : locations) {
+                double d = LatLong.distance(latitude, longitude, l.getLatitude(), l.getLongitude());
+                if (best.size() < k) {
+                    best.add(new Hit(l, d));
+                } else if (d < best.peek().distance) {
+                    best.poll();
+                    best.add(new Hit(l, d));
+                }
+            }
+        }
+
+        private void within(double latitude, double longitude, double radiusKm, List<Hit> hits) {
+            for (Location l : locations) {
+                double d = LatLong.distance(latitude, longitude, l.getLatitude(), l.getLongitude());
+                if (d <= radiusKm) {
+                    hits.add(new Hit(l, d));
+                }
+            }
+        }
+    }
+
+    private static class Hit {
+
+        private static final Comparator<Hit> CLOSEST_FIRST = new Comparator<Hit>() {
+            @Override
+            public int compare(Hit a, Hit b) {
+                return Double.compare(a.distance, b.distance);
+            }
+        };
+
+        private static final Comparator<Hit> FURTHEST_FIRST = Collections.reverseOrder(CLOSEST_FIRST);
+
+        private final Location location;
+        private final double distance;
+
+        private Hit(Location location, double distance) {
+            this.location = location;
+            this.distance = distance;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.history;
+
+import com.moosemorals.weather.reports.Report;
+import com.moosemorals.weather.xml.WeatherParser;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * One report kept by a {@link HistoryStore}.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class HistoryRecord {
+
+    private final String location;
+    private final long time;
+    private final byte[] body;
+
+    HistoryRecord(String location, long time, byte[] body) {
+        this.location = location;
+        this.time = time;
+        this.body = body;
+    }
+
+    /**
+     * Location the report was fetched for, normalized.
+     *
+     * @return String location
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * When the report was fetched.
+     *
+     * @return long milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Raw response, as returned by the API.
+     *
+     * @return byte[] response body
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Parse the raw response.
+     *
+     * @return Report parsed report
+     * @throws IOException if the body can't be read
+     * @throws XMLStreamException if the body isn't valid
+     */
+    public Report getReport() throws IOException, XMLStreamException {
+        return new WeatherParser().parse(new ByteArrayInputStream(body));
+    }
+}
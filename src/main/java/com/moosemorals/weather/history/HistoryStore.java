@@ -0,0 +1,806 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.history;
+
+import com.moosemorals.weather.cache.CacheKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.joda.time.DateTimeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append only store of fetched reports, for scoring forecasts after the
+ * fact. </p>
+ *
+ * Reports are buffered and written in batches. Each batch is a block: a
+ * small header giving the time range and a hash of each location in the
+ * batch, followed by the records deflated together. Blocks are appended to
+ * segment files in a directory. </p>
+ *
+ * The block headers make a sparse index that's kept in memory and rebuilt on
+ * startup, so a range scan ("everything for Leeds fetched last week") only
+ * inflates the blocks that could hold matching records. Startup only reads
+ * the headers, apart from the last block in each segment which is checked in
+ * full, since that's where a torn write would be. Other blocks are checked
+ * the first time they are read, and dropped if they fail their checksum.
+ * </p>
+ *
+ * Blocks older than the retention period are dropped by
+ * {@link #compact(long)}, which rewrites each segment that has any without
+ * them. The new copy is written to a temporary file and renamed over the old
+ * segment, so a crash part way through leaves either the old segment or the
+ * new one, never both. {@link #start} runs flushing and compaction on an
+ * executor.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class HistoryStore implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(HistoryStore.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x57574842;
+    // magic, record count, min time, max time, location count
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+    // raw length, compressed length, crc
+    private static final int PAYLOAD_HEADER_SIZE = 4 + 4 + 4;
+    private static final String SUFFIX = ".hist";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final Comparator<HistoryRecord> BY_TIME = new Comparator<HistoryRecord>() {
+        @Override
+        public int compare(HistoryRecord a, HistoryRecord b) {
+            return Long.compare(a.getTime(), b.getTime());
+        }
+    };
+
+    private final File directory;
+    private final long maxSegmentSize;
+    private final int batchSize;
+    private final long retention;
+    private final boolean sync;
+    private final List<Segment> segments = new ArrayList<>();
+    private final List<Block> blocks = new ArrayList<>();
+    private final List<HistoryRecord> pending = new ArrayList<>();
+    private final ByteArrayOutputStream raw = new ByteArrayOutputStream(64 * 1024);
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream(16 * 1024);
+    private final byte[] buffer = new byte[8192];
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private Segment active;
+    private ScheduledFuture<?> task;
+
+    private HistoryStore(Builder builder) throws IOException {
+        this.directory = builder.directory;
+        this.maxSegmentSize = builder.maxSegmentSize;
+        this.batchSize = builder.batchSize;
+        this.retention = builder.retention;
+        this.sync = builder.sync;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create history directory " + directory);
+        }
+        load();
+    }
+
+    /**
+     * Add a report. It's buffered until there's a full batch, or until
+     * {@link #flush()} is called. The body isn't copied, so don't change it
+     * afterwards.
+     *
+     * @param location String location the report was fetched for
+     * @param time long when it was fetched, milliseconds since the epoch
+     * @param body byte[] raw response from the API
+     * @throws IOException if a full batch can't be written
+     */
+    public synchronized void append(String location, long time, byte[] body) throws IOException {
+        if (location == null || body == null) {
+            throw new IllegalArgumentException("Location and body are required");
+        }
+        pending.add(new HistoryRecord(CacheKey.normalize(location), time, body));
+        if (pending.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Write any buffered reports.
+     *
+     * @throws IOException if the batch can't be written
+     */
+    public synchronized void flush() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        writeBlock(pending);
+        pending.clear();
+    }
+
+    /**
+     * Find every report for a location fetched in a time range, including
+     * any that haven't been flushed yet.
+     *
+     * @param location String location to look for
+     * @param from long start of the range, inclusive, milliseconds since the
+     * epoch
+     * @param to long end of the range, exclusive, milliseconds since the
+     * epoch
+     * @return List&lt;HistoryRecord&gt; matching reports, oldest first
+     * @throws IOException if there's a problem reading a segment
+     */
+    public synchronized List<HistoryRecord> scan(String location, long from, long to) throws IOException {
+        String name = CacheKey.normalize(location);
+        long hash = hash(name);
+        List<HistoryRecord> result = new ArrayList<>();
+
+        Iterator<Block> it = blocks.iterator();
+        while (it.hasNext()) {
+            Block b = it.next();
+            if (b.maxTime < from || b.minTime >= to || Arrays.binarySearch(b.locations, hash) < 0) {
+                continue;
+            }
+            if (!read(b, name, from, to, result)) {
+                it.remove();
+            }
+        }
+        for (HistoryRecord r : pending) {
+            if (r.getLocation().equals(name) && r.getTime() >= from && r.getTime() < to) {
+                result.add(r);
+            }
+        }
+
+        Collections.sort(result, BY_TIME);
+        return result;
+    }
+
+    /**
+     * Number of reports held, including any that haven't been flushed yet.
+     *
+     * @return int number of reports
+     */
+    public synchronized int size() {
+        int count = pending.size();
+        for (Block b : blocks) {
+            count += b.count;
+        }
+        return count;
+    }
+
+    /**
+     * Drop blocks where every report is older than the retention period.
+     * Segments that lose blocks are rewritten without them, and segments with
+     * nothing left are deleted. The active segment is left alone. Safe to
+     * call from a background thread, but blocks other users of the store
+     * while it runs.
+     *
+     * @param now long current time, milliseconds since the epoch
+     * @throws IOException if there's a problem reading or writing segments
+     */
+    public synchronized void compact(long now) throws IOException {
+        long cutoff = now - retention;
+
+        List<Segment> victims = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment == active) {
+                continue;
+            }
+            for (Block b : blocks) {
+                if (b.segment == segment && b.maxTime < cutoff) {
+                    victims.add(segment);
+                    break;
+                }
+            }
+        }
+
+        int dropped = 0;
+        for (Segment segment : victims) {
+            dropped += rewrite(segment, cutoff);
+        }
+        if (!victims.isEmpty()) {
+            log.debug("Dropped {} expired blocks, compacted {} segments", dropped, victims.size());
+        }
+    }
+
+    /**
+     * Flush and compact on an executor.
+     *
+     * @param executor ScheduledExecutorService to run on
+     * @param period long time between runs, milliseconds
+     */
+    public synchronized void start(ScheduledExecutorService executor, long period) {
+        if (task != null) {
+            throw new IllegalStateException("Already started");
+        }
+        task = executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                    compact(DateTimeUtils.currentTimeMillis());
+                } catch (IOException | RuntimeException ex) {
+                    log.error("History maintenance failed", ex);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop background flushing and compaction.
+     */
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    /**
+     * Flush buffered reports and close the segment files.
+     *
+     * @throws IOException if the last batch can't be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        stop();
+        try {
+            flush();
+        } finally {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+            segments.clear();
+            blocks.clear();
+            active = null;
+            deflater.end();
+        }
+    }
+
+    /**
+     * Copy the blocks that are still wanted out of a segment into a temporary
+     * file, then rename it over the segment. If nothing is wanted the
+     * segment is just deleted. The index isn't touched until the new copy is
+     * in place, so if anything goes wrong the old segment is still used.
+     *
+     * @return int number of blocks dropped
+     */
+    private int rewrite(Segment segment, long cutoff) throws IOException {
+        Set<Block> old = new HashSet<>();
+        List<Block> kept = new ArrayList<>();
+        List<byte[]> copies = new ArrayList<>();
+
+        for (Block b : blocks) {
+            if (b.segment != segment) {
+                continue;
+            }
+            old.add(b);
+            if (b.maxTime >= cutoff) {
+                byte[] bytes = segment.read(b.offset, b.length);
+                if (verify(b, bytes, b.length - b.compressedLength)) {
+                    kept.add(b);
+                    copies.add(bytes);
+                }
+            }
+        }
+
+        int index = segments.indexOf(segment);
+        if (kept.isEmpty()) {
+            blocks.removeAll(old);
+            segments.remove(index);
+            segment.close();
+            if (!segment.file.delete()) {
+                log.warn("Can't delete compacted segment {}", segment.file);
+            }
+            return old.size();
+        }
+
+        File temp = new File(directory, segment.file.getName() + TEMP_SUFFIX);
+        try {
+            try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+                out.setLength(0);
+                for (byte[] bytes : copies) {
+                    out.write(bytes);
+                }
+                // Make sure the copy is on disk before it replaces the original
+                out.getChannel().force(false);
+            }
+            Files.move(temp.toPath(), segment.file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException ex) {
+            if (temp.isFile() && !temp.delete()) {
+                log.warn("Can't delete unfinished compaction {}", temp);
+            }
+            throw ex;
+        }
+
+        // The new copy is in place, switch the index over to it
+        segment.close();
+        Segment replacement = new Segment(segment.id, segment.file);
+        segments.set(index, replacement);
+        blocks.removeAll(old);
+        long offset = 0;
+        for (Block b : kept) {
+            Block copy = new Block(replacement, offset, b.length, b.count, b.minTime, b.maxTime,
+                    b.locations, b.rawLength, b.compressedLength, b.crc);
+            copy.verified = true;
+            blocks.add(copy);
+            offset += b.length;
+        }
+        return old.size() - kept.size();
+    }
+
+    private void writeBlock(List<HistoryRecord> records) throws IOException {
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        long[] hashes = new long[records.size()];
+
+        raw.reset();
+        DataOutputStream out = new DataOutputStream(raw);
+        for (int i = 0; i < records.size(); i += 1) {
+            HistoryRecord r = records.get(i);
+            byte[] name = r.getLocation().getBytes(UTF8);
+            out.writeInt(name.length);
+            out.write(name);
+            out.writeLong(r.getTime());
+            out.writeInt(r.getBody().length);
+            out.write(r.getBody());
+
+            minTime = Math.min(minTime, r.getTime());
+            maxTime = Math.max(maxTime, r.getTime());
+            hashes[i] = hash(r.getLocation());
+        }
+        out.flush();
+        long[] locations = distinct(hashes);
+
+        deflater.reset();
+        deflater.setInput(raw.toByteArray());
+        deflater.finish();
+        compressed.reset();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            compressed.write(buffer, 0, n);
+        }
+        byte[] payload = compressed.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer block = ByteBuffer.allocate(HEADER_SIZE + 8 * locations.length + PAYLOAD_HEADER_SIZE + payload.length);
+        block.putInt(MAGIC)
+                .putInt(records.size())
+                .putLong(minTime)
+                .putLong(maxTime)
+                .putInt(locations.length);
+        for (long l : locations) {
+            block.putLong(l);
+        }
+        block.putInt(raw.size())
+                .putInt(payload.length)
+                .putInt((int) crc.getValue())
+                .put(payload);
+
+        blocks.add(writeRaw(block.array(), records.size(), minTime, maxTime, locations, raw.size(), payload.length, (int) crc.getValue()));
+    }
+
+    /**
+     * Append a complete block to the active segment, rolling if it's full.
+     *
+     * @return Block index entry for the new block
+     */
+    private Block writeRaw(byte[] bytes, int count, long minTime, long maxTime, long[] locations, int rawLength, int compressedLength, int crc) throws IOException {
+        if (active == null || (active.size > 0 && active.size + bytes.length > maxSegmentSize)) {
+            roll();
+        }
+
+        long offset = active.size;
+        ByteBuffer view = ByteBuffer.wrap(bytes);
+        while (view.hasRemaining()) {
+            active.channel.write(view, offset + view.position());
+        }
+        if (sync) {
+            active.channel.force(false);
+        }
+        active.size += bytes.length;
+
+        Block b = new Block(active, offset, bytes.length, count, minTime, maxTime, locations, rawLength, compressedLength, crc);
+        b.verified = true;
+        return b;
+    }
+
+    /**
+     * Check a block's payload against its checksum, if that hasn't been done
+     * yet.
+     */
+    private static boolean verify(Block b, byte[] bytes, int offset) {
+        if (b.verified) {
+            return true;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, b.compressedLength);
+        if ((int) crc.getValue() != b.crc) {
+            log.warn("Dropping block in {} at {}, checksum doesn't match", b.segment.file, b.offset);
+            return false;
+        }
+        b.verified = true;
+        return true;
+    }
+
+    /**
+     * Add the matching records from a block to the result.
+     *
+     * @return false if the block failed its checksum and should be dropped
+     */
+    private boolean read(Block b, String name, long from, long to, List<HistoryRecord> result) throws IOException {
+        byte[] payload = b.segment.read(b.payloadOffset(), b.compressedLength);
+        if (!verify(b, payload, 0)) {
+            return false;
+        }
+        byte[] data = new byte[b.rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload);
+            int n = 0;
+            while (n < data.length && !inflater.finished()) {
+                n += inflater.inflate(data, n, data.length - n);
+            }
+            if (n != data.length) {
+                throw new IOException("Short block in " + b.segment.file + " at " + b.offset);
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupt block in " + b.segment.file + " at " + b.offset, ex);
+        } finally {
+            inflater.end();
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        for (int i = 0; i < b.count; i += 1) {
+            byte[] location = new byte[in.readInt()];
+            in.readFully(location);
+            long time = in.readLong();
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+
+            if (time >= from && time < to) {
+                String l = new String(location, UTF8);
+                if (l.equals(name)) {
+                    result.add(new HistoryRecord(l, time, body));
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Start a new active segment.
+     */
+    private void roll() throws IOException {
+        long id = 0;
+        if (!segments.isEmpty()) {
+            id = segments.get(segments.size() - 1).id + 1;
+        }
+        active = new Segment(id, new File(directory, String.format("%016x%s", id, SUFFIX)));
+        segments.add(active);
+    }
+
+    private void load() throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX) || name.endsWith(SUFFIX + TEMP_SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Can't list history directory " + directory);
+        }
+        Arrays.sort(files);
+
+        // Left over from a compaction that didn't finish, the original is still there
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX + TEMP_SUFFIX) && !file.delete()) {
+                log.warn("Can't delete unfinished compaction {}", file);
+            }
+        }
+
+        for (File file : files) {
+            if (!file.getName().endsWith(SUFFIX)) {
+                continue;
+            }
+            long id;
+            try {
+                id = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()), 16);
+            } catch (NumberFormatException ex) {
+                log.warn("Ignoring unexpected file {} in history directory", file);
+                continue;
+            }
+            Segment segment = new Segment(id, file);
+            segments.add(segment);
+            scanBlocks(segment);
+        }
+
+        if (!segments.isEmpty()) {
+            // Carry on appending to the newest segment
+            active = segments.get(segments.size() - 1);
+        }
+        log.debug("Loaded {} history blocks from {} segments", blocks.size(), segments.size());
+    }
+
+    /**
+     * Walk the block headers in a segment, adding them to the index. Only the
+     * last block is checksummed. Anything after the first broken block is
+     * assumed to be a torn write and is cut off.
+     */
+    private void scanBlocks(Segment segment) throws IOException {
+        long position = 0;
+
+        while (position + HEADER_SIZE <= segment.size) {
+            ByteBuffer header = ByteBuffer.wrap(segment.read(position, HEADER_SIZE));
+            int magic = header.getInt();
+            int count = header.getInt();
+            long minTime = header.getLong();
+            long maxTime = header.getLong();
+            int locationCount = header.getInt();
+
+            if (magic != MAGIC || count < 0 || locationCount < 0 || locationCount > count
+                    || position + HEADER_SIZE + 8L * locationCount + PAYLOAD_HEADER_SIZE > segment.size) {
+                break;
+            }
+
+            ByteBuffer rest = ByteBuffer.wrap(segment.read(position + HEADER_SIZE, 8 * locationCount + PAYLOAD_HEADER_SIZE));
+            long[] locations = new long[locationCount];
+            for (int i = 0; i < locationCount; i += 1) {
+                locations[i] = rest.getLong();
+            }
+            int rawLength = rest.getInt();
+            int compressedLength = rest.getInt();
+            int check = rest.getInt();
+
+            int length = HEADER_SIZE + 8 * locationCount + PAYLOAD_HEADER_SIZE + compressedLength;
+            if (rawLength < 0 || compressedLength < 0 || position + length > segment.size) {
+                break;
+            }
+
+            Block b = new Block(segment, position, length, count, minTime, maxTime, locations, rawLength, compressedLength, check);
+            if (position + length == segment.size
+                    && !verify(b, segment.read(b.payloadOffset(), compressedLength), 0)) {
+                break;
+            }
+
+            blocks.add(b);
+            position += length;
+        }
+
+        if (position < segment.size) {
+            log.warn("Truncating {} at {} (was {} bytes), last block incomplete", segment.file, position, segment.size);
+            segment.channel.truncate(position);
+            segment.size = position;
+        }
+    }
+
+    private static long[] distinct(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i += 1) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[n] = sorted[i];
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+
+    // FNV-1a over the UTF-8 bytes
+    private static long hash(String location) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : location.getBytes(UTF8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Index entry for one block.
+     */
+    private static class Block {
+
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+        private final int count;
+        private final long minTime;
+        private final long maxTime;
+        private final long[] locations;
+        private final int rawLength;
+        private final int compressedLength;
+        private final int crc;
+        private boolean verified = false;
+
+        private Block(Segment segment, long offset, int length, int count, long minTime, long maxTime, long[] locations, int rawLength, int compressedLength, int crc) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+            this.locations = locations;
+            this.rawLength = rawLength;
+            this.compressedLength = compressedLength;
+            this.crc = crc;
+        }
+
+        private long payloadOffset() {
+            return offset + length - compressedLength;
+        }
+    }
+
+    /**
+     * One segment file.
+     */
+    private static class Segment {
+
+        private final long id;
+        private final File file;
+        private final FileChannel channel;
+        private long size;
+
+        private Segment(long id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+            this.size = channel.size();
+        }
+
+        private byte[] read(long offset, int length) throws IOException {
+            byte[] result = new byte[length];
+            ByteBuffer buffer = ByteBuffer.wrap(result);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of segment " + file);
+                }
+            }
+            return result;
+        }
+
+        private void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    public static class Builder {
+
+        private File directory;
+        private long maxSegmentSize = 16 * 1024 * 1024;
+        private int batchSize = 64;
+        private long retention = 90L * 24 * 60 * 60 * 1000;
+        private boolean sync = false;
+
+        /**
+         * Directory to keep segment files in. Required. Created if it
+         * doesn't exist.
+         *
+         * @param directory File directory
+         * @return this Builder for chaining
+         */
+        public Builder setDirectory(File directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * Size at which to start a new segment. Optional, defaults to 16Mb.
+         *
+         * @param maxSegmentSize long segment size, bytes
+         * @return this Builder for chaining
+         */
+        public Builder setMaxSegmentSize(long maxSegmentSize) {
+            if (maxSegmentSize < 1) {
+                throw new IllegalArgumentException("Segment size must be positive");
+            }
+            this.maxSegmentSize = maxSegmentSize;
+            return this;
+        }
+
+        /**
+         * Number of reports to buffer before writing a block. Bigger batches
+         * compress better, but more is lost if the process dies. Optional,
+         * defaults to 64.
+         *
+         * @param batchSize int reports per block
+         * @return this Builder for chaining
+         */
+        public Builder setBatchSize(int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("Batch size must be positive");
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * How long to keep reports. Optional, defaults to 90 days.
+         *
+         * @param retention long retention, milliseconds
+         * @return this Builder for chaining
+         */
+        public Builder setRetention(long retention) {
+            if (retention < 0) {
+                throw new IllegalArgumentException("Retention can't be negative");
+            }
+            this.retention = retention;
+            return this;
+        }
+
+        /**
+         * Force each block to disk before returning. Optional, defaults to
+         * false.
+         *
+         * @param sync boolean true to force writes
+         * @return this Builder for chaining
+         */
+        public Builder setSync(boolean sync) {
+            this.sync = sync;
+            return this;
+        }
+
+        /**
+         * Open (or create) the store.
+         *
+         * @return HistoryStore store
+         * @throws IOException if the directory can't be created or read
+         * @throws NullPointerException if the directory isn't set
+         */
+        public HistoryStore build() throws IOException {
+            if (directory == null) {
+                throw new NullPointerException("Directory not set");
+            }
+            return new HistoryStore(this);
+        }
+    }
+}
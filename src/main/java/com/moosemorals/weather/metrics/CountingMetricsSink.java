@@ -0,0 +1,250 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.metrics;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps counts and histograms in memory. </p>
+ *
+ * Counters are AtomicLongs and histograms are {@link Histogram}s, so
+ * recording never locks. Read the figures with the getters, from any thread.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class CountingMetricsSink implements MetricsSink {
+
+    private final ConcurrentMap<String, AtomicLong> requests = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> failures = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, AtomicLong> statuses = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> hits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> misses = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> parseTimes = new ConcurrentHashMap<>();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final Histogram responseTimes = new Histogram();
+    private final Histogram responseSizes = new Histogram();
+    private volatile int requestsPerSecondLeft = -1;
+    private volatile int requestsPerDayLeft = -1;
+
+    @Override
+    public void requestSent(String endpoint, String target) {
+        counter(requests, endpoint).incrementAndGet();
+    }
+
+    @Override
+    public void responseReceived(String endpoint, int status, long bytes, long nanos) {
+        counter(statuses, status).incrementAndGet();
+        bytesRead.addAndGet(bytes);
+        responseSizes.record(bytes);
+        responseTimes.record(nanos);
+    }
+
+    @Override
+    public void requestFailed(String endpoint, IOException cause) {
+        counter(failures, endpoint).incrementAndGet();
+    }
+
+    @Override
+    public void parsed(String parser, int elements, long nanos) {
+        Histogram h = parseTimes.get(parser);
+        if (h == null) {
+            Histogram created = new Histogram();
+            h = parseTimes.putIfAbsent(parser, created);
+            if (h == null) {
+                h = created;
+            }
+        }
+        h.record(nanos);
+    }
+
+    @Override
+    public void errorReported(String type) {
+        counter(errors, type).incrementAndGet();
+    }
+
+    @Override
+    public void cacheHit(String cache) {
+        counter(hits, cache).incrementAndGet();
+    }
+
+    @Override
+    public void cacheMiss(String cache) {
+        counter(misses, cache).incrementAndGet();
+    }
+
+    @Override
+    public void quota(int requestsPerSecond, int requestsPerDay) {
+        if (requestsPerSecond >= 0) {
+            requestsPerSecondLeft = requestsPerSecond;
+        }
+        if (requestsPerDay >= 0) {
+            requestsPerDayLeft = requestsPerDay;
+        }
+    }
+
+    /**
+     * Requests sent to an endpoint.
+     *
+     * @param endpoint String which API
+     * @return long number of requests
+     */
+    public long getRequests(String endpoint) {
+        return get(requests, endpoint);
+    }
+
+    /**
+     * Requests to an endpoint that failed without a response.
+     *
+     * @param endpoint String which API
+     * @return long number of failures
+     */
+    public long getFailures(String endpoint) {
+        return get(failures, endpoint);
+    }
+
+    /**
+     * Responses by HTTP status.
+     *
+     * @return Map&lt;Integer, Long&gt; count for each status seen
+     */
+    public Map<Integer, Long> getStatusCounts() {
+        return snapshot(statuses);
+    }
+
+    /**
+     * Error reports by type.
+     *
+     * @return Map&lt;String, Long&gt; count for each type seen
+     */
+    public Map<String, Long> getErrorCounts() {
+        return snapshot(errors);
+    }
+
+    /**
+     * Total size of response bodies.
+     *
+     * @return long bytes
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * Time from sending each request to reading its body.
+     *
+     * @return Histogram of nanoseconds
+     */
+    public Histogram getResponseTimes() {
+        return responseTimes;
+    }
+
+    /**
+     * Size of each response body.
+     *
+     * @return Histogram of bytes
+     */
+    public Histogram getResponseSizes() {
+        return responseSizes;
+    }
+
+    /**
+     * Time taken by a parser.
+     *
+     * @param parser String simple class name of the parser
+     * @return Histogram of nanoseconds, or null if the parser hasn't run
+     */
+    public Histogram getParseTimes(String parser) {
+        return parseTimes.get(parser);
+    }
+
+    public long getCacheHits(String cache) {
+        return get(hits, cache);
+    }
+
+    public long getCacheMisses(String cache) {
+        return get(misses, cache);
+    }
+
+    /**
+     * Fraction of lookups in a cache that were hits.
+     *
+     * @param cache String which cache
+     * @return double hit ratio, or NaN if there haven't been any lookups
+     */
+    public double getCacheHitRatio(String cache) {
+        long h = getCacheHits(cache);
+        long total = h + getCacheMisses(cache);
+        return total > 0 ? (double) h / total : Double.NaN;
+    }
+
+    /**
+     * Requests left this second, as last reported by the API.
+     *
+     * @return int requests left, or -1 if never reported
+     */
+    public int getRequestsPerSecondLeft() {
+        return requestsPerSecondLeft;
+    }
+
+    /**
+     * Requests left today, as last reported by the API.
+     *
+     * @return int requests left, or -1 if never reported
+     */
+    public int getRequestsPerDayLeft() {
+        return requestsPerDayLeft;
+    }
+
+    private static <K> AtomicLong counter(ConcurrentMap<K, AtomicLong> map, K key) {
+        AtomicLong counter = map.get(key);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = map.putIfAbsent(key, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    private static <K> long get(ConcurrentMap<K, AtomicLong> map, K key) {
+        AtomicLong counter = map.get(key);
+        return counter != null ? counter.get() : 0;
+    }
+
+    private static <K> Map<K, Long> snapshot(ConcurrentMap<K, AtomicLong> map) {
+        Map<K, Long> result = new TreeMap<>();
+        for (Map.Entry<K, AtomicLong> e : map.entrySet()) {
+            result.put(e.getKey(), e.getValue().get());
+        }
+        return Collections.unmodifiableMap(result);
+    }
+}
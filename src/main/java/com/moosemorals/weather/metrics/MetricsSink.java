@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.metrics;
+
+import java.io.IOException;
+
+/**
+ * Told about requests, parses, cache lookups and quota as they happen. </p>
+ *
+ * Methods are called on the thread doing the work, often in the middle of a
+ * fetch, so implementations must be quick and thread safe, and mustn't
+ * throw. {@link CountingMetricsSink} keeps counts and histograms in memory,
+ * and adapters for metrics libraries can be written against this interface.
+ * </p>
+ *
+ * For each request that goes to the network the calls come in order on one
+ * thread: {@link #requestSent(String, String)}, then either
+ * {@link #requestFailed(String, IOException)} and nothing more, or
+ * {@link #responseReceived(String, int, long, long)}, possibly
+ * {@link #parsed(String, int, long)}, possibly
+ * {@link #errorReported(String)}, and finally {@link #quota(int, int)}.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public interface MetricsSink {
+
+    /**
+     * Sink that ignores everything. Used when no sink has been set.
+     */
+    MetricsSink NONE = new NoopMetricsSink();
+
+    /**
+     * A request is about to be sent.
+     *
+     * @param endpoint String which API, "weather" or "search"
+     * @param target String location or search query asked for
+     */
+    void requestSent(String endpoint, String target);
+
+    /**
+     * A response has been read.
+     *
+     * @param endpoint String which API
+     * @param status int HTTP status
+     * @param bytes long size of the body, 0 if there wasn't one
+     * @param nanos long time from sending the request to reading the body
+     */
+    void responseReceived(String endpoint, int status, long bytes, long nanos);
+
+    /**
+     * A request failed without a response.
+     *
+     * @param endpoint String which API
+     * @param cause IOException what went wrong
+     */
+    void requestFailed(String endpoint, IOException cause);
+
+    /**
+     * A response has been parsed.
+     *
+     * @param parser String simple class name of the parser
+     * @param elements int number of XML elements read
+     * @param nanos long time taken to parse
+     */
+    void parsed(String parser, int elements, long nanos);
+
+    /**
+     * A fetch produced an error report.
+     *
+     * @param type String type of the error, from
+     * {@link com.moosemorals.weather.reports.ErrorReport#getType()}
+     */
+    void errorReported(String type);
+
+    /**
+     * A cache had what was asked for.
+     *
+     * @param cache String which cache: "response", "negative" or "index"
+     */
+    void cacheHit(String cache);
+
+    /**
+     * A cache didn't have what was asked for.
+     *
+     * @param cache String which cache
+     */
+    void cacheMiss(String cache);
+
+    /**
+     * Quota left, as reported by the API. Either value can be -1 if the API
+     * didn't report it.
+     *
+     * @param requestsPerSecond int requests left this second
+     * @param requestsPerDay int requests left today
+     */
+    void quota(int requestsPerSecond, int requestsPerDay);
+}
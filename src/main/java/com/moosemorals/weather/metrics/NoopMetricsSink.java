@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.metrics;
+
+import java.io.IOException;
+
+/**
+ * Does nothing.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+final class NoopMetricsSink implements MetricsSink {
+
+    @Override
+    public void requestSent(String endpoint, String target) {
+    }
+
+    @Override
+    public void responseReceived(String endpoint, int status, long bytes, long nanos) {
+    }
+
+    @Override
+    public void requestFailed(String endpoint, IOException cause) {
+    }
+
+    @Override
+    public void parsed(String parser, int elements, long nanos) {
+    }
+
+    @Override
+    public void errorReported(String type) {
+    }
+
+    @Override
+    public void cacheHit(String cache) {
+    }
+
+    @Override
+    public void cacheMiss(String cache) {
+    }
+
+    @Override
+    public void quota(int requestsPerSecond, int requestsPerDay) {
+    }
+}
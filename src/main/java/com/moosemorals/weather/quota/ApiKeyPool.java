@@ -0,0 +1,370 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.quota;
+
+import com.moosemorals.weather.reports.ErrorReport;
+import com.moosemorals.weather.reports.FetchResult;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spreads requests across several API keys. </p>
+ *
+ * Each key has its own per second and per day quota. The pool counts what it
+ * hands out, and corrects the counts from the quota headers on each response.
+ * Keys that are out of quota are skipped until the next second (or day), keys
+ * the API rejects are skipped until the next day. Everything is reset at
+ * midnight UTC, when the API resets its daily counts. </p>
+ *
+ * Of the keys that are available, the one with the most daily quota left is
+ * used, so keys drain evenly. If a {@link QuotaCoordinator} has been set, the
+ * chosen key is also checked against the counts shared with other processes.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ApiKeyPool {
+
+    private static final Logger log = LoggerFactory.getLogger(ApiKeyPool.class);
+
+    /**
+     * Starts of the messages the API sends (with a 200 status) when it won't
+     * take a key. Lower case, for matching.
+     */
+    private static final List<String> KEY_ERRORS = Arrays.asList(
+            "parameter key is missing",
+            "no api_key specified",
+            "api key is invalid",
+            "invalid api key",
+            "api key has been disabled",
+            "api key has reached calls per day allowed limit");
+
+    private final Map<String, KeyState> keys = new LinkedHashMap<>();
+    private final int perSecond;
+    private final int perDay;
+    private final QuotaCoordinator coordinator;
+    private long resetAt;
+
+    private ApiKeyPool(Builder builder) {
+        this.perSecond = builder.perSecond;
+        this.perDay = builder.perDay;
+        this.coordinator = builder.coordinator;
+        for (String k : builder.keys) {
+            keys.put(k, new KeyState(k));
+        }
+        reset(DateTimeUtils.currentTimeMillis());
+    }
+
+    /**
+     * Take a key for one request.
+     *
+     * @return String API key, or null if every key is out of quota or has
+     * been rejected
+     */
+    public synchronized String acquire() {
+        long now = DateTimeUtils.currentTimeMillis();
+        if (now >= resetAt) {
+            reset(now);
+        }
+        long second = now / 1000;
+
+        while (true) {
+            KeyState best = pick(second);
+            if (best == null) {
+                return null;
+            }
+            if (coordinator != null && !coordinatorAllows(best)) {
+                continue;
+            }
+            best.secondLeft -= 1;
+            best.dayLeft -= 1;
+            return best.key;
+        }
+    }
+
+    private KeyState pick(long second) {
+        KeyState best = null;
+        for (KeyState k : keys.values()) {
+            if (k.rejected || k.dayLeft <= 0) {
+                continue;
+            }
+            if (k.second != second) {
+                k.second = second;
+                k.secondLeft = perSecond;
+            }
+            if (k.secondLeft <= 0) {
+                continue;
+            }
+            if (best == null || k.dayLeft > best.dayLeft) {
+                best = k;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Check a key against the shared counts. If it's out of quota there, it's
+     * marked out of quota here too, so it isn't picked again.
+     */
+    private boolean coordinatorAllows(KeyState k) {
+        try {
+            if (coordinator.tryAcquire(k.key)) {
+                return true;
+            }
+            k.secondLeft = 0;
+            k.dayLeft = Math.min(k.dayLeft, coordinator.getRemainingToday(k.key));
+            return false;
+        } catch (IOException ex) {
+            // Fall back to the local counts
+            log.warn("Can't read shared quota, using local counts", ex);
+            return true;
+        }
+    }
+
+    /**
+     * Record the response to a request made with a key from
+     * {@link #acquire()}.
+     *
+     * @param key String key that was used
+     * @param status int HTTP status of the response
+     * @param result FetchResult parsed response
+     */
+    public synchronized void record(String key, int status, FetchResult result) {
+        KeyState k = keys.get(key);
+        if (k == null) {
+            return;
+        }
+
+        if (result.getRequestsPerSecond() >= 0 && k.second == DateTimeUtils.currentTimeMillis() / 1000) {
+            k.secondLeft = Math.min(k.secondLeft, result.getRequestsPerSecond());
+        }
+        if (result.getRequestsPerDay() >= 0) {
+            k.dayLeft = result.getRequestsPerDay();
+        }
+
+        if (coordinator != null) {
+            try {
+                coordinator.update(key, result);
+            } catch (IOException ex) {
+                log.warn("Can't update shared quota", ex);
+            }
+        }
+
+        if (status == 429) {
+            k.secondLeft = 0;
+        } else if (status == 401 || status == 403 || isKeyError(result.getError())) {
+            log.warn("API key {}... rejected, skipping until the daily reset", mask(key));
+            k.rejected = true;
+        }
+    }
+
+    /**
+     * Daily quota left on a key.
+     *
+     * @param key String key to check
+     * @return int requests left today, or -1 if the key isn't in the pool
+     */
+    public synchronized int getRemaining(String key) {
+        KeyState k = keys.get(key);
+        return k != null ? k.dayLeft : -1;
+    }
+
+    /**
+     * Daily quota left across every key that hasn't been rejected.
+     *
+     * @return int requests left today
+     */
+    public synchronized int getTotalRemaining() {
+        int total = 0;
+        for (KeyState k : keys.values()) {
+            if (!k.rejected) {
+                total += Math.max(k.dayLeft, 0);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Check if a key has been rejected by the API.
+     *
+     * @param key String key to check
+     * @return true if the key is being skipped until the daily reset
+     */
+    public synchronized boolean isRejected(String key) {
+        KeyState k = keys.get(key);
+        return k != null && k.rejected;
+    }
+
+    private void reset(long now) {
+        for (KeyState k : keys.values()) {
+            k.dayLeft = perDay;
+            k.secondLeft = perSecond;
+            k.second = -1;
+            k.rejected = false;
+        }
+        resetAt = new LocalDate(now, DateTimeZone.UTC)
+                .plusDays(1)
+                .toDateTimeAtStartOfDay(DateTimeZone.UTC)
+                .getMillis();
+    }
+
+    private static boolean isKeyError(ErrorReport error) {
+        if (error == null || error.getCause() != null) {
+            return false;
+        }
+        if ("KeyError".equals(error.getType())) {
+            return true;
+        }
+        String message = error.getMessage();
+        if (message == null) {
+            return false;
+        }
+        message = message.trim().toLowerCase(Locale.ROOT);
+        for (String prefix : KEY_ERRORS) {
+            if (message.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String mask(String key) {
+        return key.length() > 4 ? key.substring(0, 4) : "";
+    }
+
+    private static class KeyState {
+
+        private final String key;
+        private int dayLeft;
+        private int secondLeft;
+        private long second;
+        private boolean rejected;
+
+        private KeyState(String key) {
+            this.key = key;
+        }
+    }
+
+    public static class Builder {
+
+        private final List<String> keys = new ArrayList<>();
+        private int perSecond = 5;
+        private int perDay = 250;
+        private QuotaCoordinator coordinator;
+
+        /**
+         * Add a key to the pool.
+         *
+         * @param key String API key
+         * @return this Builder for chaining
+         */
+        public Builder addKey(String key) {
+            if (key == null || key.isEmpty()) {
+                throw new IllegalArgumentException("Key can't be empty");
+            }
+            if (!keys.contains(key)) {
+                keys.add(key);
+            }
+            return this;
+        }
+
+        /**
+         * Add several keys to the pool.
+         *
+         * @param keys Collection&lt;String&gt; API keys
+         * @return this Builder for chaining
+         */
+        public Builder addKeys(Collection<String> keys) {
+            for (String k : keys) {
+                addKey(k);
+            }
+            return this;
+        }
+
+        /**
+         * Requests allowed per key per second. Optional, defaults to 5.
+         *
+         * @param perSecond int requests per second
+         * @return this Builder for chaining
+         */
+        public Builder setPerSecond(int perSecond) {
+            if (perSecond < 1) {
+                throw new IllegalArgumentException("Per second limit must be positive");
+            }
+            this.perSecond = perSecond;
+            return this;
+        }
+
+        /**
+         * Requests allowed per key per day. Optional, defaults to 250.
+         *
+         * @param perDay int requests per day
+         * @return this Builder for chaining
+         */
+        public Builder setPerDay(int perDay) {
+            if (perDay < 1) {
+                throw new IllegalArgumentException("Per day limit must be positive");
+            }
+            this.perDay = perDay;
+            return this;
+        }
+
+        /**
+         * Share quota counts with other processes through a coordinator.
+         * Optional, defaults to counting in this process only.
+         *
+         * @param coordinator QuotaCoordinator to share counts through, or
+         * null for none
+         * @return this Builder for chaining
+         */
+        public Builder setCoordinator(QuotaCoordinator coordinator) {
+            this.coordinator = coordinator;
+            return this;
+        }
+
+        /**
+         * Build the pool.
+         *
+         * @return ApiKeyPool pool
+         * @throws IllegalArgumentException if no keys have been added
+         */
+        public ApiKeyPool build() {
+            if (keys.isEmpty()) {
+                throw new IllegalArgumentException("Pool needs at least one key");
+            }
+            return new ApiKeyPool(this);
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.quota;
+
+import com.moosemorals.weather.reports.FetchResult;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import org.joda.time.DateTimeUtils;
+
+/**
+ * Shares per key quotas between processes on the same host, through a small
+ * memory mapped file. </p>
+ *
+ * Each key gets a slot holding the requests made this second and today.
+ * Slots are read and updated while holding an exclusive lock on the file, so
+ * every process that points a coordinator at the same file sees one per
+ * second limit and one daily budget. Keys are stored as a hash, not in the
+ * clear. </p>
+ *
+ * File locks are held per JVM, so use one coordinator per file in each
+ * process. Use it through {@link ApiKeyPool.Builder#setCoordinator}; a single
+ * key can go in a pool of one.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class QuotaCoordinator implements Closeable {
+
+    private static final int MAGIC = 0x57575143;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 32;
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    // Slot layout
+    private static final int HASH = 0;
+    private static final int EPOCH_DAY = 8;
+    private static final int DAY_USED = 16;
+    private static final int SECOND_USED = 20;
+    private static final int EPOCH_SECOND = 24;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int slots;
+    private final int perSecond;
+    private final int perDay;
+
+    private QuotaCoordinator(Builder builder) throws IOException {
+        this.perSecond = builder.perSecond;
+        this.perDay = builder.perDay;
+
+        file = new RandomAccessFile(builder.file, "rw");
+        channel = file.getChannel();
+        FileLock lock = null;
+        try {
+            lock = channel.lock();
+            if (channel.size() == 0) {
+                slots = builder.maxKeys;
+                file.setLength(HEADER_SIZE + (long) slots * SLOT_SIZE);
+                map = map(channel, slots);
+                map.putInt(0, MAGIC);
+                map.putInt(4, VERSION);
+                map.putInt(8, slots);
+                map.force();
+            } else {
+                if (channel.size() < HEADER_SIZE) {
+                    throw new IOException("Quota file is too short");
+                }
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                    throw new IOException("Not a quota file: " + builder.file);
+                }
+                slots = header.getInt(8);
+                if (channel.size() < HEADER_SIZE + (long) slots * SLOT_SIZE) {
+                    throw new IOException("Quota file is too short");
+                }
+                map = map(channel, slots);
+            }
+        } catch (IOException | RuntimeException ex) {
+            file.close();
+            throw ex;
+        } finally {
+            if (lock != null && lock.isValid()) {
+                lock.release();
+            }
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, int slots) throws IOException {
+        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slots * SLOT_SIZE);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        return map;
+    }
+
+    /**
+     * Take one request from a key's shared quota.
+     *
+     * @param key String API key
+     * @return true if the request is allowed, false if the key is out of
+     * quota this second or today
+     * @throws IOException if the file can't be locked, or is full
+     */
+    public synchronized boolean tryAcquire(String key) throws IOException {
+        long now = DateTimeUtils.currentTimeMillis();
+        FileLock lock = channel.lock();
+        try {
+            int slot = roll(findSlot(key), now);
+            if (map.getInt(slot + DAY_USED) >= perDay || map.getInt(slot + SECOND_USED) >= perSecond) {
+                return false;
+            }
+            map.putInt(slot + DAY_USED, map.getInt(slot + DAY_USED) + 1);
+            map.putInt(slot + SECOND_USED, map.getInt(slot + SECOND_USED) + 1);
+            return true;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Correct the shared counts from the quota headers of a response. The
+     * API's counts include requests made by clients that don't use this file,
+     * so the counts only ever go up.
+     *
+     * @param key String API key that was used
+     * @param result FetchResult response
+     * @throws IOException if the file can't be locked, or is full
+     */
+    public synchronized void update(String key, FetchResult result) throws IOException {
+        if (result.getRequestsPerSecond() < 0 && result.getRequestsPerDay() < 0) {
+            return;
+        }
+        long now = DateTimeUtils.currentTimeMillis();
+        FileLock lock = channel.lock();
+        try {
+            int slot = roll(findSlot(key), now);
+            if (result.getRequestsPerDay() >= 0) {
+                int used = perDay - result.getRequestsPerDay();
+                map.putInt(slot + DAY_USED, Math.max(map.getInt(slot + DAY_USED), used));
+            }
+            if (result.getRequestsPerSecond() >= 0) {
+                int used = perSecond - result.getRequestsPerSecond();
+                map.putInt(slot + SECOND_USED, Math.max(map.getInt(slot + SECOND_USED), used));
+            }
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Requests left today for a key, across every process sharing the file.
+     *
+     * @param key String API key
+     * @return int requests left today
+     * @throws IOException if the file can't be locked, or is full
+     */
+    public synchronized int getRemainingToday(String key) throws IOException {
+        long now = DateTimeUtils.currentTimeMillis();
+        FileLock lock = channel.lock();
+        try {
+            int slot = roll(findSlot(key), now);
+            return Math.max(perDay - map.getInt(slot + DAY_USED), 0);
+        } finally {
+            lock.release();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Reset a slot's counts if the day or second has moved on. Must hold the
+     * file lock.
+     */
+    private int roll(int slot, long now) {
+        long day = now / DAY;
+        long second = now / 1000;
+        if (map.getLong(slot + EPOCH_DAY) != day) {
+            map.putLong(slot + EPOCH_DAY, day);
+            map.putInt(slot + DAY_USED, 0);
+        }
+        if (map.getLong(slot + EPOCH_SECOND) != second) {
+            map.putLong(slot + EPOCH_SECOND, second);
+            map.putInt(slot + SECOND_USED, 0);
+        }
+        return slot;
+    }
+
+    /**
+     * Find (or claim) the slot for a key, by linear probing. Must hold the
+     * file lock.
+     */
+    private int findSlot(String key) throws IOException {
+        long hash = hash(key);
+        int start = (int) ((hash & Long.MAX_VALUE) % slots);
+        for (int i = 0; i < slots; i += 1) {
+            int slot = HEADER_SIZE + ((start + i) % slots) * SLOT_SIZE;
+            long h = map.getLong(slot + HASH);
+            if (h == hash) {
+                return slot;
+            }
+            if (h == 0) {
+                map.putLong(slot + HASH, hash);
+                map.putLong(slot + EPOCH_DAY, -1);
+                map.putLong(slot + EPOCH_SECOND, -1);
+                return slot;
+            }
+        }
+        throw new IOException("Quota file is full");
+    }
+
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i += 1) {
+                h = (h << 8) | (digest[i] & 0xff);
+            }
+            // Zero marks an empty slot
+            return h != 0 ? h : 1;
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+
+    public static class Builder {
+
+        private File file;
+        private int perSecond = 5;
+        private int perDay = 250;
+        private int maxKeys = 64;
+
+        /**
+         * File to share counts through. Required. Created if it doesn't
+         * exist.
+         *
+         * @param file File to use
+         * @return this Builder for chaining
+         */
+        public Builder setFile(File file) {
+            this.file = file;
+            return this;
+        }
+
+        /**
+         * Requests allowed per key per second. Optional, defaults to 5.
+         *
+         * @param perSecond int requests per second
+         * @return this Builder for chaining
+         */
+        public Builder setPerSecond(int perSecond) {
+            if (perSecond < 1) {
+                throw new IllegalArgumentException("Per second limit must be positive");
+            }
+            this.perSecond = perSecond;
+            return this;
+        }
+
+        /**
+         * Requests allowed per key per day. Optional, defaults to 250.
+         *
+         * @param perDay int requests per day
+         * @return this Builder for chaining
+         */
+        public Builder setPerDay(int perDay) {
+            if (perDay < 1) {
+                throw new IllegalArgumentException("Per day limit must be positive");
+            }
+            this.perDay = perDay;
+            return this;
+        }
+
+        /**
+         * Number of key slots in a new file. Ignored if the file already
+         * exists. Optional, defaults to 64.
+         *
+         * @param maxKeys int number of slots
+         * @return this Builder for chaining
+         */
+        public Builder setMaxKeys(int maxKeys) {
+            if (maxKeys < 1) {
+                throw new IllegalArgumentException("Must have at least one slot");
+            }
+            this.maxKeys = maxKeys;
+            return this;
+        }
+
+        /**
+         * Open (or create) the file and build the coordinator.
+         *
+         * @return QuotaCoordinator coordinator
+         * @throws IOException if the file can't be opened, or isn't a quota
+         * file
+         * @throws NullPointerException if the file isn't set
+         */
+        public QuotaCoordinator build() throws IOException {
+            if (file == null) {
+                throw new NullPointerException("File not set");
+            }
+            return new QuotaCoordinator(this);
+        }
+    }
+}
@@ -35,13 +35,15 @@ public class FetchResult {
     private final ErrorReport error;
     private final int requestsPerSecond;
     private final int requestsPerDay;
+    private final boolean stale;
 
-    private FetchResult(WeatherReport weather, LocationReport location, ErrorReport error, int requestsPerSecond, int requestsPerDay) {
+    private FetchResult(WeatherReport weather, LocationReport location, ErrorReport error, int requestsPerSecond, int requestsPerDay, boolean stale) {
         this.weatherReport = weather;
         this.locationReport = location;
         this.error = error;
         this.requestsPerSecond = requestsPerSecond;
         this.requestsPerDay = requestsPerDay;
+        this.stale = stale;
     }
 
     /**
@@ -102,6 +104,16 @@ public class FetchResult {
         return requestsPerDay;
     }
 
+    /**
+     * Returns true if this result came from a cache entry that has expired,
+     * and is being served while a fresh copy is fetched in the background.
+     *
+     * @return boolean true if the data is out of date
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
     public static class Builder {
 
         private WeatherReport weather;
@@ -109,11 +121,26 @@ public class FetchResult {
         private ErrorReport error;
         private int requestsPerSecond;
         private int requestsPerDay;
+        private boolean stale;
 
         public Builder() {
             super();
         }
 
+        /**
+         * Start with a copy of an existing result.
+         *
+         * @param from FetchResult result to copy
+         */
+        public Builder(FetchResult from) {
+            this.weather = from.weatherReport;
+            this.location = from.locationReport;
+            this.error = from.error;
+            this.requestsPerSecond = from.requestsPerSecond;
+            this.requestsPerDay = from.requestsPerDay;
+            this.stale = from.stale;
+        }
+
         public Builder setWeather(WeatherReport report) {
             this.weather = report;
             return this;
@@ -139,8 +166,13 @@ public class FetchResult {
             return this;
         }
 
+        public Builder setStale(boolean stale) {
+            this.stale = stale;
+            return this;
+        }
+
         public FetchResult build() {
-            return new FetchResult(weather, location, error, requestsPerSecond, requestsPerDay);
+            return new FetchResult(weather, location, error, requestsPerSecond, requestsPerDay, stale);
         }
     }
 
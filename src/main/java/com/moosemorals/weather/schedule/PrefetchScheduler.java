@@ -0,0 +1,434 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.schedule;
+
+import com.moosemorals.weather.WeatherFetcher;
+import com.moosemorals.weather.cache.ResponseCache;
+import com.moosemorals.weather.reports.FetchResult;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a watchlist of locations fresh in the cache, within the daily request
+ * budget. </p>
+ *
+ * Each {@link Watch} is refreshed every freshness target, but never before its
+ * cached report is about to expire, since refreshing any earlier would just
+ * fetch the same report again. The refresh happens a little before expiry so
+ * that readers keep getting cache hits. </p>
+ *
+ * The remaining daily budget (as reported by the API, or counted locally if
+ * it isn't) is shared out by priority: the highest priority watches get their
+ * freshness target, the next gets whatever is left spread over the rest of the
+ * day, and anything after that waits for the budget to reset at midnight UTC.
+ * </p>
+ *
+ * Watches are kept in a {@link TimingWheel}, so a tick only costs as much as
+ * the watches that are due, even with tens of thousands of locations. Watches
+ * that need fetching straight away are spread out at the per tick limit rather
+ * than all landing on the next tick, and once the budget is spent any watch
+ * that comes due is parked until the reset instead of being looked at again on
+ * every tick.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class PrefetchScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(PrefetchScheduler.class);
+    private static final long PLAN_INTERVAL = 60 * 1000;
+    private static final long RETRY_DELAY = 5 * 60 * 1000;
+
+    private static final Comparator<Watch> BY_PRIORITY = new Comparator<Watch>() {
+        @Override
+        public int compare(Watch a, Watch b) {
+            return Integer.compare(b.getPriority(), a.getPriority());
+        }
+    };
+
+    private final int dailyLimit;
+    private final int reserve;
+    private final long lead;
+    private final int maxPerTick;
+    private final long tickLength;
+    private final Set<Watch> watches = new LinkedHashSet<>();
+    private final TimingWheel<Watch> wheel;
+    private int remaining;
+    private long resetAt;
+    private long lastPlan;
+    private long nextStart;
+    private int startedInTick;
+    private ScheduledFuture<?> task;
+
+    private PrefetchScheduler(Builder builder) {
+        this.dailyLimit = builder.dailyLimit;
+        this.reserve = builder.reserve;
+        this.lead = builder.lead;
+        this.maxPerTick = builder.maxPerTick;
+        this.tickLength = builder.tickLength;
+
+        long now = DateTimeUtils.currentTimeMillis();
+        this.wheel = new TimingWheel<>(tickLength, 4096, now);
+        this.remaining = dailyLimit;
+        this.resetAt = nextReset(now);
+        this.lastPlan = now;
+    }
+
+    /**
+     * Add a location to the watchlist. It will be refreshed on the next tick
+     * (or the first tick with room, if lots of watches are added at once),
+     * unless the cache already holds a report that isn't due to expire soon.
+     *
+     * @param watch Watch to add
+     */
+    public synchronized void add(Watch watch) {
+        if (!watches.add(watch)) {
+            return;
+        }
+        long now = DateTimeUtils.currentTimeMillis();
+        plan(now);
+        watch.timeout = wheel.schedule(watch, pace(getDue(watch, now), now));
+    }
+
+    /**
+     * Remove a location from the watchlist.
+     *
+     * @param watch Watch to remove
+     */
+    public synchronized void remove(Watch watch) {
+        if (watches.remove(watch)) {
+            if (watch.timeout != null) {
+                wheel.cancel(watch.timeout);
+                watch.timeout = null;
+            }
+            plan(DateTimeUtils.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Number of locations on the watchlist.
+     *
+     * @return int number of watches
+     */
+    public synchronized int size() {
+        return watches.size();
+    }
+
+    /**
+     * Requests left today, as last reported by the API or counted locally.
+     *
+     * @return int requests remaining
+     */
+    public synchronized int getRemainingBudget() {
+        return remaining;
+    }
+
+    /**
+     * Start ticking on an executor. Refreshes run on the executor thread, one
+     * tick at a time.
+     *
+     * @param executor ScheduledExecutorService to run on
+     */
+    public synchronized void start(ScheduledExecutorService executor) {
+        if (task != null) {
+            throw new IllegalStateException("Already started");
+        }
+        task = executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tick(DateTimeUtils.currentTimeMillis());
+                } catch (RuntimeException ex) {
+                    log.error("Prefetch tick failed", ex);
+                }
+            }
+        }, tickLength, tickLength, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop ticking. Any refresh in progress is allowed to finish.
+     */
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    /**
+     * Refresh every watch that's due. Called by the executor after
+     * {@link #start(java.util.concurrent.ScheduledExecutorService)}, but can
+     * be called directly to drive the scheduler by hand.
+     *
+     * @param now long current time, milliseconds since the epoch
+     */
+    public void tick(long now) {
+        List<Watch> batch = new ArrayList<>();
+        synchronized (this) {
+            if (now >= resetAt) {
+                reset(now);
+            }
+
+            List<Watch> due = new ArrayList<>();
+            wheel.advance(now, due);
+            Collections.sort(due, BY_PRIORITY);
+
+            int available = remaining - reserve;
+            int budget = Math.min(maxPerTick, available);
+            for (Watch w : due) {
+                if (batch.size() < budget) {
+                    batch.add(w);
+                } else if (batch.size() < available) {
+                    // Out of budget for this tick, try again on the next
+                    w.timeout = wheel.schedule(w, now + tickLength);
+                } else {
+                    // Out of budget for today
+                    w.timeout = wheel.schedule(w, resetAt);
+                }
+            }
+            remaining -= batch.size();
+        }
+
+        for (Watch w : batch) {
+            FetchResult result = null;
+            try {
+                result = w.getFetcher().refresh();
+            } catch (IOException | RuntimeException ex) {
+                log.warn("Prefetch of {} failed", w.getFetcher().getCacheKey(), ex);
+            }
+            finished(w, result, now);
+        }
+    }
+
+    private synchronized void finished(Watch w, FetchResult result, long now) {
+        if (result != null && result.getRequestsPerDay() >= 0) {
+            remaining = result.getRequestsPerDay();
+        }
+        if (!watches.contains(w)) {
+            // Removed while it was being fetched
+            return;
+        }
+        if (result != null && result.isSuccess()) {
+            w.lastFetch = now;
+            w.timeout = wheel.schedule(w, getDue(w, now));
+        } else {
+            w.timeout = wheel.schedule(w, now + Math.min(RETRY_DELAY, w.interval));
+        }
+        if (now - lastPlan >= PLAN_INTERVAL) {
+            plan(now);
+        }
+    }
+
+    private void reset(long now) {
+        remaining = dailyLimit;
+        resetAt = nextReset(now);
+        plan(now);
+        // Watches held back for lack of budget can go now
+        for (Watch w : watches) {
+            if (w.timeout != null) {
+                wheel.cancel(w.timeout);
+                w.timeout = wheel.schedule(w, pace(getDue(w, now), now));
+            }
+        }
+    }
+
+    /**
+     * Share the remaining budget between the watches, highest priority first.
+     *
+     * @param now long current time, milliseconds since the epoch
+     */
+    void plan(long now) {
+        lastPlan = now;
+        long left = Math.max(resetAt - now, 1);
+        long budget = remaining - reserve;
+
+        List<Watch> sorted = new ArrayList<>(watches);
+        Collections.sort(sorted, BY_PRIORITY);
+        for (Watch w : sorted) {
+            long want = (left + w.getFreshness() - 1) / w.getFreshness();
+            if (budget >= want) {
+                w.interval = w.getFreshness();
+                budget -= want;
+            } else if (budget > 0) {
+                w.interval = left / budget;
+                budget = 0;
+            } else {
+                // Wait for the reset
+                w.interval = left;
+            }
+        }
+    }
+
+    /**
+     * When a watch should next be refreshed.
+     *
+     * @param w Watch to check
+     * @param now long current time, milliseconds since the epoch
+     * @return long due time, milliseconds since the epoch
+     */
+    long getDue(Watch w, long now) {
+        long due = w.lastFetch < 0 ? now : w.lastFetch + w.interval;
+
+        WeatherFetcher fetcher = w.getFetcher();
+        ResponseCache cache = fetcher.getCache();
+        if (cache != null) {
+            long expires = cache.getExpires(fetcher.getCacheKey());
+            if (expires >= 0) {
+                due = Math.max(due, expires - lead);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Hold back watches that are due now so that no more than the per tick
+     * limit of them start in any one tick.
+     *
+     * @param due long when the watch is due, milliseconds since the epoch
+     * @param now long current time, milliseconds since the epoch
+     * @return long when to schedule the watch, milliseconds since the epoch
+     */
+    long pace(long due, long now) {
+        if (due > now) {
+            return due;
+        }
+        if (nextStart < now) {
+            nextStart = now;
+            startedInTick = 0;
+        }
+        long start = nextStart;
+        startedInTick += 1;
+        if (startedInTick >= maxPerTick) {
+            nextStart += tickLength;
+            startedInTick = 0;
+        }
+        return start;
+    }
+
+    private static long nextReset(long now) {
+        return new LocalDate(now, DateTimeZone.UTC)
+                .plusDays(1)
+                .toDateTimeAtStartOfDay(DateTimeZone.UTC)
+                .getMillis();
+    }
+
+    public static class Builder {
+
+        private int dailyLimit = 250;
+        private int reserve = 0;
+        private long lead = 60 * 1000;
+        private int maxPerTick = 5;
+        private long tickLength = 1000;
+
+        /**
+         * Number of requests allowed per day, used until the API reports the
+         * real number. Optional, defaults to 250.
+         *
+         * @param dailyLimit int requests per day
+         * @return this Builder for chaining
+         */
+        public Builder setDailyLimit(int dailyLimit) {
+            if (dailyLimit < 0) {
+                throw new IllegalArgumentException("Daily limit can't be negative");
+            }
+            this.dailyLimit = dailyLimit;
+            return this;
+        }
+
+        /**
+         * Number of requests to leave for other users of the API key.
+         * Optional, defaults to 0.
+         *
+         * @param reserve int requests to hold back each day
+         * @return this Builder for chaining
+         */
+        public Builder setReserve(int reserve) {
+            if (reserve < 0) {
+                throw new IllegalArgumentException("Reserve can't be negative");
+            }
+            this.reserve = reserve;
+            return this;
+        }
+
+        /**
+         * How long before a cached report expires to refresh it. Optional,
+         * defaults to a minute.
+         *
+         * @param lead long lead time, milliseconds
+         * @return this Builder for chaining
+         */
+        public Builder setLead(long lead) {
+            if (lead < 0) {
+                throw new IllegalArgumentException("Lead can't be negative");
+            }
+            this.lead = lead;
+            return this;
+        }
+
+        /**
+         * Most refreshes per tick. Optional, defaults to 5 to match the API's
+         * per second limit.
+         *
+         * @param maxPerTick int refreshes per tick
+         * @return this Builder for chaining
+         */
+        public Builder setMaxPerTick(int maxPerTick) {
+            if (maxPerTick < 1) {
+                throw new IllegalArgumentException("Max per tick must be positive");
+            }
+            this.maxPerTick = maxPerTick;
+            return this;
+        }
+
+        /**
+         * Time between ticks. Optional, defaults to a second.
+         *
+         * @param tickLength long tick length, milliseconds
+         * @return this Builder for chaining
+         */
+        public Builder setTickLength(long tickLength) {
+            if (tickLength < 1) {
+                throw new IllegalArgumentException("Tick length must be positive");
+            }
+            this.tickLength = tickLength;
+            return this;
+        }
+
+        public PrefetchScheduler build() {
+            return new PrefetchScheduler(this);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.schedule;
+
+import com.moosemorals.weather.cache.CacheKey;
+import com.moosemorals.weather.cache.ExpiryPolicy;
+import com.moosemorals.weather.reports.FetchResult;
+
+/**
+ * Decide when a subscribed location should next be fetched. </p>
+ *
+ * When several subscriptions share a location, the location is fetched as
+ * soon as any of their policies asks for it.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public abstract class RefreshPolicy {
+
+    private static final long RETRY_DELAY = 5 * 60 * 1000;
+
+    /**
+     * Work out when to fetch next.
+     *
+     * @param key CacheKey parameters the location is fetched with
+     * @param result FetchResult result of the last fetch, or null if it threw
+     * @param now long time of the last fetch, milliseconds since the epoch
+     * @return long next fetch time, milliseconds since the epoch
+     */
+    public abstract long getNextRefresh(CacheKey key, FetchResult result, long now);
+
+    /**
+     * Fetch at a fixed interval, whatever the result.
+     *
+     * @param period long time between fetches, milliseconds
+     * @return RefreshPolicy policy
+     */
+    public static RefreshPolicy every(final long period) {
+        if (period < 1) {
+            throw new IllegalArgumentException("Period must be positive");
+        }
+        return new RefreshPolicy() {
+            @Override
+            public long getNextRefresh(CacheKey key, FetchResult result, long now) {
+                return now + period;
+            }
+        };
+    }
+
+    /**
+     * Fetch when the last report expires, but not more often than a minimum
+     * interval. Failed fetches are retried after five minutes, or the minimum
+     * interval if that's longer.
+     *
+     * @param expiry ExpiryPolicy to decide when reports expire, usually the
+     * same one the cache uses
+     * @param minimum long shortest time between fetches, milliseconds
+     * @return RefreshPolicy policy
+     */
+    public static RefreshPolicy onExpiry(final ExpiryPolicy expiry, final long minimum) {
+        if (expiry == null) {
+            throw new IllegalArgumentException("Expiry policy must not be null");
+        }
+        if (minimum < 1) {
+            throw new IllegalArgumentException("Minimum must be positive");
+        }
+        return new RefreshPolicy() {
+            @Override
+            public long getNextRefresh(CacheKey key, FetchResult result, long now) {
+                if (result == null || !result.isSuccess()) {
+                    return now + Math.max(RETRY_DELAY, minimum);
+                }
+                return Math.max(now + minimum, expiry.getExpiry(key, result.getWeather(), now));
+            }
+        };
+    }
+}
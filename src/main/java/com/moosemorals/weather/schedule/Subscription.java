@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.schedule;
+
+/**
+ * A listener's interest in a location, as returned by
+ * {@link SubscriptionManager}. Cancel it to stop getting reports.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class Subscription {
+
+    private final SubscriptionManager manager;
+    private final String location;
+    private final WeatherListener listener;
+    private final RefreshPolicy policy;
+    private final boolean changesOnly;
+    private volatile boolean cancelled = false;
+
+    Subscription(SubscriptionManager manager, String location, WeatherListener listener, RefreshPolicy policy, boolean changesOnly) {
+        this.manager = manager;
+        this.location = location;
+        this.listener = listener;
+        this.policy = policy;
+        this.changesOnly = changesOnly;
+    }
+
+    /**
+     * Location as given when subscribing.
+     *
+     * @return String location
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * Listener that gets the reports.
+     *
+     * @return WeatherListener listener
+     */
+    public WeatherListener getListener() {
+        return listener;
+    }
+
+    /**
+     * How often this subscription wants the location fetched.
+     *
+     * @return RefreshPolicy policy
+     */
+    public RefreshPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Does the listener only hear about reports where some forecast value has
+     * changed.
+     *
+     * @return boolean true if only changes are delivered
+     */
+    public boolean isChangesOnly() {
+        return changesOnly;
+    }
+
+    /**
+     * Has this subscription been cancelled.
+     *
+     * @return boolean true if cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Stop delivering reports to the listener. Reports already queued on the
+     * delivery executor are dropped. If this was the last subscription for
+     * the location, the location stops being fetched.
+     */
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            manager.cancelled(this);
+        }
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.schedule;
+
+import com.moosemorals.weather.WeatherFetcher;
+import com.moosemorals.weather.cache.CacheKey;
+import com.moosemorals.weather.reports.ErrorReport;
+import com.moosemorals.weather.reports.FetchResult;
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.series.ChangeSet;
+import com.moosemorals.weather.series.ForecastDiff;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.LocalTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches subscribed locations on a schedule, and pushes new reports to
+ * listeners. </p>
+ *
+ * Every subscription for the same location (compared the way
+ * {@link CacheKey} compares them) shares one feed, so a thousand listeners
+ * cost one request per refresh. The feed is fetched as soon as any of its
+ * subscriptions' {@link RefreshPolicy policies} asks for it. </p>
+ *
+ * Listeners are only called when a fetch returns a different report to last
+ * time: one where some forecast value has changed, or the current conditions
+ * were observed at a different time. So a fetch answered from a shared cache
+ * doesn't deliver the same report twice, even if the cache parses a new copy
+ * of it each time. Each delivery comes with a {@link ChangeSet} from a
+ * {@link ForecastDiff}, and listeners subscribed with
+ * {@link #subscribeChanges(String, WeatherListener, RefreshPolicy)} are only
+ * called when it isn't empty. A listener that subscribes to a location that
+ * has already been fetched gets the last report straight away. </p>
+ *
+ * Fetchers are built from a template {@link WeatherFetcher.Builder}, so
+ * cache, key pool, metrics and so on are set up once for every location.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class SubscriptionManager {
+
+    private static final Logger log = LoggerFactory.getLogger(SubscriptionManager.class);
+
+    private final WeatherFetcher.Builder template;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownScheduler;
+    private final Executor delivery;
+    private final ForecastDiff diff;
+    private final Map<String, Feed> feeds = new HashMap<>();
+    private boolean closed = false;
+
+    private SubscriptionManager(Builder builder) {
+        // Our own copy, so later changes to the caller's builder don't leak in
+        this.template = builder.template.copy();
+        this.ownScheduler = builder.scheduler == null;
+        this.scheduler = ownScheduler ? Executors.newScheduledThreadPool(builder.threads) : builder.scheduler;
+        this.delivery = builder.delivery != null ? builder.delivery : scheduler;
+        this.diff = builder.diff != null ? builder.diff : new ForecastDiff();
+    }
+
+    /**
+     * Get every new report for a location.
+     *
+     * @param location String location to fetch
+     * @param listener WeatherListener to tell about new reports
+     * @param policy RefreshPolicy how often to fetch
+     * @return Subscription handle to cancel the subscription
+     */
+    public Subscription subscribe(String location, WeatherListener listener, RefreshPolicy policy) {
+        return add(location, listener, policy, false);
+    }
+
+    /**
+     * Get new reports for a location, but only when some forecast value has
+     * changed since the last one.
+     *
+     * @param location String location to fetch
+     * @param listener WeatherListener to tell about changes
+     * @param policy RefreshPolicy how often to fetch
+     * @return Subscription handle to cancel the subscription
+     */
+    public Subscription subscribeChanges(String location, WeatherListener listener, RefreshPolicy policy) {
+        return add(location, listener, policy, true);
+    }
+
+    /**
+     * Number of locations being fetched.
+     *
+     * @return int number of locations
+     */
+    public synchronized int getFeedCount() {
+        return feeds.size();
+    }
+
+    /**
+     * Number of live subscriptions across all locations.
+     *
+     * @return int number of subscriptions
+     */
+    public synchronized int getSubscriptionCount() {
+        int count = 0;
+        for (Feed feed : feeds.values()) {
+            count += feed.subscriptions.size();
+        }
+        return count;
+    }
+
+    /**
+     * Cancel every subscription and stop fetching. If the manager made its
+     * own scheduler, it's shut down. Fetches in progress are allowed to
+     * finish, but their reports aren't delivered.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Feed feed : new ArrayList<>(feeds.values())) {
+                for (Subscription sub : feed.subscriptions) {
+                    sub.cancel();
+                }
+            }
+        }
+        if (ownScheduler) {
+            scheduler.shutdown();
+        }
+    }
+
+    private synchronized Subscription add(String location, WeatherListener listener, RefreshPolicy policy, boolean changesOnly) {
+        if (location == null) {
+            throw new IllegalArgumentException("Location must not be null");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener must not be null");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Policy must not be null");
+        }
+        if (closed) {
+            throw new IllegalStateException("Manager is closed");
+        }
+
+        String name = CacheKey.normalize(location);
+        Subscription sub = new Subscription(this, location, listener, policy, changesOnly);
+
+        Feed feed = feeds.get(name);
+        if (feed == null) {
+            WeatherFetcher fetcher = template.copy().setLocation(location).build();
+            feed = new Feed(name, fetcher);
+            feeds.put(name, feed);
+            feed.subscriptions.add(sub);
+            feed.schedule(DateTimeUtils.currentTimeMillis());
+            return sub;
+        }
+
+        feed.subscriptions.add(sub);
+        if (feed.lastReport != null && !changesOnly) {
+            deliver(sub, feed.lastReport, feed.lastChanges);
+        }
+        if (feed.lastFetched >= 0 && !feed.running) {
+            // Fetch sooner if this subscription wants it
+            long due = policy.getNextRefresh(feed.fetcher.getCacheKey(), feed.lastResult, feed.lastFetched);
+            if (due < feed.due) {
+                feed.schedule(due);
+            }
+        }
+        return sub;
+    }
+
+    synchronized void cancelled(Subscription sub) {
+        String name = CacheKey.normalize(sub.getLocation());
+        Feed feed = feeds.get(name);
+        if (feed == null || !feed.subscriptions.remove(sub)) {
+            return;
+        }
+        if (feed.subscriptions.isEmpty()) {
+            if (feed.future != null) {
+                feed.future.cancel(false);
+            }
+            feeds.remove(name);
+            diff.forget(name);
+        }
+    }
+
+    private synchronized boolean starting(Feed feed) {
+        if (feeds.get(feed.name) != feed) {
+            return false;
+        }
+        feed.running = true;
+        return true;
+    }
+
+    private synchronized void finished(Feed feed, FetchResult result, ErrorReport error, long now) {
+        feed.running = false;
+        if (feeds.get(feed.name) != feed) {
+            // Last subscription went while it was being fetched
+            return;
+        }
+        feed.lastResult = result;
+        feed.lastFetched = now;
+
+        List<Subscription> subs = feed.subscriptions;
+        WeatherReport report = error == null ? result.getWeather() : null;
+        ChangeSet changes = null;
+        if (report != null && report != feed.lastReport) {
+            // Listeners may still be reading the last one, so no reuse
+            changes = new ChangeSet();
+            try {
+                diff.update(feed.name, report, changes);
+            } catch (RuntimeException ex) {
+                // Don't let a report we can't diff stop the feed
+                log.warn("Can't diff report for {}", feed.name, ex);
+                error = new ErrorReport(ex);
+            }
+            if (error == null && feed.lastReport != null && changes.isEmpty()
+                    && sameObservation(report, feed.lastReport)) {
+                // Same report again, just a different copy
+                changes = null;
+            }
+        }
+
+        if (error != null) {
+            for (Subscription sub : subs) {
+                fail(sub, error);
+            }
+        } else if (changes != null) {
+            feed.lastReport = report;
+            feed.lastChanges = changes;
+            for (Subscription sub : subs) {
+                if (!sub.isChangesOnly() || !changes.isEmpty()) {
+                    deliver(sub, report, changes);
+                }
+            }
+        }
+
+        CacheKey key = feed.fetcher.getCacheKey();
+        long due = Long.MAX_VALUE;
+        for (Subscription sub : subs) {
+            due = Math.min(due, sub.getPolicy().getNextRefresh(key, result, now));
+        }
+        feed.schedule(due);
+    }
+
+    private static boolean sameObservation(WeatherReport a, WeatherReport b) {
+        LocalTime x = a.getCurrent() == null ? null : a.getCurrent().getObservationTime();
+        LocalTime y = b.getCurrent() == null ? null : b.getCurrent().getObservationTime();
+        return x == null ? y == null : x.equals(y);
+    }
+
+    private void deliver(final Subscription sub, final WeatherReport report, final ChangeSet changes) {
+        delivery.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (sub.isCancelled()) {
+                    return;
+                }
+                try {
+                    sub.getListener().updated(sub.getLocation(), report, changes);
+                } catch (RuntimeException ex) {
+                    log.warn("Listener for {} failed", sub.getLocation(), ex);
+                }
+            }
+        });
+    }
+
+    private void fail(final Subscription sub, final ErrorReport error) {
+        delivery.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (sub.isCancelled()) {
+                    return;
+                }
+                try {
+                    sub.getListener().failed(sub.getLocation(), error);
+                } catch (RuntimeException ex) {
+                    log.warn("Listener for {} failed", sub.getLocation(), ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * One location, and everyone subscribed to it. Apart from the
+     * subscription list, state is guarded by the manager.
+     */
+    private class Feed implements Runnable {
+
+        private final String name;
+        private final WeatherFetcher fetcher;
+        private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+        private ScheduledFuture<?> future;
+        private long due;
+        private boolean running = false;
+        private FetchResult lastResult;
+        private long lastFetched = -1;
+        private WeatherReport lastReport;
+        private ChangeSet lastChanges;
+
+        Feed(String name, WeatherFetcher fetcher) {
+            this.name = name;
+            this.fetcher = fetcher;
+        }
+
+        void schedule(long due) {
+            if (future != null) {
+                future.cancel(false);
+            }
+            this.due = due;
+            long delay = Math.max(0, due - DateTimeUtils.currentTimeMillis());
+            future = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            if (!starting(this)) {
+                return;
+            }
+            long now = DateTimeUtils.currentTimeMillis();
+            FetchResult result = null;
+            ErrorReport error = null;
+            try {
+                result = fetcher.fetch();
+                if (!result.isSuccess()) {
+                    error = result.getError();
+                }
+            } catch (IOException | RuntimeException ex) {
+                log.warn("Fetch of {} failed", name, ex);
+                error = new ErrorReport(ex);
+            }
+            finished(this, result, error, now);
+        }
+    }
+
+    public static class Builder {
+
+        private WeatherFetcher.Builder template;
+        private ScheduledExecutorService scheduler;
+        private int threads = 2;
+        private Executor delivery;
+        private ForecastDiff diff;
+
+        public Builder() {
+            super();
+        }
+
+        /**
+         * Template for the fetchers, with everything but the location set.
+         * It's copied when the manager is built, and the copy is copied again
+         * for each feed, so the template itself is never changed. Required.
+         *
+         * @param template WeatherFetcher.Builder template
+         * @return this Builder for chaining
+         */
+        public Builder setTemplate(WeatherFetcher.Builder template) {
+            this.template = template;
+            return this;
+        }
+
+        /**
+         * Scheduler to run fetches on. Optional, defaults to a pool owned by
+         * the manager and shut down by {@link SubscriptionManager#close()}.
+         *
+         * @param scheduler ScheduledExecutorService to fetch on
+         * @return this Builder for chaining
+         */
+        public Builder setScheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Size of the manager's own scheduler pool, if it makes one.
+         * Optional, defaults to 2.
+         *
+         * @param threads int number of fetch threads
+         * @return this Builder for chaining
+         */
+        public Builder setThreads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("Threads must be positive");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Executor to call listeners on. Optional, defaults to the scheduler.
+         *
+         * @param delivery Executor to deliver on
+         * @return this Builder for chaining
+         */
+        public Builder setDelivery(Executor delivery) {
+            this.delivery = delivery;
+            return this;
+        }
+
+        /**
+         * Diff used to work out what changed. Optional, defaults to comparing
+         * every field.
+         *
+         * @param diff ForecastDiff to use
+         * @return this Builder for chaining
+         */
+        public Builder setDiff(ForecastDiff diff) {
+            this.diff = diff;
+            return this;
+        }
+
+        /**
+         * Build the manager.
+         *
+         * @return SubscriptionManager manager
+         * @throws NullPointerException if the template isn't set
+         */
+        public SubscriptionManager build() {
+            if (template == null) {
+                throw new NullPointerException("Template not set");
+            }
+            return new SubscriptionManager(this);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.schedule;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Hashed timing wheel. </p>
+ *
+ * Time is divided into ticks, and each item goes in the slot for the tick it
+ * is due, modulo the number of slots. Scheduling and cancelling are constant
+ * time (cancelled items are only marked, and are cleared out when the wheel
+ * next passes their slot), and advancing only looks at the slots that have
+ * passed, so it stays cheap with many thousands of items. Items are never
+ * early, but can be up to one tick late. </p>
+ *
+ * Not thread safe.
+ *
+ * @param <T> Type of the scheduled items
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class TimingWheel<T> {
+
+    private final long tickLength;
+    private final List<List<Timeout<T>>> slots;
+    private final int mask;
+    private long currentTick;
+    private int size = 0;
+
+    /**
+     * Build a wheel.
+     *
+     * @param tickLength long length of a tick, milliseconds
+     * @param wheelSize int number of slots, rounded up to a power of two
+     * @param now long current time, milliseconds since the epoch
+     */
+    public TimingWheel(long tickLength, int wheelSize, long now) {
+        if (tickLength < 1) {
+            throw new IllegalArgumentException("Tick length must be positive");
+        }
+        if (wheelSize < 1 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException("Wheel size must be between 1 and 2^30");
+        }
+        int n = Integer.highestOneBit(wheelSize);
+        if (n < wheelSize) {
+            n <<= 1;
+        }
+        this.tickLength = tickLength;
+        this.mask = n - 1;
+        this.slots = new ArrayList<>(n);
+        for (int i = 0; i < n; i += 1) {
+            slots.add(new ArrayList<Timeout<T>>());
+        }
+        this.currentTick = now / tickLength;
+    }
+
+    /**
+     * Schedule an item. Deadlines in the past are due on the next
+     * {@link #advance(long, java.util.List)}.
+     *
+     * @param item T item to schedule
+     * @param deadline long when it's due, milliseconds since the epoch
+     * @return Timeout handle that can be used to cancel the item
+     */
+    public Timeout<T> schedule(T item, long deadline) {
+        long tick = Math.max(ceilDiv(deadline, tickLength), currentTick);
+        Timeout<T> timeout = new Timeout<>(item, tick, tick * tickLength);
+        slots.get((int) (tick & mask)).add(timeout);
+        size += 1;
+        return timeout;
+    }
+
+    /**
+     * Cancel a scheduled item. Does nothing if it has already been returned
+     * from {@link #advance(long, java.util.List)} or cancelled.
+     *
+     * @param timeout Timeout handle from
+     * {@link #schedule(java.lang.Object, long)}
+     */
+    public void cancel(Timeout<T> timeout) {
+        if (!timeout.done) {
+            timeout.done = true;
+            timeout.cancelled = true;
+            size -= 1;
+        }
+    }
+
+    /**
+     * Move the wheel on to now, collecting every item that has come due.
+     *
+     * @param now long current time, milliseconds since the epoch
+     * @param due List&lt;T&gt; to add due items to
+     */
+    public void advance(long now, List<T> due) {
+        long target = now / tickLength;
+        if (target < currentTick) {
+            return;
+        }
+        // No point going round more than once
+        long steps = Math.min(target - currentTick + 1, slots.size());
+        for (long i = 0; i < steps; i += 1) {
+            List<Timeout<T>> slot = slots.get((int) ((currentTick + i) & mask));
+            Iterator<Timeout<T>> it = slot.iterator();
+            while (it.hasNext()) {
+                Timeout<T> timeout = it.next();
+                if (timeout.cancelled) {
+                    it.remove();
+                } else if (timeout.tick <= target) {
+                    it.remove();
+                    timeout.done = true;
+                    size -= 1;
+                    due.add(timeout.item);
+                }
+            }
+        }
+        currentTick = target + 1;
+    }
+
+    /**
+     * Number of items waiting.
+     *
+     * @return int number of items
+     */
+    public int size() {
+        return size;
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return a <= 0 ? 0 : (a + b - 1) / b;
+    }
+
+    /**
+     * Handle for a scheduled item.
+     *
+     * @param <T> Type of the scheduled item
+     */
+    public static class Timeout<T> {
+
+        private final T item;
+        private final long tick;
+        private final long deadline;
+        private boolean done = false;
+        private boolean cancelled = false;
+
+        private Timeout(T item, long tick, long deadline) {
+            this.item = item;
+            this.tick = tick;
+            this.deadline = deadline;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        /**
+         * When the item is due, rounded up to the start of a tick.
+         *
+         * @return long due time, milliseconds since the epoch
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+}
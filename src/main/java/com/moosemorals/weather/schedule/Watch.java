@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.schedule;
+
+import com.moosemorals.weather.WeatherFetcher;
+
+/**
+ * A location on a {@link PrefetchScheduler} watchlist. </p>
+ *
+ * The fetcher should share its cache with the fetchers that answer user
+ * requests, so that refreshes made by the scheduler are seen by them.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class Watch {
+
+    private final WeatherFetcher fetcher;
+    private final int priority;
+    private final long freshness;
+
+    // Scheduler state, guarded by the scheduler
+    long lastFetch = -1;
+    volatile long interval;
+    TimingWheel.Timeout<Watch> timeout;
+
+    private Watch(Builder builder) {
+        this.fetcher = builder.fetcher;
+        this.priority = builder.priority;
+        this.freshness = builder.freshness;
+        this.interval = freshness;
+    }
+
+    /**
+     * Fetcher used to refresh this location.
+     *
+     * @return WeatherFetcher fetcher
+     */
+    public WeatherFetcher getFetcher() {
+        return fetcher;
+    }
+
+    /**
+     * Priority of this location. When there isn't enough budget for every
+     * watch, higher priorities get their freshness target first.
+     *
+     * @return int priority
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Oldest the cached report should be allowed to get, in milliseconds.
+     *
+     * @return long freshness target, milliseconds
+     */
+    public long getFreshness() {
+        return freshness;
+    }
+
+    /**
+     * Time between refreshes the scheduler has planned for this watch, given
+     * the remaining budget. Never less than the freshness target.
+     *
+     * @return long planned interval, milliseconds
+     */
+    public long getPlannedInterval() {
+        return interval;
+    }
+
+    public static class Builder {
+
+        private WeatherFetcher fetcher;
+        private int priority = 0;
+        private long freshness = 60 * 60 * 1000;
+
+        /**
+         * Fetcher to use for refreshes. Required.
+         *
+         * @param fetcher WeatherFetcher fetcher
+         * @return this Builder for chaining
+         */
+        public Builder setFetcher(WeatherFetcher fetcher) {
+            this.fetcher = fetcher;
+            return this;
+        }
+
+        /**
+         * Priority of this location, higher is more important. Optional,
+         * defaults to 0.
+         *
+         * @param priority int priority
+         * @return this Builder for chaining
+         */
+        public Builder setPriority(int priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        /**
+         * Freshness target. Optional, defaults to an hour.
+         *
+         * @param freshness long oldest acceptable report age, milliseconds
+         * @return this Builder for chaining
+         */
+        public Builder setFreshness(long freshness) {
+            if (freshness < 1000) {
+                throw new IllegalArgumentException("Freshness must be at least a second");
+            }
+            this.freshness = freshness;
+            return this;
+        }
+
+        /**
+         * Build the watch.
+         *
+         * @return Watch watch
+         * @throws NullPointerException if the fetcher isn't set
+         */
+        public Watch build() {
+            if (fetcher == null) {
+                throw new NullPointerException("Fetcher not set");
+            }
+            return new Watch(this);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.search;
+
+import com.moosemorals.weather.reports.LocationReport;
+import com.moosemorals.weather.types.Location;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Prefix index over locations, for type-ahead search without going to the
+ * API. </p>
+ *
+ * Locations are indexed by name (case and surrounding whitespace are
+ * ignored). Searches return every location whose name starts with the
+ * prefix, biggest population first. Adding a location with the same name,
+ * region and country as one already in the index replaces it. </p>
+ *
+ * The index can be saved to and loaded from a file, so it keeps growing
+ * across restarts.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class LocationIndex {
+
+    private static final int FILE_MAGIC = 0x57574c49;
+    private static final int FILE_VERSION = 1;
+    private static final int NO_TIMEZONE = Integer.MIN_VALUE;
+
+    private static final Comparator<Hit> BY_RANK = new Comparator<Hit>() {
+        @Override
+        public int compare(Hit a, Hit b) {
+            return rank(a.location, a.key, b.location, b.key);
+        }
+    };
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final NavigableMap<String, Map<String, Location>> byName = new TreeMap<>();
+    private int size = 0;
+
+    /**
+     * Add every location in a report to the index.
+     *
+     * @param report LocationReport report from
+     * {@link com.moosemorals.weather.LocationFetcher}
+     */
+    public void add(LocationReport report) {
+        lock.writeLock().lock();
+        try {
+            for (Location location : report.getLocations()) {
+                addLocked(location);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Add a location to the index. Locations without a name are ignored.
+     *
+     * @param location Location to add
+     */
+    public void add(Location location) {
+        lock.writeLock().lock();
+        try {
+            addLocked(location);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find locations whose name starts with a prefix.
+     *
+     * @param prefix String start of the name
+     * @param limit int most results to return
+     * @return List&lt;Location&gt; matching locations, biggest population
+     * first. Empty if nothing matches.
+     */
+    public List<Location> search(String prefix, int limit) {
+        String key = normalize(prefix);
+        if (key.isEmpty() || limit < 1) {
+            return Collections.emptyList();
+        }
+
+        // Worst of the best so far at the head, so it's cheap to replace
+        PriorityQueue<Hit> best = new PriorityQueue<>(Math.min(limit, 64), Collections.reverseOrder(BY_RANK));
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<String, Map<String, Location>> e : byName.subMap(key, true, key + Character.MAX_VALUE, false).entrySet()) {
+                for (Location l : e.getValue().values()) {
+                    if (best.size() < limit) {
+                        best.add(new Hit(l, e.getKey()));
+                    } else if (rank(l, e.getKey(), best.peek().location, best.peek().key) < 0) {
+                        best.poll();
+                        best.add(new Hit(l, e.getKey()));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Hit> hits = new ArrayList<>(best);
+        Collections.sort(hits, BY_RANK);
+        List<Location> result = new ArrayList<>(hits.size());
+        for (Hit h : hits) {
+            result.add(h.location);
+        }
+        return result;
+    }
+
+    /**
+     * Number of locations in the index.
+     *
+     * @return int number of locations
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Write the index to a file. The file is written to a temporary file
+     * first, and moved into place when complete.
+     *
+     * @param file File to write to
+     * @throws IOException if the file can't be written
+     */
+    public void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        lock.readLock().lock();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(size);
+            for (Map<String, Location> group : byName.values()) {
+                for (Location l : group.values()) {
+                    writeString(out, l.getName());
+                    writeString(out, l.getRegion());
+                    writeString(out, l.getCountry());
+                    out.writeLong(l.getPopulation());
+                    out.writeInt(l.getTimezone() == null ? NO_TIMEZONE : l.getTimezone().getOffset(0));
+                    out.writeFloat(l.getLatitude());
+                    out.writeFloat(l.getLongitude());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Add the locations from a file written by {@link #save(java.io.File)}.
+     * Missing files are ignored, so the first run starts with an empty index.
+     *
+     * @param file File to read from
+     * @throws IOException if the file exists but can't be read
+     */
+    public void load(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a location index: " + file);
+            }
+            int version = in.readInt();
+            if (version != FILE_VERSION) {
+                throw new IOException("Unsupported location index version " + version);
+            }
+            int count = in.readInt();
+
+            List<Location> loaded = new ArrayList<>(count);
+            for (int i = 0; i < count; i += 1) {
+                Location.Builder builder = new Location.Builder()
+                        .setName(readString(in))
+                        .setRegion(readString(in))
+                        .setCountry(readString(in))
+                        .setPopulation(in.readLong());
+                int offset = in.readInt();
+                if (offset != NO_TIMEZONE) {
+                    builder.setTimezone(DateTimeZone.forOffsetMillis(offset));
+                }
+                loaded.add(builder
+                        .setLatitude(in.readFloat())
+                        .setLongitude(in.readFloat())
+                        .build());
+            }
+
+            lock.writeLock().lock();
+            try {
+                for (Location l : loaded) {
+                    addLocked(l);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void addLocked(Location location) {
+        if (location.getName() == null) {
+            return;
+        }
+        String key = normalize(location.getName());
+        if (key.isEmpty()) {
+            return;
+        }
+        Map<String, Location> group = byName.get(key);
+        if (group == null) {
+            group = new HashMap<>();
+            byName.put(key, group);
+        }
+        if (group.put(identity(location), location) == null) {
+            size += 1;
+        }
+    }
+
+    /**
+     * Order locations biggest population first, then by normalized name.
+     */
+    private static int rank(Location a, String aKey, Location b, String bKey) {
+        if (a.getPopulation() != b.getPopulation()) {
+            return a.getPopulation() > b.getPopulation() ? -1 : 1;
+        }
+        return aKey.compareTo(bKey);
+    }
+
+    private static String identity(Location location) {
+        return location.getName() + "|" + location.getRegion() + "|" + location.getCountry();
+    }
+
+    private static String normalize(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * A search match, with the index key it was found under.
+     */
+    private static class Hit {
+
+        private final Location location;
+        private final String key;
+
+        private Hit(Location location, String key) {
+            this.location = location;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.series;
+
+import java.util.Arrays;
+
+/**
+ * Changes between two {@link HourlySeries}, as filled in by
+ * {@link ForecastDiff}. </p>
+ *
+ * Each change is a field, the hour it's for, and the old and new values. An
+ * hour that's only in the new series has NaN as its old values, an hour
+ * that's only in the old series has NaN as its new values. </p>
+ *
+ * Changes are held in parallel primitive arrays that grow as needed and are
+ * kept between uses, so a ChangeSet reused for every poll stops allocating
+ * once it has grown to fit. Not thread safe.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public final class ChangeSet {
+
+    private static final Field[] FIELDS = Field.values();
+
+    private int size = 0;
+    private byte[] fields;
+    private long[] times;
+    private double[] oldValues;
+    private double[] newValues;
+
+    public ChangeSet() {
+        this(64);
+    }
+
+    /**
+     * Build a change set with room for some changes.
+     *
+     * @param capacity int number of changes to make room for
+     */
+    public ChangeSet(int capacity) {
+        capacity = Math.max(capacity, 1);
+        fields = new byte[capacity];
+        times = new long[capacity];
+        oldValues = new double[capacity];
+        newValues = new double[capacity];
+    }
+
+    /**
+     * Number of changes.
+     *
+     * @return int number of changes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check for changes.
+     *
+     * @return true if there are no changes
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Field that changed.
+     *
+     * @param i int change to read
+     * @return Field field
+     */
+    public Field getField(int i) {
+        check(i);
+        return FIELDS[fields[i]];
+    }
+
+    /**
+     * Hour the change is for.
+     *
+     * @param i int change to read
+     * @return long time, milliseconds since the epoch
+     */
+    public long getTime(int i) {
+        check(i);
+        return times[i];
+    }
+
+    /**
+     * Value before the change.
+     *
+     * @param i int change to read
+     * @return double old value, or NaN if the hour is new
+     */
+    public double getOldValue(int i) {
+        check(i);
+        return oldValues[i];
+    }
+
+    /**
+     * Value after the change.
+     *
+     * @param i int change to read
+     * @return double new value, or NaN if the hour has gone
+     */
+    public double getNewValue(int i) {
+        check(i);
+        return newValues[i];
+    }
+
+    /**
+     * Remove every change, keeping the space.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    void add(Field field, long time, double oldValue, double newValue) {
+        if (size == times.length) {
+            int capacity = size * 2;
+            fields = Arrays.copyOf(fields, capacity);
+            times = Arrays.copyOf(times, capacity);
+            oldValues = Arrays.copyOf(oldValues, capacity);
+            newValues = Arrays.copyOf(newValues, capacity);
+        }
+        fields[size] = (byte) field.ordinal();
+        times[size] = time;
+        oldValues[size] = oldValue;
+        newValues[size] = newValue;
+        size += 1;
+    }
+
+    private void check(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Change " + i + " of " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("ChangeSet[");
+        for (int i = 0; i < size; i += 1) {
+            if (i > 0) {
+                result.append(", ");
+            }
+            result.append(FIELDS[fields[i]]).append('@').append(times[i])
+                    .append(':').append(oldValues[i]).append("->").append(newValues[i]);
+        }
+        return result.append(']').toString();
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.series;
+
+import com.moosemorals.weather.types.HourlyForecast;
+
+/**
+ * Numeric fields of an {@link HourlyForecast}, used to pick columns out of
+ * an {@link HourlySeries}.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public enum Field {
+
+    /**
+     * Temperature, Celsius.
+     */
+    TEMP_C(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getTempC();
+        }
+    },
+    /**
+     * Temperature, Fahrenheit.
+     */
+    TEMP_F(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getTempF();
+        }
+    },
+    /**
+     * Wind speed, miles per hour.
+     */
+    WINDSPEED_MILES(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getWindspeedMiles();
+        }
+    },
+    /**
+     * Wind speed, kilometres per hour.
+     */
+    WINDSPEED_KMPH(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getWindspeedKmph();
+        }
+    },
+    /**
+     * Wind direction, degrees from north.
+     */
+    WINDDIR_DEGREE(Interpolation.ANGLE) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getWinddirDegree();
+        }
+    },
+    /**
+     * Weather condition code.
+     */
+    WEATHER_CODE(Interpolation.STEP) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getWeatherCode();
+        }
+    },
+    /**
+     * Precipitation, millimetres.
+     */
+    PRECIP_MM(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getPrecipMM();
+        }
+    },
+    /**
+     * Humidity, percent.
+     */
+    HUMIDITY(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getHumidity();
+        }
+    },
+    /**
+     * Visibility, kilometres.
+     */
+    VISIBILITY(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getVisibility();
+        }
+    },
+    /**
+     * Pressure, millibars.
+     */
+    PRESSURE(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getPressure();
+        }
+    },
+    /**
+     * Cloud cover, percent.
+     */
+    CLOUDCOVER(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getCloudcover();
+        }
+    },
+    /**
+     * Heat index, Celsius.
+     */
+    HEAT_INDEX_C(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getHeatIndexC();
+        }
+    },
+    /**
+     * Heat index, Fahrenheit.
+     */
+    HEAT_INDEX_F(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getHeatIndexF();
+        }
+    },
+    /**
+     * Dew point, Celsius.
+     */
+    DEW_POINT_C(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getDewPointC();
+        }
+    },
+    /**
+     * Dew point, Fahrenheit.
+     */
+    DEW_POINT_F(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getDewPointF();
+        }
+    },
+    /**
+     * Wind chill, Celsius.
+     */
+    WIND_CHILL_C(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getWindChillC();
+        }
+    },
+    /**
+     * Wind chill, Fahrenheit.
+     */
+    WIND_CHILL_F(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getWindChillF();
+        }
+    },
+    /**
+     * Wind gust, miles per hour.
+     */
+    WIND_GUST_MILES(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getWindGustMiles();
+        }
+    },
+    /**
+     * Wind gust, kilometres per hour.
+     */
+    WIND_GUST_KMPH(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getWindGustKmph();
+        }
+    },
+    /**
+     * Feels like temperature, Celsius.
+     */
+    FEELS_LIKE_C(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getFeelsLikeC();
+        }
+    },
+    /**
+     * Feels like temperature, Fahrenheit.
+     */
+    FEELS_LIKE_F(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getFeelsLikeF();
+        }
+    },
+    /**
+     * Chance of rain, percent.
+     */
+    CHANCE_OF_RAIN(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getChanceOfRain();
+        }
+    },
+    /**
+     * Chance of wind, percent.
+     */
+    CHANCE_OF_WINDY(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getChanceOfWindy();
+        }
+    },
+    /**
+     * Chance of overcast, percent.
+     */
+    CHANCE_OF_OVERCAST(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getChanceOfOvercast();
+        }
+    },
+    /**
+     * Chance of sun, percent.
+     */
+    CHANCE_OF_SUNNY(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getChanceOfSunny();
+        }
+    },
+    /**
+     * Chance of frost, percent.
+     */
+    CHANCE_OF_FROST(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getChanceOfFrost();
+        }
+    },
+    /**
+     * Chance of fog, percent.
+     */
+    CHANCE_OF_FOG(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getChanceOfFog();
+        }
+    },
+    /**
+     * Chance of snow, percent.
+     */
+    CHANCE_OF_SNOW(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getChanceofSnow();
+        }
+    },
+    /**
+     * Chance of thunder, percent.
+     */
+    CHANCE_OF_THUNDER(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getChanceOfThunder();
+        }
+    },
+    /**
+     * Chance of remaining dry, percent.
+     */
+    CHANCE_OF_REMDRY(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getChanceOfRemdry();
+        }
+    },
+    /**
+     * Chance of high temperature, percent.
+     */
+    CHANCE_OF_HIGHTEMP(Interpolation.LINEAR) {
+        @Override
+        public double get(HourlyForecast hour) {
+            return hour.getChanceOfHightemp();
+        }
+    };
+
+    /**
+     * How values of a field are interpolated between rows.
+     */
+    public enum Interpolation {
+        /**
+         * Straight line between the values either side.
+         */
+        LINEAR,
+        /**
+         * Shortest way round the circle, for angles in degrees.
+         */
+        ANGLE,
+        /**
+         * Hold the earlier value until the next row, for codes.
+         */
+        STEP
+    }
+
+    private final Interpolation interpolation;
+
+    private Field(Interpolation interpolation) {
+        this.interpolation = interpolation;
+    }
+
+    /**
+     * How this field is interpolated between rows.
+     *
+     * @return Interpolation interpolation
+     */
+    public Interpolation getInterpolation() {
+        return interpolation;
+    }
+
+    /**
+     * Read this field from an hourly forecast.
+     *
+     * @param hour HourlyForecast to read
+     * @return double value of the field
+     */
+    public abstract double get(HourlyForecast hour);
+}
@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.series;
+
+import com.moosemorals.weather.cache.CacheKey;
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.types.HourlyForecast;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Works out what changed between successive reports for a location. </p>
+ *
+ * Hours are lined up by time, and each selected field of each hour is
+ * compared. The result goes into a caller supplied {@link ChangeSet}, so
+ * diffing on every poll doesn't allocate beyond building the new
+ * {@link HourlySeries}. </p>
+ *
+ * {@link #update(java.lang.String, WeatherReport, ChangeSet)} keeps the
+ * last series for each location, so callers can just hand over each new
+ * report as it arrives.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ForecastDiff {
+
+    private static final HourlySeries EMPTY = new HourlySeries(null, Collections.<HourlyForecast>emptyList());
+
+    private final Field[] fields;
+    private final ConcurrentMap<String, HourlySeries> last = new ConcurrentHashMap<>();
+
+    /**
+     * Build a diff that compares every field.
+     */
+    public ForecastDiff() {
+        this(Field.values());
+    }
+
+    /**
+     * Build a diff that only compares some fields.
+     *
+     * @param fields Field... fields to compare
+     */
+    public ForecastDiff(Field... fields) {
+        if (fields.length == 0) {
+            throw new IllegalArgumentException("Need at least one field");
+        }
+        this.fields = fields.clone();
+    }
+
+    /**
+     * Compare two series.
+     *
+     * @param before HourlySeries older series
+     * @param after HourlySeries newer series
+     * @param out ChangeSet to fill. Cleared first
+     */
+    public void diff(HourlySeries before, HourlySeries after, ChangeSet out) {
+        out.clear();
+        long[] ta = before.times;
+        long[] tb = after.times;
+        int a = 0;
+        int b = 0;
+
+        while (a < ta.length || b < tb.length) {
+            if (b == tb.length || (a < ta.length && ta[a] < tb[b])) {
+                // Hour has gone
+                for (Field f : fields) {
+                    out.add(f, ta[a], before.columns[f.ordinal()][a], Double.NaN);
+                }
+                a += 1;
+            } else if (a == ta.length || tb[b] < ta[a]) {
+                // Hour is new
+                for (Field f : fields) {
+                    out.add(f, tb[b], Double.NaN, after.columns[f.ordinal()][b]);
+                }
+                b += 1;
+            } else {
+                for (Field f : fields) {
+                    double va = before.columns[f.ordinal()][a];
+                    double vb = after.columns[f.ordinal()][b];
+                    if (va != vb) {
+                        out.add(f, tb[b], va, vb);
+                    }
+                }
+                a += 1;
+                b += 1;
+            }
+        }
+    }
+
+    /**
+     * Compare a report with the last one seen for the same location, and
+     * remember it for next time. The first report for a location shows every
+     * hour as new.
+     *
+     * @param location String location the report is for
+     * @param report WeatherReport new report
+     * @param out ChangeSet to fill. Cleared first
+     */
+    public void update(String location, WeatherReport report, ChangeSet out) {
+        HourlySeries after = new HourlySeries(report);
+        HourlySeries before = last.put(CacheKey.normalize(location), after);
+        diff(before != null ? before : EMPTY, after, out);
+    }
+
+    /**
+     * Forget the last report for a location.
+     *
+     * @param location String location to forget
+     */
+    public void forget(String location) {
+        last.remove(CacheKey.normalize(location));
+    }
+}
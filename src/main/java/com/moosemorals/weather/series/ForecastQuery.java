@@ -0,0 +1,437 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.series;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+
+/**
+ * A reusable query over {@link HourlySeries}. </p>
+ *
+ * A query selects a field, optionally limits the rows to a time window, and
+ * optionally filters rows with a comparison on a (possibly different) field.
+ * For example, the highest gust in the next 24 hours:
+ * <pre>
+ * ForecastQuery q = new ForecastQuery.Builder()
+ *         .setField(Field.WIND_GUST_KMPH)
+ *         .setNext(24 * 60 * 60 * 1000)
+ *         .build();
+ * double gust = q.max(series);
+ * </pre>
+ *
+ * or the first hour with more than a 60% chance of rain:
+ * <pre>
+ * ForecastQuery q = new ForecastQuery.Builder()
+ *         .setWhere(Field.CHANCE_OF_RAIN, ForecastQuery.Op.GT, 60)
+ *         .build();
+ * int row = q.first(series);
+ * </pre>
+ *
+ * Each call is a single loop over primitive arrays and doesn't allocate.
+ * Queries are immutable and can be shared between threads, and the
+ * aggregates also run over many series at once.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public final class ForecastQuery {
+
+    /**
+     * Comparison used to filter rows.
+     */
+    public enum Op {
+        GT, GE, LT, LE, EQ, NE
+    }
+
+    private final Field field;
+    private final long from;
+    private final long to;
+    private final boolean relative;
+    private final Field whereField;
+    private final Op whereOp;
+    private final double whereValue;
+
+    private ForecastQuery(Builder builder) {
+        this.field = builder.field;
+        this.from = builder.from;
+        this.to = builder.to;
+        this.relative = builder.relative;
+        this.whereField = builder.whereField;
+        this.whereOp = builder.whereOp;
+        this.whereValue = builder.whereValue;
+    }
+
+    /**
+     * Smallest value of the field over matching rows.
+     *
+     * @param series HourlySeries to search
+     * @return double smallest value, or NaN if no rows match
+     */
+    public double min(HourlySeries series) {
+        return min(series, Double.NaN);
+    }
+
+    /**
+     * Largest value of the field over matching rows.
+     *
+     * @param series HourlySeries to search
+     * @return double largest value, or NaN if no rows match
+     */
+    public double max(HourlySeries series) {
+        return max(series, Double.NaN);
+    }
+
+    /**
+     * Total of the field over matching rows.
+     *
+     * @param series HourlySeries to search
+     * @return double total, 0 if no rows match
+     */
+    public double sum(HourlySeries series) {
+        return sum(series, 0);
+    }
+
+    /**
+     * Number of matching rows.
+     *
+     * @param series HourlySeries to search
+     * @return int number of rows
+     */
+    public int count(HourlySeries series) {
+        return count(series, 0);
+    }
+
+    /**
+     * Mean of the field over matching rows.
+     *
+     * @param series HourlySeries to search
+     * @return double mean, or NaN if no rows match
+     */
+    public double avg(HourlySeries series) {
+        int n = count(series);
+        return n > 0 ? sum(series) / n : Double.NaN;
+    }
+
+    /**
+     * Row with the largest value of the field. Ties go to the earliest row.
+     *
+     * @param series HourlySeries to search
+     * @return int row, or -1 if no rows match
+     */
+    public int argmax(HourlySeries series) {
+        double[] values = column(series);
+        double[] where = where(series);
+        long now = now();
+        int end = end(series, now);
+        int best = -1;
+        for (int row = start(series, now); row < end; row += 1) {
+            if (matches(where, row) && (best == -1 || values[row] > values[best])) {
+                best = row;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Row with the smallest value of the field. Ties go to the earliest row.
+     *
+     * @param series HourlySeries to search
+     * @return int row, or -1 if no rows match
+     */
+    public int argmin(HourlySeries series) {
+        double[] values = column(series);
+        double[] where = where(series);
+        long now = now();
+        int end = end(series, now);
+        int best = -1;
+        for (int row = start(series, now); row < end; row += 1) {
+            if (matches(where, row) && (best == -1 || values[row] < values[best])) {
+                best = row;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * First matching row.
+     *
+     * @param series HourlySeries to search
+     * @return int row, or -1 if no rows match
+     */
+    public int first(HourlySeries series) {
+        double[] where = where(series);
+        long now = now();
+        int end = end(series, now);
+        for (int row = start(series, now); row < end; row += 1) {
+            if (matches(where, row)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Smallest value of the field over matching rows of every series.
+     *
+     * @param fleet Iterable&lt;HourlySeries&gt; series to search
+     * @return double smallest value, or NaN if no rows match
+     */
+    public double min(Iterable<HourlySeries> fleet) {
+        double acc = Double.NaN;
+        for (HourlySeries s : fleet) {
+            acc = min(s, acc);
+        }
+        return acc;
+    }
+
+    /**
+     * Largest value of the field over matching rows of every series.
+     *
+     * @param fleet Iterable&lt;HourlySeries&gt; series to search
+     * @return double largest value, or NaN if no rows match
+     */
+    public double max(Iterable<HourlySeries> fleet) {
+        double acc = Double.NaN;
+        for (HourlySeries s : fleet) {
+            acc = max(s, acc);
+        }
+        return acc;
+    }
+
+    /**
+     * Total of the field over matching rows of every series.
+     *
+     * @param fleet Iterable&lt;HourlySeries&gt; series to search
+     * @return double total, 0 if no rows match
+     */
+    public double sum(Iterable<HourlySeries> fleet) {
+        double acc = 0;
+        for (HourlySeries s : fleet) {
+            acc = sum(s, acc);
+        }
+        return acc;
+    }
+
+    /**
+     * Number of matching rows in every series.
+     *
+     * @param fleet Iterable&lt;HourlySeries&gt; series to search
+     * @return int number of rows
+     */
+    public int count(Iterable<HourlySeries> fleet) {
+        int acc = 0;
+        for (HourlySeries s : fleet) {
+            acc = count(s, acc);
+        }
+        return acc;
+    }
+
+    /**
+     * Mean of the field over matching rows of every series (not the mean of
+     * the per series means).
+     *
+     * @param fleet Iterable&lt;HourlySeries&gt; series to search
+     * @return double mean, or NaN if no rows match
+     */
+    public double avg(Iterable<HourlySeries> fleet) {
+        int n = count(fleet);
+        return n > 0 ? sum(fleet) / n : Double.NaN;
+    }
+
+    private double min(HourlySeries series, double acc) {
+        double[] values = column(series);
+        double[] where = where(series);
+        long now = now();
+        int end = end(series, now);
+        for (int row = start(series, now); row < end; row += 1) {
+            if (matches(where, row) && (Double.isNaN(acc) || values[row] < acc)) {
+                acc = values[row];
+            }
+        }
+        return acc;
+    }
+
+    private double max(HourlySeries series, double acc) {
+        double[] values = column(series);
+        double[] where = where(series);
+        long now = now();
+        int end = end(series, now);
+        for (int row = start(series, now); row < end; row += 1) {
+            if (matches(where, row) && (Double.isNaN(acc) || values[row] > acc)) {
+                acc = values[row];
+            }
+        }
+        return acc;
+    }
+
+    private double sum(HourlySeries series, double acc) {
+        double[] values = column(series);
+        double[] where = where(series);
+        long now = now();
+        int end = end(series, now);
+        for (int row = start(series, now); row < end; row += 1) {
+            if (matches(where, row)) {
+                acc += values[row];
+            }
+        }
+        return acc;
+    }
+
+    private int count(HourlySeries series, int acc) {
+        double[] where = where(series);
+        long now = now();
+        int end = end(series, now);
+        for (int row = start(series, now); row < end; row += 1) {
+            if (matches(where, row)) {
+                acc += 1;
+            }
+        }
+        return acc;
+    }
+
+    private double[] column(HourlySeries series) {
+        if (field == null) {
+            throw new IllegalStateException("Query has no field");
+        }
+        return series.columns[field.ordinal()];
+    }
+
+    private double[] where(HourlySeries series) {
+        return whereField != null ? series.columns[whereField.ordinal()] : null;
+    }
+
+    private long now() {
+        return relative ? DateTimeUtils.currentTimeMillis() : 0;
+    }
+
+    private int start(HourlySeries series, long now) {
+        return from == Long.MIN_VALUE ? 0 : series.indexOf(now + from);
+    }
+
+    private int end(HourlySeries series, long now) {
+        return to == Long.MAX_VALUE ? series.size() : series.indexOf(now + to);
+    }
+
+    private boolean matches(double[] where, int row) {
+        if (where == null) {
+            return true;
+        }
+        double v = where[row];
+        switch (whereOp) {
+            case GT:
+                return v > whereValue;
+            case GE:
+                return v >= whereValue;
+            case LT:
+                return v < whereValue;
+            case LE:
+                return v <= whereValue;
+            case EQ:
+                return v == whereValue;
+            case NE:
+                return v != whereValue;
+            default:
+                throw new IllegalStateException("Unknown op " + whereOp);
+        }
+    }
+
+    public static class Builder {
+
+        private Field field;
+        private long from = Long.MIN_VALUE;
+        private long to = Long.MAX_VALUE;
+        private boolean relative = false;
+        private Field whereField;
+        private Op whereOp;
+        private double whereValue;
+
+        /**
+         * Field to aggregate. Required for everything except
+         * {@link ForecastQuery#first(HourlySeries)} and counts.
+         *
+         * @param field Field to aggregate
+         * @return this Builder for chaining
+         */
+        public Builder setField(Field field) {
+            this.field = field;
+            return this;
+        }
+
+        /**
+         * Only use rows from a fixed window. Optional, defaults to every row.
+         *
+         * @param from DateTime start of the window, inclusive
+         * @param to DateTime end of the window, exclusive
+         * @return this Builder for chaining
+         */
+        public Builder setWindow(DateTime from, DateTime to) {
+            if (!from.isBefore(to)) {
+                throw new IllegalArgumentException("Window must start before it ends");
+            }
+            this.from = from.getMillis();
+            this.to = to.getMillis();
+            this.relative = false;
+            return this;
+        }
+
+        /**
+         * Only use rows from a window starting when the query is run.
+         * Optional, defaults to every row.
+         *
+         * @param millis long length of the window, milliseconds
+         * @return this Builder for chaining
+         */
+        public Builder setNext(long millis) {
+            if (millis <= 0) {
+                throw new IllegalArgumentException("Window must be positive");
+            }
+            this.from = 0;
+            this.to = millis;
+            this.relative = true;
+            return this;
+        }
+
+        /**
+         * Only use rows where a field compares to a value. Optional, defaults
+         * to every row.
+         *
+         * @param field Field to compare
+         * @param op Op comparison
+         * @param value double value to compare to
+         * @return this Builder for chaining
+         */
+        public Builder setWhere(Field field, Op op, double value) {
+            if (field == null || op == null) {
+                throw new IllegalArgumentException("Field and op are required");
+            }
+            this.whereField = field;
+            this.whereOp = op;
+            this.whereValue = value;
+            return this;
+        }
+
+        public ForecastQuery build() {
+            return new ForecastQuery(this);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.series;
+
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.types.HourlyForecast;
+import com.moosemorals.weather.types.Location;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The hourly forecasts of a report, stored column by column. </p>
+ *
+ * Each {@link Field} is held as an array of doubles, one value per row, and
+ * the times as an array of milliseconds since the epoch in ascending order.
+ * Queries can then run as plain loops over primitive arrays. </p>
+ *
+ * Immutable once built.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public final class HourlySeries {
+
+    private static final Comparator<HourlyForecast> BY_TIME = new Comparator<HourlyForecast>() {
+        @Override
+        public int compare(HourlyForecast a, HourlyForecast b) {
+            return a.getTime().compareTo(b.getTime());
+        }
+    };
+
+    private final Location location;
+    final long[] times;
+    final double[][] columns;
+
+    /**
+     * Build a series from the hourly forecasts of a report.
+     *
+     * @param report WeatherReport to read
+     */
+    public HourlySeries(WeatherReport report) {
+        this(report.getLocation(), report.getHourlyForecasts());
+    }
+
+    /**
+     * Build a series from a list of hourly forecasts. The list doesn't have
+     * to be in time order. Hours without a time (older responses don't carry
+     * UTC times) can't be placed, so they're left out.
+     *
+     * @param location Location the forecasts are for, may be null
+     * @param hours List&lt;HourlyForecast&gt; forecasts to read
+     */
+    public HourlySeries(Location location, List<HourlyForecast> hours) {
+        this.location = location;
+
+        List<HourlyForecast> sorted = new ArrayList<>(hours.size());
+        for (HourlyForecast hour : hours) {
+            if (hour.getTime() != null) {
+                sorted.add(hour);
+            }
+        }
+        Collections.sort(sorted, BY_TIME);
+
+        int rows = sorted.size();
+        Field[] fields = Field.values();
+        times = new long[rows];
+        columns = new double[fields.length][rows];
+        for (int row = 0; row < rows; row += 1) {
+            HourlyForecast hour = sorted.get(row);
+            times[row] = hour.getTime().getMillis();
+            for (Field f : fields) {
+                columns[f.ordinal()][row] = f.get(hour);
+            }
+        }
+    }
+
+    /**
+     * Location the series is for.
+     *
+     * @return Location location, may be null
+     */
+    public Location getLocation() {
+        return location;
+    }
+
+    /**
+     * Number of rows (hours) in the series.
+     *
+     * @return int number of rows
+     */
+    public int size() {
+        return times.length;
+    }
+
+    /**
+     * Time of a row.
+     *
+     * @param row int row to read
+     * @return long time, milliseconds since the epoch
+     */
+    public long getTime(int row) {
+        return times[row];
+    }
+
+    /**
+     * Value of a field in a row.
+     *
+     * @param field Field to read
+     * @param row int row to read
+     * @return double value
+     */
+    public double get(Field field, int row) {
+        return columns[field.ordinal()][row];
+    }
+
+    /**
+     * First row at or after a time.
+     *
+     * @param time long milliseconds since the epoch
+     * @return int row, or {@link #size()} if every row is before the time
+     */
+    public int indexOf(long time) {
+        int lo = 0;
+        int hi = times.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.series;
+
+/**
+ * Values of an {@link HourlySeries} at any time between its rows. </p>
+ *
+ * The API reports on a grid of 3, 6, 12 or 24 hours, depending on the
+ * frequency the report was fetched with. Between rows, fields are
+ * interpolated according to {@link Field#getInterpolation()}: straight lines
+ * for ordinary values, the short way round for wind direction, and the
+ * earlier value held for weather codes. </p>
+ *
+ * Each lookup is a binary search over the row times and doesn't allocate.
+ * Safe to share between threads.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public final class Interpolator {
+
+    private final HourlySeries series;
+
+    public Interpolator(HourlySeries series) {
+        this.series = series;
+    }
+
+    /**
+     * Value of a field at a time.
+     *
+     * @param field Field to read
+     * @param time long milliseconds since the epoch
+     * @return double value, or NaN if the time is outside the series
+     */
+    public double get(Field field, long time) {
+        int row = floor(time);
+        if (row < 0) {
+            return Double.NaN;
+        }
+        return interpolate(field, row, time);
+    }
+
+    /**
+     * Values of several fields at a time, sharing one search.
+     *
+     * @param fields Field[] fields to read
+     * @param time long milliseconds since the epoch
+     * @param out double[] to write values to, in the same order as fields.
+     * Filled with NaN if the time is outside the series
+     * @return false if the time is outside the series
+     */
+    public boolean get(Field[] fields, long time, double[] out) {
+        int row = floor(time);
+        for (int i = 0; i < fields.length; i += 1) {
+            out[i] = row < 0 ? Double.NaN : interpolate(fields[i], row, time);
+        }
+        return row >= 0;
+    }
+
+    /**
+     * Last row at or before a time.
+     *
+     * @return int row, or -1 if the time is outside the series
+     */
+    private int floor(long time) {
+        long[] times = series.times;
+        int n = times.length;
+        if (n == 0 || time < times[0] || time > times[n - 1]) {
+            return -1;
+        }
+        int lo = 0;
+        int hi = n - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (times[mid] <= time) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    private double interpolate(Field field, int row, long time) {
+        long[] times = series.times;
+        double[] values = series.columns[field.ordinal()];
+        double v0 = values[row];
+        if (row == times.length - 1 || times[row] == time) {
+            return v0;
+        }
+        double v1 = values[row + 1];
+        double fraction = (double) (time - times[row]) / (times[row + 1] - times[row]);
+
+        switch (field.getInterpolation()) {
+            case LINEAR:
+                return v0 + (v1 - v0) * fraction;
+            case ANGLE:
+                double delta = ((v1 - v0) % 360 + 540) % 360 - 180;
+                double angle = (v0 + delta * fraction) % 360;
+                return angle < 0 ? angle + 360 : angle;
+            case STEP:
+                return v0;
+            default:
+                throw new IllegalStateException("Unknown interpolation " + field.getInterpolation());
+        }
+    }
+}
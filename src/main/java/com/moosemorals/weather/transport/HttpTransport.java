@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.transport;
+
+import com.moosemorals.weather.Util;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Makes requests with {@link HttpURLConnection}. The default transport for
+ * both fetchers.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class HttpTransport implements Transport {
+
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    /**
+     * Transport with the JVM's default timeouts.
+     */
+    public HttpTransport() {
+        this(0, 0);
+    }
+
+    /**
+     * Transport with timeouts.
+     *
+     * @param connectTimeout int connect timeout, milliseconds, 0 for none
+     * @param readTimeout int read timeout, milliseconds, 0 for none
+     */
+    public HttpTransport(int connectTimeout, int readTimeout) {
+        if (connectTimeout < 0 || readTimeout < 0) {
+            throw new IllegalArgumentException("Timeouts can't be negative");
+        }
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public TransportResponse get(String endpoint, Map<String, String> params) throws IOException {
+        URL target = new URL(Util.assembleURL(endpoint, Util.flattenMap(params)));
+        HttpURLConnection conn = (HttpURLConnection) target.openConnection();
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+
+        long started = System.nanoTime();
+        conn.connect();
+        int status = conn.getResponseCode();
+
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> e : conn.getHeaderFields().entrySet()) {
+            // The status line comes back with a null name
+            if (e.getKey() != null && !e.getValue().isEmpty()) {
+                headers.put(e.getKey(), e.getValue().get(e.getValue().size() - 1));
+            }
+        }
+
+        byte[] body;
+        InputStream in = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        if (in == null) {
+            body = new byte[0];
+        } else {
+            try {
+                body = Util.readFully(in);
+            } finally {
+                in.close();
+            }
+        }
+        return new TransportResponse(status, conn.getResponseMessage(), headers, body, System.nanoTime() - started);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.transport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * One request and its response, as saved by {@link RecordingTransport}.
+ * </p>
+ *
+ * Requests are identified by the last part of the endpoint path (so a
+ * recording made against one server can be replayed for another) and the
+ * query parameters, minus the API key.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public final class RecordedExchange {
+
+    static final int MAGIC = 0x57585231;
+
+    private static final String KEY_PARAM = "key";
+
+    private final long offset;
+    private final String endpoint;
+    private final SortedMap<String, String> params;
+    private final TransportResponse response;
+
+    RecordedExchange(long offset, String endpoint, Map<String, String> params, TransportResponse response) {
+        this.offset = offset;
+        this.endpoint = endpoint;
+        TreeMap<String, String> sorted = new TreeMap<>(params);
+        sorted.remove(KEY_PARAM);
+        this.params = Collections.unmodifiableSortedMap(sorted);
+        this.response = response;
+    }
+
+    /**
+     * When the request was made, relative to the start of the recording.
+     *
+     * @return long offset, milliseconds
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Endpoint the request went to, for example "weather.ashx".
+     *
+     * @return String endpoint name
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Query parameters, without the API key.
+     *
+     * @return SortedMap&lt;String, String&gt; parameters, unmodifiable
+     */
+    public SortedMap<String, String> getParams() {
+        return params;
+    }
+
+    /**
+     * Response as it came back.
+     *
+     * @return TransportResponse response
+     */
+    public TransportResponse getResponse() {
+        return response;
+    }
+
+    /**
+     * Key used to match replayed requests to this one.
+     *
+     * @return String key
+     */
+    public String getKey() {
+        return key(endpoint, params);
+    }
+
+    /**
+     * Build the key for a request.
+     *
+     * @param endpoint String endpoint name, see {@link #name(String)}
+     * @param params Map&lt;String, String&gt; query parameters. The API key is
+     * ignored
+     * @return String key
+     */
+    static String key(String endpoint, Map<String, String> params) {
+        StringBuilder result = new StringBuilder(endpoint).append('?');
+        boolean first = true;
+        for (Map.Entry<String, String> e : new TreeMap<>(params).entrySet()) {
+            if (e.getKey().equals(KEY_PARAM)) {
+                continue;
+            }
+            if (!first) {
+                result.append('&');
+            }
+            result.append(e.getKey()).append('=').append(e.getValue());
+            first = false;
+        }
+        return result.toString();
+    }
+
+    /**
+     * Last part of the path of an endpoint URL.
+     *
+     * @param url String endpoint URL
+     * @return String name
+     */
+    static String name(String url) {
+        int end = url.indexOf('?');
+        if (end < 0) {
+            end = url.length();
+        }
+        return url.substring(url.lastIndexOf('/', end - 1) + 1, end);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeLong(offset);
+        out.writeUTF(endpoint);
+        writeMap(out, params);
+        out.writeInt(response.getStatus());
+        out.writeBoolean(response.getMessage() != null);
+        if (response.getMessage() != null) {
+            out.writeUTF(response.getMessage());
+        }
+        writeMap(out, response.getHeaders());
+        out.writeLong(response.getElapsed());
+        out.writeInt(response.getBody().length);
+        out.write(response.getBody());
+    }
+
+    static RecordedExchange read(DataInputStream in) throws IOException {
+        long offset = in.readLong();
+        String endpoint = in.readUTF();
+        Map<String, String> params = readMap(in);
+        int status = in.readInt();
+        String message = in.readBoolean() ? in.readUTF() : null;
+        Map<String, String> headers = readMap(in);
+        long elapsed = in.readLong();
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Negative body length in recording");
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return new RecordedExchange(offset, endpoint, params, new TransportResponse(status, message, headers, body, elapsed));
+    }
+
+    private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, String> e : map.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeUTF(e.getValue());
+        }
+    }
+
+    private static Map<String, String> readMap(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Negative map size in recording");
+        }
+        Map<String, String> result = new HashMap<>();
+        for (int i = 0; i < size; i += 1) {
+            result.put(in.readUTF(), in.readUTF());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.transport;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Passes requests on to another transport, and saves each response to a
+ * file for {@link ReplayTransport}. </p>
+ *
+ * Each record holds the request parameters (without the API key), when the
+ * request was made relative to the start of the recording, the status,
+ * headers and body of the response, and how long it took. Requests that
+ * fail with an exception aren't recorded. Records are flushed as they're
+ * written, so a recording cut short by a crash is still readable up to the
+ * last complete record.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class RecordingTransport implements Transport, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(RecordingTransport.class);
+
+    private final Transport delegate;
+    private final DataOutputStream out;
+    private final long started;
+    private int count = 0;
+    private boolean closed = false;
+
+    private RecordingTransport(Transport delegate, DataOutputStream out) {
+        this.delegate = delegate;
+        this.out = out;
+        this.started = System.nanoTime();
+    }
+
+    @Override
+    public TransportResponse get(String endpoint, Map<String, String> params) throws IOException {
+        long offset = (System.nanoTime() - started) / 1000000;
+        TransportResponse response = delegate.get(endpoint, params);
+
+        RecordedExchange exchange = new RecordedExchange(offset, RecordedExchange.name(endpoint), params, response);
+        synchronized (this) {
+            if (closed) {
+                log.warn("Recording closed, not saving {}", exchange.getKey());
+            } else {
+                exchange.write(out);
+                out.flush();
+                count += 1;
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Number of responses saved so far.
+     *
+     * @return int number of records
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Stop recording and close the file. Requests still pass through to the
+     * delegate, but aren't saved.
+     *
+     * @throws IOException if the file can't be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            out.close();
+        }
+    }
+
+    public static class Builder {
+
+        private Transport delegate;
+        private File file;
+
+        public Builder() {
+            super();
+        }
+
+        /**
+         * Transport to pass requests to. Optional, defaults to a new
+         * {@link HttpTransport}.
+         *
+         * @param delegate Transport to record
+         * @return this Builder for chaining
+         */
+        public Builder setDelegate(Transport delegate) {
+            this.delegate = delegate;
+            return this;
+        }
+
+        /**
+         * File to save the recording to. It's truncated if it exists.
+         * Required.
+         *
+         * @param file File to write
+         * @return this Builder for chaining
+         */
+        public Builder setFile(File file) {
+            this.file = file;
+            return this;
+        }
+
+        /**
+         * Build the transport and start the recording.
+         *
+         * @return RecordingTransport transport
+         * @throws IOException if the file can't be opened
+         * @throws NullPointerException if the file isn't set
+         */
+        public RecordingTransport build() throws IOException {
+            if (file == null) {
+                throw new NullPointerException("File not set");
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(RecordedExchange.MAGIC);
+            return new RecordingTransport(delegate != null ? delegate : new HttpTransport(), out);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.transport;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Answers requests from a recording made by {@link RecordingTransport},
+ * without touching the network. </p>
+ *
+ * Requests are matched on endpoint name and parameters, ignoring the API
+ * key. When the same request was recorded more than once, the responses are
+ * handed out in the order they were recorded, going back to the start after
+ * the last one. A request that wasn't recorded fails with an IOException, as
+ * if the network was down. </p>
+ *
+ * At {@link Speed#ORIGINAL} each response is held back for as long as it
+ * took when it was recorded, so end to end timings look like the real thing.
+ * At {@link Speed#MAXIMUM} responses come back straight away, which measures
+ * how fast the client side can go. {@link #getExchanges()} gives the
+ * recorded requests in order, for replaying the same traffic mix.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ReplayTransport implements Transport {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplayTransport.class);
+
+    /**
+     * How fast to answer.
+     */
+    public enum Speed {
+        /**
+         * Take as long as the recorded response did.
+         */
+        ORIGINAL,
+        /**
+         * Answer immediately.
+         */
+        MAXIMUM
+    }
+
+    private final List<RecordedExchange> exchanges;
+    private final Map<String, Entry> byKey = new HashMap<>();
+    private final Speed speed;
+    private final AtomicLong misses = new AtomicLong();
+
+    private ReplayTransport(List<RecordedExchange> exchanges, Speed speed) {
+        this.exchanges = Collections.unmodifiableList(exchanges);
+        this.speed = speed;
+        for (RecordedExchange e : exchanges) {
+            Entry entry = byKey.get(e.getKey());
+            if (entry == null) {
+                entry = new Entry();
+                byKey.put(e.getKey(), entry);
+            }
+            entry.responses.add(e.getResponse());
+        }
+    }
+
+    @Override
+    public TransportResponse get(String endpoint, Map<String, String> params) throws IOException {
+        String key = RecordedExchange.key(RecordedExchange.name(endpoint), params);
+        Entry entry = byKey.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            throw new IOException("No recorded response for " + key);
+        }
+
+        List<TransportResponse> responses = entry.responses;
+        TransportResponse response = responses.get((int) (entry.next.getAndIncrement() % responses.size()));
+
+        if (speed == Speed.ORIGINAL && response.getElapsed() > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(response.getElapsed());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted replaying " + key);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Every recorded request, in the order they were made.
+     *
+     * @return List&lt;RecordedExchange&gt; exchanges, unmodifiable
+     */
+    public List<RecordedExchange> getExchanges() {
+        return exchanges;
+    }
+
+    /**
+     * Number of requests that weren't in the recording.
+     *
+     * @return long misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Responses recorded for one request.
+     */
+    private static class Entry {
+
+        private final List<TransportResponse> responses = new ArrayList<>();
+        private final AtomicLong next = new AtomicLong();
+    }
+
+    public static class Builder {
+
+        private File file;
+        private Speed speed = Speed.MAXIMUM;
+
+        public Builder() {
+            super();
+        }
+
+        /**
+         * Recording to replay. Required.
+         *
+         * @param file File written by a {@link RecordingTransport}
+         * @return this Builder for chaining
+         */
+        public Builder setFile(File file) {
+            this.file = file;
+            return this;
+        }
+
+        /**
+         * How fast to answer. Optional, defaults to
+         * {@link Speed#MAXIMUM}.
+         *
+         * @param speed Speed to answer at
+         * @return this Builder for chaining
+         */
+        public Builder setSpeed(Speed speed) {
+            if (speed == null) {
+                throw new IllegalArgumentException("Speed must not be null");
+            }
+            this.speed = speed;
+            return this;
+        }
+
+        /**
+         * Load the recording. A record cut off part way through (from a
+         * recording that didn't close cleanly) is dropped.
+         *
+         * @return ReplayTransport transport
+         * @throws IOException if the file can't be read, or isn't a recording
+         * @throws NullPointerException if the file isn't set
+         */
+        public ReplayTransport build() throws IOException {
+            if (file == null) {
+                throw new NullPointerException("File not set");
+            }
+            List<RecordedExchange> exchanges = new ArrayList<>();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != RecordedExchange.MAGIC) {
+                    throw new IOException(file + " isn't a recording");
+                }
+                while (true) {
+                    in.mark(1);
+                    if (in.read() < 0) {
+                        break;
+                    }
+                    in.reset();
+                    try {
+                        exchanges.add(RecordedExchange.read(in));
+                    } catch (EOFException ex) {
+                        log.warn("Dropping incomplete record at the end of {}", file);
+                        break;
+                    }
+                }
+            }
+            log.debug("Loaded {} recorded responses from {}", exchanges.size(), file);
+            return new ReplayTransport(exchanges, speed);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.transport;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Sends a request to the API and brings back the raw response. </p>
+ *
+ * The fetchers build the parameters and parse the body; a transport only
+ * moves bytes. {@link HttpTransport} goes over the network, and
+ * {@link RecordingTransport} and {@link ReplayTransport} save responses and
+ * play them back, so fetchers can be run without a network or quota.
+ * Implementations must be thread safe.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public interface Transport {
+
+    /**
+     * Make a GET request.
+     *
+     * @param endpoint String URL of the API endpoint, without parameters
+     * @param params Map&lt;String, String&gt; query parameters, including the
+     * API key
+     * @return TransportResponse status, headers and body
+     * @throws IOException if there are network problems
+     */
+    TransportResponse get(String endpoint, Map<String, String> params) throws IOException;
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.transport;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Raw response from a {@link Transport}: status, headers, body and how long
+ * it took. Header names are lower case. Immutable, apart from the body array,
+ * which callers mustn't change.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public final class TransportResponse {
+
+    private final int status;
+    private final String message;
+    private final Map<String, String> headers;
+    private final byte[] body;
+    private final long elapsed;
+
+    /**
+     * Build a response.
+     *
+     * @param status int HTTP status
+     * @param message String HTTP status message, may be null
+     * @param headers Map&lt;String, String&gt; headers, names in any case
+     * @param body byte[] body, or error body for failed requests
+     * @param elapsed long time from sending the request to reading the last
+     * byte, nanoseconds
+     */
+    public TransportResponse(int status, String message, Map<String, String> headers, byte[] body, long elapsed) {
+        this.status = status;
+        this.message = message;
+        Map<String, String> lower = new HashMap<>();
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            lower.put(e.getKey().toLowerCase(Locale.ROOT), e.getValue());
+        }
+        this.headers = Collections.unmodifiableMap(lower);
+        this.body = body != null ? body : new byte[0];
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * HTTP status code.
+     *
+     * @return int status
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * HTTP status message.
+     *
+     * @return String message, may be null
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Every header, keyed by lower case name.
+     *
+     * @return Map&lt;String, String&gt; headers, unmodifiable
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Value of a header.
+     *
+     * @param name String header name, any case
+     * @return String value, or null if the header wasn't sent
+     */
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Value of a header as an int, like
+     * {@link java.net.HttpURLConnection#getHeaderFieldInt(String, int)}.
+     *
+     * @param name String header name, any case
+     * @return int value, or -1 if the header is missing or not a number
+     */
+    public int getIntHeader(String name) {
+        String value = getHeader(name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Response body. For failed requests this is the error body, and may be
+     * empty.
+     *
+     * @return byte[] body, never null
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Time from sending the request to reading the last byte.
+     *
+     * @return long elapsed time, nanoseconds
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+}
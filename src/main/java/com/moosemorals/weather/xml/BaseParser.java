@@ -29,6 +29,7 @@ import javax.xml.stream.Location;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
 
 /**
  * Bits that all parsers have in common.
@@ -40,6 +41,8 @@ public abstract class BaseParser<T> {
 
     protected final static String NAMESPACE = null;
 
+    private int elements = 0;
+
     /**
      * Parse InputStream. Assumes the stream is UTF-8, and doesn't close it
      * after the parse is complete.
@@ -51,8 +54,9 @@ public abstract class BaseParser<T> {
      */
     public T parse(InputStream in) throws IOException, XMLStreamException {
         XMLInputFactory factory = XMLInputFactory.newFactory();
-        XMLStreamReader parser = factory.createXMLStreamReader(in, "UTF-8");
+        XMLStreamReader parser = new CountingReader(factory.createXMLStreamReader(in, "UTF-8"));
 
+        elements = 0;
         parser.nextTag();
 
         return parse(parser);
@@ -60,6 +64,16 @@ public abstract class BaseParser<T> {
 
     public abstract T parse(XMLStreamReader parser) throws XMLStreamException, IOException;
 
+    /**
+     * Number of elements read by the last call to
+     * {@link #parse(java.io.InputStream)}, including any that were skipped.
+     *
+     * @return int number of elements
+     */
+    public int getElementCount() {
+        return elements;
+    }
+
     protected int readIntAttribute(XMLStreamReader parser, String name) throws XMLStreamException {
         String result = parser.getAttributeValue(NAMESPACE, name);
         if (result == null) {
@@ -173,4 +187,30 @@ public abstract class BaseParser<T> {
                 .toString();
     }
 
+    /**
+     * Counts start tags as they go past.
+     */
+    private class CountingReader extends StreamReaderDelegate {
+
+        CountingReader(XMLStreamReader reader) {
+            super(reader);
+        }
+
+        @Override
+        public int next() throws XMLStreamException {
+            return count(super.next());
+        }
+
+        @Override
+        public int nextTag() throws XMLStreamException {
+            return count(super.nextTag());
+        }
+
+        private int count(int event) {
+            if (event == START_ELEMENT) {
+                elements += 1;
+            }
+            return event;
+        }
+    }
 }
@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.alert;
+
+import com.moosemorals.weather.Util;
+import com.moosemorals.weather.WeatherFetcher;
+import com.moosemorals.weather.reports.FetchResult;
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.series.Field;
+import com.moosemorals.weather.series.ForecastQuery.Op;
+import com.moosemorals.weather.series.HourlySeries;
+import com.moosemorals.weather.transport.Transport;
+import com.moosemorals.weather.transport.TransportResponse;
+import com.moosemorals.weather.xml.WeatherParser;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.joda.time.DateTimeUtils;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class AlertEngineNGTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private HourlySeries series;
+    private long start;
+    private final List<Alert> alerts = new ArrayList<>();
+    private final AlertListener listener = new AlertListener() {
+        @Override
+        public void alert(Alert alert) {
+            alerts.add(alert);
+        }
+    };
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        WeatherReport report = (WeatherReport) new WeatherParser().parse(getClass().getResourceAsStream("/sample-utc.xml"));
+        series = new HourlySeries(report);
+        start = series.getTime(0);
+    }
+
+    @BeforeMethod
+    public void clearAlerts() {
+        alerts.clear();
+    }
+
+    @Test
+    public void raisesOnceThenDebounces() {
+        AlertRule rule = new AlertRule.Builder()
+                .setName("warm")
+                .setCondition(Field.TEMP_C, Op.GE, -100)
+                .setDebounce(6 * HOUR)
+                .build();
+        AlertEngine engine = new AlertEngine(Arrays.asList(rule), listener);
+
+        assertEquals(engine.check("NE6", series, start), 1);
+        // Same hour, so a duplicate
+        assertEquals(engine.check("NE6", series, start + 1000), 0);
+        // Next hour matches now, but still inside the debounce time
+        assertEquals(engine.check("NE6", series, start + 3 * HOUR), 0);
+        // Debounce over
+        assertEquals(engine.check("NE6", series, start + 6 * HOUR), 1);
+
+        assertEquals(alerts.size(), 2);
+        assertEquals(alerts.get(0).getTime(), start);
+        assertEquals(alerts.get(0).getLocation(), "ne6");
+        assertEquals(alerts.get(1).getTime(), start + 6 * HOUR);
+
+        // Other locations are separate
+        assertEquals(engine.check("Leeds", series, start), 1);
+    }
+
+    @Test
+    public void windowAndLocationFilter() {
+        double max = Double.NEGATIVE_INFINITY;
+        int maxRow = 0;
+        for (int row = 0; row < series.size(); row += 1) {
+            if (series.get(Field.WIND_GUST_KMPH, row) > max) {
+                max = series.get(Field.WIND_GUST_KMPH, row);
+                maxRow = row;
+            }
+        }
+
+        AlertRule gust = new AlertRule.Builder()
+                .setName("gust")
+                .setCondition(Field.WIND_GUST_KMPH, Op.GE, max)
+                .setWindow(series.getTime(maxRow) - start)
+                .addLocation("Leeds")
+                .build();
+        AlertEngine engine = new AlertEngine(Arrays.asList(gust), listener);
+
+        // Window ends just before the windiest hour
+        assertEquals(engine.check("Leeds", series, start), 0);
+        assertEquals(engine.check("Leeds", series, start + 3 * HOUR), 1);
+        // Rule doesn't apply here
+        assertEquals(engine.check("NE6", series, start + 3 * HOUR), 0);
+        assertEquals(alerts.get(0).getValue(), max, 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void duplicateNames() {
+        AlertRule a = new AlertRule.Builder().setName("a").setCondition(Field.TEMP_C, Op.LT, 0).build();
+        new AlertEngine(Arrays.asList(a, a), listener);
+    }
+
+    @Test
+    public void fetchedReportsAreChecked() throws Exception {
+        final byte[] body;
+        try (InputStream in = getClass().getResourceAsStream("/sample-utc.xml")) {
+            body = Util.readFully(in);
+        }
+        AlertRule rule = new AlertRule.Builder()
+                .setName("warm")
+                .setCondition(Field.TEMP_C, Op.GE, -100)
+                .build();
+        WeatherFetcher fetcher = new WeatherFetcher.Builder()
+                .setApiKey("test")
+                .setLocation("NE6")
+                .setAlertEngine(new AlertEngine(Arrays.asList(rule), listener))
+                .setTransport(new Transport() {
+                    @Override
+                    public TransportResponse get(String endpoint, Map<String, String> params) {
+                        return new TransportResponse(200, "OK", Collections.<String, String>emptyMap(), body, 0);
+                    }
+                })
+                .build();
+
+        DateTimeUtils.setCurrentMillisFixed(start);
+        try {
+            FetchResult result = fetcher.fetch();
+            assertTrue(result.isSuccess());
+        } finally {
+            DateTimeUtils.setCurrentMillisSystem();
+        }
+
+        assertEquals(alerts.size(), 1);
+        assertEquals(alerts.get(0).getLocation(), "ne6");
+        assertEquals(alerts.get(0).getTime(), start);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.cache;
+
+import com.moosemorals.weather.Util;
+import com.moosemorals.weather.reports.FetchResult;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import org.joda.time.DateTimeUtils;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class DiskCacheNGTest {
+
+    private File directory;
+    private byte[] sample;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("disk-cache").toFile();
+        try (InputStream in = getClass().getResourceAsStream("/sample-utc.xml")) {
+            sample = Util.readFully(in);
+        }
+        DateTimeUtils.setCurrentMillisFixed(1000);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        DateTimeUtils.setCurrentMillisSystem();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void survivesRestart() throws Exception {
+        CacheKey key = new CacheKey.Builder().setLocation("NE6").build();
+
+        try (DiskCache cache = new DiskCache(directory)) {
+            cache.put(key, new CacheEntry(new FetchResult.Builder().build(), sample, 5000));
+        }
+
+        try (DiskCache cache = new DiskCache(directory)) {
+            CacheEntry entry = cache.get(key);
+            assertNotNull(entry);
+            assertEquals(entry.getExpires(), 5000);
+            assertNotNull(entry.getResult().getWeather());
+            assertEquals(entry.getResult().getWeather().getQuery().getName(), "NE6");
+        }
+    }
+
+    @Test
+    public void tornWriteIsDropped() throws Exception {
+        CacheKey key = new CacheKey.Builder().setLocation("NE6").build();
+
+        try (DiskCache cache = new DiskCache(directory)) {
+            cache.put(key, new CacheEntry(new FetchResult.Builder().build(), sample, 5000));
+        }
+        File segment = directory.listFiles()[0];
+        long goodLength = segment.length();
+
+        // Half a header, as if we died mid-write
+        try (FileOutputStream out = new FileOutputStream(segment, true)) {
+            out.write(new byte[]{0x57, 0x57, 0x46, 0x43, 0, 0, 0});
+        }
+
+        try (DiskCache cache = new DiskCache(directory)) {
+            assertNotNull(cache.get(key));
+        }
+        assertEquals(segment.length(), goodLength);
+    }
+
+    @Test
+    public void corruptRecordIsDroppedWhenRead() throws Exception {
+        CacheKey first = new CacheKey.Builder().setLocation("NE6").build();
+        CacheKey second = new CacheKey.Builder().setLocation("York").build();
+
+        try (DiskCache cache = new DiskCache(directory)) {
+            cache.put(first, new CacheEntry(new FetchResult.Builder().build(), sample, 5000));
+            cache.put(second, new CacheEntry(new FetchResult.Builder().build(), sample, 5000));
+        }
+
+        // Damage the middle of the first body
+        try (RandomAccessFile file = new RandomAccessFile(directory.listFiles()[0], "rw")) {
+            file.seek(sample.length / 2);
+            int b = file.read();
+            file.seek(sample.length / 2);
+            file.write(b ^ 0xff);
+        }
+
+        try (DiskCache cache = new DiskCache(directory)) {
+            // Not checked until it's read
+            assertEquals(cache.size(), 2);
+            assertNull(cache.get(first));
+            assertNotNull(cache.get(second));
+            assertEquals(cache.size(), 1);
+        }
+    }
+
+    @Test
+    public void expiredEntriesAreNotReturned() throws Exception {
+        CacheKey key = new CacheKey.Builder().setLocation("NE6").build();
+
+        try (DiskCache cache = new DiskCache(directory)) {
+            cache.put(key, new CacheEntry(new FetchResult.Builder().build(), sample, 5000));
+            DateTimeUtils.setCurrentMillisFixed(5000);
+            assertNull(cache.get(key));
+        }
+    }
+
+    @Test
+    public void compaction() throws IOException {
+        CacheKey key = new CacheKey.Builder().setLocation("NE6").build();
+
+        try (DiskCache cache = new DiskCache(directory, sample.length, false)) {
+            for (int i = 0; i < 5; i += 1) {
+                cache.put(key, new CacheEntry(new FetchResult.Builder().build(), sample, 5000 + i));
+            }
+            assertEquals(directory.listFiles().length, 5);
+
+            cache.compact();
+
+            assertTrue(directory.listFiles().length < 5);
+            CacheEntry entry = cache.get(key);
+            assertNotNull(entry);
+            assertEquals(entry.getExpires(), 5004);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.cache;
+
+import com.moosemorals.weather.reports.FetchResult;
+import org.joda.time.DateTimeUtils;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class MemoryCacheNGTest {
+
+    @AfterMethod
+    public void resetClock() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void keysAreNormalized() {
+        CacheKey a = new CacheKey.Builder().setLocation("  Newcastle   upon Tyne ").build();
+        CacheKey b = new CacheKey.Builder().setLocation("newcastle upon tyne").setLanguage("EN").build();
+
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+    }
+
+    @Test
+    public void hitAndMiss() {
+        MemoryCache cache = new MemoryCache(10);
+        CacheKey key = new CacheKey.Builder().setLocation("NE6").build();
+        CacheEntry entry = new CacheEntry(new FetchResult.Builder().build(), Long.MAX_VALUE);
+
+        assertNull(cache.get(key));
+        cache.put(key, entry);
+        assertSame(cache.get(key), entry);
+
+        assertEquals(cache.getHits(), 1);
+        assertEquals(cache.getMisses(), 1);
+    }
+
+    @Test
+    public void expiredEntriesAreDropped() {
+        DateTimeUtils.setCurrentMillisFixed(1000);
+
+        MemoryCache cache = new MemoryCache(10);
+        CacheKey key = new CacheKey.Builder().setLocation("NE6").build();
+        cache.put(key, new CacheEntry(new FetchResult.Builder().build(), 2000));
+
+        assertEquals(cache.size(), 1);
+
+        DateTimeUtils.setCurrentMillisFixed(2000);
+        assertNull(cache.get(key));
+        assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        MemoryCache cache = new MemoryCache(2);
+        CacheKey a = new CacheKey.Builder().setLocation("a").build();
+        CacheKey b = new CacheKey.Builder().setLocation("b").build();
+        CacheKey c = new CacheKey.Builder().setLocation("c").build();
+
+        cache.put(a, new CacheEntry(new FetchResult.Builder().build(), Long.MAX_VALUE));
+        cache.put(b, new CacheEntry(new FetchResult.Builder().build(), Long.MAX_VALUE));
+        cache.get(a);
+        cache.put(c, new CacheEntry(new FetchResult.Builder().build(), Long.MAX_VALUE));
+
+        assertEquals(cache.size(), 2);
+        assertNull(cache.get(b));
+    }
+}
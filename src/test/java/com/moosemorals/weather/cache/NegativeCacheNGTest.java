@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.cache;
+
+import com.moosemorals.weather.reports.ErrorReport;
+import com.moosemorals.weather.reports.FetchResult;
+import java.io.IOException;
+import org.joda.time.DateTimeUtils;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class NegativeCacheNGTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @AfterMethod
+    public void resetClock() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    private static FetchResult error(String type, String message) {
+        return new FetchResult.Builder().setError(new ErrorReport(type, message)).build();
+    }
+
+    @Test
+    public void unknownLocationIsRemembered() {
+        DateTimeUtils.setCurrentMillisFixed(1000);
+        NegativeCache cache = new NegativeCache.Builder()
+                .setLocationTtl(24 * HOUR)
+                .build();
+        CacheKey key = new CacheKey.Builder().setLocation("Newcastel").build();
+
+        assertNull(cache.get(key));
+        assertTrue(cache.put(key, error("APIError", "Unable to find any matching weather location to the query submitted!")));
+
+        FetchResult hit = cache.get(key);
+        assertNotNull(hit);
+        assertEquals(hit.getError().getType(), "APIError");
+        assertEquals(hit.getRequestsPerDay(), -1);
+
+        DateTimeUtils.setCurrentMillisFixed(1000 + 24 * HOUR);
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void separateTtls() {
+        NegativeCache cache = new NegativeCache.Builder()
+                .setLocationTtl(24 * HOUR)
+                .setErrorTtl(HOUR)
+                .build();
+
+        assertEquals(cache.getTtl(new ErrorReport("APIError", "Unable to find any matching weather location to the query submitted!")), 24 * HOUR);
+        assertEquals(cache.getTtl(new ErrorReport("APIError", "There is no weather data available for the date provided. Past data is available from 1 July, 2008 onwards only.")), HOUR);
+    }
+
+    @Test
+    public void transientErrorsAreNotRemembered() {
+        NegativeCache cache = new NegativeCache.Builder().build();
+        CacheKey key = new CacheKey.Builder().setLocation("NE6").build();
+
+        assertFalse(cache.put(key, error("Donwload Failure", "Service Unavailable")));
+        assertFalse(cache.put(key, error("APIError", "Parameter key is missing from the request URL")));
+        assertFalse(cache.put(key, new FetchResult.Builder().setError(new ErrorReport(new IOException("Connection reset"))).build()));
+        assertNull(cache.get(key));
+        assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void liveEntriesSurviveFilterRebuild() {
+        NegativeCache cache = new NegativeCache.Builder()
+                .setExpectedKeys(2)
+                .setMaxEntries(3)
+                .build();
+        FetchResult unknown = error("APIError", NegativeCache.UNKNOWN_LOCATION);
+        for (int i = 0; i < 10; i += 1) {
+            cache.put(new CacheKey.Builder().setLocation("bad " + i).build(), unknown);
+        }
+
+        assertEquals(cache.size(), 3);
+        for (int i = 7; i < 10; i += 1) {
+            assertNotNull(cache.get(new CacheKey.Builder().setLocation("bad " + i).build()), "bad " + i);
+        }
+        assertNull(cache.get(new CacheKey.Builder().setLocation("bad 0").build()));
+    }
+
+    @Test
+    public void bloomFilterHasNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i += 1) {
+            filter.add("key-" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i += 1) {
+            assertTrue(filter.mightContain("key-" + i));
+            if (filter.mightContain("other-" + i)) {
+                falsePositives += 1;
+            }
+        }
+        assertTrue(falsePositives < 50, "Too many false positives: " + falsePositives);
+    }
+}
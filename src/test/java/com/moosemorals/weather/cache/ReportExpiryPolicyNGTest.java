@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.cache;
+
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.types.HourlyForecast;
+import com.moosemorals.weather.xml.WeatherParser;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import static org.testng.Assert.assertEquals;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ReportExpiryPolicyNGTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    @Test
+    public void observationBeforeForecast() throws Exception {
+        WeatherReport report = (WeatherReport) new WeatherParser().parse(getClass().getResourceAsStream("/sample-utc.xml"));
+        CacheKey key = new CacheKey.Builder().setLocation("NE6").build();
+
+        // Observed at 10:01 UTC, next forecast period starts at 12:00 UTC.
+        long now = new DateTime(2015, 7, 25, 10, 30, DateTimeZone.UTC).getMillis();
+        long expected = new DateTime(2015, 7, 25, 11, 1, DateTimeZone.UTC).getMillis();
+
+        assertEquals(new ReportExpiryPolicy().getExpiry(key, report, now), expected);
+    }
+
+    @Test
+    public void forecastOnly() {
+        WeatherReport report = new WeatherReport.Builder()
+                .addHourlyForecast(new HourlyForecast.Builder().setTime(new DateTime(2015, 7, 25, 9, 0, DateTimeZone.UTC)).build())
+                .addHourlyForecast(new HourlyForecast.Builder().setTime(new DateTime(2015, 7, 25, 12, 0, DateTimeZone.UTC)).build())
+                .build();
+        CacheKey key = new CacheKey.Builder().setLocation("NE6").setCurrent(false).build();
+
+        long now = new DateTime(2015, 7, 25, 10, 30, DateTimeZone.UTC).getMillis();
+        long expected = new DateTime(2015, 7, 25, 12, 0, DateTimeZone.UTC).getMillis();
+
+        assertEquals(new ReportExpiryPolicy().getExpiry(key, report, now), expected);
+    }
+
+    @Test
+    public void clampedToMinimum() {
+        WeatherReport report = new WeatherReport.Builder()
+                .addHourlyForecast(new HourlyForecast.Builder().setTime(new DateTime(2015, 7, 25, 10, 31, DateTimeZone.UTC)).build())
+                .build();
+        CacheKey key = new CacheKey.Builder().setLocation("NE6").build();
+
+        long now = new DateTime(2015, 7, 25, 10, 30, DateTimeZone.UTC).getMillis();
+
+        assertEquals(new ReportExpiryPolicy(60 * MINUTE, 5 * MINUTE, 360 * MINUTE).getExpiry(key, report, now), now + 5 * MINUTE);
+    }
+}
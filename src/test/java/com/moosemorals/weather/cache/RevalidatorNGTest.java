@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class RevalidatorNGTest {
+
+    private static final Runnable NOTHING = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Test
+    public void onePerKey() {
+        QueueExecutor executor = new QueueExecutor();
+        Revalidator revalidator = new Revalidator(executor, 1000, 10);
+        CacheKey key = new CacheKey.Builder().setLocation("NE6").build();
+
+        assertTrue(revalidator.servedStale(key, NOTHING));
+        assertFalse(revalidator.servedStale(key, NOTHING));
+        assertEquals(executor.queue.size(), 1);
+
+        executor.runAll();
+        assertTrue(revalidator.servedStale(key, NOTHING));
+
+        assertEquals(revalidator.getStaleServed(), 3);
+        assertEquals(revalidator.getRefreshesStarted(), 2);
+    }
+
+    @Test
+    public void concurrencyLimit() {
+        QueueExecutor executor = new QueueExecutor();
+        Revalidator revalidator = new Revalidator(executor, 1000, 1);
+
+        assertTrue(revalidator.servedStale(new CacheKey.Builder().setLocation("a").build(), NOTHING));
+        assertFalse(revalidator.servedStale(new CacheKey.Builder().setLocation("b").build(), NOTHING));
+        assertEquals(revalidator.getRefreshesRejected(), 1);
+
+        executor.runAll();
+        assertTrue(revalidator.servedStale(new CacheKey.Builder().setLocation("b").build(), NOTHING));
+    }
+
+    @Test
+    public void staleEntriesKeptForGrace() {
+        CacheEntry entry = new CacheEntry(null, null, 1000, 2000);
+
+        assertFalse(entry.isExpired(999));
+        assertTrue(entry.isExpired(1000));
+        assertFalse(entry.isDead(1999));
+        assertTrue(entry.isDead(2000));
+    }
+
+    private static class QueueExecutor implements Executor {
+
+        private final List<Runnable> queue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void runAll() {
+            List<Runnable> todo = new ArrayList<>(queue);
+            queue.clear();
+            for (Runnable r : todo) {
+                r.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.cache;
+
+import com.moosemorals.weather.geo.Geohash;
+import com.moosemorals.weather.reports.FetchResult;
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.types.Location;
+import java.util.Locale;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class SnappingCacheNGTest {
+
+    @Test
+    public void geohash() {
+        assertEquals(Geohash.encode(57.64911, 10.40744, 11), "u4pruydqqvj");
+    }
+
+    @Test
+    public void nearbyPointsShareEntry() {
+        SnappingCache cache = SnappingCache.byGeohash(new MemoryCache(10), 6);
+
+        Location byker = new Location.Builder().setName("Byker").build();
+        WeatherReport report = new WeatherReport.Builder().setLocation(byker).build();
+        CacheEntry entry = new CacheEntry(new FetchResult.Builder().setWeather(report).build(), Long.MAX_VALUE);
+
+        // About 200m apart, in the same cell
+        cache.put(new CacheKey.Builder().setLocation("54.9740,-1.5690").build(), entry);
+        assertSame(cache.get(new CacheKey.Builder().setLocation("54.9755, -1.5700").build()), entry);
+        assertSame(cache.getResolvedLocation("54.9755,-1.5700"), byker);
+
+        // About 30km away
+        assertNull(cache.get(new CacheKey.Builder().setLocation("54.7,-1.5720").build()));
+    }
+
+    @Test
+    public void resolvedLocationsAreBounded() {
+        SnappingCache cache = SnappingCache.byGrid(new MemoryCache(10), 0.01);
+
+        Location byker = new Location.Builder().setName("Byker").build();
+        WeatherReport report = new WeatherReport.Builder().setLocation(byker).build();
+        CacheEntry entry = new CacheEntry(new FetchResult.Builder().setWeather(report).build(), Long.MAX_VALUE);
+
+        for (int i = 0; i <= SnappingCache.MAX_RESOLVED; i += 1) {
+            String location = String.format(Locale.ROOT, "%.3f,%.3f", (i / 200) * 0.01 + 0.005, (i % 200) * 0.01 + 0.005);
+            cache.put(new CacheKey.Builder().setLocation(location).build(), entry);
+        }
+
+        // The first cell has been pushed out, the last is still there
+        assertNull(cache.getResolvedLocation("0.005,0.005"));
+        int last = SnappingCache.MAX_RESOLVED;
+        assertSame(cache.getResolvedLocation(String.format(Locale.ROOT, "%.3f,%.3f", (last / 200) * 0.01 + 0.005, (last % 200) * 0.01 + 0.005)), byker);
+    }
+
+    @Test
+    public void grid() {
+        SnappingCache cache = SnappingCache.byGrid(new MemoryCache(10), 0.01);
+
+        assertEquals(cache.getCell("54.9745,-1.5720"), cache.getCell("54.9702,-1.5799"));
+        assertNotNull(cache.getCell("54.9745,-1.5720"));
+    }
+
+    @Test
+    public void namesPassThrough() {
+        MemoryCache backing = new MemoryCache(10);
+        SnappingCache cache = SnappingCache.byGeohash(backing, 6);
+        CacheKey key = new CacheKey.Builder().setLocation("NE6").build();
+        CacheEntry entry = new CacheEntry(new FetchResult.Builder().build(), Long.MAX_VALUE);
+
+        assertNull(cache.getCell("NE6"));
+        cache.put(key, entry);
+        assertSame(backing.get(key), entry);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.export;
+
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.series.Field;
+import com.moosemorals.weather.series.HourlySeries;
+import com.moosemorals.weather.xml.WeatherParser;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ColumnarExporterNGTest {
+
+    private HourlySeries utc;
+    private HourlySeries fetched;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        utc = new HourlySeries((WeatherReport) new WeatherParser().parse(getClass().getResourceAsStream("/sample-utc.xml")));
+        fetched = new HourlySeries((WeatherReport) new WeatherParser().parse(getClass().getResourceAsStream("/sample-from-fetcher.xml")));
+    }
+
+    private byte[] export(int rowGroupSize, Field... fields) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ColumnarExporter exporter = new ColumnarExporter.Builder()
+                .setChannel(Channels.newChannel(out))
+                .setFields(fields)
+                .setRowGroupSize(rowGroupSize)
+                .build()) {
+            exporter.write("Leeds", utc);
+            exporter.write("Newcastle", fetched);
+            exporter.write("Leeds", utc);
+        }
+        return out.toByteArray();
+    }
+
+    private ColumnarReader reader(byte[] file) {
+        return new ColumnarReader(Channels.newChannel(new ByteArrayInputStream(file)));
+    }
+
+    private void check(ColumnarReader reader, String location, HourlySeries series, Field... fields) throws IOException {
+        for (int row = 0; row < series.size(); row += 1) {
+            assertTrue(reader.next());
+            assertEquals(reader.getLocation(), location);
+            assertEquals(reader.getTime(), series.getTime(row));
+            for (Field f : fields) {
+                // Values from floats come back as the nearest decimal
+                assertEquals((float) reader.get(f), (float) series.get(f, row), f.name());
+            }
+        }
+    }
+
+    @Test
+    public void roundTrips() throws Exception {
+        Field[] fields = Field.values();
+        // Small groups, so series are split across blocks
+        try (ColumnarReader reader = reader(export(7, fields))) {
+            check(reader, "Leeds", utc, fields);
+            check(reader, "Newcastle", fetched, fields);
+            check(reader, "Leeds", utc, fields);
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void onlyExportedFields() throws Exception {
+        try (ColumnarReader reader = reader(export(1024, Field.TEMP_C, Field.PRECIP_MM))) {
+            assertTrue(reader.next());
+            assertTrue(reader.has(Field.PRECIP_MM));
+            assertFalse(reader.has(Field.PRESSURE));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void missingFieldThrows() throws Exception {
+        try (ColumnarReader reader = reader(export(1024, Field.TEMP_C))) {
+            reader.next();
+            reader.get(Field.PRESSURE);
+        }
+    }
+
+    @Test
+    public void smallerThanCsv() throws Exception {
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        try (CsvExporter exporter = new CsvExporter.Builder().setChannel(Channels.newChannel(csv)).build()) {
+            exporter.write("Leeds", utc);
+            exporter.write("Newcastle", fetched);
+            exporter.write("Leeds", utc);
+        }
+        assertTrue(export(1024, Field.values()).length * 4 < csv.size());
+    }
+
+    @Test
+    public void scalesFloats() {
+        assertEquals(ColumnFormat.chooseScale(new double[]{1, -20, 300}, 3), 0);
+        assertEquals(ColumnFormat.chooseScale(new double[]{0.1f, 2.5f, 0}, 3), 1);
+        assertEquals(ColumnFormat.chooseScale(new double[]{0.125, 3}, 2), 3);
+        assertEquals(ColumnFormat.chooseScale(new double[]{Math.PI}, 1), -1);
+        assertEquals(ColumnFormat.chooseScale(new double[]{Double.NaN}, 1), -1);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void detectsCorruption() throws Exception {
+        byte[] file = export(1024, Field.values());
+        file[file.length - 3] ^= 0x55;
+        try (ColumnarReader reader = reader(file)) {
+            while (reader.next()) {
+                // Read to the end
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void detectsTruncation() throws Exception {
+        byte[] file = export(1024, Field.values());
+        byte[] cut = new byte[file.length - 10];
+        System.arraycopy(file, 0, cut, 0, cut.length);
+        try (ColumnarReader reader = reader(cut)) {
+            while (reader.next()) {
+                // Read to the end
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.export;
+
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.series.Field;
+import com.moosemorals.weather.series.HourlySeries;
+import com.moosemorals.weather.types.HourlyForecast;
+import com.moosemorals.weather.xml.WeatherParser;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.ISODateTimeFormat;
+import static org.testng.Assert.assertEquals;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class CsvExporterNGTest {
+
+    private HourlySeries series;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        WeatherReport report = (WeatherReport) new WeatherParser().parse(getClass().getResourceAsStream("/sample-utc.xml"));
+        series = new HourlySeries(report);
+    }
+
+    private String export(String location, HourlySeries series, int bufferSize, Field... fields) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (CsvExporter exporter = new CsvExporter.Builder()
+                .setChannel(Channels.newChannel(out))
+                .setFields(fields)
+                .setBufferSize(bufferSize)
+                .build()) {
+            exporter.write(location, series);
+        }
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void writesHeaderAndRows() throws Exception {
+        String[] lines = export("Leeds", series, 64 * 1024, Field.TEMP_C, Field.PRECIP_MM).split("\n");
+
+        assertEquals(lines[0], "location,time,temp_c,precip_mm");
+        assertEquals(lines.length, series.size() + 1);
+        for (int row = 0; row < series.size(); row += 1) {
+            String[] cells = lines[row + 1].split(",");
+            assertEquals(cells[0], "Leeds");
+            assertEquals(DateTime.parse(cells[1], ISODateTimeFormat.dateTimeParser().withZoneUTC()).getMillis(), series.getTime(row));
+            assertEquals(cells[2], Long.toString((long) series.get(Field.TEMP_C, row)));
+            assertEquals(Float.parseFloat(cells[3]), (float) series.get(Field.PRECIP_MM, row));
+        }
+    }
+
+    @Test
+    public void smallBufferGivesSameOutput() throws Exception {
+        assertEquals(export("Leeds", series, 1024, Field.values()), export("Leeds", series, 64 * 1024, Field.values()));
+    }
+
+    @Test
+    public void quotesLocations() throws Exception {
+        String[] lines = export("Leeds, \"UK\"", series, 64 * 1024, Field.TEMP_C).split("\n");
+        assertEquals(lines[1].substring(0, 15), "\"Leeds, \"\"UK\"\"\"");
+    }
+
+    @Test
+    public void formatsTimes() throws Exception {
+        List<HourlyForecast> hours = new ArrayList<>();
+        for (DateTime t : new DateTime[]{
+            new DateTime(1969, 12, 31, 1, 2, 3, DateTimeZone.UTC),
+            new DateTime(1970, 1, 1, 0, 0, DateTimeZone.UTC),
+            new DateTime(2016, 2, 29, 23, 59, 59, DateTimeZone.UTC),
+            new DateTime(2100, 3, 1, 0, 0, DateTimeZone.UTC)}) {
+            hours.add(new HourlyForecast.Builder().setTime(t).setTempC(-5).build());
+        }
+
+        String[] lines = export("x", new HourlySeries(null, hours), 64 * 1024, Field.TEMP_C).split("\n");
+
+        assertEquals(lines[1], "x,1969-12-31T01:02:03Z,-5");
+        assertEquals(lines[2], "x,1970-01-01T00:00:00Z,-5");
+        assertEquals(lines[3], "x,2016-02-29T23:59:59Z,-5");
+        assertEquals(lines[4], "x,2100-03-01T00:00:00Z,-5");
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.geo;
+
+import com.moosemorals.weather.types.Location;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class SpatialIndexNGTest {
+
+    private static Location location(String name, double lat, double lon) {
+        return new Location.Builder()
+                .setName(name)
+                .setLatitude((float) lat)
+                .setLongitude((float) lon)
+                .build();
+    }
+
+    private static List<Location> bruteForce(List<Location> all, final double lat, final double lon) {
+        List<Location> sorted = new ArrayList<>(all);
+        Collections.sort(sorted, new Comparator<Location>() {
+            @Override
+            public int compare(Location a, Location b) {
+                return Double.compare(
+                        LatLong.distance(lat, lon, a.getLatitude(), a.getLongitude()),
+                        LatLong.distance(lat, lon, b.getLatitude(), b.getLongitude()));
+            }
+        });
+        return sorted;
+    }
+
+    @Test
+    public void matchesBruteForce() {
+        Random random = new Random(42);
+        SpatialIndex index = new SpatialIndex(2);
+        List<Location> all = new ArrayList<>();
+        for (int i = 0; i < 2000; i += 1) {
+            Location l = location("L" + i, random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+            all.add(l);
+            index.add(l);
+        }
+        assertEquals(index.size(), 2000);
+
+        double[][] points = {{54.97, -1.61}, {0, 179.9}, {0, -179.9}, {89.5, 10}, {-89.9, -100}, {12.3, 45.6}};
+        for (double[] p : points) {
+            List<Location> expected = bruteForce(all, p[0], p[1]);
+            assertEquals(index.nearest(p[0], p[1], 5), expected.subList(0, 5));
+
+            List<Location> within = index.within(p[0], p[1], 800);
+            int n = 0;
+            while (n < expected.size() && LatLong.distance(p[0], p[1], expected.get(n).getLatitude(), expected.get(n).getLongitude()) <= 800) {
+                n += 1;
+            }
+            assertEquals(within, expected.subList(0, n));
+        }
+    }
+
+    @Test
+    public void sparseIndex() {
+        SpatialIndex index = new SpatialIndex(0.1);
+        Location wallsend = location("Wallsend", 54.99, -1.53);
+        Location sydney = location("Sydney", -33.87, 151.21);
+        index.add(wallsend);
+        index.add(sydney);
+
+        assertEquals(index.nearest(54.97, -1.61, 1), Collections.singletonList(wallsend));
+        assertEquals(index.nearest(-30, 150, 5).size(), 2);
+        assertTrue(index.within(54.97, -1.61, 1).isEmpty());
+    }
+
+    @Test
+    public void duplicatesReplace() {
+        SpatialIndex index = new SpatialIndex();
+        index.add(location("Wallsend", 54.99, -1.53));
+        index.add(location("Wallsend", 54.99, -1.53));
+        assertEquals(index.size(), 1);
+    }
+
+    @Test
+    public void concurrentAdds() throws Exception {
+        final SpatialIndex index = new SpatialIndex(1);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t += 1) {
+            final int thread = t;
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 500; i += 1) {
+                        index.add(location("T" + thread + "-" + i, 50 + (i % 10) * 0.1, (i / 10) * 0.1));
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(index.size(), 2000);
+        assertEquals(index.within(50, 0, 10000).size(), 2000);
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.history;
+
+import com.moosemorals.weather.Util;
+import com.moosemorals.weather.reports.WeatherReport;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class HistoryStoreNGTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    private File directory;
+    private byte[] sample;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("history").toFile();
+        try (InputStream in = getClass().getResourceAsStream("/sample-utc.xml")) {
+            sample = Util.readFully(in);
+        }
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private HistoryStore open(int batchSize, long segmentSize) throws IOException {
+        return new HistoryStore.Builder()
+                .setDirectory(directory)
+                .setBatchSize(batchSize)
+                .setMaxSegmentSize(segmentSize)
+                .setRetention(30 * DAY)
+                .build();
+    }
+
+    @Test
+    public void rangeScan() throws Exception {
+        try (HistoryStore store = open(4, 1024 * 1024)) {
+            for (int day = 0; day < 10; day += 1) {
+                store.append("Leeds", day * DAY, sample);
+                store.append("NE6", day * DAY + 1, sample);
+            }
+            assertEquals(store.size(), 20);
+
+            List<HistoryRecord> found = store.scan(" leeds ", 3 * DAY, 7 * DAY);
+            assertEquals(found.size(), 4);
+            for (int i = 0; i < 4; i += 1) {
+                assertEquals(found.get(i).getTime(), (3 + i) * DAY);
+                assertEquals(found.get(i).getLocation(), "leeds");
+            }
+            assertTrue(found.get(0).getReport() instanceof WeatherReport);
+        }
+    }
+
+    @Test
+    public void survivesRestart() throws Exception {
+        try (HistoryStore store = open(4, 1024 * 1024)) {
+            for (int i = 0; i < 6; i += 1) {
+                store.append("Leeds", i, sample);
+            }
+        }
+        try (HistoryStore store = open(4, 1024 * 1024)) {
+            assertEquals(store.size(), 6);
+            assertEquals(store.scan("Leeds", 0, 100).size(), 6);
+        }
+    }
+
+    @Test
+    public void tornBlockIsDropped() throws Exception {
+        try (HistoryStore store = open(2, 1024 * 1024)) {
+            for (int i = 0; i < 4; i += 1) {
+                store.append("Leeds", i, sample);
+            }
+        }
+        File segment = directory.listFiles()[0];
+        try (RandomAccessFile f = new RandomAccessFile(segment, "rw")) {
+            f.setLength(f.length() - 10);
+        }
+        try (HistoryStore store = open(2, 1024 * 1024)) {
+            assertEquals(store.size(), 2);
+        }
+    }
+
+    @Test
+    public void corruptBlockIsDroppedWhenRead() throws Exception {
+        try (HistoryStore store = open(2, 1024 * 1024)) {
+            for (int i = 0; i < 4; i += 1) {
+                store.append("Leeds", i, sample);
+            }
+        }
+        // Damage the first block's payload, which isn't checked on startup
+        File segment = directory.listFiles()[0];
+        try (RandomAccessFile f = new RandomAccessFile(segment, "rw")) {
+            f.seek(100);
+            int b = f.read();
+            f.seek(100);
+            f.write(b ^ 0xff);
+        }
+        try (HistoryStore store = open(2, 1024 * 1024)) {
+            assertEquals(store.size(), 4);
+            assertEquals(store.scan("Leeds", 0, 100).size(), 2);
+            assertEquals(store.size(), 2);
+        }
+    }
+
+    @Test
+    public void unfinishedCompactionIsIgnored() throws Exception {
+        try (HistoryStore store = open(4, 1024 * 1024)) {
+            for (int i = 0; i < 4; i += 1) {
+                store.append("Leeds", i, sample);
+            }
+        }
+        // As if we died before renaming a compacted copy into place
+        File leftover = new File(directory, directory.listFiles()[0].getName() + ".tmp");
+        Files.write(leftover.toPath(), new byte[]{1, 2, 3});
+
+        try (HistoryStore store = open(4, 1024 * 1024)) {
+            assertEquals(store.size(), 4);
+        }
+        assertFalse(leftover.exists());
+    }
+
+    @Test
+    public void failedCompactionKeepsOldSegment() throws Exception {
+        // One expired and one wanted block in the first segment
+        try (HistoryStore store = open(1, 1024 * 1024)) {
+            store.append("Leeds", 0, sample);
+            store.append("Leeds", 40 * DAY, sample);
+        }
+        File first = directory.listFiles()[0];
+
+        try (HistoryStore store = open(1, 1)) {
+            // Moves on to a new segment, so the first can be compacted
+            store.append("Leeds", 41 * DAY, sample);
+
+            // Something in the way of the temporary file
+            File blocker = new File(directory, first.getName() + ".tmp");
+            assertTrue(blocker.mkdir());
+            try {
+                store.compact(45 * DAY);
+                fail("Compaction should have failed");
+            } catch (IOException ex) {
+                // expected
+            }
+            assertEquals(store.scan("Leeds", 0, 100 * DAY).size(), 3);
+
+            // Clear the way and try again
+            assertTrue(blocker.delete());
+            store.compact(45 * DAY);
+            assertEquals(store.scan("Leeds", 0, 100 * DAY).size(), 2);
+        }
+        try (HistoryStore store = open(1, 1)) {
+            assertEquals(store.size(), 2);
+        }
+    }
+
+    @Test
+    public void retention() throws Exception {
+        // Small segments so each block gets its own
+        try (HistoryStore store = open(1, 1)) {
+            for (int day = 0; day < 40; day += 1) {
+                store.append("Leeds", day * DAY, sample);
+            }
+            int before = directory.listFiles().length;
+
+            store.compact(45 * DAY);
+            assertEquals(store.scan("Leeds", 0, 100 * DAY).size(), 25);
+            assertTrue(directory.listFiles().length < before);
+            for (File f : directory.listFiles()) {
+                assertTrue(f.getName().endsWith(".hist"));
+            }
+        }
+        try (HistoryStore store = open(1, 1)) {
+            assertEquals(store.size(), 25);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.metrics;
+
+import java.io.IOException;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class CountingMetricsSinkNGTest {
+
+    @Test
+    public void countsRequests() {
+        CountingMetricsSink sink = new CountingMetricsSink();
+
+        sink.requestSent("weather", "London");
+        sink.responseReceived("weather", 200, 1500, 2000000);
+        sink.requestSent("weather", "London");
+        sink.responseReceived("weather", 500, 0, 1000000);
+        sink.requestSent("search", "Lon");
+        sink.requestFailed("search", new IOException("Connection reset"));
+        sink.errorReported("Donwload Failure");
+
+        assertEquals(sink.getRequests("weather"), 2);
+        assertEquals(sink.getRequests("search"), 1);
+        assertEquals(sink.getFailures("search"), 1);
+        assertEquals(sink.getFailures("weather"), 0);
+        assertEquals((long) sink.getStatusCounts().get(200), 1);
+        assertEquals((long) sink.getStatusCounts().get(500), 1);
+        assertEquals((long) sink.getErrorCounts().get("Donwload Failure"), 1);
+        assertEquals(sink.getBytesRead(), 1500);
+        assertEquals(sink.getResponseTimes().getCount(), 2);
+        assertEquals(sink.getResponseTimes().getMax(), 2000000);
+    }
+
+    @Test
+    public void cacheHitRatio() {
+        CountingMetricsSink sink = new CountingMetricsSink();
+        assertTrue(Double.isNaN(sink.getCacheHitRatio("response")));
+
+        sink.cacheHit("response");
+        sink.cacheHit("response");
+        sink.cacheHit("response");
+        sink.cacheMiss("response");
+
+        assertEquals(sink.getCacheHitRatio("response"), 0.75, 0.0001);
+        assertEquals(sink.getCacheMisses("negative"), 0);
+    }
+
+    @Test
+    public void parseTimesPerParser() {
+        CountingMetricsSink sink = new CountingMetricsSink();
+        assertNull(sink.getParseTimes("WeatherParser"));
+
+        sink.parsed("WeatherParser", 40, 100);
+        sink.parsed("WeatherParser", 40, 300);
+        sink.parsed("LocationParser", 12, 50);
+
+        assertEquals(sink.getParseTimes("WeatherParser").getCount(), 2);
+        assertEquals(sink.getParseTimes("LocationParser").getSum(), 50);
+    }
+
+    @Test
+    public void quotaKeepsLastReported() {
+        CountingMetricsSink sink = new CountingMetricsSink();
+        assertEquals(sink.getRequestsPerDayLeft(), -1);
+
+        sink.quota(4, 240);
+        sink.quota(-1, -1);
+
+        assertEquals(sink.getRequestsPerSecondLeft(), 4);
+        assertEquals(sink.getRequestsPerDayLeft(), 240);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class HistogramNGTest {
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789L, Long.MAX_VALUE};
+        for (long v : values) {
+            int i = Histogram.index(v);
+            assertTrue(Histogram.lowerBound(i) <= v, "lower bound of " + v);
+            assertTrue(Histogram.upperBound(i) >= v, "upper bound of " + v);
+        }
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        for (int i = 0; i < 400; i += 1) {
+            assertEquals(Histogram.lowerBound(i + 1), Histogram.upperBound(i) + 1);
+            assertEquals(Histogram.index(Histogram.lowerBound(i)), i);
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        Histogram h = new Histogram();
+        for (int i = 1; i <= 1000; i += 1) {
+            h.record(i);
+        }
+
+        assertEquals(h.getCount(), 1000);
+        assertEquals(h.getSum(), 500500);
+        assertEquals(h.getMax(), 1000);
+        assertEquals(h.getMean(), 500.5, 0.001);
+
+        long median = h.getPercentile(50);
+        assertTrue(median >= 500 && median <= 500 * 1.125, "median " + median);
+        assertEquals(h.getPercentile(100), 1000);
+    }
+
+    @Test
+    public void emptyHistogram() {
+        Histogram h = new Histogram();
+        assertEquals(h.getCount(), 0);
+        assertEquals(h.getPercentile(99), 0);
+        assertTrue(Double.isNaN(h.getMean()));
+    }
+}
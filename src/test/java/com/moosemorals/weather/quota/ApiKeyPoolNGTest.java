@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.quota;
+
+import com.moosemorals.weather.reports.ErrorReport;
+import com.moosemorals.weather.reports.FetchResult;
+import java.util.HashSet;
+import java.util.Set;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ApiKeyPoolNGTest {
+
+    private static final long NOW = new DateTime(2015, 7, 25, 12, 0, DateTimeZone.UTC).getMillis();
+
+    @BeforeMethod
+    public void setUp() {
+        DateTimeUtils.setCurrentMillisFixed(NOW);
+    }
+
+    @AfterMethod
+    public void resetClock() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    private static FetchResult quota(int perSecond, int perDay) {
+        return new FetchResult.Builder()
+                .setRequestsPerSecond(perSecond)
+                .setRequestsPerDay(perDay)
+                .build();
+    }
+
+    @Test
+    public void requestsAreSpread() {
+        ApiKeyPool pool = new ApiKeyPool.Builder()
+                .addKey("aaaa1")
+                .addKey("bbbb2")
+                .addKey("cccc3")
+                .build();
+
+        Set<String> used = new HashSet<>();
+        for (int i = 0; i < 3; i += 1) {
+            used.add(pool.acquire());
+        }
+        assertEquals(used.size(), 3);
+        assertEquals(pool.getTotalRemaining(), 747);
+    }
+
+    @Test
+    public void perSecondLimit() {
+        ApiKeyPool pool = new ApiKeyPool.Builder()
+                .addKey("aaaa1")
+                .setPerSecond(2)
+                .build();
+
+        assertEquals(pool.acquire(), "aaaa1");
+        assertEquals(pool.acquire(), "aaaa1");
+        assertNull(pool.acquire());
+
+        DateTimeUtils.setCurrentMillisFixed(NOW + 1000);
+        assertEquals(pool.acquire(), "aaaa1");
+    }
+
+    @Test
+    public void headersCorrectCounts() {
+        ApiKeyPool pool = new ApiKeyPool.Builder()
+                .addKey("aaaa1")
+                .addKey("bbbb2")
+                .build();
+
+        String key = pool.acquire();
+        pool.record(key, 200, quota(4, 0));
+        assertEquals(pool.getRemaining(key), 0);
+
+        // Only the other key has any quota left
+        String other = pool.acquire();
+        assertFalse(other.equals(key));
+        pool.record(other, 200, quota(0, 100));
+        assertNull(pool.acquire());
+    }
+
+    @Test
+    public void rejectedKeysAreSkippedUntilReset() {
+        ApiKeyPool pool = new ApiKeyPool.Builder()
+                .addKey("aaaa1")
+                .build();
+
+        String key = pool.acquire();
+        pool.record(key, 200, new FetchResult.Builder()
+                .setError(new ErrorReport("APIError", "Parameter key is missing from the request URL"))
+                .build());
+        assertTrue(pool.isRejected(key));
+        assertNull(pool.acquire());
+
+        DateTimeUtils.setCurrentMillisFixed(new DateTime(2015, 7, 26, 0, 0, DateTimeZone.UTC).getMillis());
+        assertEquals(pool.acquire(), "aaaa1");
+        assertEquals(pool.getRemaining("aaaa1"), 249);
+    }
+
+    @Test
+    public void locationErrorsDontRejectKey() {
+        ApiKeyPool pool = new ApiKeyPool.Builder()
+                .addKey("aaaa1")
+                .build();
+
+        String key = pool.acquire();
+        pool.record(key, 200, new FetchResult.Builder()
+                .setError(new ErrorReport("APIError", "Unable to find any matching weather location to the query submitted!"))
+                .build());
+        assertFalse(pool.isRejected(key));
+
+        // Mentions a key, but isn't about ours
+        pool.record(key, 200, new FetchResult.Builder()
+                .setError(new ErrorReport("APIError", "Parameter tp is not valid for this key's plan"))
+                .build());
+        assertFalse(pool.isRejected(key));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.quota;
+
+import com.moosemorals.weather.reports.FetchResult;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.joda.time.DateTimeUtils;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class QuotaCoordinatorNGTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    private File file;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        file = Files.createTempFile("quota", ".bin").toFile();
+        file.delete();
+        DateTimeUtils.setCurrentMillisFixed(100 * DAY);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        DateTimeUtils.setCurrentMillisSystem();
+        file.delete();
+    }
+
+    private QuotaCoordinator open(int perSecond, int perDay) throws IOException {
+        return new QuotaCoordinator.Builder()
+                .setFile(file)
+                .setPerSecond(perSecond)
+                .setPerDay(perDay)
+                .build();
+    }
+
+    @Test
+    public void countsAreShared() throws Exception {
+        try (QuotaCoordinator a = open(5, 3); QuotaCoordinator b = open(5, 3)) {
+            assertTrue(a.tryAcquire("key"));
+            assertTrue(b.tryAcquire("key"));
+            assertTrue(a.tryAcquire("key"));
+            assertFalse(b.tryAcquire("key"));
+            assertEquals(a.getRemainingToday("key"), 0);
+
+            // Other keys have their own counts
+            assertTrue(b.tryAcquire("other"));
+        }
+    }
+
+    @Test
+    public void perSecondLimit() throws Exception {
+        try (QuotaCoordinator a = open(2, 250); QuotaCoordinator b = open(2, 250)) {
+            assertTrue(a.tryAcquire("key"));
+            assertTrue(b.tryAcquire("key"));
+            assertFalse(a.tryAcquire("key"));
+
+            DateTimeUtils.setCurrentMillisFixed(100 * DAY + 1000);
+            assertTrue(a.tryAcquire("key"));
+        }
+    }
+
+    @Test
+    public void countsResetDaily() throws Exception {
+        try (QuotaCoordinator a = open(5, 1)) {
+            assertTrue(a.tryAcquire("key"));
+            assertFalse(a.tryAcquire("key"));
+
+            DateTimeUtils.setCurrentMillisFixed(101 * DAY);
+            assertTrue(a.tryAcquire("key"));
+        }
+    }
+
+    @Test
+    public void headersRaiseCounts() throws Exception {
+        try (QuotaCoordinator a = open(5, 250)) {
+            a.update("key", new FetchResult.Builder()
+                    .setRequestsPerSecond(-1)
+                    .setRequestsPerDay(10)
+                    .build());
+            assertEquals(a.getRemainingToday("key"), 10);
+        }
+    }
+
+    @Test
+    public void survivesReopen() throws Exception {
+        try (QuotaCoordinator a = open(5, 250)) {
+            a.tryAcquire("key");
+        }
+        try (QuotaCoordinator a = open(5, 250)) {
+            assertEquals(a.getRemainingToday("key"), 249);
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void rejectsOtherFiles() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[64]);
+        }
+        open(5, 250);
+    }
+
+    @Test
+    public void poolUsesCoordinator() throws Exception {
+        try (QuotaCoordinator a = open(5, 2); QuotaCoordinator b = open(5, 2)) {
+            ApiKeyPool first = new ApiKeyPool.Builder().addKey("key").setCoordinator(a).build();
+            ApiKeyPool second = new ApiKeyPool.Builder().addKey("key").setCoordinator(b).build();
+
+            assertEquals(first.acquire(), "key");
+            assertEquals(second.acquire(), "key");
+            assertNull(first.acquire());
+            assertEquals(first.getRemaining("key"), 0);
+        }
+    }
+}
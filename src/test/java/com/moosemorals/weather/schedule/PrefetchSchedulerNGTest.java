@@ -0,0 +1,209 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.schedule;
+
+import com.moosemorals.weather.Util;
+import com.moosemorals.weather.WeatherFetcher;
+import com.moosemorals.weather.cache.CacheEntry;
+import com.moosemorals.weather.cache.MemoryCache;
+import com.moosemorals.weather.quota.ApiKeyPool;
+import com.moosemorals.weather.reports.FetchResult;
+import com.moosemorals.weather.transport.Transport;
+import com.moosemorals.weather.transport.TransportResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class PrefetchSchedulerNGTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+    // Noon UTC, so twelve hours until the budget resets
+    private static final long NOW = new DateTime(2015, 7, 25, 12, 0, DateTimeZone.UTC).getMillis();
+
+    private MemoryCache cache;
+
+    @BeforeMethod
+    public void setUp() {
+        DateTimeUtils.setCurrentMillisFixed(NOW);
+        cache = new MemoryCache(100);
+    }
+
+    @AfterMethod
+    public void resetClock() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    private Watch watch(String location, int priority, long freshness) {
+        WeatherFetcher fetcher = new WeatherFetcher.Builder()
+                .setApiKey("test")
+                .setLocation(location)
+                .setCache(cache)
+                .build();
+        return new Watch.Builder()
+                .setFetcher(fetcher)
+                .setPriority(priority)
+                .setFreshness(freshness)
+                .build();
+    }
+
+    @Test
+    public void budgetGoesToHighestPriority() {
+        PrefetchScheduler scheduler = new PrefetchScheduler.Builder()
+                .setDailyLimit(30)
+                .build();
+
+        Watch low = watch("Leeds", 1, HOUR);
+        Watch high = watch("NE6", 10, HOUR);
+        Watch middle = watch("York", 5, HOUR);
+        scheduler.add(low);
+        scheduler.add(high);
+        scheduler.add(middle);
+
+        // 12 for high, the remaining 18 don't cover middle (12) and low (12)
+        assertEquals(high.getPlannedInterval(), HOUR);
+        assertEquals(middle.getPlannedInterval(), HOUR);
+        assertEquals(low.getPlannedInterval(), 12 * HOUR / 6);
+    }
+
+    @Test
+    public void noBudgetWaitsForReset() {
+        PrefetchScheduler scheduler = new PrefetchScheduler.Builder()
+                .setDailyLimit(10)
+                .setReserve(10)
+                .build();
+
+        Watch w = watch("NE6", 0, HOUR);
+        scheduler.add(w);
+        assertEquals(w.getPlannedInterval(), 12 * HOUR);
+
+        // Due, but there's nothing to spend
+        scheduler.tick(NOW + 1000);
+        assertEquals(scheduler.getRemainingBudget(), 10);
+        assertEquals(scheduler.size(), 1);
+
+        // Parked until midnight rather than retried every tick
+        assertEquals(w.timeout.getDeadline(), NOW + 12 * HOUR);
+    }
+
+    @Test
+    public void startsAreSpreadOverTicks() {
+        PrefetchScheduler scheduler = new PrefetchScheduler.Builder()
+                .setMaxPerTick(2)
+                .setTickLength(1000)
+                .build();
+
+        assertEquals(scheduler.pace(NOW, NOW), NOW);
+        assertEquals(scheduler.pace(NOW, NOW), NOW);
+        assertEquals(scheduler.pace(NOW - HOUR, NOW), NOW + 1000);
+        assertEquals(scheduler.pace(NOW, NOW), NOW + 1000);
+        assertEquals(scheduler.pace(NOW, NOW), NOW + 2000);
+
+        // Not due yet, so left alone
+        assertEquals(scheduler.pace(NOW + HOUR, NOW), NOW + HOUR);
+    }
+
+    @Test
+    public void budgetComesFromResponse() throws IOException {
+        final byte[] body;
+        try (InputStream in = getClass().getResourceAsStream("/sample-utc.xml")) {
+            body = Util.readFully(in);
+        }
+        WeatherFetcher fetcher = new WeatherFetcher.Builder()
+                .setApiKey("test")
+                .setLocation("NE6")
+                .setCache(cache)
+                .setTransport(new Transport() {
+                    @Override
+                    public TransportResponse get(String endpoint, Map<String, String> params) {
+                        return new TransportResponse(200, "OK",
+                                Collections.singletonMap("X-ApiaxleProxy-Qpd-Left", "42"), body, 0);
+                    }
+                })
+                .build();
+        Watch w = new Watch.Builder().setFetcher(fetcher).setFreshness(HOUR).build();
+
+        PrefetchScheduler scheduler = new PrefetchScheduler.Builder().build();
+        scheduler.add(w);
+        scheduler.tick(NOW + 1000);
+
+        assertEquals(scheduler.getRemainingBudget(), 42);
+        assertTrue(cache.getExpires(fetcher.getCacheKey()) > NOW);
+    }
+
+    @Test
+    public void missingKeyDoesntSpendBudget() throws IOException {
+        ApiKeyPool pool = new ApiKeyPool.Builder()
+                .addKey("aaaa1")
+                .build();
+        // Reject the only key, so the fetch fails without reaching the API
+        pool.record(pool.acquire(), 401, new FetchResult.Builder().build());
+
+        WeatherFetcher fetcher = new WeatherFetcher.Builder()
+                .setKeyPool(pool)
+                .setLocation("NE6")
+                .setCache(cache)
+                .build();
+        Watch w = new Watch.Builder().setFetcher(fetcher).setFreshness(HOUR).build();
+
+        PrefetchScheduler scheduler = new PrefetchScheduler.Builder()
+                .setDailyLimit(250)
+                .build();
+        scheduler.add(w);
+        scheduler.tick(NOW + 1000);
+
+        // Only the attempt is counted, the made up error has no quota figures
+        assertEquals(scheduler.getRemainingBudget(), 249);
+        assertTrue(w.timeout.getDeadline() < NOW + HOUR);
+    }
+
+    @Test
+    public void refreshJustBeforeExpiry() {
+        PrefetchScheduler scheduler = new PrefetchScheduler.Builder()
+                .setLead(60 * 1000)
+                .build();
+
+        Watch w = watch("NE6", 0, HOUR);
+        assertEquals(scheduler.getDue(w, NOW), NOW);
+
+        cache.put(w.getFetcher().getCacheKey(), new CacheEntry(new FetchResult.Builder().build(), NOW + 3 * HOUR));
+        assertEquals(scheduler.getDue(w, NOW), NOW + 3 * HOUR - 60 * 1000);
+
+        // Checking doesn't count as a cache lookup
+        assertEquals(cache.getHits(), 0);
+        assertEquals(cache.getMisses(), 0);
+    }
+}
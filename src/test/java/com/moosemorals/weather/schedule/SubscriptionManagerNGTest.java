@@ -0,0 +1,240 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.schedule;
+
+import com.moosemorals.weather.WeatherFetcher;
+import com.moosemorals.weather.reports.ErrorReport;
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.series.ChangeSet;
+import com.moosemorals.weather.stub.Responder;
+import com.moosemorals.weather.stub.StubApiServer;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class SubscriptionManagerNGTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private StubApiServer server;
+    private SubscriptionManager manager;
+
+    @AfterMethod
+    public void tearDown() {
+        if (manager != null) {
+            manager.close();
+            manager = null;
+        }
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+    }
+
+    private void start(Responder weather) throws Exception {
+        server = new StubApiServer.Builder()
+                .setWeather(weather)
+                .setQuota(0, 0)
+                .build();
+        server.start();
+        manager = new SubscriptionManager.Builder()
+                .setTemplate(new WeatherFetcher.Builder()
+                        .setApiKey("stub")
+                        .setEndpoint(server.getWeatherEndpoint()))
+                .build();
+    }
+
+    @Test
+    public void listenersShareOneFetch() throws Exception {
+        start(StubApiServer.fixture("sample-from-fetcher.xml"));
+
+        int count = 1000;
+        final CountDownLatch latch = new CountDownLatch(count);
+        WeatherListener listener = new Listener() {
+            @Override
+            public void updated(String location, WeatherReport report, ChangeSet changes) {
+                latch.countDown();
+            }
+        };
+        for (int i = 0; i < count; i += 1) {
+            // Spelt differently, but the same location
+            manager.subscribe(i % 2 == 0 ? "London" : " london ", listener, RefreshPolicy.every(HOUR));
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(manager.getFeedCount(), 1);
+        assertEquals(manager.getSubscriptionCount(), count);
+        assertEquals(server.getRequestCount(), 1);
+    }
+
+    @Test
+    public void repeatsAreNotDelivered() throws Exception {
+        final Responder first = StubApiServer.fixture("sample-from-fetcher.xml");
+        final Responder second = StubApiServer.fixture("sample-utc.xml");
+        final AtomicInteger requests = new AtomicInteger();
+        final CountDownLatch fetched = new CountDownLatch(4);
+        start(new Responder() {
+            @Override
+            public byte[] respond(Map<String, String> params) throws IOException {
+                fetched.countDown();
+                return requests.incrementAndGet() <= 2 ? first.respond(params) : second.respond(params);
+            }
+        });
+
+        // Each fetch parses a new copy, but two of them are repeats
+        final AtomicInteger all = new AtomicInteger();
+        final AtomicInteger changed = new AtomicInteger();
+        manager.subscribe("London", new Listener() {
+            @Override
+            public void updated(String location, WeatherReport report, ChangeSet changes) {
+                all.incrementAndGet();
+            }
+        }, RefreshPolicy.every(20));
+        manager.subscribeChanges("London", new Listener() {
+            @Override
+            public void updated(String location, WeatherReport report, ChangeSet changes) {
+                assertFalse(changes.isEmpty());
+                changed.incrementAndGet();
+            }
+        }, RefreshPolicy.every(HOUR));
+
+        assertTrue(fetched.await(10, TimeUnit.SECONDS));
+        // Let the last fetch finish and deliver
+        Thread.sleep(100);
+        manager.close();
+        // First report, and the switch of fixture
+        assertEquals(all.get(), 2);
+        assertEquals(changed.get(), 2);
+    }
+
+    @Test
+    public void cancelStopsFetching() throws Exception {
+        final Responder fixture = StubApiServer.fixture("sample-from-fetcher.xml");
+        final CountDownLatch fetched = new CountDownLatch(2);
+        start(new Responder() {
+            @Override
+            public byte[] respond(Map<String, String> params) throws IOException {
+                fetched.countDown();
+                return fixture.respond(params);
+            }
+        });
+
+        Subscription sub = manager.subscribe("London", new Listener() {
+            @Override
+            public void updated(String location, WeatherReport report, ChangeSet changes) {
+            }
+        }, RefreshPolicy.every(20));
+
+        assertTrue(fetched.await(10, TimeUnit.SECONDS));
+        sub.cancel();
+        assertTrue(sub.isCancelled());
+        assertEquals(manager.getFeedCount(), 0);
+
+        // Allow a fetch that was already running to land
+        Thread.sleep(100);
+        long seen = server.getRequestCount();
+        Thread.sleep(200);
+        assertEquals(server.getRequestCount(), seen);
+    }
+
+    @Test
+    public void lateSubscriberGetsLastReport() throws Exception {
+        start(StubApiServer.fixture("sample-from-fetcher.xml"));
+
+        final CountDownLatch first = new CountDownLatch(1);
+        manager.subscribe("London", new Listener() {
+            @Override
+            public void updated(String location, WeatherReport report, ChangeSet changes) {
+                first.countDown();
+            }
+        }, RefreshPolicy.every(HOUR));
+        assertTrue(first.await(10, TimeUnit.SECONDS));
+
+        final CountDownLatch late = new CountDownLatch(1);
+        manager.subscribe("London", new Listener() {
+            @Override
+            public void updated(String location, WeatherReport report, ChangeSet changes) {
+                late.countDown();
+            }
+        }, RefreshPolicy.every(HOUR));
+
+        assertTrue(late.await(10, TimeUnit.SECONDS));
+        assertEquals(server.getRequestCount(), 1);
+    }
+
+    @Test
+    public void templateIsNotChanged() throws Exception {
+        start(StubApiServer.fixture("sample-from-fetcher.xml"));
+        WeatherFetcher.Builder template = new WeatherFetcher.Builder()
+                .setApiKey("stub")
+                .setEndpoint(server.getWeatherEndpoint());
+        SubscriptionManager other = new SubscriptionManager.Builder()
+                .setTemplate(template)
+                .build();
+        try {
+            final CountDownLatch latch = new CountDownLatch(1);
+            other.subscribe("London", new Listener() {
+                @Override
+                public void updated(String location, WeatherReport report, ChangeSet changes) {
+                    latch.countDown();
+                }
+            }, RefreshPolicy.every(HOUR));
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } finally {
+            other.close();
+        }
+
+        try {
+            template.build().getCacheKey();
+            fail("Template was given a location");
+        } catch (NullPointerException ex) {
+            // Still has no location
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsZeroPeriod() {
+        RefreshPolicy.every(0);
+    }
+
+    private static abstract class Listener implements WeatherListener {
+
+        @Override
+        public void failed(String location, ErrorReport error) {
+            throw new AssertionError("Unexpected error " + error);
+        }
+    }
+}
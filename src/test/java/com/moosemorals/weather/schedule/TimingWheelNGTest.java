@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.schedule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class TimingWheelNGTest {
+
+    @Test
+    public void itemsComeDueInOrder() {
+        TimingWheel<String> wheel = new TimingWheel<>(100, 8, 0);
+        wheel.schedule("b", 250);
+        wheel.schedule("a", 50);
+        wheel.schedule("c", 5000);
+
+        List<String> due = new ArrayList<>();
+        wheel.advance(99, due);
+        assertTrue(due.isEmpty());
+
+        wheel.advance(100, due);
+        assertEquals(due, Arrays.asList("a"));
+
+        due.clear();
+        wheel.advance(300, due);
+        assertEquals(due, Arrays.asList("b"));
+
+        // Several times round the wheel
+        due.clear();
+        wheel.advance(4900, due);
+        assertTrue(due.isEmpty());
+        wheel.advance(5000, due);
+        assertEquals(due, Arrays.asList("c"));
+        assertEquals(wheel.size(), 0);
+    }
+
+    @Test
+    public void pastDeadlinesAreDueNextAdvance() {
+        TimingWheel<String> wheel = new TimingWheel<>(100, 8, 1000);
+        wheel.schedule("late", 10);
+
+        List<String> due = new ArrayList<>();
+        wheel.advance(1000, due);
+        assertEquals(due, Arrays.asList("late"));
+    }
+
+    @Test
+    public void cancel() {
+        TimingWheel<String> wheel = new TimingWheel<>(100, 8, 0);
+        TimingWheel.Timeout<String> t = wheel.schedule("a", 100);
+        wheel.schedule("b", 100);
+        wheel.cancel(t);
+        wheel.cancel(t);
+
+        assertEquals(wheel.size(), 1);
+        List<String> due = new ArrayList<>();
+        wheel.advance(200, due);
+        assertEquals(due, Arrays.asList("b"));
+    }
+
+    @Test
+    public void cancelledItemsAreClearedFromSlots() {
+        TimingWheel<String> wheel = new TimingWheel<>(100, 8, 0);
+        TimingWheel.Timeout<String> t = wheel.schedule("a", 1000);
+        wheel.cancel(t);
+        assertEquals(wheel.size(), 0);
+
+        // Pass the slot before the deadline comes round
+        List<String> due = new ArrayList<>();
+        wheel.advance(300, due);
+        TimingWheel.Timeout<String> u = wheel.schedule("b", 1000);
+        wheel.advance(1000, due);
+        assertEquals(due, Arrays.asList("b"));
+        assertEquals(u.getDeadline(), 1000);
+    }
+}
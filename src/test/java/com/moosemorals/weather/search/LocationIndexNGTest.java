@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.search;
+
+import com.moosemorals.weather.reports.LocationReport;
+import com.moosemorals.weather.types.Location;
+import com.moosemorals.weather.xml.LocationParser;
+import java.io.File;
+import java.util.List;
+import org.joda.time.DateTimeZone;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class LocationIndexNGTest {
+
+    private LocationIndex loadSample() throws Exception {
+        LocationIndex index = new LocationIndex();
+        index.add((LocationReport) new LocationParser().parse(getClass().getResourceAsStream("/search-result.xml")));
+        return index;
+    }
+
+    @Test
+    public void prefixRankedByPopulation() throws Exception {
+        LocationIndex index = loadSample();
+
+        assertEquals(index.size(), 10);
+
+        List<Location> result = index.search(" WAL", 10);
+        assertEquals(result.size(), 3);
+        assertEquals(result.get(0).getName(), "Wallsend");
+        assertEquals(result.get(1).getName(), "Walker");
+        assertEquals(result.get(2).getName(), "Walkergate");
+
+        assertEquals(index.search("wal", 1).size(), 1);
+        assertTrue(index.search("xyzzy", 10).isEmpty());
+    }
+
+    @Test
+    public void limitKeepsBiggest() {
+        LocationIndex index = new LocationIndex();
+        for (int i = 0; i < 1000; i += 1) {
+            index.add(new Location.Builder().setName("Town " + i).setPopulation(i % 500).build());
+        }
+
+        List<Location> result = index.search("t", 3);
+        assertEquals(result.size(), 3);
+        // Same population, so by name
+        assertEquals(result.get(0).getName(), "Town 499");
+        assertEquals(result.get(1).getName(), "Town 999");
+        assertEquals(result.get(2).getName(), "Town 498");
+    }
+
+    @Test
+    public void duplicatesReplaced() throws Exception {
+        LocationIndex index = loadSample();
+        index.add((LocationReport) new LocationParser().parse(getClass().getResourceAsStream("/search-result.xml")));
+
+        assertEquals(index.size(), 10);
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        LocationIndex index = loadSample();
+        File file = File.createTempFile("location-index", ".dat");
+        try {
+            index.save(file);
+
+            LocationIndex loaded = new LocationIndex();
+            loaded.load(file);
+
+            assertEquals(loaded.size(), 10);
+            Location byker = loaded.search("byker", 1).get(0);
+            assertEquals(byker.getRegion(), "Tyne and Wear");
+            assertEquals(byker.getLatitude(), 54.974f, 0.0001f);
+            assertEquals(byker.getTimezone(), DateTimeZone.forOffsetHours(1));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.series;
+
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.xml.WeatherParser;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ForecastDiffNGTest {
+
+    private WeatherReport report;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        report = (WeatherReport) new WeatherParser().parse(getClass().getResourceAsStream("/sample-utc.xml"));
+    }
+
+    @Test
+    public void sameReportHasNoChanges() {
+        ChangeSet changes = new ChangeSet();
+        new ForecastDiff().diff(new HourlySeries(report), new HourlySeries(report), changes);
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void changedValues() {
+        HourlySeries before = new HourlySeries(report);
+        HourlySeries after = new HourlySeries(report);
+        after.columns[Field.TEMP_C.ordinal()][3] += 2;
+        after.columns[Field.CHANCE_OF_RAIN.ordinal()][7] = 80;
+
+        ChangeSet changes = new ChangeSet(1);
+        new ForecastDiff(Field.TEMP_C, Field.CHANCE_OF_RAIN).diff(before, after, changes);
+
+        assertEquals(changes.size(), 2);
+        assertEquals(changes.getField(0), Field.TEMP_C);
+        assertEquals(changes.getTime(0), before.getTime(3));
+        assertEquals(changes.getOldValue(0), before.get(Field.TEMP_C, 3), 0);
+        assertEquals(changes.getNewValue(0), before.get(Field.TEMP_C, 3) + 2, 0);
+        assertEquals(changes.getField(1), Field.CHANCE_OF_RAIN);
+        assertEquals(changes.getTime(1), before.getTime(7));
+    }
+
+    @Test
+    public void hoursAlignByTime() {
+        // Next poll: first hour has gone, a new one on the end
+        HourlySeries before = new HourlySeries(report.getLocation(), report.getHourlyForecasts().subList(0, 8));
+        HourlySeries after = new HourlySeries(report.getLocation(), report.getHourlyForecasts().subList(1, 9));
+
+        ChangeSet changes = new ChangeSet();
+        new ForecastDiff(Field.TEMP_C).diff(before, after, changes);
+
+        assertEquals(changes.size(), 2);
+        assertEquals(changes.getTime(0), before.getTime(0));
+        assertTrue(Double.isNaN(changes.getNewValue(0)));
+        assertEquals(changes.getTime(1), after.getTime(7));
+        assertTrue(Double.isNaN(changes.getOldValue(1)));
+    }
+
+    @Test
+    public void updateRemembersLastReport() {
+        ForecastDiff diff = new ForecastDiff(Field.TEMP_C);
+        ChangeSet changes = new ChangeSet();
+
+        diff.update("NE6", report, changes);
+        assertEquals(changes.size(), report.getHourlyForecasts().size());
+
+        diff.update(" ne6", report, changes);
+        assertTrue(changes.isEmpty());
+    }
+}
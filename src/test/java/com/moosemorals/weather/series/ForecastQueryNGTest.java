@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.series;
+
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.types.HourlyForecast;
+import com.moosemorals.weather.xml.WeatherParser;
+import java.util.Arrays;
+import java.util.List;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ForecastQueryNGTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    private WeatherReport report;
+    private HourlySeries series;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        report = (WeatherReport) new WeatherParser().parse(getClass().getResourceAsStream("/sample-utc.xml"));
+        series = new HourlySeries(report);
+    }
+
+    @AfterMethod
+    public void resetClock() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void seriesMatchesReport() {
+        List<HourlyForecast> hours = report.getHourlyForecasts();
+        assertEquals(series.size(), hours.size());
+        for (int i = 0; i < hours.size(); i += 1) {
+            assertEquals(series.getTime(i), hours.get(i).getTime().getMillis());
+            assertEquals(series.get(Field.TEMP_C, i), hours.get(i).getTempC(), 0);
+            assertEquals(series.get(Field.PRECIP_MM, i), hours.get(i).getPrecipMM(), 0.0001);
+        }
+    }
+
+    @Test
+    public void skipsHoursWithoutTimes() throws Exception {
+        // Old fixture without UTC times
+        WeatherReport old = (WeatherReport) new WeatherParser().parse(getClass().getResourceAsStream("/sample.xml"));
+        int timed = 0;
+        for (HourlyForecast hour : old.getHourlyForecasts()) {
+            if (hour.getTime() != null) {
+                timed += 1;
+            }
+        }
+        assertTrue(timed < old.getHourlyForecasts().size());
+
+        HourlySeries oldSeries = new HourlySeries(old);
+        assertEquals(oldSeries.size(), timed);
+
+        ChangeSet changes = new ChangeSet();
+        new ForecastDiff().update("NE6", old, changes);
+        assertEquals(changes.size(), timed * Field.values().length);
+    }
+
+    @Test
+    public void maxGustInNextDay() {
+        long start = series.getTime(0);
+        DateTimeUtils.setCurrentMillisFixed(start);
+
+        int expected = Integer.MIN_VALUE;
+        for (HourlyForecast h : report.getHourlyForecasts()) {
+            if (h.getTime().getMillis() < start + DAY) {
+                expected = Math.max(expected, h.getWindGustKmph());
+            }
+        }
+
+        ForecastQuery q = new ForecastQuery.Builder()
+                .setField(Field.WIND_GUST_KMPH)
+                .setNext(DAY)
+                .build();
+        assertEquals(q.max(series), expected, 0);
+        assertEquals(q.count(series), 8);
+        assertEquals(series.get(Field.WIND_GUST_KMPH, q.argmax(series)), expected, 0);
+    }
+
+    @Test
+    public void firstMatch() {
+        List<HourlyForecast> hours = report.getHourlyForecasts();
+        int expected = -1;
+        for (int i = 0; i < hours.size(); i += 1) {
+            if (hours.get(i).getCloudcover() > 50) {
+                expected = i;
+                break;
+            }
+        }
+
+        ForecastQuery q = new ForecastQuery.Builder()
+                .setWhere(Field.CLOUDCOVER, ForecastQuery.Op.GT, 50)
+                .build();
+        assertEquals(q.first(series), expected);
+
+        ForecastQuery none = new ForecastQuery.Builder()
+                .setWhere(Field.HUMIDITY, ForecastQuery.Op.GT, 100)
+                .build();
+        assertEquals(none.first(series), -1);
+    }
+
+    @Test
+    public void aggregatesInWindow() {
+        DateTime from = new DateTime(series.getTime(8), DateTimeZone.UTC);
+        DateTime to = from.plusDays(1);
+
+        double sum = 0;
+        double min = Double.MAX_VALUE;
+        int n = 0;
+        for (HourlyForecast h : report.getHourlyForecasts()) {
+            if (!h.getTime().isBefore(from) && h.getTime().isBefore(to)) {
+                sum += h.getTempC();
+                min = Math.min(min, h.getTempC());
+                n += 1;
+            }
+        }
+
+        ForecastQuery q = new ForecastQuery.Builder()
+                .setField(Field.TEMP_C)
+                .setWindow(from, to)
+                .build();
+        assertEquals(q.sum(series), sum, 0.0001);
+        assertEquals(q.avg(series), sum / n, 0.0001);
+        assertEquals(q.min(series), min, 0);
+    }
+
+    @Test
+    public void fleet() {
+        ForecastQuery q = new ForecastQuery.Builder()
+                .setField(Field.TEMP_C)
+                .build();
+        List<HourlySeries> fleet = Arrays.asList(series, series);
+
+        assertEquals(q.max(fleet), q.max(series), 0);
+        assertEquals(q.count(fleet), 2 * series.size());
+        assertEquals(q.avg(fleet), q.avg(series), 0.0001);
+    }
+
+    @Test
+    public void emptyWindow() {
+        ForecastQuery q = new ForecastQuery.Builder()
+                .setField(Field.TEMP_C)
+                .setWindow(new DateTime(2000, 1, 1, 0, 0, DateTimeZone.UTC), new DateTime(2000, 1, 2, 0, 0, DateTimeZone.UTC))
+                .build();
+        assertTrue(Double.isNaN(q.max(series)));
+        assertEquals(q.argmax(series), -1);
+        assertEquals(q.sum(series), 0, 0);
+    }
+}
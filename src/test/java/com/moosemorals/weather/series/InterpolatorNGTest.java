@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.series;
+
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.types.HourlyForecast;
+import com.moosemorals.weather.xml.WeatherParser;
+import java.util.List;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class InterpolatorNGTest {
+
+    private List<HourlyForecast> hours;
+    private HourlySeries series;
+    private Interpolator interpolator;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        WeatherReport report = (WeatherReport) new WeatherParser().parse(getClass().getResourceAsStream("/sample-utc.xml"));
+        hours = report.getHourlyForecasts();
+        series = new HourlySeries(report);
+        interpolator = new Interpolator(series);
+    }
+
+    @Test
+    public void exactRows() {
+        for (int i = 0; i < series.size(); i += 1) {
+            assertEquals(interpolator.get(Field.TEMP_C, series.getTime(i)), hours.get(i).getTempC(), 0);
+            assertEquals(interpolator.get(Field.WINDDIR_DEGREE, series.getTime(i)), hours.get(i).getWinddirDegree(), 0);
+        }
+    }
+
+    @Test
+    public void linearBetweenRows() {
+        long t0 = series.getTime(0);
+        long t1 = series.getTime(1);
+        double v0 = hours.get(0).getTempC();
+        double v1 = hours.get(1).getTempC();
+
+        assertEquals(interpolator.get(Field.TEMP_C, (t0 + t1) / 2), (v0 + v1) / 2, 0.0001);
+        assertEquals(interpolator.get(Field.TEMP_C, t0 + (t1 - t0) / 4), v0 + (v1 - v0) / 4, 0.0001);
+    }
+
+    @Test
+    public void codesAreHeld() {
+        long t0 = series.getTime(0);
+        long t1 = series.getTime(1);
+        assertEquals(interpolator.get(Field.WEATHER_CODE, t1 - 1), hours.get(0).getWeatherCode(), 0);
+        assertEquals(interpolator.get(Field.WEATHER_CODE, t0 + 1), hours.get(0).getWeatherCode(), 0);
+    }
+
+    @Test
+    public void anglesGoTheShortWay() {
+        long t0 = series.getTime(0);
+        long t1 = series.getTime(1);
+        Field[] f = {Field.WINDDIR_DEGREE};
+        double[] out = new double[1];
+
+        // Build a pair of rows either side of north by hand
+        HourlySeries s = new HourlySeries(null, hours.subList(0, 2));
+        s.columns[Field.WINDDIR_DEGREE.ordinal()][0] = 350;
+        s.columns[Field.WINDDIR_DEGREE.ordinal()][1] = 30;
+        Interpolator i = new Interpolator(s);
+
+        assertTrue(i.get(f, (t0 + t1) / 2, out));
+        assertEquals(out[0], 10, 0.0001);
+        assertEquals(i.get(Field.WINDDIR_DEGREE, t0 + (t1 - t0) / 8), 355, 0.0001);
+
+        s.columns[Field.WINDDIR_DEGREE.ordinal()][0] = 30;
+        s.columns[Field.WINDDIR_DEGREE.ordinal()][1] = 350;
+        assertEquals(i.get(Field.WINDDIR_DEGREE, t0 + (t1 - t0) * 3 / 4), 0, 0.0001);
+    }
+
+    @Test
+    public void outsideSeries() {
+        double[] out = new double[1];
+        assertTrue(Double.isNaN(interpolator.get(Field.TEMP_C, series.getTime(0) - 1)));
+        assertFalse(interpolator.get(new Field[]{Field.TEMP_C}, series.getTime(series.size() - 1) + 1, out));
+        assertTrue(Double.isNaN(out[0]));
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.stub;
+
+import com.moosemorals.weather.LocationFetcher;
+import com.moosemorals.weather.WeatherFetcher;
+import com.moosemorals.weather.metrics.Histogram;
+import com.moosemorals.weather.reports.FetchResult;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs fetches from several threads for a while and reports client side
+ * throughput and latency. </p>
+ *
+ * Run main() to load a stub server with the default fixtures. Arguments
+ * are threads, seconds, and the stub's per second limit (0 for none), for
+ * example {@code LoadGenerator 8 10 0}.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class LoadGenerator {
+
+    private final Callable<FetchResult> task;
+    private final int threads;
+    private final long duration;
+
+    private LoadGenerator(Builder builder) {
+        this.task = builder.task;
+        this.threads = builder.threads;
+        this.duration = builder.duration;
+    }
+
+    /**
+     * Run the load and wait for it to finish.
+     *
+     * @return Result what happened
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Result run() throws InterruptedException {
+        final Result result = new Result();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long[] deadline = new long[1];
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i += 1) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        while (System.nanoTime() < deadline[0]) {
+                            long started = System.nanoTime();
+                            boolean ok;
+                            try {
+                                ok = task.call().isSuccess();
+                            } catch (Exception ex) {
+                                ok = false;
+                            }
+                            result.latencies.record(System.nanoTime() - started);
+                            if (!ok) {
+                                result.errors.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "load-" + i);
+            t.setDaemon(true);
+            workers.add(t);
+            t.start();
+        }
+
+        long began = System.nanoTime();
+        deadline[0] = began + TimeUnit.MILLISECONDS.toNanos(duration);
+        start.countDown();
+        done.await();
+        result.elapsed = System.nanoTime() - began;
+        return result;
+    }
+
+    /**
+     * What happened during a run.
+     */
+    public static class Result {
+
+        private final Histogram latencies = new Histogram();
+        private final AtomicLong errors = new AtomicLong();
+        private long elapsed;
+
+        /**
+         * Fetches completed, whether they worked or not.
+         *
+         * @return long number of fetches
+         */
+        public long getRequests() {
+            return latencies.getCount();
+        }
+
+        /**
+         * Fetches that threw or returned an error.
+         *
+         * @return long number of errors
+         */
+        public long getErrors() {
+            return errors.get();
+        }
+
+        /**
+         * Fetches completed per second.
+         *
+         * @return double throughput
+         */
+        public double getThroughput() {
+            return elapsed > 0 ? getRequests() * 1e9 / elapsed : 0;
+        }
+
+        /**
+         * Time taken by each fetch.
+         *
+         * @return Histogram of nanoseconds
+         */
+        public Histogram getLatencies() {
+            return latencies;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests (%d errors) in %.1fs, %.1f/s, p50 %.2fms p99 %.2fms p99.9 %.2fms max %.2fms",
+                    getRequests(), getErrors(), elapsed / 1e9, getThroughput(),
+                    latencies.getPercentile(50) / 1e6, latencies.getPercentile(99) / 1e6,
+                    latencies.getPercentile(99.9) / 1e6, latencies.getMax() / 1e6);
+        }
+    }
+
+    /**
+     * Build a LoadGenerator.
+     */
+    public static class Builder {
+
+        private Callable<FetchResult> task;
+        private int threads = 4;
+        private long duration = 10000;
+
+        public Builder() {
+            super();
+        }
+
+        /**
+         * Fetch to run over and over. Required.
+         *
+         * @param task Callable&lt;FetchResult&gt; one fetch
+         * @return this Builder for chaining
+         */
+        public Builder setTask(Callable<FetchResult> task) {
+            this.task = task;
+            return this;
+        }
+
+        /**
+         * Threads fetching at once. Optional, default 4.
+         *
+         * @param threads int number of threads
+         * @return this Builder for chaining
+         */
+        public Builder setThreads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("Need at least one thread");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * How long to run for. Optional, default 10 seconds.
+         *
+         * @param millis long run time in milliseconds
+         * @return this Builder for chaining
+         */
+        public Builder setDuration(long millis) {
+            if (millis <= 0) {
+                throw new IllegalArgumentException("Duration must be positive");
+            }
+            this.duration = millis;
+            return this;
+        }
+
+        public LoadGenerator build() {
+            if (task == null) {
+                throw new NullPointerException("Task not set");
+            }
+            return new LoadGenerator(this);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+        int perSecond = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+
+        final StubApiServer server = new StubApiServer.Builder()
+                .setQuota(perSecond, 0)
+                .setThreads(threads)
+                .build();
+        server.start();
+        try {
+            final WeatherFetcher weather = new WeatherFetcher.Builder()
+                    .setApiKey("load-test")
+                    .setLocation("London")
+                    .setEndpoint(server.getWeatherEndpoint())
+                    .build();
+            final LocationFetcher search = new LocationFetcher.Builder()
+                    .setApiKey("load-test")
+                    .setQuery("London")
+                    .setEndpoint(server.getSearchEndpoint())
+                    .build();
+
+            Result w = new Builder()
+                    .setThreads(threads)
+                    .setDuration(TimeUnit.SECONDS.toMillis(seconds))
+                    .setTask(new Callable<FetchResult>() {
+                        @Override
+                        public FetchResult call() throws Exception {
+                            return weather.fetch();
+                        }
+                    })
+                    .build()
+                    .run();
+            System.out.println("weather: " + w);
+
+            Result s = new Builder()
+                    .setThreads(threads)
+                    .setDuration(TimeUnit.SECONDS.toMillis(seconds))
+                    .setTask(new Callable<FetchResult>() {
+                        @Override
+                        public FetchResult call() throws Exception {
+                            return search.fetch();
+                        }
+                    })
+                    .build()
+                    .run();
+            System.out.println("search: " + s);
+        } finally {
+            server.stop();
+        }
+    }
+}
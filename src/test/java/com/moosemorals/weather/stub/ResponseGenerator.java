@@ -0,0 +1,595 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.stub;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import org.joda.time.LocalDate;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * Makes weather.ashx responses of any size, for stress testing the parser.
+ * </p>
+ *
+ * Output has the same shape as the real API's, in XML or JSON, with as many
+ * days and hours per day as asked for, optional language blocks and
+ * optional unknown tags (which the parser has to skip). Values are random
+ * but plausible, and the same seed always gives the same bytes. </p>
+ *
+ * Output is written as it's generated, so responses much bigger than the
+ * heap can be streamed through the parser.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ResponseGenerator implements Responder {
+
+    public enum Format {
+        XML, JSON
+    }
+
+    private static final String[] COMPASS = {
+        "N", "NNE", "NE", "ENE", "E", "ESE", "SE", "SSE",
+        "S", "SSW", "SW", "WSW", "W", "WNW", "NW", "NNW"
+    };
+
+    private static final int[] CODES = {113, 116, 119, 122, 143, 176, 266, 296, 302, 308, 200, 338};
+    private static final String[] DESCRIPTIONS = {
+        "Sunny", "Partly Cloudy", "Cloudy", "Overcast", "Mist", "Patchy rain nearby", "Light drizzle",
+        "Light rain", "Moderate rain", "Heavy rain", "Thundery outbreaks in nearby", "Heavy snow"
+    };
+
+    private static final DateTimeFormatter DATE = DateTimeFormat.forPattern("yyyy-MM-dd");
+
+    private final Format format;
+    private final int days;
+    private final int hoursPerDay;
+    private final List<String> languages;
+    private final int extraTags;
+    private final long seed;
+    private final LocalDate start;
+    private final String query;
+
+    private ResponseGenerator(Builder builder) {
+        this.format = builder.format;
+        this.days = builder.days;
+        this.hoursPerDay = builder.hoursPerDay;
+        this.languages = Collections.unmodifiableList(new ArrayList<>(builder.languages));
+        this.extraTags = builder.extraTags;
+        this.seed = builder.seed;
+        this.start = builder.start;
+        this.query = builder.query;
+    }
+
+    /**
+     * Write a response.
+     *
+     * @param out OutputStream to write to, not closed
+     * @throws IOException if the stream can't be written
+     */
+    public void write(OutputStream out) throws IOException {
+        write(out, query);
+    }
+
+    /**
+     * Generate a response in memory.
+     *
+     * @return byte[] UTF-8 response
+     */
+    public byte[] toByteArray() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            write(out);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Can't happen", ex);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Size of a response, without keeping it.
+     *
+     * @return long size in bytes
+     * @throws IOException never, in practice
+     */
+    public long size() throws IOException {
+        CountingStream counter = new CountingStream();
+        write(counter);
+        return counter.count;
+    }
+
+    /**
+     * Answer stub server requests, using the query from the request.
+     *
+     * @param params Map&lt;String, String&gt; request parameters
+     * @return byte[] response
+     * @throws IOException if the response can't be built
+     */
+    @Override
+    public byte[] respond(Map<String, String> params) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String q = params.get("q");
+        write(out, q != null ? q : query);
+        return out.toByteArray();
+    }
+
+    private void write(OutputStream out, String q) throws IOException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        Emitter e = format == Format.XML ? new XmlEmitter(w) : new JsonEmitter(w);
+        Random random = new Random(seed);
+
+        e.begin();
+
+        e.startList("request");
+        e.startItem("request");
+        e.value("type", "City");
+        e.value("query", q);
+        e.endItem("request");
+        e.endList("request");
+
+        e.startList("time_zone");
+        e.startItem("time_zone");
+        e.value("localtime", DATE.print(start) + " 10:08");
+        e.value("utcOffset", "1.0");
+        e.endItem("time_zone");
+        e.endList("time_zone");
+
+        int temp = 5 + random.nextInt(20);
+
+        e.startList("current_condition");
+        e.startItem("current_condition");
+        e.value("observation_time", "09:08 AM");
+        weather(e, random, temp, "temp_C", "temp_F");
+        e.value("pressure", Integer.toString(990 + random.nextInt(40)));
+        e.value("cloudcover", Integer.toString(random.nextInt(101)));
+        e.value("FeelsLikeC", Integer.toString(temp - 2));
+        e.value("FeelsLikeF", Integer.toString(toF(temp - 2)));
+        extras(e, random);
+        e.endItem("current_condition");
+        e.endList("current_condition");
+
+        int step = 24 / hoursPerDay;
+
+        e.startList("weather");
+        for (int d = 0; d < days; d += 1) {
+            LocalDate date = start.plusDays(d);
+            int max = temp + 3 + random.nextInt(5);
+            int min = temp - 3 - random.nextInt(5);
+
+            e.startItem("weather");
+            e.value("date", DATE.print(date));
+            e.startList("astronomy");
+            e.startItem("astronomy");
+            e.value("sunrise", String.format(Locale.ROOT, "05:%02d AM", random.nextInt(60)));
+            e.value("sunset", String.format(Locale.ROOT, "08:%02d PM", random.nextInt(60)));
+            e.value("moonrise", String.format(Locale.ROOT, "%02d:%02d PM", 1 + random.nextInt(11), random.nextInt(60)));
+            e.value("moonset", String.format(Locale.ROOT, "%02d:%02d AM", 1 + random.nextInt(11), random.nextInt(60)));
+            e.endItem("astronomy");
+            e.endList("astronomy");
+            e.value("maxtempC", Integer.toString(max));
+            e.value("maxtempF", Integer.toString(toF(max)));
+            e.value("mintempC", Integer.toString(min));
+            e.value("mintempF", Integer.toString(toF(min)));
+            e.value("uvIndex", Integer.toString(1 + random.nextInt(8)));
+
+            e.startList("hourly");
+            for (int h = 0; h < 24; h += step) {
+                temp = Math.max(min, Math.min(max, temp + random.nextInt(3) - 1));
+                String time = Integer.toString(h * 100);
+
+                e.startItem("hourly");
+                e.value("time", time);
+                e.value("UTCdate", DATE.print(date));
+                e.value("UTCtime", time);
+                weather(e, random, temp, "tempC", "tempF");
+                e.value("pressure", Integer.toString(990 + random.nextInt(40)));
+                e.value("cloudcover", Integer.toString(random.nextInt(101)));
+                e.value("HeatIndexC", Integer.toString(temp));
+                e.value("HeatIndexF", Integer.toString(toF(temp)));
+                e.value("DewPointC", Integer.toString(temp - 4));
+                e.value("DewPointF", Integer.toString(toF(temp - 4)));
+                e.value("WindChillC", Integer.toString(temp - 2));
+                e.value("WindChillF", Integer.toString(toF(temp - 2)));
+                int gust = 5 + random.nextInt(40);
+                e.value("WindGustMiles", Integer.toString(gust * 5 / 8));
+                e.value("WindGustKmph", Integer.toString(gust));
+                e.value("FeelsLikeC", Integer.toString(temp - 2));
+                e.value("FeelsLikeF", Integer.toString(toF(temp - 2)));
+                for (String chance : new String[]{"chanceofrain", "chanceofremdry", "chanceofwindy", "chanceofovercast", "chanceofsunshine",
+                    "chanceoffrost", "chanceofhightemp", "chanceoffog", "chanceofsnow", "chanceofthunder"}) {
+                    e.value(chance, Integer.toString(random.nextInt(101)));
+                }
+                extras(e, random);
+                e.endItem("hourly");
+            }
+            e.endList("hourly");
+            e.endItem("weather");
+        }
+        e.endList("weather");
+
+        e.end();
+        w.flush();
+    }
+
+    private void weather(Emitter e, Random random, int temp, String tempC, String tempF) throws IOException {
+        int kind = random.nextInt(CODES.length);
+        int wind = random.nextInt(50);
+        int dir = random.nextInt(360);
+
+        e.value(tempC, Integer.toString(temp));
+        e.value(tempF, Integer.toString(toF(temp)));
+        e.value("windspeedMiles", Integer.toString(wind * 5 / 8));
+        e.value("windspeedKmph", Integer.toString(wind));
+        e.value("winddirDegree", Integer.toString(dir));
+        e.value("winddir16Point", COMPASS[(int) Math.round(dir / 22.5) % 16]);
+        e.value("weatherCode", Integer.toString(CODES[kind]));
+        e.wrapped("weatherIconUrl", "http://cdn.worldweatheronline.net/images/wsymbols01_png_64/wsymbol_" + CODES[kind] + ".png");
+        e.wrapped("weatherDesc", DESCRIPTIONS[kind]);
+        for (String lang : languages) {
+            e.wrapped("lang_" + lang, DESCRIPTIONS[kind] + " (" + lang + ")");
+        }
+        e.value("precipMM", String.format(Locale.ROOT, "%.1f", random.nextInt(50) / 10.0));
+        e.value("humidity", Integer.toString(30 + random.nextInt(70)));
+        e.value("visibility", Integer.toString(random.nextInt(11)));
+    }
+
+    private void extras(Emitter e, Random random) throws IOException {
+        for (int i = 0; i < extraTags; i += 1) {
+            e.value("extra" + i, Long.toHexString(random.nextLong()));
+        }
+    }
+
+    private static int toF(int c) {
+        return (int) Math.round(c * 9 / 5.0 + 32);
+    }
+
+    /**
+     * Writes structure as XML or JSON. Lists and items only mean something
+     * in JSON, where repeated elements are arrays.
+     */
+    private interface Emitter {
+
+        void begin() throws IOException;
+
+        void end() throws IOException;
+
+        void startList(String name) throws IOException;
+
+        void endList(String name) throws IOException;
+
+        void startItem(String name) throws IOException;
+
+        void endItem(String name) throws IOException;
+
+        void value(String name, String value) throws IOException;
+
+        void wrapped(String name, String value) throws IOException;
+    }
+
+    private static class XmlEmitter implements Emitter {
+
+        private final Writer w;
+
+        XmlEmitter(Writer w) {
+            this.w = w;
+        }
+
+        @Override
+        public void begin() throws IOException {
+            w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<data>\n");
+        }
+
+        @Override
+        public void end() throws IOException {
+            w.write("</data>\n");
+        }
+
+        @Override
+        public void startList(String name) {
+        }
+
+        @Override
+        public void endList(String name) {
+        }
+
+        @Override
+        public void startItem(String name) throws IOException {
+            w.write('<');
+            w.write(name);
+            w.write(">\n");
+        }
+
+        @Override
+        public void endItem(String name) throws IOException {
+            w.write("</");
+            w.write(name);
+            w.write(">\n");
+        }
+
+        @Override
+        public void value(String name, String value) throws IOException {
+            w.write('<');
+            w.write(name);
+            w.write('>');
+            w.write(escape(value));
+            w.write("</");
+            w.write(name);
+            w.write(">\n");
+        }
+
+        @Override
+        public void wrapped(String name, String value) throws IOException {
+            w.write('<');
+            w.write(name);
+            w.write("><![CDATA[");
+            w.write(value);
+            w.write("]]></");
+            w.write(name);
+            w.write(">\n");
+        }
+
+        private static String escape(String raw) {
+            return raw.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+        }
+    }
+
+    private static class JsonEmitter implements Emitter {
+
+        private final Writer w;
+        private boolean first = true;
+
+        JsonEmitter(Writer w) {
+            this.w = w;
+        }
+
+        @Override
+        public void begin() throws IOException {
+            w.write("{\"data\":{");
+            first = true;
+        }
+
+        @Override
+        public void end() throws IOException {
+            w.write("}}\n");
+        }
+
+        @Override
+        public void startList(String name) throws IOException {
+            name(name);
+            w.write('[');
+            first = true;
+        }
+
+        @Override
+        public void endList(String name) throws IOException {
+            w.write(']');
+            first = false;
+        }
+
+        @Override
+        public void startItem(String name) throws IOException {
+            if (!first) {
+                w.write(',');
+            }
+            w.write('{');
+            first = true;
+        }
+
+        @Override
+        public void endItem(String name) throws IOException {
+            w.write('}');
+            first = false;
+        }
+
+        @Override
+        public void value(String name, String value) throws IOException {
+            name(name);
+            string(value);
+            first = false;
+        }
+
+        @Override
+        public void wrapped(String name, String value) throws IOException {
+            name(name);
+            w.write("[{\"value\":");
+            string(value);
+            w.write("}]");
+            first = false;
+        }
+
+        private void name(String name) throws IOException {
+            if (!first) {
+                w.write(',');
+            }
+            string(name);
+            w.write(':');
+        }
+
+        private void string(String value) throws IOException {
+            w.write('"');
+            for (int i = 0; i < value.length(); i += 1) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    w.write('\\');
+                    w.write(c);
+                } else if (c < 0x20) {
+                    w.write(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                } else {
+                    w.write(c);
+                }
+            }
+            w.write('"');
+        }
+    }
+
+    private static class CountingStream extends OutputStream {
+
+        private long count = 0;
+
+        @Override
+        public void write(int b) {
+            count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    /**
+     * Build a ResponseGenerator.
+     */
+    public static class Builder {
+
+        private Format format = Format.XML;
+        private int days = 3;
+        private int hoursPerDay = 8;
+        private final List<String> languages = new ArrayList<>();
+        private int extraTags = 0;
+        private long seed = 0;
+        private LocalDate start = new LocalDate(2015, 7, 26);
+        private String query = "London, United Kingdom";
+
+        public Builder() {
+            super();
+        }
+
+        public Builder setFormat(Format format) {
+            if (format == null) {
+                throw new IllegalArgumentException("Format must not be null");
+            }
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * Days of forecast. Optional, default 3. Unlike the real API there's
+         * no upper limit, which is how to get very big responses.
+         *
+         * @param days int number of days
+         * @return this Builder for chaining
+         */
+        public Builder setDays(int days) {
+            if (days < 0) {
+                throw new IllegalArgumentException("Days must not be negative");
+            }
+            this.days = days;
+            return this;
+        }
+
+        /**
+         * Hourly forecasts per day, as with the API's tp parameter.
+         * Optional, default 8. Must divide 24.
+         *
+         * @param hoursPerDay int forecasts per day
+         * @return this Builder for chaining
+         */
+        public Builder setHoursPerDay(int hoursPerDay) {
+            if (hoursPerDay < 1 || 24 % hoursPerDay != 0) {
+                throw new IllegalArgumentException("Hours per day must divide 24");
+            }
+            this.hoursPerDay = hoursPerDay;
+            return this;
+        }
+
+        /**
+         * Add lang_xx blocks to each description. Optional, default none.
+         *
+         * @param languages String... ISO language codes
+         * @return this Builder for chaining
+         */
+        public Builder addLanguages(String... languages) {
+            this.languages.addAll(Arrays.asList(languages));
+            return this;
+        }
+
+        /**
+         * Unknown tags to add to each current condition and hour.
+         * Optional, default none.
+         *
+         * @param extraTags int number of tags
+         * @return this Builder for chaining
+         */
+        public Builder setExtraTags(int extraTags) {
+            if (extraTags < 0) {
+                throw new IllegalArgumentException("Extra tags must not be negative");
+            }
+            this.extraTags = extraTags;
+            return this;
+        }
+
+        public Builder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public Builder setStart(LocalDate start) {
+            if (start == null) {
+                throw new IllegalArgumentException("Start must not be null");
+            }
+            this.start = start;
+            return this;
+        }
+
+        public Builder setQuery(String query) {
+            this.query = query;
+            return this;
+        }
+
+        /**
+         * Set the number of days so the response comes out at roughly the
+         * given size, keeping everything else as already set.
+         *
+         * @param bytes long size wanted
+         * @return this Builder for chaining
+         * @throws IOException never, in practice
+         */
+        public Builder setTargetSize(long bytes) throws IOException {
+            int saved = days;
+            days = 0;
+            long base = new ResponseGenerator(this).size();
+            days = 1;
+            long perDay = new ResponseGenerator(this).size() - base;
+            days = saved;
+            return setDays((int) Math.max(1, Math.min(Integer.MAX_VALUE, (bytes - base + perDay / 2) / perDay)));
+        }
+
+        public ResponseGenerator build() {
+            return new ResponseGenerator(this);
+        }
+    }
+}
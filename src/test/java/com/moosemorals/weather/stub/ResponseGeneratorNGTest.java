@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.stub;
+
+import com.moosemorals.weather.reports.Report;
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.xml.WeatherParser;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ResponseGeneratorNGTest {
+
+    @Test
+    public void sameSeedSameBytes() {
+        ResponseGenerator.Builder builder = new ResponseGenerator.Builder()
+                .setDays(2)
+                .setSeed(42);
+
+        byte[] first = builder.build().toByteArray();
+        byte[] second = builder.build().toByteArray();
+        byte[] other = builder.setSeed(43).build().toByteArray();
+
+        assertTrue(Arrays.equals(first, second));
+        assertFalse(Arrays.equals(first, other));
+    }
+
+    @Test
+    public void parses() throws Exception {
+        byte[] body = new ResponseGenerator.Builder()
+                .setDays(14)
+                .setHoursPerDay(24)
+                .addLanguages("uk")
+                .setExtraTags(3)
+                .build()
+                .toByteArray();
+
+        Report raw = new WeatherParser().parse(new ByteArrayInputStream(body));
+
+        assertTrue(raw instanceof WeatherReport);
+        WeatherReport report = (WeatherReport) raw;
+        assertEquals(report.getDailyForecasts().size(), 14);
+        assertEquals(report.getHourlyForecasts().size(), 14 * 24);
+        assertEquals(report.getLanguage(), "uk");
+        assertEquals(report.getQuery().getName(), "London, United Kingdom");
+    }
+
+    @Test
+    public void targetSize() throws Exception {
+        long target = 1 << 20;
+        ResponseGenerator generator = new ResponseGenerator.Builder()
+                .setHoursPerDay(24)
+                .setTargetSize(target)
+                .build();
+
+        long size = generator.size();
+        assertTrue(Math.abs(size - target) < target / 20, "size " + size);
+        assertEquals(generator.toByteArray().length, size);
+    }
+
+    @Test
+    public void json() {
+        String body = new String(new ResponseGenerator.Builder()
+                .setFormat(ResponseGenerator.Format.JSON)
+                .setDays(1)
+                .setHoursPerDay(2)
+                .addLanguages("fr")
+                .build()
+                .toByteArray(), StandardCharsets.UTF_8);
+
+        assertTrue(body.startsWith("{\"data\":{\"request\":[{\"type\":\"City\",\"query\":\"London, United Kingdom\"}]"), body);
+        assertTrue(body.contains("\"weatherDesc\":[{\"value\":"));
+        assertTrue(body.contains("\"lang_fr\":[{\"value\":"));
+        assertTrue(body.contains("\"hourly\":[{\"time\":\"0\""));
+        assertTrue(body.contains("},{\"time\":\"1200\""));
+
+        int depth = 0;
+        for (char c : body.toCharArray()) {
+            if (c == '{' || c == '[') {
+                depth += 1;
+            } else if (c == '}' || c == ']') {
+                depth -= 1;
+                assertTrue(depth >= 0);
+            }
+        }
+        assertEquals(depth, 0);
+    }
+}
@@ -0,0 +1,499 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.stub;
+
+import com.moosemorals.weather.Util;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.joda.time.DateTimeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stands in for the World Weather Online API, so the fetchers can be tested
+ * (and loaded) without a key or a network. </p>
+ *
+ * Serves weather.ashx and search.ashx on localhost from a {@link Responder},
+ * which by default returns the test fixtures. Quota is counted the way the
+ * real API does, across all keys: requests over the per second or per day
+ * limit get a 429, and every response carries the
+ * x-apiaxleproxy-qps-left and x-apiaxleproxy-qpd-left headers. </p>
+ *
+ * Latency, server errors and slow bodies can be injected. Random choices
+ * come from a seeded generator so runs can be repeated.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class StubApiServer {
+
+    private static final Logger log = LoggerFactory.getLogger(StubApiServer.class);
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final int CHUNK = 1024;
+
+    private final Responder weather;
+    private final Responder search;
+    private final int perSecond;
+    private final int perDay;
+    private final long minLatency;
+    private final long maxLatency;
+    private final double errorRate;
+    private final long chunkDelay;
+    private final int threads;
+    private final Random random;
+
+    private final Object quotaLock = new Object();
+    private long second = -1;
+    private int usedThisSecond;
+    private long day = -1;
+    private int usedToday;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private StubApiServer(Builder builder) {
+        this.weather = builder.weather;
+        this.search = builder.search;
+        this.perSecond = builder.perSecond;
+        this.perDay = builder.perDay;
+        this.minLatency = builder.minLatency;
+        this.maxLatency = builder.maxLatency;
+        this.errorRate = builder.errorRate;
+        this.chunkDelay = builder.chunkDelay;
+        this.threads = builder.threads;
+        this.random = new Random(builder.seed);
+    }
+
+    /**
+     * Start listening on a free port on the loopback interface.
+     *
+     * @throws IOException if the server can't be started
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        // Otherwise Nagle adds ~40ms to every response, which swamps any
+        // latency being measured. Read once, when the first server starts.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/weather.ashx", new Handler(weather));
+        server.createContext("/search.ashx", new Handler(search));
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.start();
+        log.debug("Stub API listening on {}", server.getAddress());
+    }
+
+    /**
+     * Stop listening, and wait for requests in progress to finish.
+     */
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        server.stop(0);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        server = null;
+        executor = null;
+    }
+
+    /**
+     * URL to pass to {@link com.moosemorals.weather.WeatherFetcher.Builder#setEndpoint(String)}.
+     *
+     * @return String weather endpoint
+     */
+    public String getWeatherEndpoint() {
+        return getBase() + "/weather.ashx";
+    }
+
+    /**
+     * URL to pass to {@link com.moosemorals.weather.LocationFetcher.Builder#setEndpoint(String)}.
+     *
+     * @return String search endpoint
+     */
+    public String getSearchEndpoint() {
+        return getBase() + "/search.ashx";
+    }
+
+    /**
+     * Requests received, including rejected ones.
+     *
+     * @return long number of requests
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Requests turned away for being over quota.
+     *
+     * @return long number of rejected requests
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Requests given an injected server error.
+     *
+     * @return long number of failed requests
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    private synchronized String getBase() {
+        if (server == null) {
+            throw new IllegalStateException("Server not started");
+        }
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getAddress().getHostAddress() + ":" + address.getPort();
+    }
+
+    /**
+     * Count a request against the quota.
+     *
+     * @return int[] requests left this second and today, or null if over
+     */
+    private int[] takeQuota() {
+        long now = DateTimeUtils.currentTimeMillis();
+        synchronized (quotaLock) {
+            if (now / 1000 != second) {
+                second = now / 1000;
+                usedThisSecond = 0;
+            }
+            if (now / DAY != day) {
+                day = now / DAY;
+                usedToday = 0;
+            }
+            if ((perSecond > 0 && usedThisSecond >= perSecond) || (perDay > 0 && usedToday >= perDay)) {
+                return null;
+            }
+            usedThisSecond += 1;
+            usedToday += 1;
+            return new int[]{
+                perSecond > 0 ? perSecond - usedThisSecond : -1,
+                perDay > 0 ? perDay - usedToday : -1
+            };
+        }
+    }
+
+    private long nextLatency() {
+        if (maxLatency <= minLatency) {
+            return minLatency;
+        }
+        synchronized (random) {
+            return minLatency + (long) (random.nextDouble() * (maxLatency - minLatency));
+        }
+    }
+
+    private boolean nextFailure() {
+        if (errorRate <= 0) {
+            return false;
+        }
+        synchronized (random) {
+            return random.nextDouble() < errorRate;
+        }
+    }
+
+    static Map<String, String> parseQuery(String raw) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        if (raw == null || raw.isEmpty()) {
+            return params;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) {
+                params.put(URLDecoder.decode(pair, "UTF-8"), "");
+            } else {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static byte[] error(String type, String message) {
+        return ("<?xml version=\"1.0\" encoding=\"UTF-8\"?><error><type>" + type + "</type><message>" + message + "</message></error>")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private class Handler implements HttpHandler {
+
+        private final Responder responder;
+
+        Handler(Responder responder) {
+            this.responder = responder;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            try {
+                long latency = nextLatency();
+                if (latency > 0) {
+                    Thread.sleep(latency);
+                }
+
+                int[] left = takeQuota();
+                if (left == null) {
+                    rejected.incrementAndGet();
+                    send(exchange, 429, error("QuotaError", "Queries exceeded"), 0);
+                    return;
+                }
+                exchange.getResponseHeaders().add("x-apiaxleproxy-qps-left", Integer.toString(left[0]));
+                exchange.getResponseHeaders().add("x-apiaxleproxy-qpd-left", Integer.toString(left[1]));
+
+                if (nextFailure()) {
+                    failed.incrementAndGet();
+                    send(exchange, 500, error("ServerError", "Injected failure"), 0);
+                    return;
+                }
+
+                Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+                if (!params.containsKey("key") || params.get("key").isEmpty()) {
+                    send(exchange, 200, error("KeyError", "No api_key specified."), 0);
+                    return;
+                }
+                send(exchange, 200, responder.respond(params), chunkDelay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void send(HttpExchange exchange, int status, byte[] body, long delay) throws IOException, InterruptedException {
+            exchange.getResponseHeaders().add("Content-Type", "text/xml; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            OutputStream out = exchange.getResponseBody();
+            if (delay <= 0) {
+                out.write(body);
+            } else {
+                for (int i = 0; i < body.length; i += CHUNK) {
+                    out.write(body, i, Math.min(CHUNK, body.length - i));
+                    out.flush();
+                    Thread.sleep(delay);
+                }
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * Responder that always returns the same test resource.
+     *
+     * @param name String name of a resource in src/test/resources
+     * @return Responder for the resource
+     * @throws IOException if the resource can't be read
+     */
+    public static Responder fixture(String name) throws IOException {
+        InputStream in = StubApiServer.class.getResourceAsStream("/" + name);
+        if (in == null) {
+            throw new FileNotFoundException("Missing fixture " + name);
+        }
+        final byte[] body;
+        try {
+            body = Util.readFully(in);
+        } finally {
+            in.close();
+        }
+        return new Responder() {
+            @Override
+            public byte[] respond(Map<String, String> params) {
+                return body;
+            }
+        };
+    }
+
+    /**
+     * Build a StubApiServer.
+     */
+    public static class Builder {
+
+        private Responder weather;
+        private Responder search;
+        private int perSecond = 5;
+        private int perDay = 250;
+        private long minLatency = 0;
+        private long maxLatency = 0;
+        private double errorRate = 0;
+        private long chunkDelay = 0;
+        private int threads = 16;
+        private long seed = 0;
+
+        public Builder() {
+            super();
+        }
+
+        /**
+         * Where weather responses come from. Optional, default the
+         * sample-from-fetcher.xml fixture.
+         *
+         * @param weather Responder for weather.ashx
+         * @return this Builder for chaining
+         */
+        public Builder setWeather(Responder weather) {
+            this.weather = weather;
+            return this;
+        }
+
+        /**
+         * Where search responses come from. Optional, default the
+         * search-result.xml fixture.
+         *
+         * @param search Responder for search.ashx
+         * @return this Builder for chaining
+         */
+        public Builder setSearch(Responder search) {
+            this.search = search;
+            return this;
+        }
+
+        /**
+         * Quota to enforce. Optional, default the free API's 5 per second
+         * and 250 per day. Zero means no limit.
+         *
+         * @param perSecond int requests allowed each second
+         * @param perDay int requests allowed each day
+         * @return this Builder for chaining
+         */
+        public Builder setQuota(int perSecond, int perDay) {
+            if (perSecond < 0 || perDay < 0) {
+                throw new IllegalArgumentException("Quota must not be negative");
+            }
+            this.perSecond = perSecond;
+            this.perDay = perDay;
+            return this;
+        }
+
+        /**
+         * Delay before each response, picked evenly between min and max.
+         * Optional, default none.
+         *
+         * @param min long shortest delay, in milliseconds
+         * @param max long longest delay, in milliseconds
+         * @return this Builder for chaining
+         */
+        public Builder setLatency(long min, long max) {
+            if (min < 0 || max < min) {
+                throw new IllegalArgumentException("Latency must be 0 <= min <= max");
+            }
+            this.minLatency = min;
+            this.maxLatency = max;
+            return this;
+        }
+
+        /**
+         * Fraction of requests that get a 500. Optional, default none.
+         *
+         * @param errorRate double between 0 and 1
+         * @return this Builder for chaining
+         */
+        public Builder setErrorRate(double errorRate) {
+            if (errorRate < 0 || errorRate > 1) {
+                throw new IllegalArgumentException("Error rate must be between 0 and 1");
+            }
+            this.errorRate = errorRate;
+            return this;
+        }
+
+        /**
+         * Pause after each kilobyte of body, to emulate a slow link.
+         * Optional, default none.
+         *
+         * @param millis long pause in milliseconds
+         * @return this Builder for chaining
+         */
+        public Builder setSlowBody(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("Delay must not be negative");
+            }
+            this.chunkDelay = millis;
+            return this;
+        }
+
+        /**
+         * Threads handling requests. Optional, default 16.
+         *
+         * @param threads int number of threads
+         * @return this Builder for chaining
+         */
+        public Builder setThreads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("Need at least one thread");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Seed for latency and error choices. Optional, default 0.
+         *
+         * @param seed long seed
+         * @return this Builder for chaining
+         */
+        public Builder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public StubApiServer build() throws IOException {
+            if (weather == null) {
+                weather = fixture("sample-from-fetcher.xml");
+            }
+            if (search == null) {
+                search = fixture("search-result.xml");
+            }
+            return new StubApiServer(this);
+        }
+    }
+}
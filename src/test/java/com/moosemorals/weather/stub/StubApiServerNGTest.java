@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.stub;
+
+import com.moosemorals.weather.LocationFetcher;
+import com.moosemorals.weather.WeatherFetcher;
+import com.moosemorals.weather.reports.FetchResult;
+import java.util.concurrent.Callable;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class StubApiServerNGTest {
+
+    private static final long NOW = new DateTime(2015, 7, 25, 12, 0, DateTimeZone.UTC).getMillis();
+
+    private StubApiServer server;
+
+    @BeforeMethod
+    public void setUp() {
+        DateTimeUtils.setCurrentMillisFixed(NOW);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    private WeatherFetcher weather() {
+        return new WeatherFetcher.Builder()
+                .setApiKey("stub")
+                .setLocation("London")
+                .setEndpoint(server.getWeatherEndpoint())
+                .build();
+    }
+
+    @Test
+    public void servesWeatherWithQuotaHeaders() throws Exception {
+        server = new StubApiServer.Builder().build();
+        server.start();
+
+        FetchResult result = weather().fetch();
+
+        assertTrue(result.isSuccess());
+        assertNotNull(result.getWeather());
+        assertEquals(result.getRequestsPerSecond(), 4);
+        assertEquals(result.getRequestsPerDay(), 249);
+    }
+
+    @Test
+    public void servesSearch() throws Exception {
+        server = new StubApiServer.Builder().build();
+        server.start();
+
+        FetchResult result = new LocationFetcher.Builder()
+                .setApiKey("stub")
+                .setQuery("London")
+                .setEndpoint(server.getSearchEndpoint())
+                .build()
+                .fetch();
+
+        assertTrue(result.isSuccess());
+        assertFalse(result.getLocation().getLocations().isEmpty());
+    }
+
+    @Test
+    public void enforcesPerSecondLimit() throws Exception {
+        server = new StubApiServer.Builder().build();
+        server.start();
+
+        WeatherFetcher fetcher = weather();
+        for (int i = 0; i < 5; i += 1) {
+            assertTrue(fetcher.fetch().isSuccess());
+        }
+        assertFalse(fetcher.fetch().isSuccess());
+        assertEquals(server.getRejectedCount(), 1);
+
+        DateTimeUtils.setCurrentMillisFixed(NOW + 1000);
+        FetchResult result = fetcher.fetch();
+        assertTrue(result.isSuccess());
+        assertEquals(result.getRequestsPerDay(), 244);
+    }
+
+    @Test
+    public void injectsErrors() throws Exception {
+        server = new StubApiServer.Builder()
+                .setErrorRate(1)
+                .build();
+        server.start();
+
+        assertFalse(weather().fetch().isSuccess());
+        assertEquals(server.getFailedCount(), 1);
+    }
+
+    @Test
+    public void slowBodiesStillParse() throws Exception {
+        server = new StubApiServer.Builder()
+                .setSlowBody(1)
+                .setLatency(5, 10)
+                .build();
+        server.start();
+
+        assertTrue(weather().fetch().isSuccess());
+    }
+
+    @Test
+    public void loadGenerator() throws Exception {
+        server = new StubApiServer.Builder()
+                .setQuota(0, 0)
+                .build();
+        server.start();
+
+        final WeatherFetcher fetcher = weather();
+        LoadGenerator.Result result = new LoadGenerator.Builder()
+                .setThreads(2)
+                .setDuration(200)
+                .setTask(new Callable<FetchResult>() {
+                    @Override
+                    public FetchResult call() throws Exception {
+                        return fetcher.fetch();
+                    }
+                })
+                .build()
+                .run();
+
+        assertTrue(result.getRequests() > 0);
+        assertEquals(result.getErrors(), 0);
+        assertEquals(server.getRequestCount(), result.getRequests());
+        assertTrue(result.getLatencies().getPercentile(99) > 0);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.transport;
+
+import com.moosemorals.weather.LocationFetcher;
+import com.moosemorals.weather.WeatherFetcher;
+import com.moosemorals.weather.reports.FetchResult;
+import com.moosemorals.weather.stub.StubApiServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ReplayTransportNGTest {
+
+    private StubApiServer server;
+    private File file;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        file = File.createTempFile("replay", ".rec");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+        file.delete();
+    }
+
+    private WeatherFetcher weather(String location, String endpoint, Transport transport) {
+        return new WeatherFetcher.Builder()
+                .setApiKey("secret")
+                .setLocation(location)
+                .setEndpoint(endpoint)
+                .setTransport(transport)
+                .build();
+    }
+
+    private void record(StubApiServer.Builder stub, String... locations) throws Exception {
+        server = stub.build();
+        server.start();
+        try (RecordingTransport recorder = new RecordingTransport.Builder().setFile(file).build()) {
+            for (String location : locations) {
+                assertTrue(weather(location, server.getWeatherEndpoint(), recorder).fetch().isSuccess());
+            }
+            FetchResult search = new LocationFetcher.Builder()
+                    .setApiKey("secret")
+                    .setQuery("Leeds")
+                    .setEndpoint(server.getSearchEndpoint())
+                    .setTransport(recorder)
+                    .build()
+                    .fetch();
+            assertTrue(search.isSuccess());
+            assertEquals(recorder.getCount(), locations.length + 1);
+        }
+        server.stop();
+        server = null;
+    }
+
+    @Test
+    public void replaysWithoutNetwork() throws Exception {
+        record(new StubApiServer.Builder().setQuota(0, 0), "London", "Leeds");
+
+        ReplayTransport replay = new ReplayTransport.Builder().setFile(file).build();
+        assertEquals(replay.getExchanges().size(), 3);
+        assertEquals(replay.getExchanges().get(0).getParams().get("q"), "London");
+        assertFalse(replay.getExchanges().get(0).getParams().containsKey("key"));
+
+        // Different key and server, same request
+        FetchResult result = new WeatherFetcher.Builder()
+                .setApiKey("other")
+                .setLocation("Leeds")
+                .setEndpoint("http://replay.invalid/free/v2/weather.ashx")
+                .setTransport(replay)
+                .build()
+                .fetch();
+        assertTrue(result.isSuccess());
+        assertEquals(result.getWeather().getHourlyForecasts().size(), 24);
+
+        FetchResult search = new LocationFetcher.Builder()
+                .setApiKey("other")
+                .setQuery("Leeds")
+                .setEndpoint("http://replay.invalid/search.ashx")
+                .setTransport(replay)
+                .build()
+                .fetch();
+        assertTrue(search.isSuccess());
+        assertEquals(replay.getMisses(), 0);
+    }
+
+    @Test
+    public void keepsQuotaHeaders() throws Exception {
+        record(new StubApiServer.Builder().setQuota(5, 250), "London");
+
+        FetchResult result = weather("London", "http://replay.invalid/weather.ashx",
+                new ReplayTransport.Builder().setFile(file).build()).fetch();
+        assertEquals(result.getRequestsPerDay(), 249);
+    }
+
+    @Test
+    public void missThrows() throws Exception {
+        record(new StubApiServer.Builder().setQuota(0, 0), "London");
+
+        ReplayTransport replay = new ReplayTransport.Builder().setFile(file).build();
+        try {
+            weather("Paris", "http://replay.invalid/weather.ashx", replay).fetch();
+            throw new AssertionError("Expected IOException");
+        } catch (IOException ex) {
+            // Expected
+        }
+        assertEquals(replay.getMisses(), 1);
+    }
+
+    @Test
+    public void originalSpeedKeepsLatency() throws Exception {
+        record(new StubApiServer.Builder().setQuota(0, 0).setLatency(150, 150), "London");
+
+        WeatherFetcher original = weather("London", "http://replay.invalid/weather.ashx",
+                new ReplayTransport.Builder().setFile(file).setSpeed(ReplayTransport.Speed.ORIGINAL).build());
+        long started = System.nanoTime();
+        original.fetch();
+        assertTrue(System.nanoTime() - started >= 150 * 1000000L);
+
+        WeatherFetcher maximum = weather("London", "http://replay.invalid/weather.ashx",
+                new ReplayTransport.Builder().setFile(file).build());
+        maximum.fetch();
+        started = System.nanoTime();
+        maximum.fetch();
+        assertTrue(System.nanoTime() - started < 150 * 1000000L);
+    }
+
+    @Test
+    public void dropsTornRecord() throws Exception {
+        record(new StubApiServer.Builder().setQuota(0, 0), "London", "Leeds");
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.setLength(f.length() - 10);
+        }
+        assertEquals(new ReplayTransport.Builder().setFile(file).build().getExchanges().size(), 2);
+    }
+}
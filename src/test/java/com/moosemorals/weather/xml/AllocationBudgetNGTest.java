@@ -0,0 +1,203 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.weather.xml;
+
+import com.moosemorals.weather.Util;
+import com.moosemorals.weather.reports.LocationReport;
+import com.moosemorals.weather.reports.Report;
+import com.moosemorals.weather.reports.WeatherReport;
+import com.moosemorals.weather.stub.ResponseGenerator;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static org.testng.Assert.assertTrue;
+import org.testng.SkipException;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that parsing doesn't start allocating more than it used to. </p>
+ *
+ * Budgets live in allocation-budgets.properties, per fixture, as bytes per
+ * report and bytes per hourly forecast (or per location for searches). A
+ * parse fails if it goes over budget by more than the tolerance. Run with
+ * -Dallocation.record=true to log measured values in the same format, for
+ * updating the budgets after a deliberate change. </p>
+ *
+ * Needs a JVM that can count allocation per thread (HotSpot and its
+ * relatives), and skips otherwise.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class AllocationBudgetNGTest {
+
+    private final Logger log = LoggerFactory.getLogger(AllocationBudgetNGTest.class);
+
+    private static final int WARMUP = 50;
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 20;
+
+    private static final String GENERATED = "generated-14x24";
+
+    private com.sun.management.ThreadMXBean threads;
+    private Properties budgets;
+    private double tolerance;
+    private boolean record;
+
+    @BeforeClass
+    public void setUpClass() throws IOException {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threads = null;
+            return;
+        }
+        threads = (com.sun.management.ThreadMXBean) bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        budgets = new Properties();
+        try (InputStream in = getClass().getResourceAsStream("/allocation-budgets.properties")) {
+            if (in == null) {
+                throw new FileNotFoundException("Missing allocation-budgets.properties");
+            }
+            budgets.load(in);
+        }
+        tolerance = Double.parseDouble(System.getProperty("allocation.tolerance", budgets.getProperty("tolerance", "0.25")));
+        record = Boolean.getBoolean("allocation.record");
+    }
+
+    @Test
+    public void weatherParser() throws Exception {
+        check("weather");
+    }
+
+    @Test
+    public void locationParser() throws Exception {
+        check("location");
+    }
+
+    private void check(String parser) throws Exception {
+        if (threads == null) {
+            throw new SkipException("Per thread allocation counting not supported");
+        }
+
+        List<String> failures = new ArrayList<>();
+        for (String fixture : fixtures(parser)) {
+            byte[] body = load(fixture);
+
+            Report report = parse(parser, body);
+            for (int i = 0; i < WARMUP; i += 1) {
+                parse(parser, body);
+            }
+
+            long perReport = Long.MAX_VALUE;
+            for (int r = 0; r < ROUNDS; r += 1) {
+                long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                for (int i = 0; i < ITERATIONS; i += 1) {
+                    parse(parser, body);
+                }
+                long after = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                perReport = Math.min(perReport, (after - before) / ITERATIONS);
+            }
+            long perItem = perReport / Math.max(1, items(report));
+
+            if (record) {
+                log.info("Measured\n{}.{}.report={}\n{}.{}.item={}", parser, fixture, perReport, parser, fixture, perItem);
+            }
+            over(failures, parser + "." + fixture + ".report", perReport);
+            over(failures, parser + "." + fixture + ".item", perItem);
+        }
+
+        assertTrue(failures.isEmpty(), "Over allocation budget: " + failures);
+    }
+
+    private void over(List<String> failures, String key, long measured) {
+        String raw = budgets.getProperty(key);
+        if (raw == null) {
+            failures.add(key + " has no budget (measured " + measured + ")");
+            return;
+        }
+        long budget = Long.parseLong(raw.trim());
+        if (measured > budget * (1 + tolerance)) {
+            failures.add(String.format("%s measured %d, budget %d", key, measured, budget));
+        } else {
+            log.debug("{} measured {}, budget {}", key, measured, budget);
+        }
+    }
+
+    private TreeSet<String> fixtures(String parser) {
+        TreeSet<String> fixtures = new TreeSet<>();
+        String prefix = parser + ".";
+        for (String key : budgets.stringPropertyNames()) {
+            if (key.startsWith(prefix) && key.endsWith(".report")) {
+                fixtures.add(key.substring(prefix.length(), key.length() - ".report".length()));
+            }
+        }
+        return fixtures;
+    }
+
+    private byte[] load(String fixture) throws IOException {
+        if (fixture.equals(GENERATED)) {
+            return new ResponseGenerator.Builder()
+                    .setDays(14)
+                    .setHoursPerDay(24)
+                    .addLanguages("uk")
+                    .setSeed(1)
+                    .build()
+                    .toByteArray();
+        }
+        try (InputStream in = getClass().getResourceAsStream("/" + fixture)) {
+            if (in == null) {
+                throw new FileNotFoundException("Missing fixture " + fixture);
+            }
+            return Util.readFully(in);
+        }
+    }
+
+    private static Report parse(String parser, byte[] body) throws Exception {
+        if (parser.equals("location")) {
+            return new LocationParser().parse(new ByteArrayInputStream(body));
+        } else {
+            return new WeatherParser().parse(new ByteArrayInputStream(body));
+        }
+    }
+
+    private static int items(Report report) {
+        if (report instanceof WeatherReport) {
+            return ((WeatherReport) report).getHourlyForecasts().size();
+        } else if (report instanceof LocationReport) {
+            return ((LocationReport) report).getLocations().size();
+        }
+        return 0;
+    }
+}
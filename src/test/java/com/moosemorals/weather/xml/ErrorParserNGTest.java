@@ -41,4 +41,12 @@ public class ErrorParserNGTest {
         assertEquals(result.getType(), "KeyError");
         assertEquals(result.getMessage(), "No api_key specified.");
     }
+
+    @Test
+    public void countsElements() throws Exception {
+        ErrorParser parser = new ErrorParser();
+        parser.parse(getClass().getResourceAsStream("/error-no-key.xml"));
+
+        assertEquals(parser.getElementCount(), 3);
+    }
 }